@@ -48,7 +48,7 @@ public class StartUp {
 
         serviceNode.startAllService();
 
-        logger.debug("RPC_ALWAYS_USE_TRANSPORT = {}", ServiceConsts.RPC_ALWAYS_USE_TRANSPORT);
+        logger.debug("RPC_LOCAL_ROUTING = {}", ServiceConsts.RPC_LOCAL_ROUTING);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             // TODO 关闭还是有问题的，没有处理好
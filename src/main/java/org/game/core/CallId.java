@@ -0,0 +1,63 @@
+package org.game.core;
+
+/**
+ * RPC调用id
+ * <p>64位调用id由发起调用的node序号、port序号和port内的递增序号组成：</p>
+ * <pre>
+ * | node 12位 | port 12位 | sequence 40位 |
+ * </pre>
+ * <p>收到 {@link org.game.core.exchange.Response} 时直接从id取出port序号派发，不需要查找全局的future表。</p>
+ */
+public final class CallId {
+
+    public static final int NODE_BITS = 12;
+    public static final int PORT_BITS = 12;
+    public static final int SEQUENCE_BITS = 64 - NODE_BITS - PORT_BITS;
+
+    /** node序号的最大数量 */
+    public static final int MAX_NODES = 1 << NODE_BITS;
+    /** 每个node下port序号的最大数量 */
+    public static final int MAX_PORTS = 1 << PORT_BITS;
+    /** 没有在 {@link org.game.global.ServiceConsts#NODE_CONFIGS} 中配置的node使用的序号，配置的node最多 {@code MAX_NODES - 1} 个 */
+    public static final int UNCONFIGURED_NODE_INDEX = MAX_NODES - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private CallId() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 组合调用id
+     * @param nodeIndex node序号
+     * @param portIndex port序号
+     * @param sequence 序号，只保留低 {@link #SEQUENCE_BITS} 位
+     */
+    public static long of(int nodeIndex, int portIndex, long sequence) {
+        if (nodeIndex < 0 || nodeIndex >= MAX_NODES) {
+            throw new IllegalArgumentException("nodeIndex out of range. nodeIndex = " + nodeIndex);
+        }
+        if (portIndex < 0 || portIndex >= MAX_PORTS) {
+            throw new IllegalArgumentException("portIndex out of range. portIndex = " + portIndex);
+        }
+        return ((long) nodeIndex << (PORT_BITS + SEQUENCE_BITS))
+                | ((long) portIndex << SEQUENCE_BITS)
+                | (sequence & SEQUENCE_MASK);
+    }
+
+    public static int nodeIndex(long callId) {
+        return (int) (callId >>> (PORT_BITS + SEQUENCE_BITS));
+    }
+
+    public static int portIndex(long callId) {
+        return (int) (callId >>> SEQUENCE_BITS) & (MAX_PORTS - 1);
+    }
+
+    public static long sequence(long callId) {
+        return callId & SEQUENCE_MASK;
+    }
+
+    public static String toString(long callId) {
+        return nodeIndex(callId) + ":" + portIndex(callId) + ":" + sequence(callId);
+    }
+}
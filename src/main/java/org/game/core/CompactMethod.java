@@ -0,0 +1,34 @@
+package org.game.core;
+
+import java.io.Serializable;
+
+/**
+ * 紧凑格式 {@link RpcInvocation} 的服务id、方法id和接口版本，见 {@link ServiceDescriptor}
+ * <p>方法名格式的调用为 {@code null}，只占一个字节。</p>
+ */
+final class CompactMethod implements Serializable {
+
+    private static final long serialVersionUID = -3585372306528446931L;
+
+    private final int serviceId;
+    private final int methodId;
+    private final int serviceVersion;
+
+    CompactMethod(int serviceId, int methodId, int serviceVersion) {
+        this.serviceId = serviceId;
+        this.methodId = methodId;
+        this.serviceVersion = serviceVersion;
+    }
+
+    int getServiceId() {
+        return serviceId;
+    }
+
+    int getMethodId() {
+        return methodId;
+    }
+
+    int getServiceVersion() {
+        return serviceVersion;
+    }
+}
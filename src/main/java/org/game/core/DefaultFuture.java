@@ -2,36 +2,34 @@ package org.game.core;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.game.core.exchange.Request;
+import org.game.core.timer.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * RPC请求 {@link Request}等待应答结果，并处理超时。
+ * <p>只保存路由应答和处理超时需要的数据，登记在发起调用的 {@link ServicePort} 的等待表中，
+ * 收到应答或者超时之后由port移除。</p>
  *
  * @author Ziegler
  * date 2021/4/12
  */
 public class DefaultFuture extends CompletableFuture<Object> {
 
-    private static final Map<Long, DefaultFuture> FUTURES = new ConcurrentHashMap<>();
-
     /** RequestId */
-    private final Long id;
-    /** 请求对象 */
-    private final Request request;
+    private final long id;
     /** 超时时间：超过这个时间就是超时。 */
     private final long timeout;
+    /** 所在 {@link ServicePort} 时间轮中的超时任务 */
+    private Timeout timeoutTask;
 
     /** logger */
     private static final Logger logger = LoggerFactory.getLogger(DefaultFuture.class);
 
-    private DefaultFuture(Request request, long timeout) {
-        this.id = request.getId();
-        this.request = request;
+    private DefaultFuture(long id, long timeout) {
+        this.id = id;
         this.timeout = System.currentTimeMillis() + timeout;
     }
 
@@ -43,47 +41,61 @@ public class DefaultFuture extends CompletableFuture<Object> {
         return System.currentTimeMillis() > timeout;
     }
 
+    /**
+     * 超时时间戳
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    void setTimeoutTask(Timeout timeoutTask) {
+        this.timeoutTask = timeoutTask;
+    }
+
+    /**
+     * 收到应答后取消超时任务
+     */
+    void cancelTimeoutTask() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+            timeoutTask = null;
+        }
+    }
+
     @Override
     public boolean complete(Object value) {
-        FUTURES.remove(id);
         logger.debug("DefaultFuture.complete = {}", id);
         return super.complete(value);
     }
 
     @Override
     public boolean completeExceptionally(Throwable ex) {
-        FUTURES.remove(id);
         logger.debug("DefaultFuture.completeExceptionally = {}", id);
         return super.completeExceptionally(ex);
     }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        FUTURES.remove(id);
         logger.debug("DefaultFuture.cancel = {}", id);
         return super.cancel(mayInterruptIfRunning);
     }
 
-    public static DefaultFuture newFuture(Request request, long timeout) {
-        final DefaultFuture future = new DefaultFuture(request, timeout);
-        FUTURES.put(future.getId(), future);
-        // 在当前Thread添加计时器，处理超时
-        ServicePort.getServicePort().addFutureTimeoutTask(future);
+    /**
+     * 创建等待应答的future，登记到当前线程的 {@link ServicePort}
+     * @param id {@link Request#getId()}
+     * @param timeout 超时时长（毫秒）
+     */
+    public static DefaultFuture newFuture(long id, long timeout) {
+        final DefaultFuture future = new DefaultFuture(id, timeout);
+        // 在当前Thread登记，处理应答和超时
+        ServicePort.getServicePort().addPendingCall(future);
         return future;
     }
 
-    public static DefaultFuture getFuture(long id) {
-        return FUTURES.get(id);
-    }
-
-    public Long getId() {
+    public long getId() {
         return id;
     }
 
-    public Request getRequest() {
-        return request;
-    }
-
     @Override
     public String toString() {
         return new ToStringBuilder(this)
@@ -0,0 +1,18 @@
+package org.game.core;
+
+/**
+ * {@link ServicePort} 执行 {@link org.game.core.exchange.Request} 的方式
+ */
+public enum ExecutionMode {
+
+    /**
+     * 在port线程直接执行。阻塞RPC调用时在调用栈上循环执行 {@link ServicePort#pulseOne()} 等待返回。
+     */
+    DIRECT,
+
+    /**
+     * 每个请求在独立的协程（支持时使用虚拟线程）中执行，同一时刻一个port只有一个协程或者port线程在运行。
+     * 阻塞RPC调用时让出执行权，返回后在port线程的调度下继续执行，不需要循环等待。
+     */
+    FIBER,
+}
@@ -0,0 +1,267 @@
+package org.game.core;
+
+import org.game.core.timer.Timeout;
+import org.game.global.ServiceConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ExecutionMode#FIBER} 模式下的协程调度
+ * <p>每个 {@link org.game.core.exchange.Request} 在一个协程线程中执行。运行时支持虚拟线程时使用虚拟线程，否则使用共享的线程池。
+ * port线程和它的所有协程之间通过执行权交接，同一时刻只有一个线程在运行，对Service来说仍然是单线程的。</p>
+ * <p>协程中阻塞等待RPC返回时，把执行权交还给port线程；RPC返回（或者等待超时）后协程进入就绪队列，由port线程恢复执行。</p>
+ * <p>port停止时（见 {@link #shutdown()}）恢复所有等待中的协程，等待抛出 {@link CancellationException} 结束协程，释放线程。
+ * 线程池最多 {@link ServiceConsts#PORT_FIBER_MAX_THREADS} 个线程，用完时请求在port线程直接执行。</p>
+ */
+final class FiberScheduler {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(FiberScheduler.class);
+
+    /** 执行协程的线程池 */
+    private static final ExecutorService FIBER_EXECUTOR = newFiberExecutor();
+    /** 线程池已满在port线程直接执行的请求数量 */
+    private static final AtomicLong REJECTED_FIBERS = new AtomicLong();
+
+    /** 当前线程正在执行的协程 */
+    private static final ThreadLocal<Fiber> CURRENT_FIBER = new ThreadLocal<>();
+
+    /** 执行权标记：port线程持有 */
+    private final Object portTurn = new Object();
+
+    private final ServicePort servicePort;
+    /** 当前持有执行权的对象，{@link #portTurn} 或者 {@link Fiber} */
+    private volatile Object turn = portTurn;
+    /** 当前的port线程 */
+    private volatile Thread portThread;
+    /** 等待恢复执行的协程 */
+    private final Queue<Fiber> readyFibers = new ConcurrentLinkedQueue<>();
+    /** 未执行完的协程数量 */
+    private volatile int activeFibers;
+    /** 阻塞等待中的协程，持有执行权的线程访问 */
+    private final Set<Fiber> suspendedFibers = new LinkedHashSet<>();
+    /** port已经停止，等待中的协程恢复后结束 */
+    private volatile boolean closed;
+
+    FiberScheduler(ServicePort servicePort) {
+        this.servicePort = servicePort;
+    }
+
+    /**
+     * 在新的协程中执行任务，直到任务结束或者阻塞等待时返回。只能在port线程调用。
+     * @param task 任务
+     */
+    void execute(Runnable task) {
+        if (closed) {
+            throw new IllegalStateException("ServicePort已经停止。servicePort = " + servicePort);
+        }
+        final Fiber fiber = new Fiber(task);
+        activeFibers++;
+        portThread = Thread.currentThread();
+        turn = fiber;
+        try {
+            FIBER_EXECUTOR.execute(fiber);
+        } catch (RejectedExecutionException e) {
+            // 线程池已满，在port线程直接执行，阻塞等待时循环执行心跳
+            activeFibers--;
+            turn = portTurn;
+            final long rejected = REJECTED_FIBERS.incrementAndGet();
+            if ((rejected & (rejected - 1)) == 0) {
+                logger.warn("协程线程池已满，在port线程执行。servicePort = {}, max = {}, rejected = {}",
+                        servicePort, ServiceConsts.PORT_FIBER_MAX_THREADS, rejected);
+            }
+            task.run();
+            return;
+        }
+        awaitTurn(portTurn);
+    }
+
+    /**
+     * port停止：依次恢复等待中的协程，等待抛出 {@link CancellationException}，协程结束后线程回到线程池。
+     * 只能在port线程（或者port已经不再执行之后）调用。
+     */
+    void shutdown() {
+        closed = true;
+        readyFibers.clear();
+        if (suspendedFibers.isEmpty()) {
+            return;
+        }
+        logger.info("ServicePort停止，结束等待中的协程。servicePort = {}, fibers = {}", servicePort, suspendedFibers.size());
+        portThread = Thread.currentThread();
+        for (Fiber fiber : new ArrayList<>(suspendedFibers)) {
+            fiber.waiting.set(false);
+            transfer(fiber, fiber.thread, portTurn);
+        }
+    }
+
+    /**
+     * 恢复就绪的协程。只能在port线程调用。
+     * @return 恢复执行的协程数量
+     */
+    int resumeReady() {
+        int count = 0;
+        Fiber fiber;
+        while ((fiber = readyFibers.poll()) != null) {
+            portThread = Thread.currentThread();
+            transfer(fiber, fiber.thread, portTurn);
+            count++;
+        }
+        return count;
+    }
+
+    boolean hasReady() {
+        return !readyFibers.isEmpty();
+    }
+
+    /**
+     * 当前线程是当前port的协程
+     */
+    boolean inFiber() {
+        final Fiber fiber = CURRENT_FIBER.get();
+        return fiber != null && fiber.scheduler() == this;
+    }
+
+    /**
+     * 协程中等待future完成，等待期间让出执行权
+     * @param future 等待的future
+     * @param timeoutMillis 最长等待时间
+     * @return future已经完成返回 {@code true}，超时返回 {@code false}
+     */
+    boolean await(CompletableFuture<?> future, long timeoutMillis) {
+        final Fiber fiber = CURRENT_FIBER.get();
+        if (closed) {
+            throw new CancellationException("ServicePort已经停止。servicePort = " + servicePort);
+        }
+        fiber.waiting.set(true);
+        final Timeout timeout = servicePort.scheduleFiberTimeout(() -> ready(fiber), timeoutMillis);
+        future.whenComplete((o, throwable) -> ready(fiber));
+        suspendedFibers.add(fiber);
+        transfer(portTurn, portThread, fiber);
+        suspendedFibers.remove(fiber);
+        timeout.cancel();
+        if (closed) {
+            throw new CancellationException("ServicePort已经停止。servicePort = " + servicePort);
+        }
+        return future.isDone();
+    }
+
+    /**
+     * 未执行完的协程数量
+     */
+    int getActiveFibers() {
+        return activeFibers;
+    }
+
+    private void ready(Fiber fiber) {
+        if (fiber.waiting.compareAndSet(true, false)) {
+            readyFibers.add(fiber);
+            servicePort.wakeup();
+        }
+    }
+
+    /**
+     * 把执行权交给 {@code to}，然后等待执行权回到 {@code self}
+     */
+    private void transfer(Object to, Thread toThread, Object self) {
+        turn = to;
+        LockSupport.unpark(toThread);
+        awaitTurn(self);
+    }
+
+    private void awaitTurn(Object self) {
+        boolean interrupted = false;
+        while (turn != self) {
+            LockSupport.park(this);
+            // 中断标记会让park立即返回，等待期间先清除，拿到执行权后再恢复
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newFiberExecutor() {
+        // 运行时支持虚拟线程（Java 21+）时使用虚拟线程
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.debug("虚拟线程不可用，协程使用线程池执行");
+        }
+        final AtomicInteger threadIndex = new AtomicInteger();
+        final ThreadFactory threadFactory = r -> {
+            final Thread thread = new Thread(r, "port-fiber-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // 每个协程占用一个线程，线程数量有上限，空闲的线程60秒后回收
+        return new ThreadPoolExecutor(0, ServiceConsts.PORT_FIBER_MAX_THREADS, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory);
+    }
+
+    /**
+     * 协程
+     */
+    private final class Fiber implements Runnable {
+        private final Runnable task;
+        /** 执行协程的线程 */
+        private volatile Thread thread;
+        /** 阻塞等待中 */
+        private final AtomicBoolean waiting = new AtomicBoolean();
+
+        Fiber(Runnable task) {
+            this.task = task;
+        }
+
+        FiberScheduler scheduler() {
+            return FiberScheduler.this;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            awaitTurn(this);
+            CURRENT_FIBER.set(this);
+            ServicePort.bindCurrentThread(servicePort);
+            try {
+                task.run();
+            } catch (CancellationException e) {
+                if (closed) {
+                    logger.info("ServicePort停止，协程结束。servicePort = {}", servicePort);
+                } else {
+                    logger.error("协程执行出错。servicePort = {}", servicePort, e);
+                }
+            } catch (Throwable t) {
+                logger.error("协程执行出错。servicePort = {}", servicePort, t);
+            } finally {
+                ServicePort.bindCurrentThread(null);
+                CURRENT_FIBER.remove();
+                activeFibers--;
+                turn = portTurn;
+                LockSupport.unpark(portThread);
+            }
+        }
+    }
+}
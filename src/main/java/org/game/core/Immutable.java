@@ -0,0 +1,14 @@
+package org.game.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注不可变的参数、返回值类型：创建后不再修改，{@link LocalRouting#COPY} 时直接传递引用，不复制
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Immutable {
+}
@@ -0,0 +1,25 @@
+package org.game.core;
+
+/**
+ * 调用同一个node上的服务时的传递方式
+ * <p>node的默认方式见 {@link ServiceNode#setLocalRouting(LocalRouting)}，服务接口可以用 {@link LocalRoutingConfig} 单独指定。
+ * 应答使用和请求相同的方式返回。</p>
+ */
+public enum LocalRouting {
+
+    /**
+     * 网络传输：和调用其他node一样经过hessian编码和本机连接，参数和返回值完全隔离。
+     */
+    TRANSPORT,
+
+    /**
+     * 传递引用：不编码、不复制，直接派发到目标port。调用双方共享参数和返回值对象，调用之后都不能再修改。
+     */
+    REFERENCE,
+
+    /**
+     * 复制：不编码，用 {@link ObjectCopier} 深复制参数和返回值后直接派发到目标port。
+     * 不可变类型和 {@link Immutable} 标注的类型不复制。
+     */
+    COPY,
+}
@@ -0,0 +1,19 @@
+package org.game.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 服务接口调用同一个node时的传递方式，没有标注时使用node的默认方式 {@link ServiceNode#getLocalRouting()}
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface LocalRoutingConfig {
+
+    /**
+     * 传递方式
+     */
+    LocalRouting value();
+}
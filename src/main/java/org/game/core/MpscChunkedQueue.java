@@ -0,0 +1,334 @@
+package org.game.core;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * 按块增长的多生产者单消费者队列
+ * <p>参考JCTools的 {@code MpscChunkedArrayQueue}：生产者CAS竞争生产序号后写入槽位，唯一的消费者按序读取。
+ * 槽位分成固定大小的块，块用链表连接，写到块末尾时由生产者追加新块，消费者读完一个块后丢弃。
+ * 队列只占用实际元素需要的块，入队平均每个块分配一次，不按元素分配节点对象。
+ * 生产序号、消费序号之间用填充字段隔开，避免伪共享。</p>
+ * <p>队列本身不限制长度，{@link #offer(Object, int)}、{@link #offerAll(List, int)} 按调用方给出的上限检查。</p>
+ * <p>{@link #offer(Object)}、{@link #offer(Object, int)}、{@link #offerAll(List, int)} 可以在任意线程调用；{@link #poll()}、
+ * {@link #drain(Consumer, int)} 只能在同一个消费线程调用。</p>
+ */
+final class MpscChunkedQueue<E> extends MpscChunkedQueueConsumerIndex {
+
+    /**
+     * @param chunkSize 每个块的槽位数量，向上取整为2的幂
+     */
+    MpscChunkedQueue(int chunkSize) {
+        super(chunkSize);
+    }
+
+    /**
+     * 入队，不限制长度
+     */
+    boolean offer(E e) {
+        return offer(e, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 入队，队列元素数量达到 {@code limit} 时失败
+     * @param e 元素
+     * @param limit 允许的最大元素数量
+     * @return 达到数量限制返回 {@code false}
+     */
+    boolean offer(E e, int limit) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long cIndex = consumerIndexCache;
+        long pIndex;
+        do {
+            pIndex = producerIndex;
+            if (pIndex - cIndex >= limit) {
+                // 缓存的消费序号过期之后才读取真实的消费序号，减少和消费线程的缓存行竞争
+                cIndex = consumerIndex;
+                if (pIndex - cIndex >= limit) {
+                    return false;
+                }
+                consumerIndexCache = cIndex;
+            }
+        } while (!PRODUCER_INDEX.compareAndSet(this, pIndex, pIndex + 1));
+        final Chunk chunk = chunkOf(pIndex);
+        chunk.slots.lazySet((int) (pIndex - chunk.base), e);
+        return true;
+    }
+
+    /**
+     * 批量入队，一次CAS取得全部序号，元素数量达到 {@code limit} 时全部失败
+     * @param es 元素列表
+     * @param limit 允许的最大元素数量
+     * @return 剩余空间不够全部入队返回 {@code false}
+     */
+    boolean offerAll(List<? extends E> es, int limit) {
+        final int n = es.size();
+        for (int i = 0; i < n; i++) {
+            if (es.get(i) == null) {
+                throw new NullPointerException();
+            }
+        }
+        if (n == 0) {
+            return true;
+        }
+        if (n > limit) {
+            return false;
+        }
+        long cIndex = consumerIndexCache;
+        long pIndex;
+        do {
+            pIndex = producerIndex;
+            if (pIndex + n - cIndex > limit) {
+                cIndex = consumerIndex;
+                if (pIndex + n - cIndex > limit) {
+                    return false;
+                }
+                consumerIndexCache = cIndex;
+            }
+        } while (!PRODUCER_INDEX.compareAndSet(this, pIndex, pIndex + n));
+        // 按序号顺序写入，消费者遇到还没写入的槽位会停下
+        Chunk chunk = chunkOf(pIndex);
+        for (int i = 0; i < n; i++) {
+            final long index = pIndex + i;
+            if (index - chunk.base == chunkSize) {
+                chunk = next(chunk);
+                producerChunk = chunk;
+            }
+            chunk.slots.lazySet((int) (index - chunk.base), es.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * 出队，只能在消费线程调用
+     * @return 队列为空返回 {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        final long cIndex = consumerIndex;
+        Chunk chunk = consumerChunk;
+        if (cIndex - chunk.base == chunkSize) {
+            if (cIndex == producerIndex) {
+                return null;
+            }
+            // 生产者已经拿到序号，正在追加下一个块
+            Chunk next;
+            do {
+                next = chunk.next;
+            } while (next == null);
+            chunk = next;
+            consumerChunk = chunk;
+        }
+        final int offset = (int) (cIndex - chunk.base);
+        Object e = chunk.slots.get(offset);
+        if (e == null) {
+            if (cIndex == producerIndex) {
+                return null;
+            }
+            // 生产者已经拿到序号但还没有写入槽位
+            do {
+                e = chunk.slots.get(offset);
+            } while (e == null);
+        }
+        chunk.slots.lazySet(offset, null);
+        CONSUMER_INDEX.lazySet(this, cIndex + 1);
+        return (E) e;
+    }
+
+    /**
+     * 批量出队，只能在消费线程调用
+     * <p>只处理已经写入槽位的元素，遇到还没写完的槽位就返回，不会自旋等待。
+     * 每处理一个元素都重新读取消费序号，{@code consumer} 中可以再次调用 {@link #poll()}、{@link #drain(Consumer, int)}。</p>
+     * @param consumer 元素处理
+     * @param limit 最多处理的数量
+     * @return 处理的数量
+     */
+    @SuppressWarnings("unchecked")
+    int drain(Consumer<? super E> consumer, int limit) {
+        int count = 0;
+        while (count < limit) {
+            final long cIndex = consumerIndex;
+            Chunk chunk = consumerChunk;
+            if (cIndex - chunk.base == chunkSize) {
+                final Chunk next = chunk.next;
+                if (next == null) {
+                    break;
+                }
+                chunk = next;
+                consumerChunk = chunk;
+            }
+            final int offset = (int) (cIndex - chunk.base);
+            final Object e = chunk.slots.get(offset);
+            if (e == null) {
+                break;
+            }
+            chunk.slots.lazySet(offset, null);
+            CONSUMER_INDEX.lazySet(this, cIndex + 1);
+            count++;
+            consumer.accept((E) e);
+        }
+        return count;
+    }
+
+    /**
+     * 元素数量，并发修改时是近似值
+     */
+    int size() {
+        long after = consumerIndex;
+        while (true) {
+            final long before = after;
+            final long pIndex = producerIndex;
+            after = consumerIndex;
+            if (before == after) {
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, pIndex - after));
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 从消费者正在读取的块开始链表中的块数量，只在没有并发修改时准确
+     */
+    int chunkCount() {
+        int count = 0;
+        for (Chunk chunk = consumerChunk; chunk != null; chunk = chunk.next) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 找到序号所在的块，没有时追加
+     * <p>从生产者最近写入的块或者消费者正在读取的块开始向后查找。消费者不会越过还没写入的序号，
+     * 消费者的块总是在这个序号之前或者就是这个块。</p>
+     */
+    private Chunk chunkOf(long index) {
+        Chunk chunk = producerChunk;
+        final Chunk consumer = consumerChunk;
+        if (chunk.base > index || consumer.base > chunk.base) {
+            chunk = consumer;
+        }
+        while (index - chunk.base >= chunkSize) {
+            chunk = next(chunk);
+        }
+        if (chunk != producerChunk) {
+            producerChunk = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * 下一个块，没有时追加，多个生产者同时追加时只有一个成功
+     */
+    private Chunk next(Chunk chunk) {
+        final Chunk next = chunk.next;
+        if (next != null) {
+            return next;
+        }
+        final Chunk created = new Chunk(chunk.base + chunkSize, chunkSize);
+        return Chunk.NEXT.compareAndSet(chunk, null, created) ? created : chunk.next;
+    }
+
+    /**
+     * 连续的一段槽位，{@link #base} 是第一个槽位的序号
+     */
+    static final class Chunk {
+        static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final long base;
+        final AtomicReferenceArray<Object> slots;
+        volatile Chunk next;
+
+        Chunk(long base, int size) {
+            this.base = base;
+            this.slots = new AtomicReferenceArray<>(size);
+        }
+    }
+}
+
+/**
+ * 块大小，前后填充避免和对象头、生产序号共享缓存行
+ */
+abstract class MpscChunkedQueueChunkSize {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    final int chunkSize;
+
+    MpscChunkedQueueChunkSize(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > (1 << 30)) {
+            throw new IllegalArgumentException("chunkSize out of range. chunkSize = " + chunkSize);
+        }
+        this.chunkSize = 1 << (32 - Integer.numberOfLeadingZeros(chunkSize - 1));
+    }
+}
+
+abstract class MpscChunkedQueueChunkSizePad extends MpscChunkedQueueChunkSize {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+    long p30, p31, p32, p33, p34, p35, p36;
+
+    MpscChunkedQueueChunkSizePad(int chunkSize) {
+        super(chunkSize);
+    }
+}
+
+/**
+ * 生产序号，生产者之间CAS竞争
+ */
+abstract class MpscChunkedQueueProducerIndex extends MpscChunkedQueueChunkSizePad {
+    static final AtomicLongFieldUpdater<MpscChunkedQueueProducerIndex> PRODUCER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(MpscChunkedQueueProducerIndex.class, "producerIndex");
+
+    volatile long producerIndex;
+    /** 生产者缓存的消费序号 */
+    volatile long consumerIndexCache;
+    /** 生产者最近写入的块，只用于加快查找 */
+    volatile MpscChunkedQueue.Chunk producerChunk;
+
+    MpscChunkedQueueProducerIndex(int chunkSize) {
+        super(chunkSize);
+    }
+}
+
+abstract class MpscChunkedQueueProducerIndexPad extends MpscChunkedQueueProducerIndex {
+    long p40, p41, p42, p43, p44, p45, p46, p47;
+    long p50, p51, p52, p53, p54, p55, p56;
+
+    MpscChunkedQueueProducerIndexPad(int chunkSize) {
+        super(chunkSize);
+    }
+}
+
+/**
+ * 消费序号和消费者正在读取的块，只有消费线程写入
+ */
+abstract class MpscChunkedQueueConsumerIndex extends MpscChunkedQueueProducerIndexPad {
+    static final AtomicLongFieldUpdater<MpscChunkedQueueConsumerIndex> CONSUMER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(MpscChunkedQueueConsumerIndex.class, "consumerIndex");
+
+    volatile long consumerIndex;
+    volatile MpscChunkedQueue.Chunk consumerChunk;
+
+    long p60, p61, p62, p63, p64, p65, p66, p67;
+    long p70, p71, p72, p73, p74, p75, p76;
+
+    MpscChunkedQueueConsumerIndex(int chunkSize) {
+        super(chunkSize);
+        final MpscChunkedQueue.Chunk chunk = new MpscChunkedQueue.Chunk(0L, this.chunkSize);
+        consumerChunk = chunk;
+        producerChunk = chunk;
+    }
+}
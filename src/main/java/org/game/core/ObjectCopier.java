@@ -0,0 +1,309 @@
+package org.game.core;
+
+import com.alibaba.com.caucho.hessian.io.Hessian2Input;
+import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import com.alibaba.com.caucho.hessian.io.SerializerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 同一个node内调用的深复制，见 {@link LocalRouting#COPY}
+ * <p>不经过编码，直接按字段复制：</p>
+ * <ul>
+ *     <li>不可变类型（字符串、包装类型、枚举、{@code java.time}）和 {@link Immutable} 标注的类型直接返回原对象；</li>
+ *     <li>数组、常用的 {@link java.util} 集合逐个元素复制；</li>
+ *     <li>其他JDK集合（{@code Collections.unmodifiableList}、{@code Arrays.asList}、{@code List.of} 等）逐个元素复制到可以修改的
+ *     {@link ArrayList}、{@link LinkedHashSet}、{@link TreeSet}、{@link LinkedHashMap}、{@link TreeMap}，和经过编码传递时一样，
+ *     不用hessian复制，高版本JDK不允许反射访问这些类型的内部字段；</li>
+ *     <li>其他类型通过无参构造方法创建，逐个字段复制，和hessian一样不复制 {@code transient} 字段；</li>
+ *     <li>其他JDK类型、没有无参构造方法的类型用hessian编码再解码复制。</li>
+ * </ul>
+ * <p>同一次复制中多次引用的对象只复制一次，支持循环引用。</p>
+ */
+public final class ObjectCopier {
+
+    /** 不可变类型 */
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class, Class.class));
+
+    /** 每个类型的字段复制 */
+    private static final Map<Class<?>, ClassCopier> COPIERS = new ConcurrentHashMap<>();
+
+    private static final SerializerFactory SERIALIZER_FACTORY = new SerializerFactory();
+
+    private ObjectCopier() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 复制参数列表，参数之间共享的对象复制后仍然共享
+     * @param args 参数列表
+     * @return 新的参数列表，没有需要复制的参数时返回原列表
+     */
+    public static Object[] copyArgs(Object[] args) {
+        if (args == null || args.length == 0) {
+            return args;
+        }
+        Object[] copies = null;
+        Map<Object, Object> copied = null;
+        for (int i = 0; i < args.length; i++) {
+            final Object arg = args[i];
+            if (arg == null || isImmutable(arg.getClass())) {
+                continue;
+            }
+            if (copies == null) {
+                copies = args.clone();
+                copied = new IdentityHashMap<>();
+            }
+            copies[i] = copy(arg, copied);
+        }
+        return copies != null ? copies : args;
+    }
+
+    /**
+     * 深复制一个对象
+     * @param obj 要复制的对象
+     * @return 复制的对象，不可变类型返回原对象
+     */
+    public static Object copy(Object obj) {
+        if (obj == null || isImmutable(obj.getClass())) {
+            return obj;
+        }
+        return copy(obj, new IdentityHashMap<>());
+    }
+
+    /**
+     * 是否不可变类型，复制时直接返回原对象
+     */
+    public static boolean isImmutable(Class<?> type) {
+        return IMMUTABLE_TYPES.contains(type)
+                || Enum.class.isAssignableFrom(type)
+                || type.isAnnotationPresent(Immutable.class)
+                || type.getName().startsWith("java.time.");
+    }
+
+    private static Object copy(Object obj, Map<Object, Object> copied) {
+        if (obj == null) {
+            return null;
+        }
+        final Class<?> type = obj.getClass();
+        if (isImmutable(type)) {
+            return obj;
+        }
+        final Object existing = copied.get(obj);
+        if (existing != null) {
+            return existing;
+        }
+        if (type.isArray()) {
+            return copyArray(obj, type.getComponentType(), copied);
+        }
+        if (obj instanceof Collection) {
+            final Collection<Object> collection = newCollection((Collection<?>) obj);
+            if (collection != null) {
+                copied.put(obj, collection);
+                for (Object element : (Collection<?>) obj) {
+                    collection.add(copy(element, copied));
+                }
+                return collection;
+            }
+        } else if (obj instanceof Map) {
+            final Map<Object, Object> map = newMap((Map<?, ?>) obj);
+            if (map != null) {
+                copied.put(obj, map);
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                    map.put(copy(entry.getKey(), copied), copy(entry.getValue(), copied));
+                }
+                return map;
+            }
+        }
+        final ClassCopier classCopier = COPIERS.computeIfAbsent(type, ClassCopier::new);
+        if (classCopier.constructor == null) {
+            final Object copy = hessianCopy(obj);
+            copied.put(obj, copy);
+            return copy;
+        }
+        return classCopier.copy(obj, copied);
+    }
+
+    private static Object copyArray(Object array, Class<?> componentType, Map<Object, Object> copied) {
+        final int length = Array.getLength(array);
+        final Object copy = Array.newInstance(componentType, length);
+        copied.put(array, copy);
+        if (componentType.isPrimitive() || isImmutable(componentType)) {
+            System.arraycopy(array, 0, copy, 0, length);
+        } else {
+            final Object[] src = (Object[]) array;
+            final Object[] dst = (Object[]) copy;
+            for (int i = 0; i < length; i++) {
+                dst[i] = copy(src[i], copied);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * 创建同类型的空集合，其他JDK集合创建可以修改的等价集合，不是JDK集合时返回 {@code null}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Collection<Object> newCollection(Collection<?> src) {
+        final Class<?> type = src.getClass();
+        if (type == ArrayList.class) {
+            return new ArrayList<>(src.size());
+        } else if (type == HashSet.class) {
+            return new HashSet<>(Math.max(16, (int) (src.size() / .75f) + 1));
+        } else if (type == LinkedHashSet.class) {
+            return new LinkedHashSet<>(Math.max(16, (int) (src.size() / .75f) + 1));
+        } else if (type == LinkedList.class) {
+            return new LinkedList<>();
+        } else if (type == ArrayDeque.class) {
+            return new ArrayDeque<>(src.size());
+        } else if (type == TreeSet.class) {
+            return new TreeSet<>(((TreeSet<Object>) src).comparator());
+        } else if (!isJdkType(type)) {
+            return null;
+        } else if (src instanceof EnumSet) {
+            final EnumSet set = ((EnumSet) src).clone();
+            set.clear();
+            return set;
+        } else if (src instanceof PriorityQueue) {
+            return new PriorityQueue<>(Math.max(1, src.size()), ((PriorityQueue<Object>) src).comparator());
+        } else if (src instanceof SortedSet) {
+            return new TreeSet<>(((SortedSet<Object>) src).comparator());
+        } else if (src instanceof Set) {
+            return new LinkedHashSet<>(Math.max(16, (int) (src.size() / .75f) + 1));
+        } else if (src instanceof Queue) {
+            return new LinkedList<>();
+        }
+        return new ArrayList<>(src.size());
+    }
+
+    /**
+     * 创建同类型的空map，其他JDK map创建可以修改的等价map，不是JDK map时返回 {@code null}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<Object, Object> newMap(Map<?, ?> src) {
+        final Class<?> type = src.getClass();
+        if (type == HashMap.class) {
+            return new HashMap<>(Math.max(16, (int) (src.size() / .75f) + 1));
+        } else if (type == LinkedHashMap.class) {
+            return new LinkedHashMap<>(Math.max(16, (int) (src.size() / .75f) + 1));
+        } else if (type == TreeMap.class) {
+            return new TreeMap<>(((TreeMap<Object, Object>) src).comparator());
+        } else if (type == ConcurrentHashMap.class) {
+            return new ConcurrentHashMap<>(Math.max(16, (int) (src.size() / .75f) + 1));
+        } else if (!isJdkType(type)) {
+            return null;
+        } else if (src instanceof EnumMap) {
+            final EnumMap map = new EnumMap((EnumMap) src);
+            map.clear();
+            return map;
+        } else if (src instanceof SortedMap) {
+            return new TreeMap<>(((SortedMap<Object, Object>) src).comparator());
+        }
+        return new LinkedHashMap<>(Math.max(16, (int) (src.size() / .75f) + 1));
+    }
+
+    private static boolean isJdkType(Class<?> type) {
+        final String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+    }
+
+    private static Object hessianCopy(Object obj) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final Hessian2Output output = new Hessian2Output(bytes);
+            output.setSerializerFactory(SERIALIZER_FACTORY);
+            output.writeObject(obj);
+            output.close();
+            final Hessian2Input input = new Hessian2Input(new ByteArrayInputStream(bytes.toByteArray()));
+            input.setSerializerFactory(SERIALIZER_FACTORY);
+            return input.readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("复制对象失败。type = " + obj.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * 一个类型的字段复制：通过无参构造方法创建，复制所有非 {@code static}、非 {@code transient} 字段
+     */
+    private static final class ClassCopier {
+
+        /** {@code null} 时使用hessian复制 */
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+
+        ClassCopier(Class<?> type) {
+            final List<Field> fieldList = new ArrayList<>();
+            Constructor<?> ctor = null;
+            if (!isJdkType(type)) {
+                try {
+                    ctor = type.getDeclaredConstructor();
+                    ctor.setAccessible(true);
+                    for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                        if (isJdkType(c)) {
+                            // 继承JDK类型，字段可能依赖对象的hash等内部状态
+                            ctor = null;
+                            break;
+                        }
+                        for (Field field : c.getDeclaredFields()) {
+                            if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) == 0) {
+                                field.setAccessible(true);
+                                fieldList.add(field);
+                            }
+                        }
+                    }
+                } catch (NoSuchMethodException | SecurityException e) {
+                    ctor = null;
+                }
+            }
+            this.constructor = ctor;
+            this.fields = fieldList.toArray(new Field[0]);
+        }
+
+        Object copy(Object obj, Map<Object, Object> copied) {
+            try {
+                final Object copy = constructor.newInstance();
+                copied.put(obj, copy);
+                for (Field field : fields) {
+                    final Object value = field.get(obj);
+                    field.set(copy, field.getType().isPrimitive() ? value : ObjectCopier.copy(value, copied));
+                }
+                return copy;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("复制对象失败。type = " + obj.getClass().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.game.core;
+
+/**
+ * {@link ServicePort} 收到的请求超过队列容量时的处理策略
+ * <p>应答不受影响，总是入队，见 {@link ServicePort#addResponse(org.game.core.exchange.Response)}。</p>
+ */
+public enum OverloadPolicy {
+
+    /**
+     * 拒绝：需要返回值的请求直接返回 {@link org.game.core.exchange.Response#STATUS_OVERLOADED} 错误应答，单向请求丢弃。
+     */
+    REJECT,
+
+    /**
+     * 优先丢弃单向请求：超过容量时丢弃单向请求；需要返回值的请求继续接收，超过2倍容量时拒绝。
+     */
+    DROP_ONEWAY,
+
+    /**
+     * 背压：继续接收，同时通知网络层暂停投递发往这个port的请求，队列降到一半容量以下时恢复投递。
+     * 连接上的应答和发往其他port的请求不受影响，暂停期间每条连接最多暂存队列容量的请求；
+     * 暂停之前已经读到的消息最多再接收到2倍容量，超过之后按 {@link #REJECT} 处理。
+     * 见 {@link org.game.core.transport.BackpressureDispatcher}。
+     */
+    BACKPRESSURE,
+}
@@ -0,0 +1,128 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.game.global.ServiceConsts;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * {@link ServicePort} 的信箱
+ * <p>保存其他线程投递给port的 {@link Request} 和 {@link Response}，请求超过容量的处理见 {@link OverloadPolicy}，应答总是入队。</p>
+ * <p>队列使用 {@link MpscChunkedQueue}，按 {@link ServiceConsts#PORT_MAILBOX_CHUNK_SIZE} 分块增长，
+ * 空闲的port只占用一个块。请求容量只限制入队时的队列深度，{@link OverloadPolicy#DROP_ONEWAY}、
+ * {@link OverloadPolicy#BACKPRESSURE} 最多接收到 {@link #overCapacityLimit(int)}。</p>
+ */
+final class PortMailbox {
+
+    /** 收到的{@link Request}队列  */
+    private final MpscChunkedQueue<Request> requests = new MpscChunkedQueue<>(ServiceConsts.PORT_MAILBOX_CHUNK_SIZE);
+    /** 收到的{@link Response}队列 */
+    private final MpscChunkedQueue<Response> responses = new MpscChunkedQueue<>(ServiceConsts.PORT_MAILBOX_CHUNK_SIZE);
+
+    private volatile int requestCapacity;
+
+    /** 超过容量被拒绝的请求数量 */
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    /** 超过容量被丢弃的单向请求数量 */
+    private final AtomicLong droppedOneWayRequests = new AtomicLong();
+
+    PortMailbox() {
+        this.requestCapacity = ServiceConsts.PORT_REQUEST_CAPACITY;
+    }
+
+    /**
+     * 投递请求
+     * @param request 请求
+     * @param limit 允许的最大队列深度
+     * @return 超过最大深度返回 {@code false}
+     */
+    boolean offerRequest(Request request, int limit) {
+        return requests.offer(request, limit);
+    }
+
+    /**
+     * 投递应答，不限制队列深度
+     */
+    void offerResponse(Response response) {
+        responses.offer(response);
+    }
+
+    /**
+     * 批量投递请求，空间不够时全部不投递
+     * @param requests 请求列表
+     * @param limit 允许的最大队列深度
+     * @return 超过最大深度返回 {@code false}
+     */
+    boolean offerRequests(List<Request> requests, int limit) {
+        return this.requests.offerAll(requests, limit);
+    }
+
+    void offerResponses(List<Response> responses) {
+        this.responses.offerAll(responses, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 批量处理请求，只能在port线程调用
+     * @return 处理的数量
+     */
+    int drainRequests(Consumer<Request> consumer, int limit) {
+        return requests.drain(consumer, limit);
+    }
+
+    /**
+     * 批量处理应答，只能在port线程调用
+     * @return 处理的数量
+     */
+    int drainResponses(Consumer<Response> consumer, int limit) {
+        return responses.drain(consumer, limit);
+    }
+
+    boolean isEmpty() {
+        return requests.isEmpty() && responses.isEmpty();
+    }
+
+    int getRequestDepth() {
+        return requests.size();
+    }
+
+    int getResponseDepth() {
+        return responses.size();
+    }
+
+    int getRequestCapacity() {
+        return requestCapacity;
+    }
+
+    /**
+     * 设置请求队列容量，之后入队的请求按新的容量检查
+     */
+    void setRequestCapacity(int requestCapacity) {
+        this.requestCapacity = requestCapacity;
+    }
+
+    /**
+     * 超过容量的上限，{@link OverloadPolicy#DROP_ONEWAY}、{@link OverloadPolicy#BACKPRESSURE} 最多接收到这个数量
+     */
+    static int overCapacityLimit(int capacity) {
+        return (int) Math.min(1 << 30, 2L * capacity);
+    }
+
+    long incrementRejectedRequests() {
+        return rejectedRequests.incrementAndGet();
+    }
+
+    long incrementDroppedOneWayRequests() {
+        return droppedOneWayRequests.incrementAndGet();
+    }
+
+    long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    long getDroppedOneWayRequests() {
+        return droppedOneWayRequests.get();
+    }
+}
@@ -0,0 +1,124 @@
+package org.game.core;
+
+import org.game.core.timer.CronExpression;
+import org.game.core.timer.TimingWheel;
+
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ServicePort} 的定时任务调度
+ * <p>任务在所属的port线程执行，不需要切换线程，和 {@link Service#pulse(long)} 一样可以直接访问Service的数据。
+ * 使用port的时间轮 {@link TimingWheel} 实现，精度为一帧 {@link ServicePort#ONE_FRAME_MILLIS}。</p>
+ * <p>只能在所属的port线程调用，通常在 {@link Service#init()}、RPC方法或者其他定时任务中使用。</p>
+ * <pre>
+ * final PortScheduler scheduler = ServicePort.getServicePort().getScheduler();
+ * scheduler.schedule(() -> ..., 3, TimeUnit.SECONDS);
+ * scheduler.scheduleAtFixedRate(() -> ..., 0, 1, TimeUnit.MINUTES);
+ * scheduler.scheduleCron(() -> ..., "0 0 4 * * ?");
+ * </pre>
+ */
+public class PortScheduler {
+
+    private final ServicePort servicePort;
+    private final TimingWheel timingWheel;
+    /** cron表达式使用的时区 */
+    private final ZoneId zoneId = ZoneId.systemDefault();
+
+    PortScheduler(ServicePort servicePort, TimingWheel timingWheel) {
+        this.servicePort = servicePort;
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     * 延迟执行一次
+     * @param task 任务
+     * @param delay 延迟时间
+     * @param unit 时间单位
+     * @return 任务句柄
+     */
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        checkThread();
+        final ScheduledTask scheduledTask = new ScheduledTask(task, false);
+        scheduledTask.setTimeout(timingWheel.newTimeout(scheduledTask::run, System.currentTimeMillis() + unit.toMillis(delay)));
+        return scheduledTask;
+    }
+
+    /**
+     * 按固定频率重复执行
+     * <p>执行时间按 {@code initialDelay + n * period} 计算，不会因为执行耗时产生漂移。port阻塞导致错过的执行不会补执行。</p>
+     * @param task 任务
+     * @param initialDelay 首次执行的延迟时间
+     * @param period 执行间隔
+     * @param unit 时间单位
+     * @return 任务句柄
+     */
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        checkThread();
+        final long periodMillis = unit.toMillis(period);
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("period must be positive. period = " + period + " " + unit);
+        }
+        final ScheduledTask scheduledTask = new ScheduledTask(task, true);
+        scheduleFixedRate(scheduledTask, System.currentTimeMillis() + unit.toMillis(initialDelay), periodMillis);
+        return scheduledTask;
+    }
+
+    /**
+     * 按cron表达式重复执行
+     * @param task 任务
+     * @param cronExpression cron表达式，格式见 {@link CronExpression}
+     * @return 任务句柄
+     * @throws IllegalArgumentException cron表达式格式错误或者没有下一次执行时间
+     */
+    public ScheduledTask scheduleCron(Runnable task, String cronExpression) {
+        checkThread();
+        final CronExpression cron = CronExpression.parse(cronExpression);
+        final ScheduledTask scheduledTask = new ScheduledTask(task, true);
+        if (!scheduleCron(scheduledTask, cron, System.currentTimeMillis())) {
+            throw new IllegalArgumentException("cron表达式没有下一次执行时间。cronExpression = " + cronExpression);
+        }
+        return scheduledTask;
+    }
+
+    private void scheduleFixedRate(ScheduledTask scheduledTask, long deadline, long periodMillis) {
+        scheduledTask.setTimeout(timingWheel.newTimeout(() -> {
+            try {
+                scheduledTask.run();
+            } finally {
+                if (!scheduledTask.isCancelled()) {
+                    long next = deadline + periodMillis;
+                    final long now = System.currentTimeMillis();
+                    if (next <= now) {
+                        // 跳过错过的执行，保持原来的相位
+                        next += ((now - next) / periodMillis + 1) * periodMillis;
+                    }
+                    scheduleFixedRate(scheduledTask, next, periodMillis);
+                }
+            }
+        }, deadline));
+    }
+
+    private boolean scheduleCron(ScheduledTask scheduledTask, CronExpression cron, long after) {
+        final long next = cron.nextTime(after, zoneId);
+        if (next < 0) {
+            return false;
+        }
+        scheduledTask.setTimeout(timingWheel.newTimeout(() -> {
+            try {
+                scheduledTask.run();
+            } finally {
+                if (!scheduledTask.isCancelled()) {
+                    scheduleCron(scheduledTask, cron, Math.max(next, System.currentTimeMillis()));
+                }
+            }
+        }, next));
+        return true;
+    }
+
+    private void checkThread() {
+        if (ServicePort.getServicePort() != servicePort) {
+            throw new IllegalStateException("定时任务需要在所属的ServicePort线程调度。servicePort = " + servicePort);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.game.core;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ServicePort} 的M:N调度线程池
+ * <p>大量的ServicePort共享固定数量的worker线程，port只有在收到消息、有就绪的协程或者到达下一帧时才会被调度执行。
+ * 同一个port同一时刻只会在一个worker线程上执行。worker之间通过 {@link ForkJoinPool} 的work-stealing平衡负载。</p>
+ * <p>注意：port在worker线程上执行时不要长时间阻塞，阻塞RPC调用建议使用 {@link ExecutionMode#FIBER} 模式。</p>
+ */
+public class PortWorkerPool {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(PortWorkerPool.class);
+
+    /** 停止时等待正在执行的port结束的时间 */
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000L;
+
+    private final String name;
+    /** 执行port的worker线程池 */
+    private final ForkJoinPool pool;
+    /** 帧定时器，到达下一帧时调度port */
+    private final ScheduledThreadPoolExecutor frameTimer;
+    /** 所有的worker */
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    /** 在线程池中启动的port，停止时结束port中等待的协程 */
+    private final List<ServicePort> servicePorts = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name 线程池名称，用于worker线程命名
+     * @param parallelism worker线程数量
+     */
+    public PortWorkerPool(String name, int parallelism) {
+        this.name = name;
+        final AtomicInteger workerIndex = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            final Worker worker = new Worker(p);
+            worker.setName(name + "-worker-" + workerIndex.incrementAndGet());
+            return worker;
+        }, (t, e) -> logger.error("PortWorkerPool worker error. thread = {}", t.getName(), e), true);
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, name + "-frame-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        this.frameTimer = timer;
+    }
+
+    /**
+     * 使用和CPU核心数相同的worker数量
+     */
+    public PortWorkerPool(String name) {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 在线程池中启动port
+     * @param servicePort 要启动的port
+     */
+    public void start(ServicePort servicePort) {
+        servicePort.attach(this);
+        servicePorts.add(servicePort);
+    }
+
+    void execute(Runnable slice) {
+        pool.execute(slice);
+    }
+
+    ScheduledFuture<?> scheduleFrame(Runnable wakeup, long delayMillis) {
+        return frameTimer.schedule(wakeup, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 等待到期的帧定时器数量，每个port最多一个
+     */
+    int getPendingFrames() {
+        return frameTimer.getQueue().size();
+    }
+
+    /**
+     * 记录当前worker执行port的耗时
+     */
+    static void recordSlice(long busyNanos) {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            ((Worker) thread).record(busyNanos);
+        }
+    }
+
+    /**
+     * 停止线程池，等待正在执行的port结束后，结束所有port中等待的协程
+     */
+    public void shutdown() {
+        frameTimer.shutdownNow();
+        pool.shutdownNow();
+        try {
+            if (!pool.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.warn("PortWorkerPool停止超时，没有结束等待中的协程。name = {}", name);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (ServicePort servicePort : servicePorts) {
+            servicePort.shutdownFibers();
+        }
+        servicePorts.clear();
+    }
+
+    /**
+     * 每个worker的使用情况
+     */
+    public List<WorkerStats> getWorkerStats() {
+        final List<WorkerStats> stats = new ArrayList<>(workers.size());
+        final long now = System.nanoTime();
+        for (Worker worker : workers) {
+            stats.add(new WorkerStats(worker.getName(), worker.slices, worker.busyNanos, now - worker.startNanos));
+        }
+        return stats;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * work-stealing窃取的任务数量
+     */
+    public long getStealCount() {
+        return pool.getStealCount();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("name", name)
+                .append("parallelism", pool.getParallelism())
+                .toString();
+    }
+
+    /**
+     * worker线程，统计执行port的耗时
+     */
+    private final class Worker extends ForkJoinWorkerThread {
+        private final long startNanos = System.nanoTime();
+        private volatile long busyNanos;
+        private volatile long slices;
+
+        Worker(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        void record(long nanos) {
+            busyNanos += nanos;
+            slices++;
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            workers.add(this);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            workers.remove(this);
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * worker的使用情况
+     */
+    public static final class WorkerStats {
+        private final String name;
+        /** 执行port的次数 */
+        private final long slices;
+        /** 执行port的总耗时 */
+        private final long busyNanos;
+        /** worker启动后的时间 */
+        private final long aliveNanos;
+
+        WorkerStats(String name, long slices, long busyNanos, long aliveNanos) {
+            this.name = name;
+            this.slices = slices;
+            this.busyNanos = busyNanos;
+            this.aliveNanos = aliveNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSlices() {
+            return slices;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        /**
+         * 使用率，执行port的时间占worker启动后时间的比例
+         */
+        public double getUtilization() {
+            return aliveNanos > 0 ? (double) busyNanos / aliveNanos : 0D;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this).append("name", name)
+                    .append("slices", slices)
+                    .append("utilization", String.format("%.2f%%", getUtilization() * 100))
+                    .toString();
+        }
+    }
+}
@@ -20,8 +20,10 @@ public final class RpcInvocation implements Serializable {
     /** 目标调用的rpc调用点信息 */
     private CallPoint callPoint;
 
-    /** rpc调用的方法 */
+    /** rpc调用的方法，紧凑格式时为 {@code null} */
     private String methodName;
+    /** 紧凑格式的服务id、方法id和调用方的接口版本，方法名格式时为 {@code null} */
+    private CompactMethod compactMethod;
     /** rpc调用参数列表 */
     private Object[] methodArgs;
 
@@ -44,6 +46,59 @@ public final class RpcInvocation implements Serializable {
         this.returnType = method.getReturnType();
     }
 
+    /**
+     * 创建紧凑格式的rpc调用信息，使用服务id和方法id代替服务名称和方法名称
+     * @param fromPoint 调用rpc的线程调用点信息
+     * @param callPoint 目标调用点，不包含服务名称
+     * @param descriptor 服务接口描述
+     * @param method rpc方法
+     * @param methodArgs 参数列表
+     */
+    public static RpcInvocation compact(FromPoint fromPoint, CallPoint callPoint, ServiceDescriptor descriptor,
+                                        Method method, Object[] methodArgs) {
+        final int methodId = descriptor.getMethodId(method);
+        if (methodId < 0) {
+            throw new IllegalArgumentException("不是RPC方法。service = " + descriptor.getName() + ", method = " + method);
+        }
+        final RpcInvocation rpcInvocation = new RpcInvocation();
+        rpcInvocation.fromPoint = fromPoint;
+        rpcInvocation.callPoint = callPoint;
+        rpcInvocation.compactMethod = new CompactMethod(descriptor.getServiceId(), methodId, descriptor.getVersion());
+        rpcInvocation.methodArgs = methodArgs;
+        // transient
+        rpcInvocation.method = method;
+        rpcInvocation.returnType = method.getReturnType();
+        return rpcInvocation;
+    }
+
+    /**
+     * 紧凑格式：不包含方法名称，使用服务id和方法id
+     */
+    public boolean isCompact() {
+        return compactMethod != null;
+    }
+
+    /**
+     * 紧凑格式：服务id，方法名格式返回0
+     */
+    public int getServiceId() {
+        return compactMethod != null ? compactMethod.getServiceId() : 0;
+    }
+
+    /**
+     * 紧凑格式：方法id，方法名格式返回0
+     */
+    public int getMethodId() {
+        return compactMethod != null ? compactMethod.getMethodId() : 0;
+    }
+
+    /**
+     * 紧凑格式：调用方的接口版本，方法名格式返回0
+     */
+    public int getServiceVersion() {
+        return compactMethod != null ? compactMethod.getServiceVersion() : 0;
+    }
+
     public FromPoint getFromPoint() {
         return fromPoint;
     }
@@ -0,0 +1,76 @@
+package org.game.core;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.game.core.timer.Timeout;
+
+/**
+ * {@link PortScheduler} 定时任务的句柄，用于取消任务
+ */
+public final class ScheduledTask {
+
+    private final Runnable task;
+    /** 重复执行的任务 */
+    private final boolean repeating;
+    /** 当前等待执行的定时 */
+    private Timeout timeout;
+    private boolean cancelled;
+    /** 已经执行的次数 */
+    private long executions;
+
+    ScheduledTask(Runnable task, boolean repeating) {
+        this.task = task;
+        this.repeating = repeating;
+    }
+
+    /**
+     * 取消任务，重复执行的任务不会再执行。只能在所属的port线程调用。
+     * @return 取消成功返回 {@code true}，已经取消或者单次任务已经执行返回 {@code false}
+     */
+    public boolean cancel() {
+        if (cancelled || (!repeating && executions > 0)) {
+            return false;
+        }
+        cancelled = true;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 已经执行的次数
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * 下一次执行的时间戳
+     * @return 没有下一次执行时返回 {@code -1}
+     */
+    public long getNextTime() {
+        return timeout != null && !timeout.isExpired() && !timeout.isCancelled() ? timeout.getDeadline() : -1L;
+    }
+
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void run() {
+        executions++;
+        task.run();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("task", task)
+                .append("executions", executions)
+                .append("cancelled", cancelled)
+                .toString();
+    }
+}
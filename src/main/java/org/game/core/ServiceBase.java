@@ -20,6 +20,15 @@ public abstract class ServiceBase implements Service {
         }
     }
 
+    /**
+     * 当前port的定时任务调度，用于代替在心跳中自己计时
+     * @return 只能在port线程调用，否则返回 {@code null}
+     */
+    protected PortScheduler getScheduler() {
+        final ServicePort servicePort = ServicePort.getServicePort();
+        return servicePort != null ? servicePort.getScheduler() : null;
+    }
+
     /**
      * 每秒一次的心跳
      * @param now 时间戳
@@ -0,0 +1,139 @@
+package org.game.core;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service接口描述
+ * <p>调用方和服务方共享同一个 {@link ServiceConfig} 接口，按方法签名排序后的序号作为方法id，接口名称的hash作为服务id，
+ * 所有方法签名（包括返回值类型）的hash作为接口版本。RPC请求可以只携带服务id和方法id，服务方通过接口版本检查两端的接口是否一致。</p>
+ */
+public final class ServiceDescriptor {
+
+    private static final ClassValue<ServiceDescriptor> DESCRIPTORS = new ClassValue<ServiceDescriptor>() {
+        @Override
+        protected ServiceDescriptor computeValue(Class<?> type) {
+            return create(type.getName(), ServiceInvoker.interfaceMethods(type));
+        }
+    };
+
+    /** 服务名称 */
+    private final String name;
+    /** 服务id */
+    private final int serviceId;
+    /** 接口版本 */
+    private final int version;
+    /** 按签名排序的方法，下标即方法id */
+    private final Method[] methods;
+    /** 方法 -> 方法id */
+    private final Map<Method, Integer> methodIds;
+
+    private ServiceDescriptor(String name, int version, Method[] methods) {
+        this.name = name;
+        this.serviceId = serviceId(name);
+        this.version = version;
+        this.methods = methods;
+        this.methodIds = new HashMap<>(methods.length * 2);
+        for (int i = 0; i < methods.length; i++) {
+            methodIds.put(methods[i], i);
+        }
+    }
+
+    /**
+     * 获取Service接口的描述，结果会被缓存
+     * @param serviceInterface Service接口
+     * @return 接口描述
+     */
+    public static ServiceDescriptor of(Class<?> serviceInterface) {
+        return DESCRIPTORS.get(serviceInterface);
+    }
+
+    /**
+     * 根据RPC方法创建描述
+     * @param name 服务名称
+     * @param rpcMethods RPC方法
+     * @return 接口描述
+     */
+    static ServiceDescriptor create(String name, Collection<Method> rpcMethods) {
+        final List<Method> sorted = new ArrayList<>(rpcMethods);
+        sorted.sort(Comparator.comparing(ServiceDescriptor::signature));
+        final StringBuilder versionSource = new StringBuilder(name);
+        for (Method method : sorted) {
+            versionSource.append(';').append(signature(method)).append(method.getReturnType().getName());
+        }
+        return new ServiceDescriptor(name, versionSource.toString().hashCode(), sorted.toArray(new Method[0]));
+    }
+
+    /**
+     * 服务名称对应的服务id
+     */
+    public static int serviceId(String name) {
+        return name.hashCode();
+    }
+
+    /**
+     * 方法签名：方法名称和参数类型
+     */
+    static String signature(Method method) {
+        final StringBuilder builder = new StringBuilder(method.getName()).append('(');
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(parameterTypes[i].getName());
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * 获取方法id
+     * @param method 接口方法
+     * @return 不是RPC方法返回 {@code -1}
+     */
+    public int getMethodId(Method method) {
+        final Integer methodId = methodIds.get(method);
+        return methodId != null ? methodId : -1;
+    }
+
+    /**
+     * 按方法id获取方法
+     */
+    public Method getMethod(int methodId) {
+        return methods[methodId];
+    }
+
+    public int getMethodCount() {
+        return methods.length;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getServiceId() {
+        return serviceId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("name", name)
+                .append("serviceId", serviceId)
+                .append("version", version)
+                .append("methods", Arrays.toString(methods))
+                .toString();
+    }
+}
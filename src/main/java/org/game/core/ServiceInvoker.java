@@ -0,0 +1,241 @@
+package org.game.core;
+
+import org.apache.commons.lang3.ClassUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Service的RPC方法调用表
+ * <p>在 {@link ServicePort#addService(String, Service)} 时为Service的RPC方法预先生成 {@link MethodHandle}，
+ * 执行 {@link org.game.core.exchange.Request} 时按方法名直接查表调用，不再每次通过反射查找方法。</p>
+ * <p>RPC方法为Service实现的 {@link ServiceConfig} 接口中的方法；没有 {@link ServiceConfig} 接口时，为Service的所有public方法。</p>
+ */
+public final class ServiceInvoker {
+
+    private static final Object[] EMPTY_ARGS = new Object[0];
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private final Service service;
+    /** 接口描述 */
+    private final ServiceDescriptor descriptor;
+    /** 方法名 -> 方法调用器，重载的方法有多个 */
+    private final Map<String, MethodInvoker[]> invokers;
+    /** 方法id -> 方法调用器 */
+    private final MethodInvoker[] methodInvokers;
+
+    private ServiceInvoker(Service service, ServiceDescriptor descriptor, Map<String, MethodInvoker[]> invokers,
+                           MethodInvoker[] methodInvokers) {
+        this.service = service;
+        this.descriptor = descriptor;
+        this.invokers = invokers;
+        this.methodInvokers = methodInvokers;
+    }
+
+    /**
+     * 创建Service的方法调用表
+     * @param name 服务名称，对应 {@link ServiceConfig} 接口的类名
+     * @param service 服务实例
+     * @return 方法调用表
+     * @throws IllegalAccessException 无法访问RPC方法
+     */
+    public static ServiceInvoker create(String name, Service service) throws IllegalAccessException {
+        final ServiceDescriptor descriptor = describe(name, service.getClass());
+        final MethodInvoker[] methodInvokers = new MethodInvoker[descriptor.getMethodCount()];
+        final Map<String, List<MethodInvoker>> methods = new HashMap<>();
+        for (int methodId = 0; methodId < methodInvokers.length; methodId++) {
+            final Method method = descriptor.getMethod(methodId);
+            methodInvokers[methodId] = new MethodInvoker(method, service);
+            methods.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(methodInvokers[methodId]);
+        }
+        final Map<String, MethodInvoker[]> invokers = new HashMap<>(methods.size() * 2);
+        methods.forEach((methodName, list) -> invokers.put(methodName, list.toArray(new MethodInvoker[0])));
+        return new ServiceInvoker(service, descriptor, invokers, methodInvokers);
+    }
+
+    /**
+     * 服务实现类对应的接口描述
+     */
+    private static ServiceDescriptor describe(String name, Class<?> serviceType) {
+        for (Class<?> serviceInterface : ClassUtils.getAllInterfaces(serviceType)) {
+            if (serviceInterface.getName().equals(name)) {
+                return ServiceDescriptor.of(serviceInterface);
+            }
+        }
+        return ServiceDescriptor.create(name, rpcMethods(serviceType));
+    }
+
+    /**
+     * Service的RPC方法
+     */
+    static Set<Method> rpcMethods(Class<?> serviceType) {
+        final Set<Method> methods = new LinkedHashSet<>();
+        for (Class<?> serviceInterface : ClassUtils.getAllInterfaces(serviceType)) {
+            if (serviceInterface.isAnnotationPresent(ServiceConfig.class)) {
+                methods.addAll(interfaceMethods(serviceInterface));
+            }
+        }
+        if (methods.isEmpty()) {
+            for (Method method : serviceType.getMethods()) {
+                if (method.getDeclaringClass() != Object.class && !Modifier.isStatic(method.getModifiers())) {
+                    methods.add(method);
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Service接口的RPC方法，包括继承的方法
+     */
+    static Set<Method> interfaceMethods(Class<?> serviceInterface) {
+        final Set<Method> methods = new LinkedHashSet<>();
+        for (Method method : serviceInterface.getMethods()) {
+            if (!method.isDefault() && !Modifier.isStatic(method.getModifiers())) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * 调用RPC方法
+     * @param methodName 方法名称
+     * @param args 参数列表，可以包含 {@code null}
+     * @return 方法返回值，{@code void}方法返回 {@code null}
+     * @throws NoSuchMethodException 没有匹配的方法
+     * @throws Throwable 方法执行抛出的异常
+     */
+    public Object invoke(String methodName, Object[] args) throws Throwable {
+        final MethodInvoker[] candidates = invokers.get(methodName);
+        if (candidates == null) {
+            throw new NoSuchMethodException(service.getClass().getName() + "." + methodName);
+        }
+        final Object[] methodArgs = args != null ? args : EMPTY_ARGS;
+        if (candidates.length == 1) {
+            return candidates[0].invoke(methodArgs);
+        }
+        // 重载方法按参数匹配
+        for (MethodInvoker candidate : candidates) {
+            if (candidate.matches(methodArgs)) {
+                return candidate.invoke(methodArgs);
+            }
+        }
+        throw new NoSuchMethodException(service.getClass().getName() + "." + methodName + ", 没有匹配参数的重载方法");
+    }
+
+    /**
+     * 按方法id调用RPC方法
+     * @param methodId 方法id
+     * @param args 参数列表，可以包含 {@code null}
+     * @return 方法返回值，{@code void}方法返回 {@code null}
+     * @throws NoSuchMethodException 方法id不存在
+     * @throws Throwable 方法执行抛出的异常
+     */
+    public Object invoke(int methodId, Object[] args) throws Throwable {
+        if (methodId < 0 || methodId >= methodInvokers.length) {
+            throw new NoSuchMethodException(descriptor.getName() + ", methodId = " + methodId);
+        }
+        return methodInvokers[methodId].invoke(args != null ? args : EMPTY_ARGS);
+    }
+
+    /**
+     * 方法是否为单向调用，无返回值
+     * @param methodId 方法id
+     * @return 无返回值返回 {@code true}，方法id不存在返回 {@code false}
+     */
+    public boolean isOneWay(int methodId) {
+        if (methodId < 0 || methodId >= methodInvokers.length) {
+            return false;
+        }
+        return methodInvokers[methodId].isOneWay();
+    }
+
+    /**
+     * 方法是否为单向调用，无返回值
+     * @param methodName 方法名称
+     * @return 所有同名方法都无返回值返回 {@code true}，方法不存在返回 {@code false}
+     */
+    public boolean isOneWay(String methodName) {
+        final MethodInvoker[] candidates = invokers.get(methodName);
+        if (candidates == null) {
+            return false;
+        }
+        for (MethodInvoker candidate : candidates) {
+            if (!candidate.isOneWay()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    public ServiceDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * 单个方法的调用器
+     */
+    static final class MethodInvoker {
+        private final Method method;
+        /** 包装参数类型，用于匹配重载方法 */
+        private final Class<?>[] parameterTypes;
+        /** 绑定了Service实例的调用句柄，类型为 (Object[])Object */
+        private final MethodHandle handle;
+        /** 无返回值 */
+        private final boolean oneWay;
+
+        MethodInvoker(Method method, Service service) throws IllegalAccessException {
+            this.method = method;
+            this.parameterTypes = ClassUtils.primitivesToWrappers(method.getParameterTypes());
+            this.oneWay = void.class.equals(method.getReturnType()) || Void.class.equals(method.getReturnType());
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                method.setAccessible(true);
+            }
+            this.handle = MethodHandles.lookup().unreflect(method)
+                    .bindTo(service)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(INVOKER_TYPE);
+        }
+
+        Object invoke(Object[] args) throws Throwable {
+            if (args.length != parameterTypes.length) {
+                throw new IllegalArgumentException("参数数量不匹配。method = " + method + ", args.length = " + args.length);
+            }
+            return (Object) handle.invokeExact(args);
+        }
+
+        boolean matches(Object[] args) {
+            if (args.length != parameterTypes.length) {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] != null && !parameterTypes[i].isInstance(args[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        boolean isOneWay() {
+            return oneWay;
+        }
+    }
+}
@@ -1,19 +1,31 @@
 package org.game.core;
 
+import io.netty.channel.Channel;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.tuple.Pair;
 import org.game.core.exchange.Request;
 import org.game.core.exchange.Response;
+import org.game.core.transport.TransportConsts;
 import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeLink;
 import org.game.core.transport.node.NodeServer;
+import org.game.core.transport.node.NodeTransport;
+import org.game.core.transport.shm.ShmNodeClient;
+import org.game.core.transport.shm.ShmNodeServer;
 import org.game.global.ServiceConsts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 服务节点
@@ -24,11 +36,17 @@ import java.util.concurrent.ExecutorService;
 public class ServiceNode {
 
     private final String name;
+    /** 在 {@link ServiceConsts#NODE_CONFIGS} 中按名称排序的序号，用于组合 {@link CallId} */
+    private final int index;
     /** 服务器线程列表 */
     private final Map<String, ServicePort> servicePorts = new ConcurrentHashMap<>();
+    /** 服务器线程列表 {@literal portIndex -> ServicePort}，添加时整体替换，派发应答时不需要查表 */
+    private volatile ServicePort[] servicePortsByIndex = new ServicePort[0];
+    /** 分配 {@link ServicePort} 序号 */
+    private final AtomicInteger portIndexAllocator = new AtomicInteger();
 
     /** 远端的 {@link ServiceNode} */
-    private final Map<String, NodeClient> nodeClients = new ConcurrentHashMap<>();
+    private final Map<String, NodeLink> nodeClients = new ConcurrentHashMap<>();
 
     /** 空的node连接对象 */
     private static final NodeClient.EmptyNodeClient EMPTY_NODE_CLIENT = new NodeClient.EmptyNodeClient("empty");
@@ -36,41 +54,146 @@ public class ServiceNode {
     /** 服务端节点 */
     private final NodeServer nodeServer = new NodeServer(this);
 
+    /** 共享内存接收线程，为 {@code null} 时同一台机器上的node也使用TCP */
+    private volatile ShmNodeServer shmNodeServer;
+
     /** {@link ServicePort} 执行线程池 */
     private final ExecutorService executorService;
 
+    /** {@link ServicePort} 的M:N调度线程池，为 {@code null} 时每个ServicePort独占一个线程 */
+    private PortWorkerPool workerPool;
+
+    /** 调用当前node上的服务的默认传递方式 */
+    private volatile LocalRouting localRouting = ServiceConsts.RPC_LOCAL_ROUTING;
+
+    /** 是否使用双工连接，见 {@link TransportConsts#DUPLEX_CONNECTION} */
+    private volatile boolean duplexConnection = TransportConsts.DUPLEX_CONNECTION;
+
     /** logger */
     private static final Logger logger = LoggerFactory.getLogger(ServiceNode.class);
 
     public ServiceNode(String name, ExecutorService executorService) {
         this.name = name;
+        this.index = nodeIndex(name);
         this.executorService = executorService;
     }
 
     /**
-     * TODO code {@link NodeClient} 断线重连检测
+     * node序号：在 {@link ServiceConsts#NODE_CONFIGS} 中按名称排序的位置，所有node计算的结果一致。
+     * 没有配置的node使用保留的 {@link CallId#UNCONFIGURED_NODE_INDEX}，不会和配置的node冲突。
+     */
+    static int nodeIndex(String name) {
+        if (!ServiceConsts.NODE_CONFIGS.containsKey(name)) {
+            logger.warn("node没有配置，使用保留的node序号。name = {}, index = {}", name, CallId.UNCONFIGURED_NODE_INDEX);
+            return CallId.UNCONFIGURED_NODE_INDEX;
+        }
+        final List<String> names = new ArrayList<>(ServiceConsts.NODE_CONFIGS.keySet());
+        Collections.sort(names);
+        final int index = names.indexOf(name);
+        if (index >= CallId.UNCONFIGURED_NODE_INDEX) {
+            throw new IllegalStateException("node数量超过上限。name = " + name + ", max = " + CallId.UNCONFIGURED_NODE_INDEX);
+        }
+        return index;
+    }
+
+    /**
+     * 分配 {@link ServicePort} 序号
+     */
+    int allocPortIndex() {
+        final int portIndex = portIndexAllocator.getAndIncrement();
+        if (portIndex >= CallId.MAX_PORTS) {
+            throw new IllegalStateException("ServicePort数量超过上限。node = " + name + ", max = " + CallId.MAX_PORTS);
+        }
+        return portIndex;
+    }
+
+    /**
+     * 连接还没有客户端的node
+     * <p>连接断开后由 {@link NodeClient} 自己按退避间隔重连，这里只处理还没有连接和客户端已经关闭的node。
+     * 对方不再读取的共享内存连接在这里关闭，重新连接时对方没有开启共享内存就使用TCP。</p>
      */
     public void checkChannelActive() {
+        final long now = System.currentTimeMillis();
         ServiceConsts.NODE_CONFIGS.forEach((node, ipPort) -> {
-            boolean isConnected = isConnected(node);
-            if (!isConnected) {
-                // 连接已经断开
+            final NodeLink current = nodeClients.get(node);
+            if (current instanceof ShmNodeClient && ((ShmNodeClient) current).isExpired(now)) {
+                logger.warn("对方node不再读取共享内存，关闭连接。node = {}, file = {}", node, ((ShmNodeClient) current).getFile());
+                current.shutdown();
+            }
+            if (duplexConnection && node.compareTo(name) < 0) {
+                // 双工模式下由名称小的node发起连接
+                return;
+            }
+            final NodeLink nodeClient = nodeClients.get(node);
+            if (nodeClient == null || nodeClient.isClosed()) {
                 connectNode(node, ipPort.getLeft(), ipPort.getRight());
             }
         });
     }
 
-    private boolean isConnected(String node) {
-        final NodeClient nodeClient = nodeClients.get(node);
-        return nodeClient != null ? nodeClient.isActive() : false;
+    /**
+     * 设置M:N调度线程池，需要在 {@link #startAllService()} 之前设置
+     * @param workerPool worker线程池
+     */
+    public void setWorkerPool(PortWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    public PortWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    public boolean isDuplexConnection() {
+        return duplexConnection;
+    }
+
+    /**
+     * 设置是否使用双工连接，需要在连接其他node之前设置，集群内所有node需要一致
+     * @param duplexConnection 是否使用双工连接
+     */
+    public void setDuplexConnection(boolean duplexConnection) {
+        this.duplexConnection = duplexConnection;
+    }
+
+    public LocalRouting getLocalRouting() {
+        return localRouting;
+    }
+
+    /**
+     * 设置调用当前node上的服务的默认传递方式，服务接口可以用 {@link LocalRoutingConfig} 单独指定，运行时可以修改
+     * @param localRouting 传递方式
+     */
+    public void setLocalRouting(LocalRouting localRouting) {
+        this.localRouting = localRouting;
+    }
+
+    /**
+     * 调用服务的传递方式：调用其他node总是 {@link LocalRouting#TRANSPORT}；调用当前node时优先使用服务接口的 {@link LocalRoutingConfig}
+     * @param node 服务所在的node
+     * @param serviceType 服务接口
+     */
+    public LocalRouting getLocalRouting(String node, Class<?> serviceType) {
+        if (!name.equals(node)) {
+            return LocalRouting.TRANSPORT;
+        }
+        final LocalRoutingConfig config = serviceType.getAnnotation(LocalRoutingConfig.class);
+        return config != null ? config.value() : localRouting;
     }
 
     public void shutdown() {
-        executorService.shutdownNow();
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
         nodeServer.shutdown();
-        final Iterator<NodeClient> iterator = nodeClients.values().iterator();
+        if (shmNodeServer != null) {
+            shmNodeServer.shutdown();
+        }
+        final Iterator<NodeLink> iterator = nodeClients.values().iterator();
         while (iterator.hasNext()) {
-            final NodeClient nodeClient = iterator.next();
+            final NodeLink nodeClient = iterator.next();
             nodeClient.shutdown();
         }
     }
@@ -83,8 +206,11 @@ public class ServiceNode {
         }
 
         nodeServer.start(nodeConfig.getRight());
+        if (TransportConsts.SHM_TRANSPORT) {
+            startShmTransport(new File(TransportConsts.SHM_DIRECTORY));
+        }
 
-        // 启动NodeClient连接远程node，间隔10秒检测一次连接状态，断开重连
+        // 启动NodeClient连接远程node，间隔10秒检测一次，连接断开后由NodeClient重连
         executorService.execute(() -> {
             while (!Thread.currentThread().isInterrupted()) {
                 checkChannelActive();
@@ -98,68 +224,253 @@ public class ServiceNode {
         });
     }
 
+    /**
+     * 启动共享内存传输，之后连接本机地址的node时，对方也在同一个目录读取共享内存就使用 {@link ShmNodeClient}，
+     * 见 {@link TransportConsts#SHM_TRANSPORT}。同一台机器上互相通信的node需要使用同一个目录
+     * @param directory 环形缓冲文件所在的目录
+     */
+    public synchronized void startShmTransport(File directory) {
+        if (shmNodeServer != null) {
+            return;
+        }
+        final ShmNodeServer server = new ShmNodeServer(this, directory);
+        server.start();
+        shmNodeServer = server;
+    }
+
     /**
      * 获取Node通信对象
      * @param node 名称
      * @return node的通信对象
      */
-    public NodeClient getNode(String node) {
+    public NodeLink getNode(String node) {
         return nodeClients.getOrDefault(node, EMPTY_NODE_CLIENT);
     }
 
     /**
      * 连接服务端node
+     * <p>开启共享内存时，本机地址的node先尝试共享内存，对方在 {@link TransportConsts#SHM_CONNECT_TIMEOUT_MILLIS} 内读取才使用，
+     * 否则使用TCP。等待在锁外进行，不影响接收线程登记连接。</p>
      * @param node 名称
      * @param ip 服务端ip
      * @param port 服务端port
      */
-    private void connectNode(String node, String ip, int port) {
-        final NodeClient nodeClient = new NodeClient(node);
+    void connectNode(String node, String ip, int port) {
+        final ShmNodeServer shmServer = shmNodeServer;
+        if (shmServer != null && ShmNodeServer.isLocalAddress(ip)) {
+            final ShmNodeClient shmNodeClient = shmServer.connect(node);
+            if (shmNodeClient != null) {
+                putNodeClient(node, shmNodeClient);
+                return;
+            }
+        }
+        synchronized (this) {
+            final NodeClient nodeClient = new NodeClient(node, duplexConnection ? this : null,
+                    NodeTransport.defaultTransport());
+            if (putNodeClient(node, nodeClient)) {
+                nodeClient.connect(ip, port);
+            }
+        }
+    }
+
+    /**
+     * 替换到对方node的客户端：关闭旧的客户端，释放共享线程组的引用，缓存的消息转移到新的客户端。
+     * 等待期间对方已经建立了可用的共享内存连接时保留现有的连接，关闭新的客户端
+     * @return 是否替换
+     */
+    private synchronized boolean putNodeClient(String node, NodeLink nodeClient) {
+        final NodeLink current = nodeClients.get(node);
+        if (current instanceof ShmNodeClient && current.isActive()) {
+            nodeClient.shutdown();
+            return false;
+        }
+        nodeClients.put(node, nodeClient);
+        if (current != null) {
+            transferPending(current, nodeClient);
+            current.shutdown();
+        }
+        return true;
+    }
+
+    /**
+     * 收到同一台机器上的node通过共享内存发来的消息，建立反方向的共享内存连接，用于返回应答和发送请求
+     * <p>已经有共享内存连接时忽略；否则替换现有的客户端，缓存的消息转移到新的客户端。</p>
+     * @param node 对方node名称
+     */
+    public synchronized void acceptShmNode(String node) {
+        final ShmNodeServer shmServer = shmNodeServer;
+        if (shmServer == null) {
+            return;
+        }
+        final NodeLink current = nodeClients.get(node);
+        if (current instanceof ShmNodeClient && !current.isClosed()) {
+            return;
+        }
+        final ShmNodeClient nodeClient = shmServer.open(node);
         nodeClients.put(node, nodeClient);
-        nodeClient.connect(ip, port);
+        if (current != null) {
+            transferPending(current, nodeClient);
+            current.shutdown();
+        }
+        logger.info("登记对方node发起的共享内存连接。node = {}, file = {}", node, nodeClient.getFile());
+    }
+
+    /**
+     * 登记对方node发起的双工连接，之后发送到对方node的消息都通过这条连接
+     * <p>双方同时发起连接时保留名称小的node发起的连接：本地名称较小并且本地发起的连接还没有关闭时，关闭对方发起的连接；
+     * 否则使用对方发起的连接，关闭本地发起的连接。</p>
+     * <p>对方有多条连接时，同一个客户端依次加入每条连接，连接数量变化时（对方重启）替换为新的客户端。</p>
+     * @param node 对方node名称
+     * @param index 连接序号
+     * @param count 对方的连接数量
+     * @param channel 服务端接受的连接
+     */
+    public synchronized void acceptNodeConnection(String node, int index, int count, Channel channel) {
+        if (!duplexConnection) {
+            logger.warn("没有开启双工连接，忽略node问候。node = {}, channel = {}", node, channel);
+            return;
+        }
+        if (name.equals(node)) {
+            // 连接自己，发送和接收分别使用连接的两端
+            return;
+        }
+        final NodeLink current = nodeClients.get(node);
+        if (current instanceof NodeClient && !((NodeClient) current).isAccepted() && current.isOpen() && name.compareTo(node) < 0) {
+            logger.info("双方同时发起连接，保留本地发起的连接。node = {}, index = {}, channel = {}", node, index, channel);
+            channel.close();
+            return;
+        }
+        if (current instanceof NodeClient && ((NodeClient) current).isAccepted() && ((NodeClient) current).getChannelCount() == count) {
+            ((NodeClient) current).accept(index, channel);
+        } else {
+            final NodeClient nodeClient = NodeClient.accepted(node, count);
+            nodeClient.accept(index, channel);
+            nodeClients.put(node, nodeClient);
+            if (current != null) {
+                transferPending(current, nodeClient);
+                current.shutdown();
+            }
+        }
+        logger.info("登记对方node发起的双工连接。node = {}, index = {}, count = {}, channel = {}", node, index, count, channel);
+    }
+
+    /**
+     * 替换客户端时，旧客户端还没有补发的消息转移到新的客户端，同一个port的消息保持顺序
+     */
+    private static void transferPending(NodeLink from, NodeLink to) {
+        for (Object msg : from.drainPending()) {
+            to.send(msg);
+        }
     }
 
     /**
      * 派发{@link Request}到对应的{@link ServicePort}
      * @param request rpc请求对象
+     * @return 接收请求的{@link ServicePort}，不存在返回 {@code null}
      */
-    public void dispatchRequest(Request request) {
-        final RpcInvocation rpcInvocation = request.getRpcInvocation();
-        final String portName = rpcInvocation.getCallPoint().getPort();
-        final ServicePort servicePort = servicePorts.get(portName);
+    public ServicePort dispatchRequest(Request request) {
+        final ServicePort servicePort = findRequestPort(request);
         if (servicePort == null) {
-            logger.error("dispatchRequest. 查找的servicePort不存在。portName = {}", portName);
-            return;
+            logger.error("dispatchRequest. 查找的servicePort不存在。portName = {}", request.getRpcInvocation().getCallPoint().getPort());
+            return null;
         }
         servicePort.addRequest(request);
+        return servicePort;
     }
 
     /**
      * 派发{@link Response}应答对象
      * @param response 应答对象
+     * @return 接收应答的{@link ServicePort}，不存在返回 {@code null}
      */
-    public void dispatchResponse(Response response) {
-        final DefaultFuture future = DefaultFuture.getFuture(response.getId());
-        if (future == null) {
-            logger.error("dispatchResponse. future == null. response = {}", response);
-            return;
-        }
-        final RpcInvocation rpcInvocation = future.getRequest().getRpcInvocation();
-        // 发送RPC调用的ServicePort线程
-        final String portName = rpcInvocation.getFromPoint().getPort();
-        final ServicePort servicePort = servicePorts.get(portName);
+    public ServicePort dispatchResponse(Response response) {
+        final ServicePort servicePort = findResponsePort(response);
         if (servicePort == null) {
-            logger.error("dispatchResponse. 查找的servicePort不存在。portName = {}", portName);
-            return;
+            logger.error("dispatchResponse. 查找的servicePort不存在。callId = {}, response = {}", CallId.toString(response.getId()), response);
+            return null;
         }
         servicePort.addResponse(response);
+        return servicePort;
     }
 
-    public void addServicePort(ServicePort servicePort) {
+    /**
+     * 按顺序批量派发{@link Request}和{@link Response}
+     * <p>投递到同一个{@link ServicePort}的连续请求（或者连续应答）一次入队，其他类型的对象忽略。</p>
+     * @param messages 消息列表
+     * @return 接收消息的{@link ServicePort}，不重复
+     */
+    @SuppressWarnings("unchecked")
+    public List<ServicePort> dispatchBatch(List<?> messages) {
+        final List<ServicePort> dispatched = new ArrayList<>(1);
+        final int size = messages.size();
+        int i = 0;
+        while (i < size) {
+            final Object msg = messages.get(i);
+            final ServicePort servicePort = findPort(msg);
+            if (servicePort == null) {
+                logger.error("dispatchBatch. 查找的servicePort不存在。msg = {}", msg);
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < size && messages.get(end).getClass() == msg.getClass() && findPort(messages.get(end)) == servicePort) {
+                end++;
+            }
+            final List<?> run = messages.subList(i, end);
+            if (msg instanceof Request) {
+                servicePort.addRequests((List<Request>) run);
+            } else {
+                servicePort.addResponses((List<Response>) run);
+            }
+            if (!dispatched.contains(servicePort)) {
+                dispatched.add(servicePort);
+            }
+            i = end;
+        }
+        return dispatched;
+    }
+
+    private ServicePort findPort(Object msg) {
+        if (msg instanceof Request) {
+            return findRequestPort((Request) msg);
+        }
+        if (msg instanceof Response) {
+            return findResponsePort((Response) msg);
+        }
+        return null;
+    }
+
+    /**
+     * 接收{@link Request}的{@link ServicePort}
+     * @return 不存在返回 {@code null}
+     */
+    public ServicePort findRequestPort(Request request) {
+        return servicePorts.get(request.getRpcInvocation().getCallPoint().getPort());
+    }
+
+    private ServicePort findResponsePort(Response response) {
+        // 发送RPC调用的ServicePort线程，序号在调用id中
+        final long callId = response.getId();
+        final int portIndex = CallId.portIndex(callId);
+        final ServicePort[] ports = servicePortsByIndex;
+        if (portIndex >= ports.length || CallId.nodeIndex(callId) != index) {
+            return null;
+        }
+        return ports[portIndex];
+    }
+
+    public synchronized void addServicePort(ServicePort servicePort) {
+        if (servicePort.getServiceNode() != this) {
+            throw new IllegalStateException("ServicePort不属于当前node。port = " + servicePort.getName() + ", node = " + name);
+        }
         if (servicePorts.containsKey(servicePort.getName())) {
             return;
         }
         servicePorts.put(servicePort.getName(), servicePort);
+        final ServicePort[] ports = Arrays.copyOf(servicePortsByIndex,
+                Math.max(servicePortsByIndex.length, servicePort.getIndex() + 1));
+        ports[servicePort.getIndex()] = servicePort;
+        servicePortsByIndex = ports;
     }
 
     /**
@@ -175,7 +486,11 @@ public class ServiceNode {
         final Iterator<ServicePort> iterator = servicePorts.values().iterator();
         while (iterator.hasNext()) {
             final ServicePort servicePort = iterator.next();
-            executorService.execute(servicePort);
+            if (workerPool != null) {
+                workerPool.start(servicePort);
+            } else {
+                executorService.execute(servicePort);
+            }
         }
     }
 
@@ -183,9 +498,17 @@ public class ServiceNode {
         return name;
     }
 
+    /**
+     * node序号
+     */
+    public int getIndex() {
+        return index;
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this).append("name", name)
+                .append("index", index)
                 .toString();
     }
 }
@@ -1,19 +1,34 @@
 package org.game.core;
 
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
 import org.apache.commons.lang3.builder.ToStringBuilder;
-import org.apache.commons.lang3.reflect.MethodUtils;
 import org.game.core.exchange.Request;
 import org.game.core.exchange.Response;
+import org.game.core.timer.Timeout;
+import org.game.core.timer.TimingWheel;
+import org.game.core.transport.Hessian2Utils;
+import org.game.core.transport.node.WriteCoalescer;
 import org.game.global.ServiceConsts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 /**
  * 服务线程节点
@@ -27,49 +42,606 @@ public class ServicePort implements Runnable {
     private static final ThreadLocal<ServicePort> THREAD_LOCAL_SERVICE_PORT = new ThreadLocal<>();
     /** 一帧的时间长度 */
     public static final long ONE_FRAME_MILLIS = 20L;
+    /** 批量处理时每次从队列连续取出的最大消息数量，每取一次检查一次时间预算 */
+    private static final int DRAIN_CHUNK_SIZE = 16;
+    /** 时间轮的槽位数量，一圈约41秒，覆盖常用的RPC超时时间 */
+    private static final int TIMING_WHEEL_TICKS = 2048;
 
     private final String name;
+    /** 在所属node中的序号，用于组合 {@link CallId} */
+    private final int index;
+    /** {@link CallId} 的递增序号 */
+    private final AtomicLong callSequence = new AtomicLong();
     /** 服务列表 {@literal name -> Service} */
     private final Map<String, Service> services = new ConcurrentHashMap<>();
+    /** 服务的RPC方法调用表 {@literal name -> ServiceInvoker} */
+    private final Map<String, ServiceInvoker> serviceInvokers = new ConcurrentHashMap<>();
+    /** 服务的RPC方法调用表 {@literal serviceId -> ServiceInvoker}，添加服务时整体替换 */
+    private volatile IntObjectMap<ServiceInvoker> serviceInvokersById = new IntObjectHashMap<>();
     private final ServiceNode parentNode;
     /** rpc发送地址 */
     private final FromPoint fromPoint;
 
-    /** 收到的{@link Request}线程安全队列  */
-    private final ConcurrentLinkedQueue<Request> receivedRequests = new ConcurrentLinkedQueue<>();
-
-    /** 收到的{@link Response}线程安全队列 */
-    private final ConcurrentLinkedQueue<Response> receivedResponses = new ConcurrentLinkedQueue<>();
-
-    /** future的超时处理 */
-    private final Map<Long, DefaultFuture> allFutureTimeout = new ConcurrentHashMap<>();
+    /** 收到的{@link Request}和{@link Response} */
+    private final PortMailbox mailbox = new PortMailbox();
+    /** 超过队列容量的处理策略 */
+    private volatile OverloadPolicy overloadPolicy = ServiceConsts.PORT_OVERLOAD_POLICY;
+    /** {@link OverloadPolicy#BACKPRESSURE} 模式下队列降到一半容量以下时执行的回调，通常用于恢复网络读取 */
+    private final Queue<Runnable> drainedCallbacks = new ConcurrentLinkedQueue<>();
+
+    /** 等待应答的RPC调用 {@literal requestId -> DefaultFuture}，只在port线程访问 */
+    private final LongObjectMap<DefaultFuture> pendingCalls = new LongObjectHashMap<>();
+    /** future超时和定时任务的时间轮，每帧推进一次 */
+    private final TimingWheel timingWheel = new TimingWheel(ONE_FRAME_MILLIS, TIMING_WHEEL_TICKS,
+            System.currentTimeMillis());
+    /** 定时任务调度 */
+    private final PortScheduler scheduler = new PortScheduler(this, timingWheel);
 
     /** 下一帧的时间，用于控制每秒的帧频 */
     private long nextFrameTick;
 
+    /**
+     * 信箱模式：{@link #addRequest(Request)}、{@link #addResponse(Response)}投递消息时唤醒port线程，
+     * 空闲时park到下一帧。关闭后退化为每1毫秒sleep轮询。
+     */
+    private volatile boolean mailboxMode = ServiceConsts.PORT_MAILBOX_MODE;
+    /** 执行当前port的线程 */
+    private volatile Thread ownerThread;
+    /** port线程是否已经park等待消息 */
+    private final AtomicBoolean parked = new AtomicBoolean();
+
+    /** M:N调度的worker线程池，为 {@code null} 时port独占一个线程 */
+    private volatile PortWorkerPool workerPool;
+    /** M:N调度：已经提交到worker线程池等待执行或者正在执行，保证同一时刻只在一个线程执行 */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /** M:N调度：services已经初始化 */
+    private boolean initialized;
+    /** M:N调度：帧定时器已经安排的帧时间 */
+    private long scheduledFrameTick;
+    /** M:N调度：已经安排的帧定时器，重新安排时取消 */
+    private ScheduledFuture<?> frameTimer;
+    /** M:N调度：帧定时器已经安排还没有到期。到期时port正在执行，唤醒会被忽略，执行结束后据此补上 */
+    private volatile boolean frameTimerArmed;
+
+    /** 执行 {@link Request} 的方式 */
+    private volatile ExecutionMode executionMode = ExecutionMode.DIRECT;
+    /** {@link ExecutionMode#FIBER} 模式的协程调度 */
+    private final FiberScheduler fiberScheduler = new FiberScheduler(this);
+
+    /** 合并写出，只在port线程访问 */
+    private final WriteCoalescer writeCoalescer = new WriteCoalescer();
+    /** 是否合并写出 */
+    private volatile boolean writeCoalescing = ServiceConsts.PORT_WRITE_COALESCING;
+
+    /** 单次批量处理的最大消息数量 */
+    private int drainBatchSize = ServiceConsts.PORT_DRAIN_BATCH_SIZE;
+    /** 单次批量处理的时间预算（纳秒） */
+    private long drainBudgetNanos = TimeUnit.MILLISECONDS.toNanos(ServiceConsts.PORT_DRAIN_BUDGET_MILLIS);
+    /** 批量处理{@link Request}，避免每次处理创建lambda对象 */
+    private final Consumer<Request> requestHandler = this::handleRequest;
+    /** 批量处理{@link Response} */
+    private final Consumer<Response> responseHandler = this::handleResponse;
+    /** 最近一次批量处理的消息数量 */
+    private int lastDrainCount;
+    /** 累计处理的消息数量 */
+    private long totalDrainCount;
+
     /** logger */
     private static final Logger logger = LoggerFactory.getLogger(ServicePort.class);
 
     public ServicePort(String name, ServiceNode parentNode) {
         this.name = name;
         this.parentNode = parentNode;
+        this.index = parentNode.allocPortIndex();
         this.fromPoint = new FromPoint(parentNode.getName(), getName());
     }
 
     /**
-     * 添加{@link DefaultFuture}超时处理
+     * 登记等待应答的{@link DefaultFuture}，并添加超时处理
+     * <p>只能在当前port线程调用。</p>
      */
-    public void addFutureTimeoutTask(DefaultFuture future) {
-        allFutureTimeout.put(future.getId(), future);
+    void addPendingCall(DefaultFuture future) {
+        pendingCalls.put(future.getId(), future);
+        future.setTimeoutTask(timingWheel.newTimeout(() -> {
+            pendingCalls.remove(future.getId());
+            future.cancel(true);
+            logger.warn("DefaultFuture超时。defaultFuture = {}", future);
+        }, future.getTimeout()));
         logger.debug("add future. future = {}, threadId = {}", future, Thread.currentThread().getId());
     }
 
-    public void addRequest(Request request) {
-        receivedRequests.add(request);
+    /**
+     * 分配RPC调用id，包含当前node和port的序号，应答可以直接派发回当前port
+     */
+    public long allocCallId() {
+        return CallId.of(parentNode.getIndex(), index, callSequence.incrementAndGet());
+    }
+
+    /**
+     * 在所属node中的序号
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * 等待应答的RPC调用数量
+     */
+    public int getPendingCallCount() {
+        return pendingCalls.size();
+    }
+
+    /**
+     * 投递{@link Request}
+     * <p>超过队列容量时按照 {@link #getOverloadPolicy()} 处理：需要返回值的请求返回
+     * {@link Response#STATUS_OVERLOADED} 错误应答，单向请求丢弃。</p>
+     * @return 请求被拒绝或者丢弃返回 {@code false}
+     */
+    public boolean addRequest(Request request) {
+        final OverloadPolicy policy = overloadPolicy;
+        final int capacity = mailbox.getRequestCapacity();
+        final boolean oneWay;
+        final int limit;
+        switch (policy) {
+            case BACKPRESSURE:
+                oneWay = false;
+                limit = PortMailbox.overCapacityLimit(capacity);
+                break;
+            case DROP_ONEWAY:
+                oneWay = isOneWay(request);
+                limit = oneWay ? capacity : PortMailbox.overCapacityLimit(capacity);
+                break;
+            default:
+                oneWay = false;
+                limit = capacity;
+                break;
+        }
+        if (mailbox.offerRequest(request, limit)) {
+            wakeup();
+            return true;
+        }
+        rejectRequest(request, oneWay || (policy != OverloadPolicy.DROP_ONEWAY && isOneWay(request)));
+        return false;
     }
 
+    /**
+     * 因为过载拒绝{@link Request}：需要返回值的请求返回 {@link Response#STATUS_OVERLOADED} 错误应答，单向请求丢弃
+     * <p>投递方暂存的请求超过上限时调用，见 {@link org.game.core.transport.BackpressureDispatcher}。</p>
+     */
+    public void rejectRequest(Request request) {
+        rejectRequest(request, isOneWay(request));
+    }
+
+    private void rejectRequest(Request request, boolean oneWay) {
+        if (oneWay) {
+            final long dropped = mailbox.incrementDroppedOneWayRequests();
+            if (isPowerOfTwo(dropped)) {
+                logger.warn("ServicePort队列已满，丢弃单向请求。name = {}, depth = {}, dropped = {}",
+                        name, mailbox.getRequestDepth(), dropped);
+            }
+        } else {
+            final long rejected = mailbox.incrementRejectedRequests();
+            if (isPowerOfTwo(rejected)) {
+                logger.warn("ServicePort队列已满，拒绝请求。name = {}, depth = {}, rejected = {}",
+                        name, mailbox.getRequestDepth(), rejected);
+            }
+            replyError(request, Response.STATUS_OVERLOADED, "ServicePort过载。port = " + name);
+        }
+    }
+
+    /**
+     * 投递{@link Response}
+     * <p>应答总是入队，不受 {@link OverloadPolicy} 限制：每个应答对应当前port一个等待中的调用，数量由发出的调用决定，
+     * 丢弃应答只会让调用方等到超时，并且可能让等待应答的port一直处理不完队列。</p>
+     */
     public void addResponse(Response response) {
-        receivedResponses.add(response);
+        mailbox.offerResponse(response);
+        wakeup();
+    }
+
+    /**
+     * 批量投递{@link Request}
+     * <p>队列容量足够时一次入队，只唤醒一次port线程；否则逐条按照 {@link #addRequest(Request)} 处理。</p>
+     * @param requests 请求列表
+     * @return 入队的数量
+     */
+    public int addRequests(List<Request> requests) {
+        if (requests.isEmpty()) {
+            return 0;
+        }
+        if (mailbox.offerRequests(requests, mailbox.getRequestCapacity())) {
+            wakeup();
+            return requests.size();
+        }
+        int count = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            if (addRequest(requests.get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 批量投递{@link Response}，一次入队，只唤醒一次port线程
+     * @param responses 应答列表
+     */
+    public void addResponses(List<Response> responses) {
+        if (responses.isEmpty()) {
+            return;
+        }
+        mailbox.offerResponses(responses);
+        wakeup();
+    }
+
+    /**
+     * 日志按1、2、4、8...的间隔输出，避免过载时刷屏
+     */
+    private static boolean isPowerOfTwo(long n) {
+        return (n & (n - 1)) == 0;
+    }
+
+    /**
+     * 请求调用的方法是否单向方法，找不到服务时按需要返回值处理
+     */
+    private boolean isOneWay(Request request) {
+        final RpcInvocation rpcInvocation = request.getRpcInvocation();
+        if (rpcInvocation.isCompact()) {
+            final ServiceInvoker serviceInvoker = serviceInvokersById.get(rpcInvocation.getServiceId());
+            return serviceInvoker != null && serviceInvoker.isOneWay(rpcInvocation.getMethodId());
+        }
+        final ServiceInvoker serviceInvoker = serviceInvokers.get(rpcInvocation.getCallPoint().getService());
+        return serviceInvoker != null && serviceInvoker.isOneWay(rpcInvocation.getMethodName());
+    }
+
+    /**
+     * {@link OverloadPolicy#BACKPRESSURE} 模式下请求队列已满，投递方应该暂停投递请求
+     */
+    public boolean isBackpressured() {
+        return overloadPolicy == OverloadPolicy.BACKPRESSURE
+                && mailbox.getRequestDepth() >= mailbox.getRequestCapacity();
+    }
+
+    /**
+     * 发送到目标node的连接是否可写
+     * <p>连接断开或者写缓冲超过高水位时返回 {@code false}，之后的消息按照 {@link org.game.core.transport.node.WritePolicy}
+     * 缓存或者丢弃，调用方可以暂停不重要的单向调用。发送到当前node不经过网络时总是可写。</p>
+     * <p>只按照当前node默认的 {@link LocalRouting} 判断，服务接口用 {@link LocalRoutingConfig} 单独指定时使用
+     * {@link #isNodeWritable(String, Class)}。</p>
+     * @param node 目标node名称
+     */
+    public boolean isNodeWritable(String node) {
+        if (node.equals(parentNode.getName()) && parentNode.getLocalRouting() != LocalRouting.TRANSPORT) {
+            return true;
+        }
+        return parentNode.getNode(node).isWritable();
+    }
+
+    /**
+     * 调用目标node上的服务时连接是否可写，按照服务接口的 {@link LocalRoutingConfig} 判断是否经过网络
+     * @param node 目标node名称
+     * @param serviceType 服务接口
+     * @see #isNodeWritable(String)
+     */
+    public boolean isNodeWritable(String node, Class<?> serviceType) {
+        if (parentNode.getLocalRouting(node, serviceType) != LocalRouting.TRANSPORT) {
+            return true;
+        }
+        return parentNode.getNode(node).isWritable();
+    }
+
+    /**
+     * 注册请求队列降到一半容量以下时执行的回调，只执行一次
+     * <p>回调在port线程执行；注册时已经低于一半容量则在当前线程立即执行。</p>
+     * @param callback 回调
+     */
+    public void onDrained(Runnable callback) {
+        drainedCallbacks.add(callback);
+        // 注册之后再检查一次，避免port线程在注册之前已经处理完队列
+        if (isDrained()) {
+            runDrainedCallbacks();
+        }
+    }
+
+    private boolean isDrained() {
+        return mailbox.getRequestDepth() <= mailbox.getRequestCapacity() / 2;
+    }
+
+    private void runDrainedCallbacks() {
+        Runnable callback;
+        // 回调中可能投递消息后重新注册，队列再次超过一半时留到下次
+        while (isDrained() && (callback = drainedCallbacks.poll()) != null) {
+            try {
+                callback.run();
+            } catch (Throwable t) {
+                logger.error("ServicePort执行drained回调出错。name = {}", name, t);
+            }
+        }
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * 设置超过队列容量的处理策略
+     * @param overloadPolicy 处理策略
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    public int getRequestCapacity() {
+        return mailbox.getRequestCapacity();
+    }
+
+    /**
+     * 设置{@link Request}队列容量，需要在port启动之前设置
+     * @param requestCapacity 队列容量
+     */
+    public void setRequestCapacity(int requestCapacity) {
+        if (requestCapacity <= 0) {
+            throw new IllegalArgumentException("requestCapacity must be positive. requestCapacity = " + requestCapacity);
+        }
+        mailbox.setRequestCapacity(requestCapacity);
+    }
+
+    /**
+     * 等待处理的{@link Request}数量
+     */
+    public int getRequestDepth() {
+        return mailbox.getRequestDepth();
+    }
+
+    /**
+     * 等待处理的{@link Response}数量
+     */
+    public int getResponseDepth() {
+        return mailbox.getResponseDepth();
+    }
+
+    /**
+     * 累计因过载返回错误应答的请求数量
+     */
+    public long getRejectedRequests() {
+        return mailbox.getRejectedRequests();
+    }
+
+    /**
+     * 累计因过载丢弃的单向请求数量
+     */
+    public long getDroppedOneWayRequests() {
+        return mailbox.getDroppedOneWayRequests();
+    }
+
+    /**
+     * 唤醒park等待中的port线程
+     */
+    void wakeup() {
+        final PortWorkerPool pool = workerPool;
+        if (pool != null) {
+            schedule(pool);
+            return;
+        }
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(ownerThread);
+        }
+    }
+
+    /**
+     * M:N调度：提交到worker线程池执行，已经提交过的不会重复提交
+     */
+    private void schedule(PortWorkerPool pool) {
+        if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+            pool.execute(this::runSlice);
+        }
+    }
+
+    /**
+     * 使用M:N调度，由worker线程池执行port
+     * @param pool worker线程池
+     */
+    void attach(PortWorkerPool pool) {
+        if (ownerThread != null || workerPool != null) {
+            throw new IllegalStateException("ServicePort已经启动。name = " + name);
+        }
+        this.workerPool = pool;
+        schedule(pool);
+    }
+
+    /**
+     * M:N调度：worker线程池停止后结束等待中的协程，port不会再被调度
+     */
+    void shutdownFibers() {
+        bindCurrentThread(this);
+        ownerThread = Thread.currentThread();
+        try {
+            fiberScheduler.shutdown();
+        } finally {
+            ownerThread = null;
+            bindCurrentThread(null);
+        }
+    }
+
+    /**
+     * M:N调度：在worker线程上执行一次心跳
+     */
+    private void runSlice() {
+        final long t1 = System.nanoTime();
+        bindCurrentThread(this);
+        ownerThread = Thread.currentThread();
+        try {
+            if (!initialized) {
+                initialized = true;
+                init();
+            }
+            pulseOne();
+        } catch (Throwable t) {
+            logger.error("ServicePort执行出错。name = {}", name, t);
+        } finally {
+            ownerThread = null;
+            bindCurrentThread(null);
+            // 在释放调度标记之前安排下一帧，保证scheduledFrameTick只被一个线程访问。
+            // 帧时间没有变化但是定时器已经到期（这次执行没有到帧时间），需要重新安排
+            final PortWorkerPool pool = workerPool;
+            if (nextFrameTick != scheduledFrameTick || !frameTimerArmed) {
+                if (frameTimer != null) {
+                    // 之前安排的帧已经过时，取消后从定时器队列中移除
+                    frameTimer.cancel(false);
+                }
+                scheduledFrameTick = nextFrameTick;
+                frameTimerArmed = true;
+                frameTimer = pool.scheduleFrame(() -> {
+                    frameTimerArmed = false;
+                    schedule(pool);
+                }, Math.max(0L, nextFrameTick + 1 - System.currentTimeMillis()));
+            }
+            PortWorkerPool.recordSlice(System.nanoTime() - t1);
+            scheduled.set(false);
+            // 释放之后再检查一次，避免丢失执行期间投递的消息和到期的帧定时器
+            if (hasPendingWork() || !frameTimerArmed) {
+                schedule(pool);
+            }
+        }
+    }
+
+    /**
+     * 有未处理的消息或者就绪的协程
+     */
+    private boolean hasPendingWork() {
+        return !mailbox.isEmpty() || fiberScheduler.hasReady();
+    }
+
+    public int getDrainBatchSize() {
+        return drainBatchSize;
+    }
+
+    /**
+     * 设置单次批量处理的最大消息数量
+     * @param drainBatchSize 最大消息数量，{@link Request} 和 {@link Response} 合计
+     */
+    public void setDrainBatchSize(int drainBatchSize) {
+        if (drainBatchSize <= 0) {
+            throw new IllegalArgumentException("drainBatchSize must be positive. drainBatchSize = " + drainBatchSize);
+        }
+        this.drainBatchSize = drainBatchSize;
+    }
+
+    /**
+     * 设置单次批量处理的时间预算，超过预算后先执行帧逻辑
+     * @param budget 时间预算
+     * @param unit 时间单位
+     */
+    public void setDrainBudget(long budget, TimeUnit unit) {
+        this.drainBudgetNanos = unit.toNanos(budget);
+    }
+
+    /**
+     * 最近一次批量处理的消息数量
+     */
+    public int getLastDrainCount() {
+        return lastDrainCount;
+    }
+
+    /**
+     * 累计处理的消息数量
+     */
+    public long getTotalDrainCount() {
+        return totalDrainCount;
+    }
+
+    public boolean isWriteCoalescing() {
+        return writeCoalescing;
+    }
+
+    /**
+     * 设置是否合并写出
+     * @param writeCoalescing {@code true} 心跳中发送的消息在心跳结束时一起写出，{@code false} 每条消息立即写出
+     */
+    public void setWriteCoalescing(boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+    }
+
+    /**
+     * 合并写出的缓存，只能在port线程访问
+     */
+    public WriteCoalescer getWriteCoalescer() {
+        return writeCoalescer;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * 设置执行 {@link Request} 的方式
+     * @param executionMode 执行方式
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * 阻塞等待future完成
+     * <p>在 {@link ExecutionMode#FIBER} 模式的协程中让出执行权等待；否则循环执行 {@link #pulseOne()} 等待。</p>
+     * @param future 等待的future
+     * @param timeoutMillis 最长等待时间
+     * @return future已经完成返回 {@code true}，超时返回 {@code false}
+     */
+    public boolean waitFuture(CompletableFuture<?> future, long timeoutMillis) {
+        if (future.isDone()) {
+            return true;
+        }
+        // 等待之前先写出缓存的请求
+        writeCoalescer.flush();
+        if (fiberScheduler.inFiber()) {
+            return fiberScheduler.await(future, timeoutMillis);
+        }
+        final long t1 = System.currentTimeMillis();
+        while (!future.isDone()) {
+            pulseOne();
+            if (System.currentTimeMillis() - t1 > timeoutMillis) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 协程等待超时的定时任务
+     */
+    Timeout scheduleFiberTimeout(Runnable task, long timeoutMillis) {
+        return timingWheel.newTimeout(task, System.currentTimeMillis() + timeoutMillis);
+    }
+
+    /**
+     * 未执行完的协程数量
+     */
+    public int getActiveFibers() {
+        return fiberScheduler.getActiveFibers();
+    }
+
+    /**
+     * 绑定当前线程所属的port
+     */
+    static void bindCurrentThread(ServicePort servicePort) {
+        if (servicePort == null) {
+            THREAD_LOCAL_SERVICE_PORT.remove();
+        } else {
+            THREAD_LOCAL_SERVICE_PORT.set(servicePort);
+        }
+    }
+
+    public boolean isMailboxMode() {
+        return mailboxMode;
+    }
+
+    /**
+     * 设置信箱模式
+     * @param mailboxMode {@code true} 有消息时唤醒，{@code false} 每1毫秒轮询
+     */
+    public void setMailboxMode(boolean mailboxMode) {
+        this.mailboxMode = mailboxMode;
     }
 
     /** 线程所属node */
@@ -77,6 +649,13 @@ public class ServicePort implements Runnable {
         return THREAD_LOCAL_SERVICE_PORT.get();
     }
 
+    /**
+     * 定时任务调度，任务在当前port线程执行
+     */
+    public PortScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * RPC调用地址
      */
@@ -85,7 +664,23 @@ public class ServicePort implements Runnable {
     }
 
     public void addService(String name, Service service) {
+        final ServiceInvoker serviceInvoker;
+        try {
+            serviceInvoker = ServiceInvoker.create(name, service);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("创建Service调用表失败。name = " + name, e);
+        }
+        final int serviceId = serviceInvoker.getDescriptor().getServiceId();
+        final ServiceInvoker exist = serviceInvokersById.get(serviceId);
+        if (exist != null && !exist.getDescriptor().getName().equals(name)) {
+            throw new IllegalStateException("serviceId冲突。name = " + name + ", exist = " + exist.getDescriptor().getName());
+        }
+        final IntObjectMap<ServiceInvoker> invokersById = new IntObjectHashMap<>(serviceInvokersById.size() + 1);
+        invokersById.putAll(serviceInvokersById);
+        invokersById.put(serviceId, serviceInvoker);
         services.put(name, service);
+        serviceInvokers.put(name, serviceInvoker);
+        serviceInvokersById = invokersById;
         logger.info("Service added. name = {}", name);
     }
 
@@ -100,17 +695,23 @@ public class ServicePort implements Runnable {
     @Override
     public String toString() {
         return new ToStringBuilder(this).append("name", name)
+                .append("index", index)
                 .toString();
     }
 
     @Override
     public void run() {
         THREAD_LOCAL_SERVICE_PORT.set(this);
+        ownerThread = Thread.currentThread();
 
         init();
 
         pulse();
 
+        // 线程中断后结束等待中的协程，释放协程线程
+        fiberScheduler.shutdown();
+
+        ownerThread = null;
         THREAD_LOCAL_SERVICE_PORT.set(null);
     }
 
@@ -124,40 +725,103 @@ public class ServicePort implements Runnable {
 
     private void pulse() {
         while (!Thread.currentThread().isInterrupted()) {
-            while (true) {
-                if (!pulseOne()) {
-                    try {
-                        Thread.sleep(1L);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+            if (pulseOne()) {
+                continue;
+            }
+            if (mailboxMode) {
+                idle();
+            } else {
+                try {
+                    Thread.sleep(1L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
         }
     }
 
+    /**
+     * 没有消息时park，直到有新消息投递或者到达下一帧的时间
+     */
+    private void idle() {
+        parked.set(true);
+        // 设置park标记之后再检查一次，避免丢失park之前投递的消息
+        if (hasPendingWork()) {
+            parked.set(false);
+            return;
+        }
+        final long waitMillis = nextFrameTick + 1 - System.currentTimeMillis();
+        if (waitMillis > 0) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitMillis));
+        }
+        parked.set(false);
+    }
+
     /**
      * 单次执行心跳
+     * <p>批量处理消息，直到达到 {@link #drainBatchSize} 条、用完时间预算或者到达下一帧，然后执行帧逻辑。</p>
      * @return 只要执行一个 {@link Request} 或者 {@link Response} 就返回 {@code true}
      */
     public boolean pulseOne() {
-        final boolean execRequest = pollRequest();
-        final boolean execResponse = pollResponse();
+        final long now = drain(System.currentTimeMillis());
+        if (!drainedCallbacks.isEmpty() && isDrained()) {
+            runDrainedCallbacks();
+        }
         // 每帧逻辑
-        final long now = System.currentTimeMillis();
         if (now > nextFrameTick) {
             nextFrameTick = now + ONE_FRAME_MILLIS;
 
-            final long t1 = System.currentTimeMillis();
             servicePulse(now);
-            final long interval = System.currentTimeMillis() - t1;
+            final long interval = System.currentTimeMillis() - now;
             if (interval > 100L) {
                 logger.warn("servicePulse > 100 Millis. interval = {}", interval);
             }
 
-            futureTimeout();
+            timingWheel.advance(now);
         }
-        return execRequest || execResponse;
+        // 心跳结束，写出这次心跳中发送的消息
+        writeCoalescer.flush();
+        return lastDrainCount > 0;
+    }
+
+    /**
+     * 交替批量处理 {@link Request} 和 {@link Response}
+     * @param now 开始处理的时间
+     * @return 处理结束的时间
+     */
+    private long drain(long now) {
+        // 时间预算不超过下一帧，保证帧逻辑按时执行
+        final long budgetNanos = Math.min(drainBudgetNanos, TimeUnit.MILLISECONDS.toNanos(Math.max(0L, nextFrameTick - now)));
+        final long startNanos = System.nanoTime();
+        // 超时等唤醒的协程
+        int count = fiberScheduler.resumeReady();
+        while (count < drainBatchSize) {
+            final int chunkSize = Math.min(DRAIN_CHUNK_SIZE, drainBatchSize - count);
+            final int requestCount = mailbox.drainRequests(requestHandler, chunkSize);
+            final int responseCount = mailbox.drainResponses(responseHandler, chunkSize);
+            if (requestCount == 0 && responseCount == 0) {
+                break;
+            }
+            count += requestCount + responseCount;
+            if (responseCount > 0) {
+                // 应答唤醒的协程
+                count += fiberScheduler.resumeReady();
+            }
+            // 每取一批消息检查一次时间预算和合并写出的延迟，减少读取时钟的次数
+            final long nanoTime = System.nanoTime();
+            if (writeCoalescer.isExpired(nanoTime)) {
+                writeCoalescer.flush();
+            }
+            if (nanoTime - startNanos >= budgetNanos) {
+                break;
+            }
+        }
+        lastDrainCount = count;
+        if (count == 0) {
+            return now;
+        }
+        totalDrainCount += count;
+        return now + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
     }
 
     private void servicePulse(long now) {
@@ -168,91 +832,155 @@ public class ServicePort implements Runnable {
         }
     }
 
-    private void futureTimeout() {
-        allFutureTimeout.entrySet().removeIf(entry -> {
-            final DefaultFuture defaultFuture = entry.getValue();
-            final boolean timeout = defaultFuture.isTimeout();
-            if (timeout) {
-                defaultFuture.cancel(true);
-                logger.warn("DefaultFuture超时。defaultFuture = {}", defaultFuture.toString());
+    private void handleResponse(Response response) {
+        logger.debug("execute response = {}", response);
+        final DefaultFuture future = pendingCalls.remove(response.getId());
+        if (future == null) {
+            logger.warn("handleResponse. future已经超时或者不存在。response = {}", response);
+            return;
+        }
+        future.cancelTimeoutTask();
+        if (response.getEncodedResult() != null) {
+            // 按消息头派发的应答在port线程解码
+            try {
+                response.setResult(Hessian2Utils.decode(response.getEncodedResult()));
+                response.setEncodedResult(null);
+            } catch (IOException | RuntimeException e) {
+                logger.error("handleResponse. 应答数据解码失败。response = {}", response, e);
+                future.completeExceptionally(e);
+                return;
             }
-            return timeout;
-        });
-    }
-
-    private boolean pollResponse() {
-        final Response response = receivedResponses.poll();
-        if (response == null) {
-            return false;
         }
-        logger.debug("execute response = {}", response);
-        final DefaultFuture future = DefaultFuture.getFuture(response.getId());
-        if (response.getStatus() == 0) {
+        if (response.getStatus() == Response.STATUS_OK) {
             future.complete(response.getResult());
         } else {
-            future.completeExceptionally(new RuntimeException("出现错误!"));
+            future.completeExceptionally(new RuntimeException("出现错误! status = " + response.getStatus()
+                    + ", message = " + response.getResult()));
+        }
+        logger.debug("remove future. future = {}, threadId = {}", future, Thread.currentThread().getId());
+    }
+
+    private void handleRequest(Request request) {
+        if (executionMode == ExecutionMode.FIBER) {
+            fiberScheduler.execute(() -> executeRequest(request));
+        } else {
+            executeRequest(request);
         }
-        final DefaultFuture removeFuture = allFutureTimeout.remove(response.getId());
-        logger.debug("remove future. future = {}, threadId = {}", removeFuture, Thread.currentThread().getId());
-        return true;
     }
 
-    private boolean pollRequest() {
-        final Request request = receivedRequests.poll();
-        if (request == null) {
-            return false;
+    private void executeRequest(Request request) {
+        final RpcInvocation rpcInvocation = request.getRpcInvocation();
+        final ServiceInvoker serviceInvoker = findServiceInvoker(request);
+        if (serviceInvoker == null) {
+            return;
         }
-        RpcInvocation rpcInvocation = request.getRpcInvocation();
-        final String serviceName = rpcInvocation.getCallPoint().getService();
-        final String methodName = rpcInvocation.getMethodName();
-        final Service service = services.get(serviceName);
-        if (service == null) {
-            logger.warn("service == null.serviceName = {}", serviceName);
+        final Object result;
+        try {
+            if (rpcInvocation.isCompact()) {
+                result = serviceInvoker.invoke(rpcInvocation.getMethodId(), rpcInvocation.getMethodArgs());
+            } else {
+                result = serviceInvoker.invoke(rpcInvocation.getMethodName(), rpcInvocation.getMethodArgs());
+            }
+        } catch (Throwable e) {
+            final String methodName = methodName(serviceInvoker, rpcInvocation);
+            logger.error("RPC执行失败。serviceName = {}, methodName = {}", serviceInvoker.getDescriptor().getName(), methodName, e);
+            final boolean oneWay = rpcInvocation.isCompact()
+                    ? serviceInvoker.isOneWay(rpcInvocation.getMethodId())
+                    : serviceInvoker.isOneWay(rpcInvocation.getMethodName());
+            if (!oneWay) {
+                replyError(request, Response.STATUS_ERROR, "RPC执行失败。methodName = " + methodName + ", e = " + e);
+            }
+            return;
+        }
+        if (result == null) {
+            logger.debug("RPC return type : void");
         } else {
-            try {
-                final Object result = MethodUtils.invokeExactMethod(service, methodName, rpcInvocation.getMethodArgs());
-                if (result == null) {
-                    logger.debug("RPC return type : void");
-                } else {
-                    if (result instanceof CompletableFuture) {
-                        // 返回应答消息
-                        final CompletableFuture<?> completableFuture = (CompletableFuture<?>) result;
-                        completableFuture.whenComplete((o, throwable) -> {
-                            final Response response = new Response(request.getId(), 0);
-                            response.setResult(o);
-
-                            final String replyNodeName = request.getRpcInvocation().getFromPoint().getNode();
-                            sendResponse(response, replyNodeName);
-                        });
-                    } else {
-                        // Integer,Long,String等数据类型直接返回
-                        final Response response = new Response(request.getId(), 0);
-                        response.setResult(result);
-
-                        final String replyNodeName = request.getRpcInvocation().getFromPoint().getNode();
-                        sendResponse(response, replyNodeName);
+            if (result instanceof CompletableFuture) {
+                // 返回应答消息
+                final CompletableFuture<?> completableFuture = (CompletableFuture<?>) result;
+                completableFuture.whenComplete((o, throwable) -> {
+                    if (throwable != null) {
+                        replyError(request, Response.STATUS_ERROR, "RPC异步执行失败。e = " + throwable);
+                        return;
                     }
-                }
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
+                    final Response response = new Response(request.getId(), Response.STATUS_OK);
+                    response.setResult(o);
+                    sendResponse(request, response);
+                });
+            } else {
+                // Integer,Long,String等数据类型直接返回
+                final Response response = new Response(request.getId(), Response.STATUS_OK);
+                response.setResult(result);
+                sendResponse(request, response);
             }
         }
-        return true;
     }
 
-    private void sendResponse(Response response, String replyNodeName) {
-        final ServiceNode curNode = ServicePort.getServicePort().getServiceNode();
-        if (!ServiceConsts.RPC_ALWAYS_USE_TRANSPORT && replyNodeName.equals(curNode.getName())) {
+    /**
+     * 查找执行 {@link Request} 的服务
+     * <p>紧凑格式的请求通过服务id查找，并检查接口版本，不一致时直接返回错误应答。</p>
+     * @return 没有找到或者接口版本不一致返回 {@code null}
+     */
+    private ServiceInvoker findServiceInvoker(Request request) {
+        final RpcInvocation rpcInvocation = request.getRpcInvocation();
+        if (!rpcInvocation.isCompact()) {
+            final String serviceName = rpcInvocation.getCallPoint().getService();
+            final ServiceInvoker serviceInvoker = serviceInvokers.get(serviceName);
+            if (serviceInvoker == null) {
+                logger.warn("service == null.serviceName = {}", serviceName);
+            }
+            return serviceInvoker;
+        }
+        final ServiceInvoker serviceInvoker = serviceInvokersById.get(rpcInvocation.getServiceId());
+        if (serviceInvoker == null) {
+            logger.warn("service == null.serviceId = {}", rpcInvocation.getServiceId());
+            replyError(request, Response.STATUS_ERROR, "service不存在。serviceId = " + rpcInvocation.getServiceId());
+            return null;
+        }
+        final ServiceDescriptor descriptor = serviceInvoker.getDescriptor();
+        if (descriptor.getVersion() != rpcInvocation.getServiceVersion()) {
+            logger.error("RPC接口版本不一致。serviceName = {}, version = {}, request version = {}, fromPoint = {}",
+                    descriptor.getName(), descriptor.getVersion(), rpcInvocation.getServiceVersion(), rpcInvocation.getFromPoint());
+            replyError(request, Response.STATUS_VERSION_MISMATCH, "RPC接口版本不一致。serviceName = " + descriptor.getName());
+            return null;
+        }
+        return serviceInvoker;
+    }
+
+    private static String methodName(ServiceInvoker serviceInvoker, RpcInvocation rpcInvocation) {
+        if (!rpcInvocation.isCompact()) {
+            return rpcInvocation.getMethodName();
+        }
+        final int methodId = rpcInvocation.getMethodId();
+        final ServiceDescriptor descriptor = serviceInvoker.getDescriptor();
+        return methodId >= 0 && methodId < descriptor.getMethodCount()
+                ? descriptor.getMethod(methodId).getName() : "methodId:" + methodId;
+    }
+
+    /**
+     * 返回错误应答
+     */
+    private void replyError(Request request, int status, String message) {
+        final Response response = new Response(request.getId(), status);
+        response.setResult(message);
+        sendResponse(request, response);
+    }
+
+    /**
+     * 返回应答：请求没有经过网络时（{@link Request#getLocalRouting()}）按照相同的传递方式直接派发，否则通过网络发送
+     */
+    private void sendResponse(Request request, Response response) {
+        // 过载拒绝时在投递线程返回应答，不能依赖当前线程的port
+        final ServiceNode curNode = parentNode;
+        final LocalRouting localRouting = request.getLocalRouting();
+        if (localRouting == LocalRouting.REFERENCE || localRouting == LocalRouting.COPY) {
             // 当前node，直接转发
-            // 返回应答消息
+            if (localRouting == LocalRouting.COPY) {
+                response.setResult(ObjectCopier.copy(response.getResult()));
+            }
             curNode.dispatchResponse(response);
         } else {
-            // TODO code 网络发送rpc应答
-            curNode.getNode(replyNodeName).send(response);
+            curNode.getNode(request.getRpcInvocation().getFromPoint().getNode()).send(response);
         }
     }
 }
@@ -1,9 +1,9 @@
 package org.game.core.exchange;
 
+import org.game.core.LocalRouting;
 import org.game.core.RpcInvocation;
 
 import java.io.Serializable;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * rpc请求对应
@@ -12,16 +12,17 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public final class Request implements Serializable {
 
-    private static transient final AtomicLong INVOKE_ID = new AtomicLong();
-
     private static final long serialVersionUID = 9104092580669691633L;
 
-    /** 请求id */
+    /** 请求id，由 {@link org.game.core.ServicePort#allocCallId()} 分配，见 {@link org.game.core.CallId} */
     private Long id;
 
     /** rpc调用数据 */
     private RpcInvocation rpcInvocation;
 
+    /** 同一个node内不经过网络派发时的传递方式，应答使用相同的方式返回；通过网络收到的请求为 {@code null} */
+    private transient LocalRouting localRouting;
+
     public Request() {
         this.id = 0L;
     }
@@ -30,10 +31,6 @@ public final class Request implements Serializable {
         this.id = id;
     }
 
-    public static long allocId() {
-        return INVOKE_ID.getAndIncrement();
-    }
-
     public Long getId() {
         return id;
     }
@@ -45,4 +42,12 @@ public final class Request implements Serializable {
     public void setRpcInvocation(RpcInvocation rpcInvocation) {
         this.rpcInvocation = rpcInvocation;
     }
+
+    public LocalRouting getLocalRouting() {
+        return localRouting;
+    }
+
+    public void setLocalRouting(LocalRouting localRouting) {
+        this.localRouting = localRouting;
+    }
 }
@@ -6,7 +6,8 @@ import java.io.Serializable;
 
 /**
  * rpc请求应答对象
- * <p>应答数据保存在 {@code result} 中。</p>
+ * <p>应答数据保存在 {@code result} 中。按消息头派发的应答（见 {@link org.game.core.transport.ExchangeCodec#FEATURE_RESPONSE_HEAD}）
+ * 收到时只有调用id和状态，应答数据保存在 {@code encodedResult} 中，由接收的port线程解码。</p>
  *
  * @author Ziegler
  * date 2021/4/12
@@ -15,9 +16,20 @@ public final class Response implements Serializable {
 
     private static final long serialVersionUID = 9104092580669691633L;
 
+    /** 成功 */
+    public static final int STATUS_OK = 0;
+    /** 服务端执行rpc出错，{@code result} 为错误信息 */
+    public static final int STATUS_ERROR = 1;
+    /** 调用方和服务方的接口版本不一致，{@code result} 为错误信息 */
+    public static final int STATUS_VERSION_MISMATCH = 2;
+    /** 服务方ServicePort过载，请求没有执行，{@code result} 为错误信息 */
+    public static final int STATUS_OVERLOADED = 3;
+
     private Long id;
-    private int status = 0;
+    private int status = STATUS_OK;
     private Object result;
+    /** 还没有解码的应答数据 */
+    private transient byte[] encodedResult;
 
     public Response() {
     }
@@ -51,6 +63,17 @@ public final class Response implements Serializable {
         this.result = result;
     }
 
+    /**
+     * 还没有解码的应答数据，已经解码或者不是按消息头派发的应答返回 {@code null}
+     */
+    public byte[] getEncodedResult() {
+        return encodedResult;
+    }
+
+    public void setEncodedResult(byte[] encodedResult) {
+        this.encodedResult = encodedResult;
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this)
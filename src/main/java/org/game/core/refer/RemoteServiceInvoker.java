@@ -65,33 +65,36 @@ public class RemoteServiceInvoker<T> implements InvocationHandler {
         // 当前线程的调用点
         final FromPoint fromPoint = ServicePort.getServicePort().getFromPoint();
 
+        // 调用当前node的服务时按照传递方式决定是否经过网络，复制时在当前线程复制参数
+        final LocalRouting localRouting = ServicePort.getServicePort().getServiceNode().getLocalRouting(callPoint.getNode(), type);
+        final Object[] methodArgs = localRouting == LocalRouting.COPY ? ObjectCopier.copyArgs(args) : args;
+
         // rpc调用
-        final Request request = new Request(Request.allocId());
+        final Request request = new Request(ServicePort.getServicePort().allocCallId());
 
-        final RpcInvocation rpcInvocation = new RpcInvocation(fromPoint, callPoint, method, args);
+        // 紧凑格式使用服务id，调用点不包含服务名称
+        final RpcInvocation rpcInvocation = ServiceConsts.RPC_COMPACT_INVOCATION
+                ? RpcInvocation.compact(fromPoint, new CallPoint(callPoint.getNode(), callPoint.getPort(), null),
+                        ServiceDescriptor.of(type), method, methodArgs)
+                : new RpcInvocation(fromPoint, callPoint, method, methodArgs);
         request.setRpcInvocation(rpcInvocation);
+        request.setLocalRouting(localRouting);
 
-        // 当前node节点，无需网络，直接分发
         if (rpcInvocation.isOneWay()) {
             // 分发Request
             sendRequest(request, callPoint.getNode());
             return null;
         } else {
             // 等待rpc返回
-            DefaultFuture future = DefaultFuture.newFuture(request, 30 * 1000);
+            DefaultFuture future = DefaultFuture.newFuture(request.getId(), 30 * 1000);
             // 分发Request
             sendRequest(request, callPoint.getNode());
             if (rpcInvocation.isCompletableFuture()) {
                 return future;
             }
 
-            final long t1 = System.currentTimeMillis();
-            while (!future.isDone()) {
-                // 判断当前是ServicePort线程
-                ServicePort.getServicePort().pulseOne();
-                if (System.currentTimeMillis() - t1 > 10 * 1000) {
-                    return new TimeoutException("RPC阻塞调用超时。");
-                }
+            if (!ServicePort.getServicePort().waitFuture(future, 10 * 1000)) {
+                return new TimeoutException("RPC阻塞调用超时。");
             }
 
             return future.get();
@@ -100,8 +103,8 @@ public class RemoteServiceInvoker<T> implements InvocationHandler {
 
     private void sendRequest(Request request, String callNodeName) {
         final ServiceNode curNode = ServicePort.getServicePort().getServiceNode();
-        if (!ServiceConsts.RPC_ALWAYS_USE_TRANSPORT && callNodeName.equals(curNode.getName())) {
-            // 不走网络，直接派发数据
+        if (request.getLocalRouting() != LocalRouting.TRANSPORT) {
+            // 当前node节点，不走网络，直接派发数据
             curNode.dispatchRequest(request);
         } else {
             curNode.getNode(callNodeName).send(request);
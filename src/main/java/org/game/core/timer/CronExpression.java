@@ -0,0 +1,197 @@
+package org.game.core.timer;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * cron表达式
+ * <p>支持6个字段 {@code 秒 分 时 日 月 周}，或者省略秒的5个字段 {@code 分 时 日 月 周}（秒为0）。</p>
+ * <ul>
+ *     <li>每个字段支持：{@code *}、{@code ?}、数字、范围 {@code 1-5}、列表 {@code 1,3,5}、步长 {@code *}{@code /15}、{@code 10-40/10}</li>
+ *     <li>月份：1-12 或者 JAN-DEC</li>
+ *     <li>周：0-7（0和7都是周日）或者 SUN-SAT</li>
+ *     <li>日和周同时指定时，满足任意一个即可；其中一个为 {@code *} 或者 {@code ?} 时只看另一个</li>
+ * </ul>
+ * <p>例如：{@code 0 0 4 * * ?} 每天4点，{@code 0 *}{@code /5 * * * ?} 每5分钟，{@code 0 30 20 ? * MON-FRI} 工作日20点30分。</p>
+ */
+public final class CronExpression {
+
+    private static final String[] MONTH_NAMES = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+            "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    /** 查找下一次执行时间的最大范围 */
+    private static final int MAX_SEARCH_YEARS = 5;
+
+    private final String expression;
+    private final BitSet seconds;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    /** 0-6，0为周日 */
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    private CronExpression(String expression) {
+        this.expression = expression;
+        final String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5 && fields.length != 6) {
+            throw new IllegalArgumentException("cron表达式需要5或者6个字段。expression = " + expression);
+        }
+        final int offset = fields.length == 6 ? 1 : 0;
+        this.seconds = offset == 1 ? parseField(fields[0], 0, 59, null) : single(0);
+        this.minutes = parseField(fields[offset], 0, 59, null);
+        this.hours = parseField(fields[offset + 1], 0, 23, null);
+        this.anyDayOfMonth = isAny(fields[offset + 2]);
+        this.daysOfMonth = parseField(fields[offset + 2], 1, 31, null);
+        this.months = parseField(fields[offset + 3], 1, 12, MONTH_NAMES);
+        this.anyDayOfWeek = isAny(fields[offset + 4]);
+        final BitSet dayOfWeek = parseField(fields[offset + 4], 0, 7, DAY_NAMES);
+        if (dayOfWeek.get(7)) {
+            dayOfWeek.set(0);
+            dayOfWeek.clear(7);
+        }
+        this.daysOfWeek = dayOfWeek;
+    }
+
+    /**
+     * 解析cron表达式
+     * @param expression cron表达式
+     * @return 解析结果
+     * @throws IllegalArgumentException 表达式格式错误
+     */
+    public static CronExpression parse(String expression) {
+        return new CronExpression(expression);
+    }
+
+    /**
+     * 下一次执行的时间
+     * @param afterMillis 从这个时间戳之后开始查找（不包括）
+     * @param zoneId 时区
+     * @return 下一次执行的时间戳，找不到时返回 {@code -1}
+     */
+    public long nextTime(long afterMillis, ZoneId zoneId) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(afterMillis), zoneId)
+                .truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        final int maxYear = time.getYear() + MAX_SEARCH_YEARS;
+        while (time.getYear() <= maxYear) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+                continue;
+            }
+            if (!matchDay(time.toLocalDate())) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                continue;
+            }
+            if (!hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                continue;
+            }
+            if (!minutes.get(time.getMinute())) {
+                time = time.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+                continue;
+            }
+            if (!seconds.get(time.getSecond())) {
+                time = time.plusSeconds(1);
+                continue;
+            }
+            // 夏令时等情况下本地时间可能不存在，ZonedDateTime会自动调整
+            return ZonedDateTime.of(time, zoneId).toInstant().toEpochMilli();
+        }
+        return -1L;
+    }
+
+    private boolean matchDay(LocalDate date) {
+        final boolean dayOfMonth = daysOfMonth.get(date.getDayOfMonth());
+        final DayOfWeek week = date.getDayOfWeek();
+        final boolean dayOfWeek = daysOfWeek.get(week.getValue() % 7);
+        if (anyDayOfMonth) {
+            return dayOfWeek;
+        }
+        if (anyDayOfWeek) {
+            return dayOfMonth;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    private static boolean isAny(String field) {
+        return "*".equals(field) || "?".equals(field);
+    }
+
+    private static BitSet single(int value) {
+        final BitSet bitSet = new BitSet();
+        bitSet.set(value);
+        return bitSet;
+    }
+
+    private static BitSet parseField(String field, int min, int max, String[] names) {
+        final BitSet bitSet = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            String range = part;
+            final int slash = part.indexOf('/');
+            if (slash >= 0) {
+                range = part.substring(0, slash);
+                step = parseNumber(part.substring(slash + 1), 1, Integer.MAX_VALUE, null, field);
+            }
+            int from;
+            int to;
+            if ("*".equals(range) || "?".equals(range)) {
+                from = min;
+                to = max;
+            } else {
+                final int dash = range.indexOf('-');
+                if (dash > 0) {
+                    from = parseNumber(range.substring(0, dash), min, max, names, field);
+                    to = parseNumber(range.substring(dash + 1), min, max, names, field);
+                } else {
+                    from = parseNumber(range, min, max, names, field);
+                    // 5/10 表示从5开始，步长10
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from > to) {
+                throw new IllegalArgumentException("cron范围错误。field = " + field);
+            }
+            for (int i = from; i <= to; i += step) {
+                bitSet.set(i);
+            }
+        }
+        return bitSet;
+    }
+
+    private static int parseNumber(String value, int min, int max, String[] names, String field) {
+        if (names != null) {
+            final String upper = value.toUpperCase(Locale.ROOT);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(upper)) {
+                    // 月份从1开始，周从0开始
+                    return names.length == 12 ? i + 1 : i;
+                }
+            }
+        }
+        final int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("cron字段格式错误。field = " + field, e);
+        }
+        if (number < min || number > max) {
+            throw new IllegalArgumentException("cron字段超出范围。field = " + field + ", range = " + min + "-" + max);
+        }
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
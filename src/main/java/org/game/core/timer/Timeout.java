@@ -0,0 +1,73 @@
+package org.game.core.timer;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * {@link TimingWheel} 中的定时任务句柄
+ * <p>通过 {@link #cancel()} 取消任务，取消操作的时间复杂度为O(1)。</p>
+ */
+public final class Timeout {
+
+    private static final int ST_PENDING = 0;
+    private static final int ST_EXPIRED = 1;
+    private static final int ST_CANCELLED = 2;
+
+    private final TimingWheel wheel;
+    private final Runnable task;
+    /** 到期时间戳 */
+    private final long deadline;
+    /** 到期的tick */
+    final long deadlineTick;
+
+    private int state = ST_PENDING;
+
+    /** 所在的时间轮槽位 */
+    TimingWheel.Bucket bucket;
+    Timeout prev;
+    Timeout next;
+
+    Timeout(TimingWheel wheel, Runnable task, long deadline, long deadlineTick) {
+        this.wheel = wheel;
+        this.task = task;
+        this.deadline = deadline;
+        this.deadlineTick = deadlineTick;
+    }
+
+    /**
+     * 取消任务
+     * @return 任务未执行并且取消成功返回 {@code true}
+     */
+    public boolean cancel() {
+        if (state != ST_PENDING) {
+            return false;
+        }
+        state = ST_CANCELLED;
+        wheel.remove(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return state == ST_CANCELLED;
+    }
+
+    public boolean isExpired() {
+        return state == ST_EXPIRED;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    void expire() {
+        state = ST_EXPIRED;
+        task.run();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("deadline", deadline)
+                .append("state", state)
+                .toString();
+    }
+}
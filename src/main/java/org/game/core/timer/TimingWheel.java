@@ -0,0 +1,190 @@
+package org.game.core.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮
+ * <p>按固定的tick长度把到期时间散列到环形槽位中。添加和取消任务的时间复杂度为O(1)，每次推进时间只处理到期tick对应的槽位。</p>
+ * <p>非线程安全，只能在所属的 {@link org.game.core.ServicePort} 线程中使用。</p>
+ */
+public class TimingWheel {
+
+    /** 每个tick的时间长度 */
+    private final long tickMillis;
+    /** 时间轮槽位，数量为2的幂 */
+    private final Bucket[] buckets;
+    private final int mask;
+    /** 时间轮的起始时间 */
+    private final long startTime;
+    /** 已经处理完的tick */
+    private long currentTick;
+    /** 未到期的任务数量 */
+    private int size;
+    /** 推进时间轮时检查过的任务数量，包括没有到期的任务 */
+    private long visitedTimeouts;
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    /**
+     * @param tickMillis 每个tick的时间长度
+     * @param ticksPerWheel 槽位数量，向上取整为2的幂
+     * @param startTime 起始时间戳
+     */
+    public TimingWheel(long tickMillis, int ticksPerWheel, long startTime) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive. tickMillis = " + tickMillis);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel out of range. ticksPerWheel = " + ticksPerWheel);
+        }
+        final int length = ticksPerWheel == 1 ? 1 : Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.buckets = new Bucket[length];
+        for (int i = 0; i < length; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = length - 1;
+        this.startTime = startTime;
+    }
+
+    /**
+     * 添加定时任务
+     * @param task 到期时执行的任务
+     * @param delay 延迟时间
+     * @param unit 时间单位
+     * @return 任务句柄
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        return newTimeout(task, System.currentTimeMillis() + unit.toMillis(delay));
+    }
+
+    /**
+     * 添加定时任务
+     * @param task 到期时执行的任务
+     * @param deadline 到期时间戳，超过这个时间后的下一个tick执行
+     * @return 任务句柄
+     */
+    public Timeout newTimeout(Runnable task, long deadline) {
+        // 向上取整，保证不会提前执行
+        long deadlineTick = (deadline - startTime + tickMillis - 1) / tickMillis;
+        if (deadlineTick <= currentTick) {
+            deadlineTick = currentTick + 1;
+        }
+        final Timeout timeout = new Timeout(this, task, deadline, deadlineTick);
+        buckets[(int) (deadlineTick & mask)].add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 推进时间轮，执行所有到期的任务
+     * @param now 当前时间戳
+     * @return 执行的任务数量
+     */
+    public int advance(long now) {
+        final long targetTick = (now - startTime) / tickMillis;
+        if (targetTick <= currentTick) {
+            return 0;
+        }
+        // 间隔超过一圈时，每个槽位只需要处理一次
+        final long ticks = Math.min(targetTick - currentTick, buckets.length);
+        int expired = 0;
+        for (long i = 1; i <= ticks; i++) {
+            expired += buckets[(int) ((currentTick + i) & mask)].expire(targetTick);
+        }
+        currentTick = targetTick;
+        return expired;
+    }
+
+    /**
+     * 未到期的任务数量
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    long getVisitedTimeouts() {
+        return visitedTimeouts;
+    }
+
+    void remove(Timeout timeout) {
+        if (timeout.bucket != null) {
+            timeout.bucket.remove(timeout);
+            size--;
+        }
+    }
+
+    /**
+     * 时间轮槽位，双向链表
+     */
+    final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (tail == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            final Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            } else {
+                head = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * 执行槽位中到期的任务，未到期（后面几圈）的任务保留
+         * @return 执行的任务数量
+         */
+        int expire(long targetTick) {
+            int expired = 0;
+            Timeout timeout = head;
+            while (timeout != null) {
+                visitedTimeouts++;
+                final Timeout next = timeout.next;
+                if (timeout.deadlineTick <= targetTick) {
+                    remove(timeout);
+                    size--;
+                    try {
+                        timeout.expire();
+                    } catch (Throwable t) {
+                        logger.error("Timeout task error. timeout = {}", timeout, t);
+                    }
+                    expired++;
+                    // 任务中取消了同一槽位的后续任务时，从头重新遍历
+                    if (next != null && next.bucket != this) {
+                        timeout = head;
+                        continue;
+                    }
+                }
+                timeout = next;
+            }
+            return expired;
+        }
+    }
+}
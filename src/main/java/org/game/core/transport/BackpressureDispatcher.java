@@ -0,0 +1,141 @@
+package org.game.core.transport;
+
+import org.game.core.OverloadPolicy;
+import org.game.core.ServiceNode;
+import org.game.core.ServicePort;
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 按连接派发收到的消息，{@link OverloadPolicy#BACKPRESSURE} 模式下port队列已满时只暂停这个port的请求
+ * <p>一条连接上同时有请求和应答，暂停读取整条连接会挡住应答：port在等待应答时处理不完队列，队列也就不会恢复。
+ * 这里继续读取，发往已满port的请求按顺序暂存，port处理完一半后在读取线程继续投递；应答和发往其他port的请求照常派发。</p>
+ * <p>每个port最多暂存队列容量的请求，超过后按 {@link OverloadPolicy#REJECT} 处理，见 {@link ServicePort#rejectRequest(Request)}。</p>
+ * <p>每条连接一个对象，只在读取线程访问。</p>
+ */
+public final class BackpressureDispatcher {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(BackpressureDispatcher.class);
+
+    private final ServiceNode serviceNode;
+    /** 连接的读取线程，port恢复后在这里继续投递 */
+    private final Executor executor;
+    /** 连接的名称，用于日志 */
+    private final Object source;
+    /** 暂停的port和暂存的请求 */
+    private final Map<ServicePort, ArrayDeque<Request>> held = new HashMap<>();
+    /** 批量派发时没有暂停的消息 */
+    private final List<Object> passed = new ArrayList<>();
+
+    /**
+     * @param serviceNode 所属node
+     * @param executor 连接的读取线程
+     * @param source 连接的名称，用于日志
+     */
+    public BackpressureDispatcher(ServiceNode serviceNode, Executor executor, Object source) {
+        this.serviceNode = serviceNode;
+        this.executor = executor;
+        this.source = source;
+    }
+
+    /**
+     * 派发一个请求
+     */
+    public void dispatchRequest(Request request) {
+        final ServicePort servicePort = serviceNode.findRequestPort(request);
+        if (servicePort == null || !held.containsKey(servicePort)) {
+            check(serviceNode.dispatchRequest(request));
+        } else {
+            hold(servicePort, request);
+        }
+    }
+
+    /**
+     * 派发一个应答，应答总是立即投递
+     */
+    public void dispatchResponse(Response response) {
+        check(serviceNode.dispatchResponse(response));
+    }
+
+    /**
+     * 按顺序批量派发，见 {@link ServiceNode#dispatchBatch(List)}
+     */
+    public void dispatchBatch(List<?> messages) {
+        final List<?> dispatch;
+        if (held.isEmpty()) {
+            dispatch = messages;
+        } else {
+            for (int i = 0; i < messages.size(); i++) {
+                final Object msg = messages.get(i);
+                final ServicePort servicePort = msg instanceof Request ? serviceNode.findRequestPort((Request) msg) : null;
+                if (servicePort != null && held.containsKey(servicePort)) {
+                    hold(servicePort, (Request) msg);
+                } else {
+                    passed.add(msg);
+                }
+            }
+            dispatch = passed;
+        }
+        try {
+            final List<ServicePort> servicePorts = serviceNode.dispatchBatch(dispatch);
+            for (int i = 0; i < servicePorts.size(); i++) {
+                check(servicePorts.get(i));
+            }
+        } finally {
+            passed.clear();
+        }
+    }
+
+    /**
+     * 暂停请求的port数量
+     */
+    public int getPausedPorts() {
+        return held.size();
+    }
+
+    private void check(ServicePort servicePort) {
+        if (servicePort != null && servicePort.isBackpressured() && !held.containsKey(servicePort)) {
+            pause(servicePort);
+        }
+    }
+
+    private void pause(ServicePort servicePort) {
+        held.put(servicePort, new ArrayDeque<>());
+        logger.warn("ServicePort队列已满，暂停投递请求。port = {}, source = {}", servicePort.getName(), source);
+        servicePort.onDrained(() -> executor.execute(() -> resume(servicePort)));
+    }
+
+    private void hold(ServicePort servicePort, Request request) {
+        final ArrayDeque<Request> requests = held.get(servicePort);
+        if (requests.size() >= servicePort.getRequestCapacity()) {
+            servicePort.rejectRequest(request);
+            return;
+        }
+        requests.add(request);
+    }
+
+    /**
+     * port处理完一半，按顺序投递暂存的请求，仍然超过容量时继续暂停
+     */
+    private void resume(ServicePort servicePort) {
+        final ArrayDeque<Request> requests = held.remove(servicePort);
+        if (requests == null) {
+            return;
+        }
+        logger.info("ServicePort队列恢复，继续投递请求。port = {}, source = {}, held = {}", servicePort.getName(), source, requests.size());
+        if (!requests.isEmpty()) {
+            servicePort.addRequests(new ArrayList<>(requests));
+        }
+        check(servicePort);
+    }
+}
@@ -2,14 +2,23 @@ package org.game.core.transport;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.TooLongFrameException;
 import org.game.core.exchange.Request;
 import org.game.core.exchange.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.channels.ClosedChannelException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 编码和解码
@@ -19,8 +28,33 @@ import java.util.List;
  *     <li>{@link ExchangeCodec#FLAG_STRING} 对应 {@link String}</li>
  *     <li>{@link ExchangeCodec#FLAG_REQUEST} 对应 {@link Request}</li>
  *     <li>{@link ExchangeCodec#FLAG_RESPONSE} 对应 {@link Response}</li>
+ *     <li>{@link ExchangeCodec#FLAG_BATCH} 对应 {@link MessageBatch}</li>
+ *     <li>{@link ExchangeCodec#FLAG_HELLO} 对应 {@link NodeHello}，2字节连接序号、2字节连接数量和node名称</li>
+ *     <li>{@link ExchangeCodec#FLAG_RESPONSE_HEAD} 对应按消息头派发的 {@link Response}，见 {@link ExchangeCodec#FEATURE_RESPONSE_HEAD}</li>
  * </ul>
  * <p>2. 然后写入真实数据</p>
+ * <p>连接建立后双方发送 {@link ExchangeCodec#FLAG_HANDSHAKE} 握手，后面1字节是支持的功能 {@code FEATURE_*}。
+ * 收到对方的握手之后使用双方都支持的功能：</p>
+ * <ul>
+ *     <li>{@link ExchangeCodec#FEATURE_SESSION} 使用连接内的 {@link HessianSession} 编码，标记加上 {@link ExchangeCodec#FLAG_SESSION}。
+ *     握手之前的消息按单条消息独立编码。每个连接创建一个codec对象，重连后会话重新开始。</li>
+ *     <li>{@link ExchangeCodec#FEATURE_BATCH} 把 {@link MessageBatch} 编码为批量消息包：
+ *     {@code FLAG_BATCH(1) + count(2) + [flag(1) + length(2) + data(length)] * count}，
+ *     超过 {@link TransportConsts#BATCH_FRAME_MAX_BYTES} 后拆分到下一个消息包。对方不支持时逐条编码。</li>
+ *     <li>{@link ExchangeCodec#FEATURE_FRAGMENT} 把超过 {@link TransportConsts#FRAGMENT_SIZE} 的 {@link Request}、{@link Response}
+ *     拆分为多个分片：{@code FLAG_FRAGMENT(1) + streamId(4) + totalLength(4) + flag(1) + data}。第一个分片立即写出，
+ *     后面的分片每次event loop任务每个消息写出一个，其他消息可以插在分片之间，大消息不会阻塞小消息。
+ *     对方逐个分片拼接，收齐之后解码，正在拼接的总长度不超过 {@link TransportConsts#FRAGMENT_MAX_PENDING_BYTES}。</li>
+ *     <li>{@link ExchangeCodec#FEATURE_COMPRESS} 由pipeline中的 {@link FrameCompressor} 压缩超过
+ *     {@link TransportConsts#COMPRESS_THRESHOLD} 的消息包，标记加上 {@link ExchangeCodec#FLAG_COMPRESSED}。</li>
+ *     <li>{@link ExchangeCodec#FEATURE_RESPONSE_HEAD} 把 {@link Response} 编码为 {@code FLAG_RESPONSE_HEAD(1) + id(8) + status(1) + result}，
+ *     {@code result} 不使用会话独立编码。解码时只读取消息头，应答数据保存在 {@link Response#getEncodedResult()}，
+ *     IO线程按调用id派发给发起调用的port，由port线程解码。</li>
+ * </ul>
+ * <p>分片消息和之后发送的小消息不保证顺序。编码时给会话增加了类定义或者名称的分片消息，后面的消息可能引用，
+ * 所有分片立即按顺序写出。</p>
+ * <p>{@link Request}和 {@link Response}通过 {@link Hessian2Utils#encode(Object, ByteBuf)} 直接读写消息包的 {@link ByteBuf}，
+ * 不经过中间的 {@code byte[]}。</p>
  * @author Ziegler
  * date 2021/4/13
  */
@@ -29,52 +63,575 @@ public class ExchangeCodec extends ByteToMessageCodec {
     public static final byte FLAG_STRING = 0x10;
     public static final byte FLAG_REQUEST = 0x20;
     public static final byte FLAG_RESPONSE = 0x30;
+    /** 握手，后面1字节是支持的功能 */
+    public static final byte FLAG_HANDSHAKE = 0x40;
+    /** 批量消息包 */
+    public static final byte FLAG_BATCH = 0x50;
+    /** 双工连接的node问候，后面是node名称 */
+    public static final byte FLAG_HELLO = 0x60;
+    /** 大消息的分片 */
+    public static final byte FLAG_FRAGMENT = 0x70;
+    /** 按消息头派发的应答，后面是调用id、状态和应答数据 */
+    public static final byte FLAG_RESPONSE_HEAD = (byte) 0x80;
+    /** 使用连接内会话编码的标记位 */
+    public static final byte FLAG_SESSION = 0x01;
+    /** 压缩的消息包的标记位，见 {@link FrameCompressor} */
+    public static final byte FLAG_COMPRESSED = 0x08;
+
+    /** 功能：连接内的hessian会话 */
+    public static final byte FEATURE_SESSION = 0x01;
+    /** 功能：批量消息包 */
+    public static final byte FEATURE_BATCH = 0x02;
+    /** 功能：大消息分片 */
+    public static final byte FEATURE_FRAGMENT = 0x04;
+    /** 功能：消息包压缩，pipeline中有 {@link FrameCompressor} 时声明 */
+    public static final byte FEATURE_COMPRESS = 0x08;
+    /** 功能：应答的调用id和状态写在消息头 */
+    public static final byte FEATURE_RESPONSE_HEAD = 0x10;
+
+    /** 批量消息包中的最大消息数量 */
+    static final int BATCH_MAX_COUNT = 0xFFFF;
+    /** 批量消息包中单条消息的最大长度 */
+    static final int BATCH_MAX_MESSAGE_LENGTH = 0xFFFF;
+    /** 批量消息包的最大长度，不包括长度字段 */
+    private static final int BATCH_MAX_FRAME_LENGTH = TransportConsts.MAX_FRAME_LENGTH - TransportConsts.HEAD_LENGTH_FIELD_LENGTH;
+    /** 批量消息包头：标记和消息数量 */
+    private static final int BATCH_HEAD_LENGTH = 3;
+    /** 批量消息包中单条消息头：标记和长度 */
+    private static final int BATCH_MESSAGE_HEAD_LENGTH = 3;
+    /** 分片头：标记、消息序号、消息总长度、消息标记 */
+    private static final int FRAGMENT_HEAD_LENGTH = 10;
+
+    /** 本地支持的功能，不包括 {@link #FEATURE_COMPRESS} */
+    private static final byte LOCAL_FEATURES = (byte) ((TransportConsts.HESSIAN_SESSION ? FEATURE_SESSION : 0)
+            | (TransportConsts.BATCH_FRAME ? FEATURE_BATCH : 0)
+            | (TransportConsts.FRAGMENT ? FEATURE_FRAGMENT : 0)
+            | (TransportConsts.RESPONSE_HEAD ? FEATURE_RESPONSE_HEAD : 0));
+
+    /** 本连接声明的功能 */
+    private byte localFeatures = LOCAL_FEATURES;
+    /** pipeline中的消息包压缩 */
+    private FrameCompressor compressor;
+
+    /** 连接内的编解码会话 */
+    private final HessianSession session = new HessianSession();
+    /** 收到对方的握手之后使用会话编码 */
+    private boolean sessionEnabled;
+    /** 收到对方的握手之后使用批量消息包 */
+    private boolean batchEnabled;
+    /** 收到对方的握手之后拆分大消息 */
+    private boolean fragmentEnabled;
+    /** 收到对方的握手之后应答的调用id和状态写在消息头 */
+    private boolean responseHeadEnabled;
+
+    /** 下一个分片消息的序号 */
+    private int nextStreamId;
+    /** 还有分片没有写出的消息，只在event loop访问 */
+    private final ArrayDeque<OutboundStream> outboundStreams = new ArrayDeque<>();
+    /** 已经提交了写出分片的任务 */
+    private boolean fragmentTaskScheduled;
+    /** 正在拼接的分片消息 {@literal streamId -> stream} */
+    private final Map<Integer, InboundStream> inboundStreams = new HashMap<>();
+    /** 正在拼接的分片消息总长度 */
+    private long inboundStreamBytes;
 
     /** logger */
     private static final Logger logger = LoggerFactory.getLogger(ExchangeCodec.class);
 
 
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        compressor = ctx.pipeline().get(FrameCompressor.class);
+        if (compressor != null) {
+            localFeatures |= FEATURE_COMPRESS;
+        }
+        if (localFeatures != 0) {
+            final ByteBuf handshake = ctx.alloc().buffer(2);
+            handshake.writeByte(FLAG_HANDSHAKE);
+            handshake.writeByte(localFeatures);
+            ctx.writeAndFlush(handshake);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseStreams();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            scheduleFragments(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (fragmentEnabled && (msg instanceof Request || msg instanceof Response)) {
+            writeMessage(ctx, msg, promise);
+            return;
+        }
+        if (!(msg instanceof MessageBatch)) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+        final List<Object> messages = ((MessageBatch) msg).getMessages();
+        if (messages.isEmpty()) {
+            promise.setSuccess();
+        } else if (batchEnabled) {
+            writeBatch(ctx, messages, promise);
+        } else {
+            // 对方不支持批量消息包，逐条编码
+            final int last = messages.size() - 1;
+            for (int i = 0; i < last; i++) {
+                super.write(ctx, messages.get(i), ctx.voidPromise());
+            }
+            super.write(ctx, messages.get(last), promise);
+        }
+    }
+
+    /**
+     * 编码批量消息包，超过 {@link TransportConsts#BATCH_FRAME_MAX_BYTES} 时拆分到下一个消息包，只有最后一个消息包使用 {@code promise}
+     */
+    private void writeBatch(ChannelHandlerContext ctx, List<Object> messages, ChannelPromise promise) throws Exception {
+        ByteBuf frame = null;
+        int count = 0;
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                if (frame == null) {
+                    frame = newBatchFrame(ctx);
+                    count = 0;
+                }
+                final int start = frame.writerIndex();
+                frame.writeZero(BATCH_MESSAGE_HEAD_LENGTH);
+                final long state = session.getOutputState();
+                final byte flag = encodeMessage(ctx, messages.get(i), frame);
+                final int length = frame.writerIndex() - start - BATCH_MESSAGE_HEAD_LENGTH;
+                if (flag == 0) {
+                    frame.writerIndex(start);
+                    continue;
+                }
+                if (fragmentEnabled && length > TransportConsts.FRAGMENT_SIZE) {
+                    // 大消息拆分为分片，先写出前面的消息
+                    final ByteBuf data = ctx.alloc().ioBuffer(length);
+                    data.writeBytes(frame, start + BATCH_MESSAGE_HEAD_LENGTH, length);
+                    frame.writerIndex(start);
+                    if (count > 0) {
+                        finishBatchFrame(frame, count);
+                        ctx.write(frame, ctx.voidPromise());
+                    } else {
+                        frame.release();
+                    }
+                    frame = null;
+                    final boolean last = i == messages.size() - 1;
+                    writeFragments(ctx, flag, data, session.getOutputState() != state, last ? promise : ctx.voidPromise());
+                    if (last) {
+                        return;
+                    }
+                    continue;
+                }
+                if (length > BATCH_MAX_MESSAGE_LENGTH) {
+                    // 会话状态已经包含这条消息，不能跳过，只能关闭连接
+                    ctx.close();
+                    throw new EncoderException("批量消息包中的消息长度超过上限。length = " + length + ", msg = " + messages.get(i));
+                }
+                frame.setByte(start, flag);
+                frame.setShort(start + 1, length);
+                if (frame.writerIndex() > BATCH_MAX_FRAME_LENGTH && count > 0) {
+                    // 加上这条消息超过消息包最大长度，这条消息移到下一个消息包，保持发送顺序
+                    final ByteBuf next = newBatchFrame(ctx);
+                    next.writeBytes(frame, start, frame.writerIndex() - start);
+                    frame.writerIndex(start);
+                    finishBatchFrame(frame, count);
+                    ctx.write(frame, ctx.voidPromise());
+                    frame = next;
+                    count = 0;
+                }
+                count++;
+                if (count == BATCH_MAX_COUNT || frame.writerIndex() >= TransportConsts.BATCH_FRAME_MAX_BYTES) {
+                    if (i == messages.size() - 1) {
+                        break;
+                    }
+                    finishBatchFrame(frame, count);
+                    ctx.write(frame, ctx.voidPromise());
+                    frame = null;
+                }
+            }
+            if (frame != null && count > 0) {
+                finishBatchFrame(frame, count);
+                ctx.write(frame, promise);
+                frame = null;
+            } else {
+                promise.setSuccess();
+            }
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * 编码单条 {@link Request}、{@link Response}，超过 {@link TransportConsts#FRAGMENT_SIZE} 时拆分为分片
+     */
+    private void writeMessage(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        ByteBuf buf = ctx.alloc().ioBuffer();
+        try {
+            buf.writeZero(TransportConsts.HEAD_FLAG_LENGTH);
+            final long state = session.getOutputState();
+            final byte flag = encodeMessage(ctx, msg, buf);
+            final ByteBuf out = buf;
+            buf = null;
+            if (out.readableBytes() - TransportConsts.HEAD_FLAG_LENGTH > TransportConsts.FRAGMENT_SIZE) {
+                out.skipBytes(TransportConsts.HEAD_FLAG_LENGTH);
+                writeFragments(ctx, flag, out, session.getOutputState() != state, promise);
+            } else {
+                out.setByte(0, flag);
+                ctx.write(out, promise);
+            }
+        } finally {
+            if (buf != null) {
+                buf.release();
+            }
+        }
+    }
+
+    /**
+     * 拆分为分片写出
+     * @param data 编码后的消息，不包括标记，由这个方法释放
+     * @param ordered 消息改变了会话状态，所有分片立即写出，不和后面的消息交替
+     * @param promise 最后一个分片写出时完成
+     */
+    private void writeFragments(ChannelHandlerContext ctx, byte flag, ByteBuf data, boolean ordered, ChannelPromise promise) {
+        final int length = data.readableBytes();
+        if (length > TransportConsts.FRAGMENT_MAX_MESSAGE_LENGTH) {
+            data.release();
+            // 会话状态已经包含这条消息，不能跳过，只能关闭连接
+            ctx.close();
+            throw new EncoderException("分片消息长度超过上限。length = " + length);
+        }
+        final OutboundStream stream = new OutboundStream(nextStreamId++, flag, data, promise);
+        if (ordered) {
+            while (stream.hasNext()) {
+                writeNextFragment(ctx, stream);
+            }
+            return;
+        }
+        writeNextFragment(ctx, stream);
+        outboundStreams.add(stream);
+        scheduleFragments(ctx);
+    }
+
+    private static void writeNextFragment(ChannelHandlerContext ctx, OutboundStream stream) {
+        final ByteBuf fragment = stream.next(ctx);
+        if (stream.hasNext()) {
+            ctx.write(fragment, ctx.voidPromise());
+        } else {
+            stream.data.release();
+            ctx.write(fragment, stream.promise);
+        }
+    }
+
+    /**
+     * 提交写出分片的任务，排在其他线程已经提交的写出任务后面
+     */
+    private void scheduleFragments(ChannelHandlerContext ctx) {
+        if (fragmentTaskScheduled || outboundStreams.isEmpty()) {
+            return;
+        }
+        fragmentTaskScheduled = true;
+        ctx.executor().execute(() -> writePendingFragments(ctx));
+    }
+
+    /**
+     * 每个消息写出一个分片，然后让出event loop；连接不可写时等待可写之后继续
+     */
+    private void writePendingFragments(ChannelHandlerContext ctx) {
+        fragmentTaskScheduled = false;
+        if (!ctx.channel().isActive()) {
+            releaseStreams();
+            return;
+        }
+        for (int i = outboundStreams.size(); i > 0; i--) {
+            final OutboundStream stream = outboundStreams.poll();
+            writeNextFragment(ctx, stream);
+            if (stream.hasNext()) {
+                outboundStreams.add(stream);
+            }
+        }
+        ctx.flush();
+        if (ctx.channel().isWritable()) {
+            scheduleFragments(ctx);
+        }
+    }
+
+    private void releaseStreams() {
+        OutboundStream outboundStream;
+        while ((outboundStream = outboundStreams.poll()) != null) {
+            outboundStream.data.release();
+            if (!outboundStream.promise.isVoid()) {
+                outboundStream.promise.tryFailure(new ClosedChannelException());
+            }
+        }
+        for (InboundStream inboundStream : inboundStreams.values()) {
+            inboundStream.data.release();
+        }
+        inboundStreams.clear();
+        inboundStreamBytes = 0;
+    }
+
+    private static ByteBuf newBatchFrame(ChannelHandlerContext ctx) {
+        final ByteBuf frame = ctx.alloc().ioBuffer();
+        frame.writeByte(FLAG_BATCH);
+        frame.writeShort(0);
+        return frame;
+    }
+
+    private static void finishBatchFrame(ByteBuf frame, int count) {
+        frame.setShort(1, count);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        final int start = out.writerIndex();
+        out.writeZero(TransportConsts.HEAD_FLAG_LENGTH);
+        final byte flag = encodeMessage(ctx, msg, out);
+        if (flag == 0) {
+            out.writerIndex(start);
+            return;
+        }
+        out.setByte(start, flag);
+    }
+
+    /**
+     * 编码单条消息的数据，不包括标记
+     * @return 消息标记，不支持的类型返回0
+     */
+    private byte encodeMessage(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
         if (msg instanceof String) {
             final String str = (String) msg;
-            out.writeByte(FLAG_STRING);
-            final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-            out.writeBytes(bytes);
+            out.writeCharSequence(str, StandardCharsets.UTF_8);
+            return FLAG_STRING;
+        } else if (msg instanceof NodeHello) {
+            final NodeHello hello = (NodeHello) msg;
+            out.writeShort(hello.getIndex());
+            out.writeShort(hello.getCount());
+            out.writeCharSequence(hello.getNode(), StandardCharsets.UTF_8);
+            return FLAG_HELLO;
         } else if (msg instanceof Request) {
-            final Request request = (Request) msg;
-            out.writeByte(FLAG_REQUEST);
-            final byte[] encode = Hessian2Utils.encode(request);
-            out.writeBytes(encode);
+            return encodeObject(ctx, FLAG_REQUEST, msg, out);
         } else if (msg instanceof Response) {
             final Response response = (Response) msg;
-            out.writeByte(FLAG_RESPONSE);
-            final byte[] encode = Hessian2Utils.encode(response);
-            out.writeBytes(encode);
+            if (responseHeadEnabled && response.getId() != null && response.getStatus() >= 0 && response.getStatus() <= 0xFF) {
+                out.writeLong(response.getId());
+                out.writeByte(response.getStatus());
+                Hessian2Utils.encode(response.getResult(), out);
+                return FLAG_RESPONSE_HEAD;
+            }
+            return encodeObject(ctx, FLAG_RESPONSE, msg, out);
         }
+        return 0;
+    }
+
+    private byte encodeObject(ChannelHandlerContext ctx, byte flag, Object msg, ByteBuf out) throws Exception {
+        if (!sessionEnabled) {
+            Hessian2Utils.encode(msg, out);
+            return flag;
+        }
+        try {
+            session.encode(msg, out);
+        } catch (Exception e) {
+            // 会话状态已经和对方不一致
+            logger.error("会话编码失败，关闭连接。channel = {}", ctx.channel(), e);
+            ctx.close();
+            throw e;
+        }
+        return (byte) (flag | FLAG_SESSION);
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List out) throws Exception {
         final byte flag = in.readByte();
         final int length = in.readableBytes();
+        if (flag == FLAG_HANDSHAKE) {
+            final byte features = length > 0 ? in.readByte() : 0;
+            sessionEnabled = (localFeatures & features & FEATURE_SESSION) != 0;
+            batchEnabled = (localFeatures & features & FEATURE_BATCH) != 0;
+            fragmentEnabled = (localFeatures & features & FEATURE_FRAGMENT) != 0;
+            responseHeadEnabled = (localFeatures & features & FEATURE_RESPONSE_HEAD) != 0;
+            final boolean compressEnabled = (localFeatures & features & FEATURE_COMPRESS) != 0;
+            if (compressor != null) {
+                compressor.setCompressEnabled(compressEnabled);
+            }
+            logger.info("收到握手。channel = {}, features = {}, sessionEnabled = {}, batchEnabled = {}, fragmentEnabled = {}, compressEnabled = {}, responseHeadEnabled = {}",
+                    ctx.channel(), features, sessionEnabled, batchEnabled, fragmentEnabled, compressEnabled, responseHeadEnabled);
+        } else if (flag == FLAG_BATCH) {
+            final int count = in.readUnsignedShort();
+            final List<Object> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final byte messageFlag = in.readByte();
+                final ByteBuf data = in.readSlice(in.readUnsignedShort());
+                final Object obj = decodeMessage(ctx, messageFlag, data);
+                if (obj != null) {
+                    messages.add(obj);
+                }
+            }
+            out.add(new MessageBatch(messages));
+            if (logger.isDebugEnabled()) {
+                logger.debug("接收到批量消息包。length = {}, count = {}", length, count);
+            }
+        } else if (flag == FLAG_FRAGMENT) {
+            final Object obj = readFragment(ctx, in);
+            if (obj != null) {
+                out.add(obj);
+            }
+        } else {
+            final Object obj = decodeMessage(ctx, flag, in);
+            if (obj != null) {
+                out.add(obj);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("接收到消息包长度。length = {}, obj = {}", length, obj);
+                }
+            }
+        }
+        // 丢弃剩余数据
+        in.skipBytes(in.readableBytes());
+    }
+
+    /**
+     * 拼接分片，收齐之后解码
+     * @return 还没有收齐或者不支持的类型返回 {@code null}
+     */
+    private Object readFragment(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        final int streamId = in.readInt();
+        final int length = in.readInt();
+        final byte flag = in.readByte();
+        InboundStream stream = inboundStreams.get(streamId);
+        if (stream == null) {
+            if (length <= 0 || length > TransportConsts.FRAGMENT_MAX_MESSAGE_LENGTH
+                    || inboundStreamBytes + length > TransportConsts.FRAGMENT_MAX_PENDING_BYTES) {
+                ctx.close();
+                throw new TooLongFrameException("分片消息长度超过上限。length = " + length
+                        + ", pendingBytes = " + inboundStreamBytes + ", streams = " + inboundStreams.size());
+            }
+            // 按照收到的分片逐步扩容，最大为消息总长度
+            stream = new InboundStream(flag, length, ctx.alloc().buffer(Math.min(length, TransportConsts.FRAGMENT_SIZE), length));
+            inboundStreams.put(streamId, stream);
+            inboundStreamBytes += length;
+        }
+        if (in.readableBytes() > stream.data.maxWritableBytes()) {
+            ctx.close();
+            throw new CorruptedFrameException("分片超过消息总长度。streamId = " + streamId + ", length = " + length);
+        }
+        stream.data.writeBytes(in);
+        if (stream.data.readableBytes() < stream.length) {
+            return null;
+        }
+        inboundStreams.remove(streamId);
+        inboundStreamBytes -= length;
+        try {
+            final Object obj = decodeMessage(ctx, stream.flag, stream.data);
+            if (logger.isDebugEnabled()) {
+                logger.debug("接收到分片消息。length = {}, obj = {}", length, obj);
+            }
+            return obj;
+        } finally {
+            stream.data.release();
+        }
+    }
+
+    /**
+     * 解码单条消息
+     * @return 不支持的类型返回 {@code null}
+     */
+    private Object decodeMessage(ChannelHandlerContext ctx, byte flag, ByteBuf in) throws Exception {
         if (flag == FLAG_STRING) {
-            final ByteBuf byteBuf = in.readBytes(length);
-            final String str = String.valueOf(byteBuf.toString(StandardCharsets.UTF_8));
-            out.add(str);
-            logger.debug("接收到消息包长度。length = {}, str = {}", length, str);
-        } else if (flag == FLAG_REQUEST) {
-            byte[] buffer = new byte[length];
-            in.readBytes(buffer);
-            final Request request = Hessian2Utils.decode(buffer);
-            out.add(request);
-            logger.debug("接收到消息包长度。length = {}, request.id = {}", length, request.getId());
-        } else if (flag == FLAG_RESPONSE) {
-            byte[] buffer = new byte[length];
-            in.readBytes(buffer);
-            final Response response = Hessian2Utils.decode(buffer);
-            out.add(response);
-            logger.debug("接收到消息包长度。length = {}, response.id = {}", length, response.getId());
+            return in.readCharSequence(in.readableBytes(), StandardCharsets.UTF_8).toString();
+        } else if (flag == FLAG_HELLO) {
+            final int index = in.readUnsignedShort();
+            final int count = in.readUnsignedShort();
+            return new NodeHello(in.readCharSequence(in.readableBytes(), StandardCharsets.UTF_8).toString(), index, count);
+        } else if (flag == FLAG_RESPONSE_HEAD) {
+            // 只读取消息头，应答数据由port线程解码
+            final Response response = new Response(in.readLong(), in.readUnsignedByte());
+            final byte[] encodedResult = new byte[in.readableBytes()];
+            in.readBytes(encodedResult);
+            response.setEncodedResult(encodedResult);
+            return response;
+        } else if ((flag & ~FLAG_SESSION) == FLAG_REQUEST || (flag & ~FLAG_SESSION) == FLAG_RESPONSE) {
+            return decodeObject(ctx, flag, in);
+        }
+        return null;
+    }
+
+    private Object decodeObject(ChannelHandlerContext ctx, byte flag, ByteBuf in) throws Exception {
+        if ((flag & FLAG_SESSION) == 0) {
+            return Hessian2Utils.decode(in);
+        }
+        try {
+            return session.decode(in);
+        } catch (Exception e) {
+            // 会话状态已经和对方不一致
+            logger.error("会话解码失败，关闭连接。channel = {}", ctx.channel(), e);
+            ctx.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 正在写出分片的消息
+     */
+    private static final class OutboundStream {
+        private final int id;
+        private final byte flag;
+        /** 编码后的消息，读索引是下一个分片的位置 */
+        private final ByteBuf data;
+        private final int length;
+        private final ChannelPromise promise;
+
+        OutboundStream(int id, byte flag, ByteBuf data, ChannelPromise promise) {
+            this.id = id;
+            this.flag = flag;
+            this.data = data;
+            this.length = data.readableBytes();
+            this.promise = promise;
+        }
+
+        boolean hasNext() {
+            return data.isReadable();
+        }
+
+        /**
+         * 下一个分片：分片头和消息数据的切片
+         */
+        ByteBuf next(ChannelHandlerContext ctx) {
+            final ByteBuf head = ctx.alloc().ioBuffer(FRAGMENT_HEAD_LENGTH);
+            head.writeByte(FLAG_FRAGMENT);
+            head.writeInt(id);
+            head.writeInt(length);
+            head.writeByte(flag);
+            final ByteBuf slice = data.readRetainedSlice(Math.min(data.readableBytes(), TransportConsts.FRAGMENT_SIZE));
+            return ctx.alloc().compositeBuffer(2).addComponents(true, head, slice);
+        }
+    }
+
+    /**
+     * 正在拼接的分片消息
+     */
+    private static final class InboundStream {
+        private final byte flag;
+        /** 消息总长度 */
+        private final int length;
+        /** 已经收到的数据，最大容量是消息总长度 */
+        private final ByteBuf data;
+
+        InboundStream(byte flag, int length, ByteBuf data) {
+            this.flag = flag;
+            this.length = length;
+            this.data = data;
         }
     }
 }
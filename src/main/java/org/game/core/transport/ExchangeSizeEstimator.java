@@ -0,0 +1,85 @@
+package org.game.core.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.MessageSizeEstimator;
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 估算还没有编码的 {@link Request}、{@link Response}、{@link MessageBatch} 的长度
+ * <p>其他线程提交的写出任务在执行前就计入写缓冲，Netty默认把未知类型的消息按8字节计算，
+ * 发送方很快时大量任务还没有编码就已经超过 {@link TransportConsts#WRITE_BUFFER_HIGH_WATER_MARK}，连接却仍然可写。
+ * 这里按参数和返回值粗略估算，只看第一层，不用准确。</p>
+ */
+public final class ExchangeSizeEstimator implements MessageSizeEstimator {
+
+    public static final ExchangeSizeEstimator INSTANCE = new ExchangeSizeEstimator();
+
+    /** 消息头、调用点等固定部分 */
+    private static final int MESSAGE_OVERHEAD = 64;
+    /** 无法估算的对象 */
+    private static final int OBJECT_SIZE = 16;
+
+    private final Handle handle = ExchangeSizeEstimator::estimate;
+
+    private ExchangeSizeEstimator() {
+    }
+
+    @Override
+    public Handle newHandle() {
+        return handle;
+    }
+
+    static int estimate(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        if (msg instanceof Request) {
+            final Object[] args = ((Request) msg).getRpcInvocation().getMethodArgs();
+            int size = MESSAGE_OVERHEAD;
+            if (args != null) {
+                for (Object arg : args) {
+                    size += sizeOf(arg);
+                }
+            }
+            return size;
+        }
+        if (msg instanceof Response) {
+            return MESSAGE_OVERHEAD + sizeOf(((Response) msg).getResult());
+        }
+        if (msg instanceof MessageBatch) {
+            int size = 0;
+            for (Object message : ((MessageBatch) msg).getMessages()) {
+                size += estimate(message);
+            }
+            return size;
+        }
+        return OBJECT_SIZE;
+    }
+
+    private static int sizeOf(Object obj) {
+        if (obj == null) {
+            return 1;
+        }
+        if (obj instanceof byte[]) {
+            return ((byte[]) obj).length;
+        }
+        if (obj instanceof CharSequence) {
+            return ((CharSequence) obj).length();
+        }
+        if (obj instanceof Collection) {
+            return ((Collection<?>) obj).size() * OBJECT_SIZE;
+        }
+        if (obj instanceof Map) {
+            return ((Map<?, ?>) obj).size() * OBJECT_SIZE * 2;
+        }
+        return OBJECT_SIZE;
+    }
+}
@@ -0,0 +1,132 @@
+package org.game.core.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 消息包压缩
+ * <p>在 {@link io.netty.handler.codec.LengthFieldBasedFrameDecoder} 和 {@link ExchangeCodec} 之间，按整个消息包压缩和解压：
+ * 标记加上 {@link ExchangeCodec#FLAG_COMPRESSED}，后面是标记之后数据的snappy压缩结果。</p>
+ * <p>{@link ExchangeCodec} 发现pipeline中有这个handler时在握手中声明 {@link ExchangeCodec#FEATURE_COMPRESS}，
+ * 对方也支持时调用 {@link #setCompressEnabled(boolean)} 开始压缩。只压缩超过 {@link TransportConsts#COMPRESS_THRESHOLD}
+ * 的消息包，压缩后没有变小时发送原始数据。解压后的长度不超过 {@link TransportConsts#MAX_FRAME_LENGTH}。</p>
+ * <p>每个连接一个对象，只在连接的event loop访问。</p>
+ */
+public class FrameCompressor extends MessageToMessageCodec<ByteBuf, ByteBuf> {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(FrameCompressor.class);
+
+    private final Snappy snappy = new Snappy();
+    /** 对方支持解压 */
+    private boolean compressEnabled;
+
+    /** 压缩的消息包数量 */
+    private long compressedFrames;
+    /** 压缩前的长度 */
+    private long uncompressedBytes;
+    /** 压缩后的长度 */
+    private long compressedBytes;
+
+    void setCompressEnabled(boolean compressEnabled) {
+        this.compressEnabled = compressEnabled;
+    }
+
+    public boolean isCompressEnabled() {
+        return compressEnabled;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        final int length = msg.readableBytes();
+        if (!compressEnabled || length < TransportConsts.COMPRESS_THRESHOLD) {
+            out.add(msg.retain());
+            return;
+        }
+        final ByteBuf frame = ctx.alloc().ioBuffer(length);
+        try {
+            final int start = msg.readerIndex();
+            frame.writeByte(msg.getByte(start) | ExchangeCodec.FLAG_COMPRESSED);
+            snappy.encode(msg.slice(start + TransportConsts.HEAD_FLAG_LENGTH, length - TransportConsts.HEAD_FLAG_LENGTH),
+                    frame, length - TransportConsts.HEAD_FLAG_LENGTH);
+        } catch (Exception e) {
+            frame.release();
+            throw e;
+        } finally {
+            snappy.reset();
+        }
+        if (frame.readableBytes() >= length) {
+            // 不能压缩的数据
+            frame.release();
+            out.add(msg.retain());
+            return;
+        }
+        compressedFrames++;
+        uncompressedBytes += length;
+        compressedBytes += frame.readableBytes();
+        out.add(frame);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        final byte flag = msg.getByte(msg.readerIndex());
+        if ((flag & ExchangeCodec.FLAG_COMPRESSED) == 0) {
+            out.add(msg.retain());
+            return;
+        }
+        msg.skipBytes(TransportConsts.HEAD_FLAG_LENGTH);
+        final int maxLength = TransportConsts.MAX_FRAME_LENGTH - TransportConsts.HEAD_LENGTH_FIELD_LENGTH;
+        final ByteBuf frame = ctx.alloc().buffer(Math.min(msg.readableBytes() * 4, maxLength), maxLength);
+        try {
+            frame.writeByte(flag & ~ExchangeCodec.FLAG_COMPRESSED);
+            snappy.decode(msg, frame);
+        } catch (Exception e) {
+            frame.release();
+            logger.error("解压消息包失败，关闭连接。channel = {}, length = {}", ctx.channel(), msg.readableBytes(), e);
+            ctx.close();
+            throw e instanceof DecompressionException ? e : new DecompressionException(e);
+        } finally {
+            snappy.reset();
+        }
+        out.add(frame);
+    }
+
+    /**
+     * 压缩的消息包数量
+     */
+    public long getCompressedFrames() {
+        return compressedFrames;
+    }
+
+    /**
+     * 压缩的消息包压缩前的总长度
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * 压缩的消息包压缩后的总长度
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("compressEnabled", compressEnabled)
+                .append("compressedFrames", compressedFrames)
+                .append("uncompressedBytes", uncompressedBytes)
+                .append("compressedBytes", compressedBytes)
+                .toString();
+    }
+}
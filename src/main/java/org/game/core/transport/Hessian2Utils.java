@@ -2,19 +2,47 @@ package org.game.core.transport;
 
 import com.alibaba.com.caucho.hessian.io.Hessian2Input;
 import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import com.alibaba.com.caucho.hessian.io.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
 
 /**
  * 编码和解码方法，使用lite-hessian进行编解码
+ * <p>{@link #encode(Object, ByteBuf)}、{@link #decode(ByteBuf)} 直接读写 {@link ByteBuf}，
+ * 每个线程（通常是event loop）复用一组 {@link Hessian2Output}、{@link Hessian2Input}，所有线程共用一个 {@link SerializerFactory}。</p>
  *
  * @author Ziegler
  * date 2021/4/12
  */
 public class Hessian2Utils {
 
+    /** 序列化器缓存，{@link Hessian2Output}、{@link Hessian2Input} 默认每个实例创建一个 */
+    private static final SerializerFactory SERIALIZER_FACTORY = new SerializerFactory();
+
+    /**
+     * {@link Hessian2Output} 的类定义引用和类型引用是私有字段，没有清除方法，通过反射清除
+     * <p>按hessian-lite 3.2.6的字段名查找，升级hessian-lite时需要确认字段没有变化。
+     * 加载这个类时检查，版本不兼容时启动就失败，而不是在第一次编码时才失败。</p>
+     */
+    private static final Field OUTPUT_CLASS_REFS = outputField("_classRefs");
+    private static final Field OUTPUT_TYPE_REFS = outputField("_typeRefs");
+
+    /** 每个线程复用的编解码器 */
+    private static final FastThreadLocal<Codec> CODECS = new FastThreadLocal<Codec>() {
+        @Override
+        protected Codec initialValue() {
+            return new Codec();
+        }
+    };
+
     /**
      * 编码
      * @param obj 要编码的对象
@@ -24,6 +52,7 @@ public class Hessian2Utils {
     public static byte[] encode(Object obj) throws IOException {
         final ByteArrayOutputStream bout = new ByteArrayOutputStream();
         final Hessian2Output hessian2Output = new Hessian2Output(bout);
+        hessian2Output.setSerializerFactory(SERIALIZER_FACTORY);
         hessian2Output.writeObject(obj);
         hessian2Output.flush();
         return bout.toByteArray();
@@ -35,9 +64,186 @@ public class Hessian2Utils {
      * @return 解码成功返回 {@code true}
      * @throws IOException 失败
      */
+    @SuppressWarnings("unchecked")
     public static <T> T decode(byte[] buffer) throws IOException {
         final ByteArrayInputStream bin = new ByteArrayInputStream(buffer);
         final Hessian2Input hessian2Input = new Hessian2Input(bin);
+        hessian2Input.setSerializerFactory(SERIALIZER_FACTORY);
         return (T)hessian2Input.readObject();
     }
+
+    /**
+     * 编码，直接写入 {@link ByteBuf}
+     * @param obj 要编码的对象
+     * @param out 写入的buffer
+     * @throws IOException 失败
+     */
+    public static void encode(Object obj, ByteBuf out) throws IOException {
+        CODECS.get().encode(obj, out);
+    }
+
+    /**
+     * 解码，直接读取 {@link ByteBuf} 中全部可读的数据
+     * @param in 待解码的buffer
+     * @return 解码后的对象
+     * @throws IOException 失败
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T decode(ByteBuf in) throws IOException {
+        return (T) CODECS.get().decode(in);
+    }
+
+    /**
+     * 线程内复用的编解码器
+     * <p>每条消息独立编码：编码完成后清除 {@link Hessian2Output} 中的对象引用和类定义引用，
+     * 解码前清除 {@link Hessian2Input} 中的引用，消息之间没有状态。出错之后整体丢弃重建。</p>
+     */
+    private static final class Codec {
+
+        private final ByteBufOutputStream outputStream = new ByteBufOutputStream();
+        private final ByteBufInputStream inputStream = new ByteBufInputStream();
+        private Hessian2Output output;
+        private ResettableHessian2Input input;
+
+        void encode(Object obj, ByteBuf out) throws IOException {
+            if (output == null) {
+                output = new Hessian2Output(outputStream);
+                output.setSerializerFactory(SERIALIZER_FACTORY);
+            }
+            outputStream.buf = out;
+            boolean success = false;
+            try {
+                output.writeObject(obj);
+                output.flushBuffer();
+                success = true;
+            } finally {
+                outputStream.buf = null;
+                if (success) {
+                    resetOutput(output);
+                } else {
+                    // 内部缓冲区可能残留数据
+                    output = null;
+                }
+            }
+        }
+
+        Object decode(ByteBuf in) throws IOException {
+            if (input == null) {
+                input = new ResettableHessian2Input(inputStream);
+                input.setSerializerFactory(SERIALIZER_FACTORY);
+            }
+            inputStream.buf = in;
+            boolean success = false;
+            try {
+                input.reset();
+                final Object obj = input.readObject();
+                success = true;
+                return obj;
+            } finally {
+                inputStream.buf = null;
+                if (!success) {
+                    // 内部缓冲区可能残留数据
+                    input = null;
+                }
+            }
+        }
+
+        private static void resetOutput(Hessian2Output output) throws IOException {
+            output.resetReferences();
+            try {
+                clear(OUTPUT_CLASS_REFS.get(output));
+                clear(OUTPUT_TYPE_REFS.get(output));
+            } catch (IllegalAccessException e) {
+                throw new IOException("重置Hessian2Output失败", e);
+            }
+        }
+
+        private static void clear(Object map) {
+            if (map != null) {
+                ((Map<?, ?>) map).clear();
+            }
+        }
+
+    }
+
+    private static Field outputField(String name) {
+        final Field field;
+        try {
+            field = Hessian2Output.class.getDeclaredField(name);
+            field.setAccessible(true);
+        } catch (NoSuchFieldException | SecurityException e) {
+            throw new IllegalStateException("hessian-lite版本不兼容，需要3.2.6。field = " + name, e);
+        }
+        if (!Map.class.isAssignableFrom(field.getType())) {
+            throw new IllegalStateException("hessian-lite版本不兼容，需要3.2.6。field = " + name + ", type = " + field.getType());
+        }
+        return field;
+    }
+
+    /**
+     * 可以清除引用和类定义的 {@link Hessian2Input}
+     */
+    private static final class ResettableHessian2Input extends Hessian2Input {
+
+        ResettableHessian2Input(InputStream is) {
+            super(is);
+        }
+
+        void reset() {
+            resetReferences();
+            if (_classDefs != null) {
+                _classDefs.clear();
+            }
+            if (_types != null) {
+                _types.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入当前 {@link ByteBuf} 的输出流，可以更换buffer复用
+     */
+    static final class ByteBufOutputStream extends OutputStream {
+
+        ByteBuf buf;
+
+        @Override
+        public void write(int b) {
+            buf.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buf.writeBytes(b, off, len);
+        }
+    }
+
+    /**
+     * 读取当前 {@link ByteBuf} 的输入流，可以更换buffer复用
+     */
+    static final class ByteBufInputStream extends InputStream {
+
+        ByteBuf buf;
+
+        @Override
+        public int read() {
+            return buf.isReadable() ? buf.readUnsignedByte() : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            final int readable = buf.readableBytes();
+            if (readable == 0) {
+                return len == 0 ? 0 : -1;
+            }
+            final int n = Math.min(readable, len);
+            buf.readBytes(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.readableBytes();
+        }
+    }
 }
@@ -0,0 +1,265 @@
+package org.game.core.transport;
+
+import com.alibaba.com.caucho.hessian.io.AbstractDeserializer;
+import com.alibaba.com.caucho.hessian.io.AbstractHessianInput;
+import com.alibaba.com.caucho.hessian.io.AbstractHessianOutput;
+import com.alibaba.com.caucho.hessian.io.AbstractSerializerFactory;
+import com.alibaba.com.caucho.hessian.io.Deserializer;
+import com.alibaba.com.caucho.hessian.io.Hessian2Input;
+import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import com.alibaba.com.caucho.hessian.io.HessianProtocolException;
+import com.alibaba.com.caucho.hessian.io.Serializer;
+import com.alibaba.com.caucho.hessian.io.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import org.game.core.CallPoint;
+import org.game.core.FromPoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 连接内有状态的hessian编解码会话
+ * <p>每个连接一个会话，编码和解码都在连接的event loop执行：</p>
+ * <ul>
+ *     <li>类定义只在第一次出现时发送，之后的消息按序号引用。</li>
+ *     <li>{@link FromPoint}、{@link CallPoint} 中的node、port、service名称第一次出现时发送字符串，之后按序号引用。</li>
+ * </ul>
+ * <p>会话状态依赖双方按顺序收发每一条消息，出错后不能恢复，需要关闭连接，重连后创建新的会话。
+ * 没有改变会话状态的消息（见 {@link #getOutputState()}）不被后面的消息引用，对方可以晚于后面的消息解码。</p>
+ */
+final class HessianSession {
+
+    /** 每个方向字符串表的最大数量，超过之后直接发送字符串 */
+    static final int MAX_STRINGS = 4096;
+
+    private final Hessian2Utils.ByteBufOutputStream outputStream = new Hessian2Utils.ByteBufOutputStream();
+    private final Hessian2Utils.ByteBufInputStream inputStream = new Hessian2Utils.ByteBufInputStream();
+    private final SessionOutput output;
+    private final Hessian2Input input;
+
+    /** 发送方向的字符串表 {@literal string -> index} */
+    private final Map<String, Integer> outStrings = new HashMap<>();
+    /** 接收方向的字符串表 */
+    private final List<String> inStrings = new ArrayList<>();
+    /** 发送方向会话状态的变化次数 */
+    private long outputState;
+
+    HessianSession() {
+        final SerializerFactory serializerFactory = new SerializerFactory();
+        serializerFactory.addFactory(new PointSerializerFactory());
+        output = new SessionOutput(outputStream);
+        output.setSerializerFactory(serializerFactory);
+        input = new Hessian2Input(inputStream);
+        input.setSerializerFactory(serializerFactory);
+    }
+
+    /**
+     * 编码，保留类定义和字符串表
+     */
+    void encode(Object obj, ByteBuf out) throws IOException {
+        outputStream.buf = out;
+        try {
+            output.writeObject(obj);
+            output.flushBuffer();
+            output.resetReferences();
+        } finally {
+            outputStream.buf = null;
+        }
+    }
+
+    /**
+     * 发送方向会话状态的版本，新的类定义、类型名称、会话字符串都会改变版本
+     * <p>编码前后版本相同时，这条消息没有给会话增加可以被后面的消息引用的内容。</p>
+     */
+    long getOutputState() {
+        return outputState;
+    }
+
+    /**
+     * 解码，保留类定义和字符串表
+     */
+    Object decode(ByteBuf in) throws IOException {
+        inputStream.buf = in;
+        try {
+            input.resetReferences();
+            return input.readObject();
+        } finally {
+            inputStream.buf = null;
+        }
+    }
+
+    /**
+     * 写入会话字符串：已经发送过的写入序号，否则写入字符串并加入字符串表
+     */
+    private void writeString(String str, AbstractHessianOutput out) throws IOException {
+        if (str == null) {
+            out.writeNull();
+            return;
+        }
+        final Integer index = outStrings.get(str);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        if (outStrings.size() < MAX_STRINGS) {
+            outStrings.put(str, outStrings.size());
+            outputState++;
+        }
+        out.writeString(str);
+    }
+
+    /**
+     * 读取会话字符串，和 {@link #writeString(String, AbstractHessianOutput)} 对应
+     */
+    private String readString(AbstractHessianInput in) throws IOException {
+        final Object value = in.readObject();
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Integer) {
+            final int index = (Integer) value;
+            if (index < 0 || index >= inStrings.size()) {
+                throw new IOException("会话字符串序号不存在。index = " + index + ", size = " + inStrings.size());
+            }
+            return inStrings.get(index);
+        }
+        final String str = (String) value;
+        if (inStrings.size() < MAX_STRINGS) {
+            inStrings.add(str);
+        }
+        return str;
+    }
+
+    /**
+     * 按对象格式写入类定义和字段，字段值使用会话字符串
+     */
+    private void writePoint(Object obj, AbstractHessianOutput out, String[] fieldNames, String... values) throws IOException {
+        final String type = obj.getClass().getName();
+        final int ref = out.writeObjectBegin(type);
+        if (ref == -1) {
+            // 第一次出现，写入类定义
+            out.writeClassFieldLength(fieldNames.length);
+            for (String fieldName : fieldNames) {
+                out.writeString(fieldName);
+            }
+            out.writeObjectBegin(type);
+        }
+        for (String value : values) {
+            writeString(value, out);
+        }
+    }
+
+    /**
+     * 记录会话状态变化的 {@link Hessian2Output}：类定义和类型名称在连接内只发送一次
+     */
+    private final class SessionOutput extends Hessian2Output {
+
+        /** 已经发送的类型名称 */
+        private final Set<String> types = new HashSet<>();
+
+        SessionOutput(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public int writeObjectBegin(String type) throws IOException {
+            final int ref = super.writeObjectBegin(type);
+            if (ref == -1) {
+                // 第一次出现，后面跟着类定义
+                outputState++;
+            }
+            return ref;
+        }
+
+        @Override
+        public boolean writeListBegin(int length, String type) throws IOException {
+            addType(type);
+            return super.writeListBegin(length, type);
+        }
+
+        @Override
+        public void writeMapBegin(String type) throws IOException {
+            addType(type);
+            super.writeMapBegin(type);
+        }
+
+        private void addType(String type) {
+            if (type != null && !type.isEmpty() && types.add(type)) {
+                outputState++;
+            }
+        }
+    }
+
+    private static final String[] FROM_POINT_FIELDS = {"node", "port"};
+    private static final String[] CALL_POINT_FIELDS = {"node", "port", "service"};
+
+    /**
+     * {@link FromPoint}、{@link CallPoint} 的会话序列化
+     */
+    private final class PointSerializerFactory extends AbstractSerializerFactory {
+
+        private final Serializer fromPointSerializer = (obj, out) -> {
+            final FromPoint fromPoint = (FromPoint) obj;
+            writePoint(obj, out, FROM_POINT_FIELDS, fromPoint.getNode(), fromPoint.getPort());
+        };
+
+        private final Serializer callPointSerializer = (obj, out) -> {
+            final CallPoint callPoint = (CallPoint) obj;
+            writePoint(obj, out, CALL_POINT_FIELDS, callPoint.getNode(), callPoint.getPort(), callPoint.getService());
+        };
+
+        private final Deserializer fromPointDeserializer = new AbstractDeserializer() {
+            @Override
+            public Class<?> getType() {
+                return FromPoint.class;
+            }
+
+            @Override
+            public Object readObject(AbstractHessianInput in, String[] fieldNames) throws IOException {
+                return new FromPoint(readString(in), readString(in));
+            }
+        };
+
+        private final Deserializer callPointDeserializer = new AbstractDeserializer() {
+            @Override
+            public Class<?> getType() {
+                return CallPoint.class;
+            }
+
+            @Override
+            public Object readObject(AbstractHessianInput in, String[] fieldNames) throws IOException {
+                return new CallPoint(readString(in), readString(in), readString(in));
+            }
+        };
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Serializer getSerializer(Class cl) throws HessianProtocolException {
+            if (cl == FromPoint.class) {
+                return fromPointSerializer;
+            }
+            if (cl == CallPoint.class) {
+                return callPointSerializer;
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Deserializer getDeserializer(Class cl) throws HessianProtocolException {
+            if (cl == FromPoint.class) {
+                return fromPointDeserializer;
+            }
+            if (cl == CallPoint.class) {
+                return callPointDeserializer;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.game.core.transport;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.List;
+
+/**
+ * 发送到同一个node的一批消息
+ * <p>对方握手声明支持 {@link ExchangeCodec#FEATURE_BATCH} 时，{@link ExchangeCodec} 把一批 {@link org.game.core.exchange.Request}、
+ * {@link org.game.core.exchange.Response} 编码为一个 {@link ExchangeCodec#FLAG_BATCH} 消息包，接收方解码后同样得到一个批量对象，
+ * 按顺序派发到对应的 {@link org.game.core.ServicePort}；对方不支持时逐条编码。</p>
+ */
+public final class MessageBatch {
+
+    private final List<Object> messages;
+
+    /**
+     * @param messages 消息列表，创建后不能再修改
+     */
+    public MessageBatch(List<Object> messages) {
+        this.messages = messages;
+    }
+
+    public List<Object> getMessages() {
+        return messages;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("size", messages.size())
+                .toString();
+    }
+}
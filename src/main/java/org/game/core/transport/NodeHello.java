@@ -0,0 +1,46 @@
+package org.game.core.transport;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 双工连接的node问候
+ * <p>双工模式下 {@link org.game.core.transport.node.NodeClient} 连接建立后发送本地node名称，服务端据此把这条连接登记为到对方node的连接，
+ * 双向的消息都通过这一条连接发送。</p>
+ * <p>到同一个node有多条连接时，每条连接发送自己的序号和连接数量。</p>
+ */
+public final class NodeHello {
+
+    /** 发起连接的node名称 */
+    private final String node;
+    /** 连接序号 */
+    private final int index;
+    /** 连接数量 */
+    private final int count;
+
+    public NodeHello(String node, int index, int count) {
+        this.node = node;
+        this.index = index;
+        this.count = count;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("node", node)
+                .append("index", index)
+                .append("count", count)
+                .toString();
+    }
+}
@@ -12,7 +12,10 @@ import org.slf4j.LoggerFactory;
 /**
  * node服务器handler
  * <p>在方法 {@link ServerHandler#channelRead(io.netty.channel.ChannelHandlerContext, java.lang.Object)} 中派发。当前只派发
- * {@link Request} 和 {@link Response}这两种对象类型。</p>
+ * {@link Request} 和 {@link Response}这两种对象类型，{@link MessageBatch} 中的对象按顺序批量派发。</p>
+ * <p>双工模式下node客户端的连接也使用这个handler接收对方发来的消息，服务端收到 {@link NodeHello} 后登记连接。</p>
+ * <p>{@link org.game.core.OverloadPolicy#BACKPRESSURE} 模式下port队列已满时不暂停读取，连接上的应答需要继续投递，
+ * 只暂停发往这个port的请求，见 {@link BackpressureDispatcher}。</p>
  * @author Ziegler
  * date 2021/4/13
  */
@@ -21,11 +24,21 @@ public class ServerHandler extends ChannelDuplexHandler {
     private static final Logger logger = LoggerFactory.getLogger(ServerHandler.class);
 
     private final ServiceNode serviceNode;
+    /** 连接加入pipeline时创建 */
+    private BackpressureDispatcher dispatcher;
 
     public ServerHandler(ServiceNode serviceNode) {
         this.serviceNode = serviceNode;
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        super.handlerAdded(ctx);
+        if (serviceNode != null) {
+            dispatcher = new BackpressureDispatcher(serviceNode, ctx.channel().eventLoop(), ctx.channel());
+        }
+    }
+
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         super.write(ctx, msg, promise);
@@ -64,11 +77,19 @@ public class ServerHandler extends ChannelDuplexHandler {
             if (msg instanceof Request) {
                 final Request request = (Request) msg;
                 logger.trace("org.game.core.transport.ServerHandler.channelRead Request");
-                serviceNode.dispatchRequest(request);
+                dispatcher.dispatchRequest(request);
             } else if (msg instanceof Response) {
                 final Response response = (Response) msg;
                 logger.trace("org.game.core.transport.ServerHandler.channelRead Response");
-                serviceNode.dispatchResponse(response);
+                dispatcher.dispatchResponse(response);
+            } else if (msg instanceof NodeHello) {
+                final NodeHello hello = (NodeHello) msg;
+                logger.trace("org.game.core.transport.ServerHandler.channelRead NodeHello");
+                serviceNode.acceptNodeConnection(hello.getNode(), hello.getIndex(), hello.getCount(), ctx.channel());
+            } else if (msg instanceof MessageBatch) {
+                final MessageBatch batch = (MessageBatch) msg;
+                logger.trace("org.game.core.transport.ServerHandler.channelRead MessageBatch");
+                dispatcher.dispatchBatch(batch.getMessages());
             }
         }
 
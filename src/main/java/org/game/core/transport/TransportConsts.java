@@ -1,5 +1,7 @@
 package org.game.core.transport;
 
+import java.io.File;
+
 /**
  * 消息包常量
  *
@@ -17,4 +19,102 @@ public class TransportConsts {
     /** 消息包头长度总长度 */
     public static final int HEAD_LENGTH = 5;
 
+    /** 连接内使用有状态的hessian会话，重复的类定义和名称只发送一次 */
+    public static final boolean HESSIAN_SESSION = true;
+
+    /** 发送到同一个node的多条消息合并为一个批量消息包，需要对方握手时声明支持 */
+    public static final boolean BATCH_FRAME = true;
+    /** 批量消息包达到这个长度后，后面的消息放到下一个消息包 */
+    public static final int BATCH_FRAME_MAX_BYTES = 16 * 1024;
+
+    /**
+     * {@link org.game.core.exchange.Response} 的调用id和状态写在消息头，IO线程按调用id派发，不解码应答数据；
+     * 应答数据独立编码，由接收的port线程解码。需要对方握手时声明支持
+     */
+    public static final boolean RESPONSE_HEAD = true;
+
+    /** 超过 {@link #FRAGMENT_SIZE} 的消息拆分为多个分片，和其他消息交替发送，需要对方握手时声明支持 */
+    public static final boolean FRAGMENT = true;
+    /** 单个分片的数据长度，需要小于 {@link #MAX_FRAME_LENGTH} */
+    public static final int FRAGMENT_SIZE = 16 * 1024;
+    /** 分片消息的最大长度 */
+    public static final int FRAGMENT_MAX_MESSAGE_LENGTH = 16 * 1024 * 1024;
+    /** 单个连接正在拼接的分片消息总长度上限，超过后关闭连接 */
+    public static final int FRAGMENT_MAX_PENDING_BYTES = 32 * 1024 * 1024;
+
+    /** node之间的连接使用 {@link FrameCompressor} 压缩消息包，需要对方握手时声明支持 */
+    public static final boolean COMPRESS = true;
+    /** 超过这个长度的消息包才压缩 */
+    public static final int COMPRESS_THRESHOLD = 1024;
+
+    /**
+     * node之间使用一条双工连接：名称小的node发起连接，双向的消息都通过这条连接发送。
+     * 默认关闭，每个node各自连接对方；集群内所有node的配置需要一致，可以用 {@link org.game.core.ServiceNode#setDuplexConnection(boolean)} 修改
+     */
+    public static final boolean DUPLEX_CONNECTION = false;
+
+    /**
+     * 到同一个node的连接数量，消息按照port选择连接，同一个port的消息保持顺序。
+     * 连接数量由发起连接的node决定
+     */
+    public static final int NODE_CHANNELS = 2;
+    /** 到同一个node的最大连接数量 */
+    public static final int MAX_NODE_CHANNELS = 64;
+
+    /** 连接断开期间每个node客户端最多缓存的消息数量，平均分配到每条连接，超过后丢弃新的消息 */
+    public static final int NODE_PENDING_MAX_MESSAGES = 10_000;
+    /** 连接断开后第一次重连的延迟，之后每次失败加倍 */
+    public static final long RECONNECT_MIN_DELAY_MILLIS = 100L;
+    /** 重连的最大延迟 */
+    public static final long RECONNECT_MAX_DELAY_MILLIS = 10_000L;
+
+    /**
+     * 连接写缓冲的高水位，超过后连接不可写，{@link org.game.core.transport.node.NodeClient} 之后的消息按照
+     * {@link org.game.core.transport.node.WritePolicy} 缓存或者丢弃，对方处理慢时写缓冲占用的内存有上限
+     */
+    public static final int WRITE_BUFFER_HIGH_WATER_MARK = 8 * 1024 * 1024;
+    /** 连接写缓冲的低水位，降到以下后恢复可写 */
+    public static final int WRITE_BUFFER_LOW_WATER_MARK = 4 * 1024 * 1024;
+
+    /** Linux上使用native epoll，不可用时退回NIO */
+    public static final boolean NATIVE_TRANSPORT = true;
+    /** 所有node客户端共享的event loop线程数，0表示按照CPU数量 */
+    public static final int CLIENT_EVENT_LOOP_THREADS = 0;
+    /** 没有配置客户端线程数时的最大线程数 */
+    public static final int CLIENT_EVENT_LOOP_MAX_DEFAULT_THREADS = 4;
+    /** node服务端的event loop线程数，0表示使用netty默认值（CPU数量的2倍） */
+    public static final int SERVER_EVENT_LOOP_THREADS = 0;
+
+    /** 合并写出时单个连接缓存的最大消息数量，达到后立即写出 */
+    public static final int WRITE_COALESCE_MAX_MESSAGES = 256;
+    /** 合并写出时消息的最大缓存时间（微秒） */
+    public static final long WRITE_COALESCE_MAX_DELAY_MICROS = 1000L;
+
+    /**
+     * 同一台机器上的node之间使用内存映射文件的环形缓冲通信，不经过TCP，
+     * 见 {@link org.game.core.transport.shm.ShmNodeClient}、{@link org.game.core.transport.shm.ShmNodeServer}。
+     * 默认关闭；开启后只有对方node也开启并且使用同一个目录时才切换到共享内存，否则继续使用TCP
+     */
+    public static final boolean SHM_TRANSPORT = false;
+    /** 环形缓冲文件所在的目录，同一台机器上互相通信的node需要相同，不同集群需要不同 */
+    public static final String SHM_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "game-rpc-shm").getPath();
+    /** 每个方向的环形缓冲容量，2的幂，单条消息最大为容量的1/4 */
+    public static final int SHM_RING_CAPACITY = 8 * 1024 * 1024;
+    /** 环形缓冲已满时发送方最多等待的时间（毫秒），超时后丢弃消息 */
+    public static final long SHM_OFFER_TIMEOUT_MILLIS = 100L;
+    /** 对方超过这个时间（毫秒）没有心跳，认为对方node不在线，打开环形缓冲时忽略对方留下的数据 */
+    public static final long SHM_HEARTBEAT_TIMEOUT_MILLIS = 3000L;
+    /** 连接时等待对方读取环形缓冲的时间（毫秒），超时后使用TCP，需要大于扫描间隔 */
+    public static final long SHM_CONNECT_TIMEOUT_MILLIS = 1000L;
+    /** 接收方扫描新的环形缓冲文件的间隔（毫秒） */
+    public static final long SHM_SCAN_INTERVAL_MILLIS = 200L;
+    /** 接收线程空闲后忙等的轮数。CPU核数少时忙等会抢占port线程，不宜太多 */
+    public static final int SHM_IDLE_SPINS = 100;
+    /** 忙等之后让出CPU的轮数，其他线程不需要CPU时相当于继续忙等 */
+    public static final int SHM_IDLE_YIELDS = 10_000;
+    /** 之后park的最短时间（纳秒），逐次加倍 */
+    public static final long SHM_IDLE_MIN_PARK_NANOS = 1_000L;
+    /** park的最长时间（纳秒） */
+    public static final long SHM_IDLE_MAX_PARK_NANOS = 100_000L;
+
 }
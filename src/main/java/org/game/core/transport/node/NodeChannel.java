@@ -0,0 +1,295 @@
+package org.game.core.transport.node;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.game.core.exchange.Request;
+import org.game.core.transport.MessageBatch;
+import org.game.core.transport.TransportConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link NodeClient} 到对方node的一条连接
+ * <p>一个 {@link NodeClient} 有 {@link NodeClient#getChannelCount()} 条连接，消息按照port选择连接，同一个port的消息保持顺序。</p>
+ * <p>连接没有建立或者断开期间，发送的消息按顺序缓存，最多 {@code capacity} 条，超过后丢弃新的消息。
+ * 连接建立后（{@link #activate(Channel)}）先写出缓存的消息，之后的消息直接写出。
+ * 连接断开的瞬间已经提交到旧连接的消息仍然会丢失。</p>
+ * <p>连接的写缓冲超过 {@link TransportConsts#WRITE_BUFFER_HIGH_WATER_MARK} 不可写时，按照 {@link WritePolicy} 缓存或者丢弃，
+ * 恢复可写后写出缓存的消息，对方处理慢时写缓冲占用的内存有上限。</p>
+ */
+final class NodeChannel {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(NodeChannel.class);
+
+    private final NodeClient nodeClient;
+    /** 在 {@link NodeClient} 中的序号 */
+    private final int index;
+    /** 最多缓存的消息数量 */
+    private final int capacity;
+    private volatile ChannelFuture channelFuture;
+
+    /** 连接断开期间缓存的消息 */
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    /** 连接没有建立、不可写或者还有缓存的消息，新的消息需要缓存 */
+    private volatile boolean buffering = true;
+    /** 关闭后丢弃所有消息 */
+    private volatile boolean closed;
+    /** 累计缓存的消息数量 */
+    private long bufferedMessages;
+    /** 累计丢弃的消息数量 */
+    private long droppedMessages;
+    /** 累计重连后补发的消息数量 */
+    private long replayedMessages;
+    /** 本次断开期间丢弃的消息数量 */
+    private long droppedSinceInactive;
+
+    /** 下次重连的延迟 */
+    private volatile long reconnectDelayMillis = TransportConsts.RECONNECT_MIN_DELAY_MILLIS;
+
+    NodeChannel(NodeClient nodeClient, int index, int capacity) {
+        this.nodeClient = nodeClient;
+        this.index = index;
+        this.capacity = capacity;
+    }
+
+    void setChannelFuture(ChannelFuture channelFuture) {
+        this.channelFuture = channelFuture;
+    }
+
+    Channel channel() {
+        final ChannelFuture future = channelFuture;
+        return future != null ? future.channel() : null;
+    }
+
+    /**
+     * 连接已经建立并且补发了缓存的消息，新的消息直接写出
+     */
+    boolean isActive() {
+        final Channel channel = channel();
+        return !closed && !buffering && channel != null && channel.isActive();
+    }
+
+    /**
+     * 连接已经建立并且写缓冲没有超过高水位
+     */
+    boolean isWritable() {
+        final Channel channel = channel();
+        return !closed && !buffering && channel != null && channel.isActive() && channel.isWritable();
+    }
+
+    /**
+     * 写缓冲中等待写出的字节数
+     */
+    long getPendingWriteBytes() {
+        final Channel channel = channel();
+        if (channel == null) {
+            return 0L;
+        }
+        final ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        return outboundBuffer != null ? outboundBuffer.totalPendingWriteBytes() : 0L;
+    }
+
+    boolean isOpen() {
+        final Channel channel = channel();
+        return channel != null && channel.isOpen();
+    }
+
+    /**
+     * 关闭连接，丢弃缓存的消息
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            // channel异步关闭，关闭之后的消息不再直接写出
+            buffering = true;
+            droppedMessages += pending.size();
+            pending.clear();
+        }
+        final Channel channel = channel();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 监听连接断开和可写状态变化
+     */
+    void watch(Channel channel) {
+        channel.closeFuture().addListener(f -> deactivate(channel));
+        channel.pipeline().addLast("writability", new WritabilityHandler());
+    }
+
+    /**
+     * 连接已经建立或者恢复可写：写出缓存的消息，之后的消息直接写出
+     */
+    synchronized void activate(Channel channel) {
+        if (closed || channel() != channel || !channel.isActive()) {
+            return;
+        }
+        final int count = pending.size();
+        if (count > 0) {
+            channel.writeAndFlush(count == 1 ? pending.poll() : new MessageBatch(new ArrayList<>(pending)), channel.voidPromise());
+            pending.clear();
+            replayedMessages += count;
+        }
+        buffering = false;
+        reconnectDelayMillis = TransportConsts.RECONNECT_MIN_DELAY_MILLIS;
+        if (count > 0 || droppedSinceInactive > 0) {
+            logger.info("node连接可以写出，补发缓存的消息。name = {}, index = {}, replayed = {}, dropped = {}",
+                    nodeClient.getName(), index, count, droppedSinceInactive);
+        }
+        droppedSinceInactive = 0;
+    }
+
+    /**
+     * 连接已经断开，之后的消息缓存到重新连接
+     */
+    synchronized void deactivate(Channel channel) {
+        if (channel() == channel) {
+            buffering = true;
+        }
+    }
+
+    /**
+     * 取出缓存的消息，用于转移到替换的 {@link NodeClient}
+     */
+    synchronized List<Object> drainPending() {
+        final List<Object> messages = new ArrayList<>(pending);
+        pending.clear();
+        return messages;
+    }
+
+    /**
+     * 下次重连的延迟，每次调用加倍，最多 {@link TransportConsts#RECONNECT_MAX_DELAY_MILLIS}
+     */
+    long nextReconnectDelay() {
+        final long delay = reconnectDelayMillis;
+        reconnectDelayMillis = Math.min(delay * 2, TransportConsts.RECONNECT_MAX_DELAY_MILLIS);
+        return delay;
+    }
+
+    /**
+     * 写出一条消息，连接断开时缓存
+     */
+    void writeAndFlush(Object msg) {
+        if (!buffering) {
+            final Channel channel = channel();
+            if (channel != null && channel.isActive() && channel.isWritable()) {
+                channel.writeAndFlush(msg);
+                return;
+            }
+        }
+        synchronized (this) {
+            if (!writeIfWritable(msg)) {
+                buffer(msg);
+            }
+        }
+    }
+
+    /**
+     * 一次写出多条消息，只提交一次event loop任务、只flush一次
+     * <p>多条消息合并为 {@link MessageBatch}，对方支持时编码为批量消息包。连接断开时缓存。</p>
+     * @param messages 消息列表，调用后不能再修改
+     */
+    void writeBatch(List<Object> messages) {
+        final Object msg = messages.size() == 1 ? messages.get(0) : new MessageBatch(messages);
+        if (!buffering) {
+            final Channel channel = channel();
+            if (channel != null && channel.isActive() && channel.isWritable()) {
+                channel.writeAndFlush(msg, channel.voidPromise());
+                return;
+            }
+        }
+        synchronized (this) {
+            if (!writeIfWritable(msg)) {
+                for (Object message : messages) {
+                    buffer(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在锁内重新检查，没有缓存的消息并且连接可写时直接写出
+     */
+    private boolean writeIfWritable(Object msg) {
+        if (buffering) {
+            return false;
+        }
+        final Channel channel = channel();
+        if (channel == null || !channel.isActive() || !channel.isWritable()) {
+            // 恢复可写或者重新连接后由activate补发
+            buffering = true;
+            return false;
+        }
+        channel.writeAndFlush(msg, channel.voidPromise());
+        return true;
+    }
+
+    private void buffer(Object msg) {
+        final boolean dropOneWay = nodeClient.getWritePolicy() == WritePolicy.DROP_ONEWAY && isOneWay(msg);
+        if (closed || pending.size() >= capacity || dropOneWay && isOpen()) {
+            droppedMessages++;
+            if (droppedSinceInactive++ == 0) {
+                logger.error("node连接不可写，丢弃消息。name = {}, index = {}, pending = {}, capacity = {}, closed = {}, policy = {}",
+                        nodeClient.getName(), index, pending.size(), capacity, closed, nodeClient.getWritePolicy());
+            }
+            return;
+        }
+        pending.add(msg);
+        bufferedMessages++;
+    }
+
+    private static boolean isOneWay(Object msg) {
+        return msg instanceof Request && ((Request) msg).getRpcInvocation().isOneWay();
+    }
+
+    synchronized int getPendingMessages() {
+        return pending.size();
+    }
+
+    synchronized long getBufferedMessages() {
+        return bufferedMessages;
+    }
+
+    synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    synchronized long getReplayedMessages() {
+        return replayedMessages;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("node", nodeClient.getName())
+                .append("index", index)
+                .append("channel", channel())
+                .append("buffering", buffering)
+                .toString();
+    }
+
+    /**
+     * 恢复可写时补发缓存的消息
+     */
+    private final class WritabilityHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                activate(ctx.channel());
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+    }
+}
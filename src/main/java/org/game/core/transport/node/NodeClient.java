@@ -4,25 +4,49 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import org.game.core.CallId;
+import org.game.core.ServiceNode;
+import org.game.core.ServicePort;
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
 import org.game.core.transport.ExchangeCodec;
+import org.game.core.transport.ExchangeSizeEstimator;
+import org.game.core.transport.FrameCompressor;
+import org.game.core.transport.NodeHello;
+import org.game.core.transport.ServerHandler;
 import org.game.core.transport.TransportConsts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * node客户端
- * <p>只发送消息，不接收消息</p>
+ * <p>默认只发送消息，不接收消息。双工模式下连接建立后发送 {@link NodeHello}，对方通过同一条连接返回应答和发送请求，
+ * 见 {@link TransportConsts#DUPLEX_CONNECTION}；对方发起的双工连接通过 {@link #accepted(String, int)} 包装。</p>
+ * <p>到同一个node可以建立多条连接 {@link TransportConsts#NODE_CHANNELS}，消息按照port选择连接，同一个port的消息保持顺序，
+ * 不同port的编码和写出分散到多个event loop。</p>
+ * <p>同一种 {@link NodeTransport} 的所有客户端共享一个event loop线程组。</p>
+ * <p>连接没有建立或者断开期间发送的消息按连接缓存，每个客户端最多缓存 {@link TransportConsts#NODE_PENDING_MAX_MESSAGES} 条，
+ * 连接建立后按顺序补发。本地发起的连接断开后立即重连，失败后按指数退避重试，
+ * 间隔从 {@link TransportConsts#RECONNECT_MIN_DELAY_MILLIS} 加倍到 {@link TransportConsts#RECONNECT_MAX_DELAY_MILLIS}；
+ * 对方发起的连接等待对方重连。</p>
+ * <p>连接的写缓冲超过高水位时不可写，{@link #isWritable()} 返回 {@code false}，
+ * 之后发送的消息按照 {@link WritePolicy} 缓存或者丢弃，降到低水位以下后补发，见 {@link TransportConsts#WRITE_BUFFER_HIGH_WATER_MARK}。</p>
  * <h3>消息包结构</h3>
  * <ul>
  *     <li>Length : 4 bytes (Length value = n bytes)</li>
@@ -32,26 +56,73 @@ import java.util.concurrent.TimeUnit;
  * @author Ziegler
  * date 2021/4/13
  */
-public class NodeClient {
+public class NodeClient implements NodeLink {
 
     /** logger */
     private static final Logger logger = LoggerFactory.getLogger(NodeClient.class);
 
+    /** 连接的序号，双工模式下通过 {@link NodeHello} 告诉对方 */
+    private static final AttributeKey<Integer> CHANNEL_INDEX = AttributeKey.valueOf("nodeChannelIndex");
+
     private final String name;
 
-    private final NioEventLoopGroup group;
+    /** 传输方式 */
+    private final NodeTransport transport;
+    /** 本地node，不为 {@code null} 时使用双工连接 */
+    private final ServiceNode localNode;
+    /** 共享的线程组，连接时获取，关闭时释放 */
+    private EventLoopGroup group;
     private final Bootstrap bootstrap;
-    private ChannelFuture channelFuture;
+    /** 到对方node的连接，按照port选择 */
+    private final NodeChannel[] channels;
+    /** 服务端node的地址，连接时设置 */
+    private InetSocketAddress remoteAddress;
+    /** 已经关闭，不再重连 */
+    private volatile boolean closed;
+    /** 连接不可写时的处理策略 */
+    private volatile WritePolicy writePolicy = WritePolicy.BUFFER;
 
     public NodeClient(String name) {
+        this(name, NodeTransport.defaultTransport());
+    }
+
+    /**
+     * @param name 服务端node名称
+     * @param transport 传输方式
+     */
+    public NodeClient(String name, NodeTransport transport) {
+        this(name, null, transport);
+    }
+
+    /**
+     * @param name 服务端node名称
+     * @param localNode 本地node，不为 {@code null} 时使用双工连接：连接后发送 {@link NodeHello}，并接收对方发来的消息
+     * @param transport 传输方式
+     */
+    public NodeClient(String name, ServiceNode localNode, NodeTransport transport) {
+        this(name, localNode, transport, TransportConsts.NODE_CHANNELS);
+    }
+
+    /**
+     * @param name 服务端node名称
+     * @param localNode 本地node，不为 {@code null} 时使用双工连接：连接后发送 {@link NodeHello}，并接收对方发来的消息
+     * @param transport 传输方式
+     * @param channelCount 连接数量
+     */
+    public NodeClient(String name, ServiceNode localNode, NodeTransport transport, int channelCount) {
         this.name = name;
-        group = new NioEventLoopGroup(1);
-        this.bootstrap = new Bootstrap().group(group)
-                .channel(NioSocketChannel.class)
+        this.transport = transport;
+        this.localNode = localNode;
+        this.channels = newChannels(channelCount);
+        this.bootstrap = new Bootstrap()
+                .channel(transport.socketChannelClass())
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        TransportConsts.WRITE_BUFFER_LOW_WATER_MARK, TransportConsts.WRITE_BUFFER_HIGH_WATER_MARK))
+                .option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ExchangeSizeEstimator.INSTANCE)
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
@@ -59,31 +130,177 @@ public class NodeClient {
                                 .addLast(new LengthFieldPrepender(TransportConsts.HEAD_LENGTH_FIELD_LENGTH))
                                 .addLast(new LengthFieldBasedFrameDecoder(TransportConsts.MAX_FRAME_LENGTH,
                                         0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH,
-                                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH))
+                                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH));
+                        if (TransportConsts.COMPRESS) {
+                            ch.pipeline().addLast("compressor", new FrameCompressor());
+                        }
+                        ch.pipeline()
                                 .addLast("hessianCodec", new ExchangeCodec())
                                 .addLast("server-idle-handler", new IdleStateHandler(60, 0, 0, TimeUnit.SECONDS));
 //                                .addLast("handler", new ClientHandler());
+                        if (localNode != null) {
+                            ch.pipeline()
+                                    .addLast("hello", new ChannelInboundHandlerAdapter() {
+                                        @Override
+                                        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                                            final int index = ctx.channel().attr(CHANNEL_INDEX).get();
+                                            ctx.writeAndFlush(new NodeHello(localNode.getName(), index, channels.length));
+                                            super.channelActive(ctx);
+                                        }
+                                    })
+                                    .addLast("handler", new ServerHandler(localNode));
+                        }
                     }
                 });
     }
 
     /**
-     * channel的连接状态
-     * @return 未连接或者断开连接返回 {@code false}
+     * 双工模式下对方发起的连接
      */
+    private NodeClient(String name, int channelCount) {
+        this.name = name;
+        this.transport = null;
+        this.localNode = null;
+        this.bootstrap = null;
+        this.channels = newChannels(channelCount);
+    }
+
+    private NodeChannel[] newChannels(int channelCount) {
+        if (channelCount <= 0 || channelCount > TransportConsts.MAX_NODE_CHANNELS) {
+            throw new IllegalStateException("node连接数量超出范围。name = " + name + ", channelCount = " + channelCount);
+        }
+        final NodeChannel[] nodeChannels = new NodeChannel[channelCount];
+        final int capacity = Math.max(1, TransportConsts.NODE_PENDING_MAX_MESSAGES / channelCount);
+        for (int i = 0; i < channelCount; i++) {
+            nodeChannels[i] = new NodeChannel(this, i, capacity);
+        }
+        return nodeChannels;
+    }
+
+    /**
+     * 使用对方node发起的双工连接创建客户端，不能再调用 {@link #connect(String, int)}。连接通过 {@link #accept(int, Channel)} 加入
+     * @param name 对方node名称
+     * @param channelCount 对方的连接数量
+     */
+    public static NodeClient accepted(String name, int channelCount) {
+        return new NodeClient(name, channelCount);
+    }
+
+    /**
+     * 加入对方node发起的一条双工连接，替换同一序号的旧连接，补发这条连接缓存的消息
+     * @param index 连接序号
+     * @param channel 服务端接受的连接
+     */
+    public synchronized void accept(int index, Channel channel) {
+        if (!isAccepted()) {
+            throw new IllegalStateException("本地发起的连接不能加入对方的连接。name = " + name);
+        }
+        if (index < 0 || index >= channels.length) {
+            throw new IllegalStateException("node连接序号超出范围。name = " + name + ", index = " + index + ", channelCount = " + channels.length);
+        }
+        final NodeChannel nodeChannel = channels[index];
+        final Channel old = nodeChannel.channel();
+        nodeChannel.setChannelFuture(channel.newSucceededFuture());
+        if (old != null && old != channel) {
+            old.close();
+        }
+        nodeChannel.watch(channel);
+        nodeChannel.activate(channel);
+    }
+
+    /**
+     * 连接是否由对方node发起
+     */
+    public boolean isAccepted() {
+        return bootstrap == null;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 到对方node的连接数量
+     */
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    /**
+     * 所有连接都已经建立
+     * @return 未连接或者有连接断开返回 {@code false}
+     */
+    @Override
     public boolean isActive() {
-        return channelFuture != null ? channelFuture.channel().isActive() : false;
+        for (NodeChannel channel : channels) {
+            if (!channel.isActive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 所有连接都已经建立并且可写
+     * <p>返回 {@code false} 时发送的消息按照 {@link #getWritePolicy()} 缓存或者丢弃，发送方可以暂停不重要的消息。</p>
+     */
+    @Override
+    public boolean isWritable() {
+        for (NodeChannel channel : channels) {
+            if (!channel.isWritable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public WritePolicy getWritePolicy() {
+        return writePolicy;
+    }
+
+    /**
+     * 设置连接不可写时的处理策略
+     * @param writePolicy 处理策略
+     */
+    public void setWritePolicy(WritePolicy writePolicy) {
+        this.writePolicy = writePolicy;
     }
 
     /**
-     * 连接是否打开
+     * 是否有连接打开
      */
+    @Override
     public boolean isOpen() {
-        return channelFuture != null ? channelFuture.channel().isOpen() : false;
+        for (NodeChannel channel : channels) {
+            if (channel.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否已经关闭
+     */
+    @Override
+    public boolean isClosed() {
+        return closed;
     }
 
-    public void shutdown() {
-        group.shutdownGracefully();
+    /**
+     * 关闭连接，丢弃缓存的消息，释放共享的线程组
+     */
+    @Override
+    public synchronized void shutdown() {
+        closed = true;
+        for (NodeChannel channel : channels) {
+            channel.close();
+        }
+        if (group != null) {
+            transport.releaseClientGroup();
+            group = null;
+        }
     }
 
     /**
@@ -92,42 +309,184 @@ public class NodeClient {
      * @param port 服务端node的port
      * @return future对象
      */
-    public void connect(String ip, int port) {
+    public synchronized void connect(String ip, int port) {
+        if (isAccepted()) {
+            throw new IllegalStateException("对方发起的连接不能重新连接。name = " + name);
+        }
         if (logger.isDebugEnabled()) {
-            logger.debug("尝试连接服务端node。name = {}, ip = {}, port = {}", name, ip, port);
+            logger.debug("尝试连接服务端node。name = {}, ip = {}, port = {}, transport = {}, channels = {}",
+                    name, ip, port, transport.getName(), channels.length);
         }
-        channelFuture = bootstrap.clone().connect(new InetSocketAddress(ip, port));
+        if (closed) {
+            throw new IllegalStateException("客户端已经关闭。name = " + name);
+        }
+        if (group == null) {
+            group = transport.retainClientGroup();
+        }
+        remoteAddress = new InetSocketAddress(ip, port);
+        for (int i = 0; i < channels.length; i++) {
+            connectChannel(i);
+        }
+    }
+
+    /**
+     * 建立一条连接。连接建立后补发缓存的消息，连接失败或者断开后按退避间隔重连
+     */
+    private synchronized void connectChannel(int index) {
+        if (closed) {
+            return;
+        }
+        final NodeChannel nodeChannel = channels[index];
+        final ChannelFuture channelFuture = bootstrap.clone(group)
+                .attr(CHANNEL_INDEX, index)
+                .connect(remoteAddress);
+        nodeChannel.setChannelFuture(channelFuture);
         channelFuture.addListener(f -> {
+            final Channel channel = channelFuture.channel();
             if (f.isSuccess()) {
-                logger.debug("Connection established.name = {}, ip = {}, port = {}", name, ip, port);
+                logger.debug("Connection established.name = {}, address = {}, index = {}", name, remoteAddress, index);
+                nodeChannel.watch(channel);
+                channel.closeFuture().addListener(cf -> reconnect(index, channel));
+                // 在channelActive之后执行，先发送握手和问候再补发缓存的消息
+                channel.eventLoop().execute(() -> nodeChannel.activate(channel));
             } else {
-                logger.error("Connection attempt failed.name = {}, ip = {}, port = {}", name, ip, port);
+                logger.error("Connection attempt failed.name = {}, address = {}, index = {}", name, remoteAddress, index);
+                reconnect(index, channel);
             }
         });
     }
 
+    /**
+     * 连接失败或者断开后，按退避间隔重新建立这条连接
+     */
+    private synchronized void reconnect(int index, Channel channel) {
+        final NodeChannel nodeChannel = channels[index];
+        if (closed || nodeChannel.channel() != channel) {
+            return;
+        }
+        final long delay = nodeChannel.nextReconnectDelay();
+        logger.warn("node连接断开，{}毫秒后重连。name = {}, address = {}, index = {}", delay, name, remoteAddress, index);
+        group.schedule(() -> connectChannel(index), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取出所有连接缓存的消息，用于转移到替换的客户端
+     * @return 每条连接的消息按顺序排列
+     */
+    @Override
+    public List<Object> drainPending() {
+        final List<Object> messages = new ArrayList<>();
+        for (NodeChannel channel : channels) {
+            messages.addAll(channel.drainPending());
+        }
+        return messages;
+    }
+
+    /**
+     * 连接断开期间缓存、等待补发的消息数量
+     */
+    public int getPendingMessages() {
+        int count = 0;
+        for (NodeChannel channel : channels) {
+            count += channel.getPendingMessages();
+        }
+        return count;
+    }
+
+    /**
+     * 所有连接的写缓冲中等待写出的字节数
+     */
+    @Override
+    public long getPendingWriteBytes() {
+        long bytes = 0;
+        for (NodeChannel channel : channels) {
+            bytes += channel.getPendingWriteBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 累计缓存的消息数量
+     */
+    public long getBufferedMessages() {
+        long count = 0;
+        for (NodeChannel channel : channels) {
+            count += channel.getBufferedMessages();
+        }
+        return count;
+    }
+
+    /**
+     * 累计丢弃的消息数量：缓存已满、不可写时按照 {@link WritePolicy#DROP_ONEWAY} 丢弃，或者关闭时还没有补发
+     */
+    @Override
+    public long getDroppedMessages() {
+        long count = 0;
+        for (NodeChannel channel : channels) {
+            count += channel.getDroppedMessages();
+        }
+        return count;
+    }
+
+    /**
+     * 累计连接建立后补发的消息数量
+     */
+    public long getReplayedMessages() {
+        long count = 0;
+        for (NodeChannel channel : channels) {
+            count += channel.getReplayedMessages();
+        }
+        return count;
+    }
+
     /**
      * 发送数据
+     * <p>按照消息所属的port选择连接，同一个port的消息保持顺序，见 {@link #affinity(Object)}。</p>
+     * <p>在开启合并写出的 {@link ServicePort} 线程调用时，先缓存到port的 {@link WriteCoalescer}，在port心跳结束时写出；
+     * 其他线程直接写出。连接断开或者不可写时缓存，连接建立或者恢复可写后补发。</p>
      * @param obj 要发送的对象
      */
+    @Override
     public void send(Object obj) {
-        final Channel channel = channelFuture.channel();
-        if (channel.isActive()) {
-            channel.writeAndFlush(obj);
-        } else {
-            logger.error("org.game.core.transport.node.NodeClient.send时，node连接断开。name = {}", name);
+        final NodeChannel channel = channels.length == 1 ? channels[0]
+                : channels[Math.floorMod(affinity(obj), channels.length)];
+        final ServicePort servicePort = ServicePort.getServicePort();
+        if (servicePort != null && servicePort.isWriteCoalescing()) {
+            servicePort.getWriteCoalescer().add(channel, obj);
+            return;
         }
+        channel.writeAndFlush(obj);
     }
 
-
+    /**
+     * 选择连接的hash：{@link Request} 使用发起调用的port，{@link Response} 使用接收应答的port
+     */
+    static int affinity(Object obj) {
+        final int h;
+        if (obj instanceof Request) {
+            h = ((Request) obj).getRpcInvocation().getFromPoint().getPort().hashCode();
+        } else if (obj instanceof Response) {
+            h = CallId.portIndex(((Response) obj).getId());
+        } else {
+            h = 0;
+        }
+        return h ^ (h >>> 16);
+    }
 
     /**
      * 空的node对象
      */
-    public static class EmptyNodeClient extends NodeClient {
+    public static class EmptyNodeClient implements NodeLink {
+
+        private final String name;
 
         public EmptyNodeClient(String name) {
-            super(name);
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
         }
 
         @Override
@@ -135,7 +494,6 @@ public class NodeClient {
             logger.error("使用EmptyNodeClient对象shutdown");
         }
 
-        @Override
         public void connect(String ip, int port) {
             logger.error("使用EmptyNodeClient对象连接node");
         }
@@ -144,5 +502,40 @@ public class NodeClient {
         public void send(Object obj) {
             logger.error("使用EmptyNodeClient对象发送数据");
         }
+
+        @Override
+        public boolean isActive() {
+            return false;
+        }
+
+        @Override
+        public boolean isWritable() {
+            return false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return false;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public List<Object> drainPending() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public long getPendingWriteBytes() {
+            return 0L;
+        }
+
+        @Override
+        public long getDroppedMessages() {
+            return 0L;
+        }
     }
 }
@@ -0,0 +1,64 @@
+package org.game.core.transport.node;
+
+import java.util.List;
+
+/**
+ * 到一个node的发送通道
+ * <p>{@link org.game.core.ServiceNode} 按node名称保存，发送 {@link org.game.core.exchange.Request} 和
+ * {@link org.game.core.exchange.Response}。TCP使用 {@link NodeClient}，同一台机器上的node可以使用
+ * {@link org.game.core.transport.shm.ShmNodeClient}。</p>
+ */
+public interface NodeLink {
+
+    /**
+     * 对方node名称
+     */
+    String getName();
+
+    /**
+     * 发送数据，同一个port的消息保持顺序
+     * @param obj 要发送的对象
+     */
+    void send(Object obj);
+
+    /**
+     * 可以发送到对方node
+     */
+    boolean isActive();
+
+    /**
+     * 可以发送并且没有积压，返回 {@code false} 时发送方可以暂停不重要的消息
+     */
+    boolean isWritable();
+
+    /**
+     * 是否已经打开
+     */
+    boolean isOpen();
+
+    /**
+     * 是否已经关闭，关闭后需要重新连接
+     */
+    boolean isClosed();
+
+    /**
+     * 关闭，不再发送
+     */
+    void shutdown();
+
+    /**
+     * 取出还没有发送的消息，用于转移到替换的发送通道
+     * @return 同一个port的消息按顺序排列
+     */
+    List<Object> drainPending();
+
+    /**
+     * 已经写出、对方还没有读取的字节数
+     */
+    long getPendingWriteBytes();
+
+    /**
+     * 累计丢弃的消息数量
+     */
+    long getDroppedMessages();
+}
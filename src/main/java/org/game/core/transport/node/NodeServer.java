@@ -5,14 +5,16 @@ import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.game.core.ServiceNode;
 import org.game.core.transport.ExchangeCodec;
+import org.game.core.transport.ExchangeSizeEstimator;
+import org.game.core.transport.FrameCompressor;
 import org.game.core.transport.ServerHandler;
 import org.game.core.transport.TransportConsts;
 import org.slf4j.Logger;
@@ -23,7 +25,8 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * node服务器
- * <p>服务端只负责接收消息，不发送消息</p>
+ * <p>接收其他node的node客户端发来的消息。默认只接收，不发送；双工模式下收到 {@link org.game.core.transport.NodeHello} 后，
+ * 当前node通过这条连接返回应答和发送请求，见 {@link TransportConsts#DUPLEX_CONNECTION}。</p>
  * <h3>消息包结构</h3>
  * <ul>
  *     <li>Length : 4 bytes (Length value = n bytes)</li>
@@ -39,19 +42,31 @@ public class NodeServer {
     /** logger */
     private static final Logger logger = LoggerFactory.getLogger(NodeServer.class);
 
-    private final NioEventLoopGroup group = new NioEventLoopGroup();
+    private final EventLoopGroup group;
     /** 服务端启动器 */
     private final ServerBootstrap serverBootstrap = new ServerBootstrap();
 
     private final ServiceNode serviceNode;
 
     public NodeServer(ServiceNode serviceNode) {
+        this(serviceNode, NodeTransport.defaultTransport());
+    }
+
+    /**
+     * @param serviceNode 所属node
+     * @param transport 传输方式
+     */
+    public NodeServer(ServiceNode serviceNode, NodeTransport transport) {
         this.serviceNode = serviceNode;
+        this.group = transport.newServerGroup();
         serverBootstrap.group(group)
-                .channel(NioServerSocketChannel.class)
+                .channel(transport.serverChannelClass())
                 .option(ChannelOption.SO_REUSEADDR, Boolean.TRUE)
                 .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
                 .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        TransportConsts.WRITE_BUFFER_LOW_WATER_MARK, TransportConsts.WRITE_BUFFER_HIGH_WATER_MARK))
+                .childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ExchangeSizeEstimator.INSTANCE)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
@@ -59,7 +74,11 @@ public class NodeServer {
                                 .addLast(new LengthFieldPrepender(TransportConsts.HEAD_LENGTH_FIELD_LENGTH))
                                 .addLast(new LengthFieldBasedFrameDecoder(TransportConsts.MAX_FRAME_LENGTH,
                                         0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH,
-                                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH))
+                                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH));
+                        if (TransportConsts.COMPRESS) {
+                            ch.pipeline().addLast("compressor", new FrameCompressor());
+                        }
+                        ch.pipeline()
                                 .addLast("hessianCodec", new ExchangeCodec())
                                 .addLast("server-idle-handler", new IdleStateHandler(0, 0, 10, TimeUnit.SECONDS))
                                 .addLast("handler", new ServerHandler(serviceNode));
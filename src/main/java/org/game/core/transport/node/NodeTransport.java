@@ -0,0 +1,154 @@
+package org.game.core.transport.node;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.game.core.transport.TransportConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * node之间的网络传输方式
+ * <p>{@link #EPOLL} 使用Linux的native epoll，{@link #NIO} 使用JDK的NIO。{@link #defaultTransport()} 在
+ * {@link TransportConsts#NATIVE_TRANSPORT} 开启并且epoll可用时使用epoll，否则退回NIO。</p>
+ * <p>同一种传输方式的所有 {@link NodeClient} 共享一个event loop线程组，线程数见 {@link TransportConsts#CLIENT_EVENT_LOOP_THREADS}，
+ * 第一个连接时创建，最后一个客户端关闭时释放。每个 {@link NodeServer} 使用自己的线程组，线程数见
+ * {@link TransportConsts#SERVER_EVENT_LOOP_THREADS}。</p>
+ */
+public final class NodeTransport {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(NodeTransport.class);
+
+    public static final NodeTransport NIO = new NodeTransport("nio", false);
+    public static final NodeTransport EPOLL = new NodeTransport("epoll", true);
+
+    private final String name;
+    private final boolean epoll;
+
+    /** 客户端共享的线程组 */
+    private EventLoopGroup clientGroup;
+    /** 客户端共享线程组的线程数 */
+    private int clientGroupThreads;
+    /** 使用共享线程组的客户端数量 */
+    private int clientGroupRefs;
+
+    private NodeTransport(String name, boolean epoll) {
+        this.name = name;
+        this.epoll = epoll;
+    }
+
+    /**
+     * 默认的传输方式
+     */
+    public static NodeTransport defaultTransport() {
+        if (TransportConsts.NATIVE_TRANSPORT && EPOLL.isAvailable()) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+
+    /**
+     * 当前系统是否支持
+     */
+    public boolean isAvailable() {
+        return !epoll || Epoll.isAvailable();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    Class<? extends SocketChannel> socketChannelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    Class<? extends ServerChannel> serverChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 获取客户端共享的线程组，使用完之后调用 {@link #releaseClientGroup()}
+     */
+    synchronized EventLoopGroup retainClientGroup() {
+        if (clientGroup == null) {
+            clientGroupThreads = clientThreads();
+            clientGroup = newGroup(clientGroupThreads, "nodeClient-" + name);
+            logger.info("创建node客户端共享线程组。transport = {}, threads = {}", name, clientGroupThreads);
+        }
+        clientGroupRefs++;
+        return clientGroup;
+    }
+
+    /**
+     * 释放客户端共享的线程组，没有客户端使用时关闭
+     */
+    synchronized void releaseClientGroup() {
+        if (clientGroupRefs <= 0) {
+            return;
+        }
+        clientGroupRefs--;
+        if (clientGroupRefs == 0) {
+            clientGroup.shutdownGracefully();
+            clientGroup = null;
+            clientGroupThreads = 0;
+            logger.info("关闭node客户端共享线程组。transport = {}", name);
+        }
+    }
+
+    /**
+     * 客户端共享线程组的线程数，没有创建时返回0
+     */
+    public synchronized int getClientGroupThreads() {
+        return clientGroupThreads;
+    }
+
+    /**
+     * 使用共享线程组的客户端数量
+     */
+    public synchronized int getClientCount() {
+        return clientGroupRefs;
+    }
+
+    /**
+     * 创建服务端线程组，由服务端自己关闭
+     */
+    EventLoopGroup newServerGroup() {
+        return newGroup(TransportConsts.SERVER_EVENT_LOOP_THREADS, "nodeServer-" + name);
+    }
+
+    private EventLoopGroup newGroup(int threads, String poolName) {
+        if (!isAvailable()) {
+            throw new IllegalStateException("当前系统不支持epoll。cause = " + Epoll.unavailabilityCause());
+        }
+        final DefaultThreadFactory threadFactory = new DefaultThreadFactory(poolName);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    /**
+     * 客户端线程数，没有配置时按照CPU数量，最多 {@link TransportConsts#CLIENT_EVENT_LOOP_MAX_DEFAULT_THREADS}
+     */
+    private static int clientThreads() {
+        if (TransportConsts.CLIENT_EVENT_LOOP_THREADS > 0) {
+            return TransportConsts.CLIENT_EVENT_LOOP_THREADS;
+        }
+        return Math.min(Runtime.getRuntime().availableProcessors(), TransportConsts.CLIENT_EVENT_LOOP_MAX_DEFAULT_THREADS);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("name", name)
+                .append("available", isAvailable())
+                .toString();
+    }
+}
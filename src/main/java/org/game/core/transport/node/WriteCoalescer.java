@@ -0,0 +1,103 @@
+package org.game.core.transport.node;
+
+import org.game.core.transport.TransportConsts;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并写出
+ * <p>每个 {@link org.game.core.ServicePort} 一个，只在port线程访问。port线程通过 {@link NodeClient#send(Object)}
+ * 发送的消息先按连接 {@link NodeChannel} 缓存，在port一次心跳结束时合并写出：每个连接只提交一次event loop任务、只flush一次。</p>
+ * <p>单个连接缓存的消息达到 {@link TransportConsts#WRITE_COALESCE_MAX_MESSAGES} 条时立即写出；
+ * 最早缓存的消息超过 {@link TransportConsts#WRITE_COALESCE_MAX_DELAY_MICROS} 时由port提前写出。</p>
+ */
+public final class WriteCoalescer {
+
+    private static final long MAX_DELAY_NANOS = TransportConsts.WRITE_COALESCE_MAX_DELAY_MICROS * 1000L;
+
+    /** 缓存的消息 {@literal NodeChannel -> messages} */
+    private final Map<NodeChannel, List<Object>> pending = new IdentityHashMap<>();
+    /** 缓存的消息数量 */
+    private int size;
+    /** 最早缓存消息的时间 */
+    private long firstNanos;
+    /** 累计写出次数 */
+    private long flushCount;
+    /** 累计写出的消息数量 */
+    private long messageCount;
+
+    void add(NodeChannel nodeChannel, Object msg) {
+        List<Object> messages = pending.get(nodeChannel);
+        if (messages == null) {
+            messages = new ArrayList<>();
+            pending.put(nodeChannel, messages);
+        }
+        if (size == 0) {
+            firstNanos = System.nanoTime();
+        }
+        messages.add(msg);
+        size++;
+        if (messages.size() >= TransportConsts.WRITE_COALESCE_MAX_MESSAGES) {
+            pending.remove(nodeChannel);
+            size -= messages.size();
+            write(nodeChannel, messages);
+        }
+    }
+
+    /**
+     * 最早缓存的消息已经超过最大延迟
+     * @param nanoTime 当前时间 {@link System#nanoTime()}
+     */
+    public boolean isExpired(long nanoTime) {
+        return size > 0 && nanoTime - firstNanos >= MAX_DELAY_NANOS;
+    }
+
+    /**
+     * 写出所有缓存的消息
+     */
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        final Iterator<Map.Entry<NodeChannel, List<Object>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<NodeChannel, List<Object>> entry = iterator.next();
+            final NodeChannel nodeChannel = entry.getKey();
+            final List<Object> messages = entry.getValue();
+            iterator.remove();
+            write(nodeChannel, messages);
+        }
+        size = 0;
+    }
+
+    private void write(NodeChannel nodeChannel, List<Object> messages) {
+        flushCount++;
+        messageCount += messages.size();
+        nodeChannel.writeBatch(messages);
+    }
+
+    /**
+     * 缓存的消息数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 累计写出次数，每次写出对应一次event loop任务和一次flush
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * 累计写出的消息数量
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+}
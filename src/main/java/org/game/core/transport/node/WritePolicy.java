@@ -0,0 +1,20 @@
+package org.game.core.transport.node;
+
+import org.game.core.transport.TransportConsts;
+
+/**
+ * {@link NodeClient} 的连接不可写时（写缓冲超过 {@link TransportConsts#WRITE_BUFFER_HIGH_WATER_MARK}）发送消息的处理策略
+ * <p>连接降到 {@link TransportConsts#WRITE_BUFFER_LOW_WATER_MARK} 以下恢复可写后，按顺序写出缓存的消息。</p>
+ */
+public enum WritePolicy {
+
+    /**
+     * 缓存：消息缓存到连接的有界队列（和连接断开时共用 {@link TransportConsts#NODE_PENDING_MAX_MESSAGES}），队列满后丢弃新的消息。
+     */
+    BUFFER,
+
+    /**
+     * 优先丢弃单向请求：单向请求直接丢弃，其他消息按 {@link #BUFFER} 处理。
+     */
+    DROP_ONEWAY,
+}
@@ -0,0 +1,65 @@
+package org.game.core.transport.shm;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 轮询线程空闲时的等待策略：先忙等，再让出CPU，最后park，park的时间逐次加倍到上限
+ * <p>共享内存没有跨进程的唤醒通知，只能轮询。刚空闲时忙等，新消息的延迟最低；持续空闲后park，不占用CPU，
+ * 代价是空闲后第一条消息的延迟最多增加 {@code maxParkNanos}。有消息时回到忙等。</p>
+ */
+final class BackoffIdleStrategy {
+
+    private final int maxSpins;
+    private final int maxYields;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    private int spins;
+    private int yields;
+    private long parkNanos;
+
+    BackoffIdleStrategy(int maxSpins, int maxYields, long minParkNanos, long maxParkNanos) {
+        this.maxSpins = maxSpins;
+        this.maxYields = maxYields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+        reset();
+    }
+
+    /**
+     * 一轮轮询之后调用
+     * @param workCount 这一轮处理的消息数量，大于0时重置
+     */
+    void idle(int workCount) {
+        if (workCount > 0) {
+            reset();
+            return;
+        }
+        if (spins < maxSpins) {
+            spins++;
+        } else if (yields < maxYields) {
+            yields++;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+        }
+    }
+
+    void reset() {
+        spins = 0;
+        yields = 0;
+        parkNanos = minParkNanos;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("maxSpins", maxSpins)
+                .append("maxYields", maxYields)
+                .append("minParkNanos", minParkNanos)
+                .append("maxParkNanos", maxParkNanos)
+                .toString();
+    }
+}
@@ -0,0 +1,76 @@
+package org.game.core.transport.shm;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * 按地址读写堆外内存，提供 {@link ShmRing} 发布位置需要的volatile读和有序写
+ * <p>普通读写使用 {@link PlatformDependent}。Java 8没有VarHandle，volatile读和有序写通过反射找到
+ * {@code sun.misc.Unsafe} 的 {@code getLongVolatile} 和 {@code putOrderedLong}，编译时不依赖内部API，
+ * 可以用 {@code --release 8} 编译。方法句柄是常量，JIT编译后和直接调用一样。</p>
+ */
+final class OrderedMemory {
+
+    /** {@code long getLongVolatile(Object, long)}，已经绑定Unsafe实例 */
+    private static final MethodHandle GET_LONG_VOLATILE;
+    /** {@code void putOrderedLong(Object, long, long)}，已经绑定Unsafe实例 */
+    private static final MethodHandle PUT_ORDERED_LONG;
+
+    static {
+        if (!PlatformDependent.hasUnsafe()) {
+            throw new IllegalStateException("共享内存传输需要sun.misc.Unsafe", PlatformDependent.getUnsafeUnavailabilityCause());
+        }
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            PUT_ORDERED_LONG = lookup.findVirtual(unsafeClass, "putOrderedLong",
+                    MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("共享内存传输需要sun.misc.Unsafe", e);
+        }
+    }
+
+    private OrderedMemory() {
+    }
+
+    static long getLongVolatile(long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+        } catch (Throwable e) {
+            PlatformDependent.throwException(e);
+            return 0L;
+        }
+    }
+
+    /**
+     * 写入之前的读写不会重排到这次写入之后，其他线程用 {@link #getLongVolatile(long)} 读到这个值后能看到之前写入的数据
+     */
+    static void putOrderedLong(long address, long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+        } catch (Throwable e) {
+            PlatformDependent.throwException(e);
+        }
+    }
+
+    static int getInt(long address) {
+        return PlatformDependent.getInt(address);
+    }
+
+    static void putInt(long address, int value) {
+        PlatformDependent.putInt(address, value);
+    }
+
+    static void copyMemory(byte[] src, int srcIndex, long dstAddress, long length) {
+        PlatformDependent.copyMemory(src, srcIndex, dstAddress, length);
+    }
+}
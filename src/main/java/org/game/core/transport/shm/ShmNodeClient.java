@@ -0,0 +1,287 @@
+package org.game.core.transport.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.game.core.exchange.Request;
+import org.game.core.transport.Hessian2Utils;
+import org.game.core.transport.TransportConsts;
+import org.game.core.transport.node.NodeLink;
+import org.game.core.transport.node.WritePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通过共享内存发送消息到同一台机器上的node
+ * <p>写入 {@link ShmNodeServer#ringFile(File, String, String)} 对应的 {@link ShmRing}，对方node的 {@link ShmNodeServer} 读取。
+ * 每条消息单独用 {@link Hessian2Utils} 编码，消息之间没有状态，任何一方重启后都可以继续使用同一个文件。
+ * 多个port线程发送时加锁写入，同一个port的消息保持顺序。</p>
+ * <p>打开时和 {@link #heartbeat(long)} 更新生产者心跳，对方据此判断当前node是否在线。对方短暂离线时消息留在环形缓冲中，
+ * 对方恢复后按顺序读取；对方超过 {@link TransportConsts#SHM_HEARTBEAT_TIMEOUT_MILLIS} 没有心跳时 {@link #isExpired(long)}，
+ * 由 {@link org.game.core.ServiceNode} 关闭后重新连接。</p>
+ * <p>环形缓冲已满时按照 {@link WritePolicy} 处理：对方不在线或者单向请求在 {@link WritePolicy#DROP_ONEWAY} 下直接丢弃，
+ * 其他消息最多等待 {@link TransportConsts#SHM_OFFER_TIMEOUT_MILLIS}，超时后丢弃。</p>
+ * <p>超过 {@link ShmRing#maxMessageLength()} 的消息在锁内拆分为连续的多条记录写入，中间不会插入其他消息，对方拼接后解码；
+ * 和TCP连接一样最大 {@link TransportConsts#FRAGMENT_MAX_MESSAGE_LENGTH}，超过的消息丢弃。
+ * 写入分片时超时，已经写入的分片由对方在下一条消息开始时丢弃。</p>
+ */
+public class ShmNodeClient implements NodeLink {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(ShmNodeClient.class);
+
+    /** 对方node名称 */
+    private final String name;
+    /** 环形缓冲文件 */
+    private final File file;
+    /** 创建文件时的容量 */
+    private final int capacity;
+    /** 打开之后才能发送 */
+    private volatile ShmRing ring;
+    /** 打开的时间，对方在这之后还没有心跳时不认为过期 */
+    private volatile long openMillis;
+    /** 已经关闭 */
+    private volatile boolean closed;
+    /** 环形缓冲已满时的处理策略 */
+    private volatile WritePolicy writePolicy = WritePolicy.BUFFER;
+
+    /** 累计发送的消息数量 */
+    private final AtomicLong sentMessages = new AtomicLong();
+    /** 累计丢弃的消息数量 */
+    private final AtomicLong droppedMessages = new AtomicLong();
+    /** 上次发送成功之后丢弃的消息数量，只记录第一次的日志 */
+    private long droppedSinceSent;
+
+    /**
+     * @param name 对方node名称
+     * @param localNode 本地node名称
+     * @param directory 环形缓冲文件所在的目录
+     */
+    public ShmNodeClient(String name, String localNode, File directory) {
+        this(name, localNode, directory, TransportConsts.SHM_RING_CAPACITY);
+    }
+
+    /**
+     * @param name 对方node名称
+     * @param localNode 本地node名称
+     * @param directory 环形缓冲文件所在的目录
+     * @param capacity 环形缓冲容量，文件已经存在时使用文件中的容量
+     */
+    public ShmNodeClient(String name, String localNode, File directory, int capacity) {
+        this.name = name;
+        this.file = ShmNodeServer.ringFile(directory, localNode, name);
+        this.capacity = capacity;
+    }
+
+    /**
+     * 作为生产者打开环形缓冲文件，已经打开时忽略。对方不在线时丢弃之前的进程写入、对方还没有读取的消息
+     */
+    public synchronized void open() {
+        if (closed) {
+            throw new IllegalStateException("客户端已经关闭。name = " + name);
+        }
+        if (ring != null) {
+            return;
+        }
+        try {
+            ring = ShmRing.openProducer(file, capacity);
+            openMillis = System.currentTimeMillis();
+        } catch (IOException e) {
+            throw new IllegalStateException("打开环形缓冲失败。name = " + name + ", file = " + file, e);
+        }
+        logger.info("打开共享内存连接。name = {}, ring = {}", name, ring);
+    }
+
+    /**
+     * 关闭后不再发送，环形缓冲中还没有读取的消息留给对方读取
+     */
+    @Override
+    public synchronized void shutdown() {
+        closed = true;
+        ring = null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && ring != null;
+    }
+
+    /**
+     * 对方node在 {@link TransportConsts#SHM_HEARTBEAT_TIMEOUT_MILLIS} 内更新过心跳
+     */
+    @Override
+    public boolean isActive() {
+        final ShmRing current = ring;
+        return !closed && current != null
+                && System.currentTimeMillis() - current.getHeartbeat() < TransportConsts.SHM_HEARTBEAT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * 对方在线，并且环形缓冲中没有读取的数据不超过一半
+     */
+    @Override
+    public boolean isWritable() {
+        final ShmRing current = ring;
+        return isActive() && current != null && current.size() < current.getCapacity() / 2;
+    }
+
+    /**
+     * 环形缓冲中对方还没有读取的字节数
+     */
+    @Override
+    public long getPendingWriteBytes() {
+        final ShmRing current = ring;
+        return current != null ? current.size() : 0L;
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * 消息都已经写入环形缓冲，没有缓存的消息
+     */
+    @Override
+    public List<Object> drainPending() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * 更新生产者心跳，由当前node的 {@link ShmNodeServer} 定时调用
+     */
+    public void heartbeat(long now) {
+        final ShmRing current = ring;
+        if (!closed && current != null) {
+            current.producerHeartbeat(now);
+        }
+    }
+
+    /**
+     * 打开后对方超过 {@link TransportConsts#SHM_HEARTBEAT_TIMEOUT_MILLIS} 没有心跳：对方已经退出或者不再使用共享内存
+     */
+    public boolean isExpired(long now) {
+        final ShmRing current = ring;
+        return !closed && current != null
+                && now - Math.max(openMillis, current.getHeartbeat()) >= TransportConsts.SHM_HEARTBEAT_TIMEOUT_MILLIS;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public WritePolicy getWritePolicy() {
+        return writePolicy;
+    }
+
+    /**
+     * 设置环形缓冲已满时的处理策略
+     * @param writePolicy 处理策略
+     */
+    public void setWritePolicy(WritePolicy writePolicy) {
+        this.writePolicy = writePolicy;
+    }
+
+    /**
+     * 累计写入环形缓冲的消息数量
+     */
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 编码后写入环形缓冲，编码在锁外进行
+     * @param obj 要发送的对象
+     */
+    @Override
+    public void send(Object obj) {
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            try {
+                Hessian2Utils.encode(obj, buf);
+            } catch (IOException | RuntimeException e) {
+                logger.error("编码失败，丢弃消息。name = {}, msg = {}", name, obj, e);
+                droppedMessages.incrementAndGet();
+                return;
+            }
+            write(obj, buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+        } finally {
+            buf.release();
+        }
+    }
+
+    private synchronized void write(Object obj, byte[] src, int offset, int length) {
+        final ShmRing current = ring;
+        if (current == null || length > TransportConsts.FRAGMENT_MAX_MESSAGE_LENGTH) {
+            drop(obj, length);
+            return;
+        }
+        final int maxRecordLength = current.maxMessageLength();
+        int written = 0;
+        do {
+            final int n = Math.min(maxRecordLength, length - written);
+            final int flags = (written > 0 ? ShmRing.FLAG_CONTINUED : 0) | (written + n < length ? ShmRing.FLAG_MORE : 0);
+            if (!offer(current, obj, src, offset + written, n, flags)) {
+                drop(obj, length);
+                return;
+            }
+            written += n;
+        } while (written < length);
+        sentMessages.incrementAndGet();
+        droppedSinceSent = 0;
+    }
+
+    /**
+     * 写入一条记录，环形缓冲已满时按照 {@link WritePolicy} 等待对方读取
+     * @return 没有写入返回 {@code false}
+     */
+    private boolean offer(ShmRing current, Object obj, byte[] src, int offset, int length, int flags) {
+        if (current.offer(src, offset, length, flags)) {
+            return true;
+        }
+        if (!isActive() || writePolicy == WritePolicy.DROP_ONEWAY && isOneWay(obj)) {
+            // 对方不在线时不等待，避免阻塞port线程
+            return false;
+        }
+        // 等待对方读取
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TransportConsts.SHM_OFFER_TIMEOUT_MILLIS);
+        final BackoffIdleStrategy idleStrategy = new BackoffIdleStrategy(TransportConsts.SHM_IDLE_SPINS,
+                TransportConsts.SHM_IDLE_YIELDS, TransportConsts.SHM_IDLE_MIN_PARK_NANOS, TransportConsts.SHM_IDLE_MAX_PARK_NANOS);
+        while (!current.offer(src, offset, length, flags)) {
+            if (closed || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            idleStrategy.idle(0);
+        }
+        return true;
+    }
+
+    private void drop(Object obj, int length) {
+        droppedMessages.incrementAndGet();
+        if (droppedSinceSent++ == 0) {
+            final ShmRing current = ring;
+            logger.error("共享内存连接不可写，丢弃消息。name = {}, length = {}, ring = {}, closed = {}, policy = {}, msg = {}",
+                    name, length, current, closed, writePolicy, obj);
+        }
+    }
+
+    private static boolean isOneWay(Object msg) {
+        return msg instanceof Request && ((Request) msg).getRpcInvocation().isOneWay();
+    }
+}
@@ -0,0 +1,373 @@
+package org.game.core.transport.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.game.core.ServiceNode;
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.game.core.transport.BackpressureDispatcher;
+import org.game.core.transport.Hessian2Utils;
+import org.game.core.transport.TransportConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 接收同一台机器上其他node通过共享内存发来的消息
+ * <p>每个node一个接收线程，每隔 {@link TransportConsts#SHM_SCAN_INTERVAL_MILLIS} 扫描目录中发给当前node的环形缓冲文件
+ * {@code <from>@<to>.ring}，轮询所有打开的环形缓冲，每个环形缓冲一轮最多读取 {@code POLL_LIMIT} 条，
+ * 像 {@link org.game.core.transport.ServerHandler} 处理 {@link org.game.core.transport.MessageBatch} 一样按顺序批量派发
+ * {@link Request} 和 {@link Response}。对方node在线（生产者心跳没有超时）时通过 {@link ServiceNode#acceptShmNode(String)}
+ * 建立反方向的连接，用于返回应答；之前的进程留下的文件不会建立连接，里面的消息也不会读取。</p>
+ * <p>没有消息时按照 {@link BackoffIdleStrategy} 先忙等再park。扫描时更新每个接收和发送的环形缓冲的心跳，对方据此判断当前node是否在线。
+ * 连接对方时先通过 {@link #connect(String)} 确认对方在读取，见 {@link ServiceNode}。</p>
+ * <p>{@link org.game.core.OverloadPolicy#BACKPRESSURE} 模式下port队列已满时继续读取，环形缓冲中的应答需要继续投递，
+ * 只暂停发往这个port的请求，见 {@link BackpressureDispatcher}。</p>
+ */
+public class ShmNodeServer {
+
+    /** logger */
+    private static final Logger logger = LoggerFactory.getLogger(ShmNodeServer.class);
+
+    /** 环形缓冲文件名中发送方和接收方的分隔符 */
+    private static final String RING_FILE_SEPARATOR = "@";
+    private static final String RING_FILE_SUFFIX = ".ring";
+    /** 每个环形缓冲每轮最多读取的消息数量，避免一个对方node占满接收线程 */
+    private static final int POLL_LIMIT = 256;
+
+    private final ServiceNode serviceNode;
+    /** 环形缓冲文件所在的目录 */
+    private final File directory;
+
+    /** 已经打开的环形缓冲，只在接收线程访问 */
+    private final List<InboundRing> rings = new ArrayList<>();
+    /** 已经打开的文件对应的对方node，只在接收线程访问 */
+    private final Set<String> scannedNodes = new HashSet<>();
+    /** 打开失败的文件对应的对方node，只记录第一次的日志 */
+    private final Set<String> failedNodes = new HashSet<>();
+    /** 当前node发送的环形缓冲，扫描时更新生产者心跳 */
+    private final List<ShmNodeClient> outboundClients = new CopyOnWriteArrayList<>();
+    /** 在接收线程执行的任务：port恢复后继续投递暂存的请求 */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** 提交任务到接收线程 */
+    private final Executor executor = this::execute;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    /** 累计接收的消息数量，只有接收线程写 */
+    private volatile long receivedMessages;
+
+    public ShmNodeServer(ServiceNode serviceNode, File directory) {
+        this.serviceNode = serviceNode;
+        this.directory = directory;
+    }
+
+    /**
+     * 从 {@code from} 发送到 {@code to} 的环形缓冲文件
+     */
+    public static File ringFile(File directory, String from, String to) {
+        return new File(directory, from + RING_FILE_SEPARATOR + to + RING_FILE_SUFFIX);
+    }
+
+    /**
+     * 是否本机的地址：回环地址或者本机网卡的地址
+     * @param ip ip或者主机名
+     * @return 解析失败返回 {@code false}
+     */
+    public static boolean isLocalAddress(String ip) {
+        try {
+            final InetAddress address = InetAddress.getByName(ip);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                    || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 打开到对方node的环形缓冲，等待对方读取，最多等待 {@link TransportConsts#SHM_CONNECT_TIMEOUT_MILLIS}
+     * <p>对方没有开启共享内存、使用不同的目录或者没有启动时返回 {@code null}，调用方继续使用TCP。</p>
+     * @param node 对方node名称
+     * @return 对方已经在读取的客户端，超时返回 {@code null}
+     */
+    public ShmNodeClient connect(String node) {
+        final ShmNodeClient nodeClient = open(node);
+        final long deadline = System.currentTimeMillis() + TransportConsts.SHM_CONNECT_TIMEOUT_MILLIS;
+        try {
+            while (!nodeClient.isActive()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    logger.info("对方node没有读取共享内存，使用TCP。node = {}, to = {}, file = {}",
+                            serviceNode.getName(), node, nodeClient.getFile());
+                    nodeClient.shutdown();
+                    return null;
+                }
+                Thread.sleep(10L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            nodeClient.shutdown();
+            return null;
+        }
+        return nodeClient;
+    }
+
+    /**
+     * 打开到对方node的环形缓冲，扫描时更新生产者心跳
+     * @param node 对方node名称
+     * @return 已经打开的客户端，对方可能还没有读取
+     */
+    public ShmNodeClient open(String node) {
+        final ShmNodeClient nodeClient = new ShmNodeClient(node, serviceNode.getName(), directory);
+        nodeClient.open();
+        outboundClients.add(nodeClient);
+        return nodeClient;
+    }
+
+    /**
+     * 启动接收线程
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IllegalStateException("创建环形缓冲目录失败。node = " + serviceNode.getName() + ", directory = " + directory);
+        }
+        running = true;
+        thread = new Thread(this::run, "shm-node-server-" + serviceNode.getName());
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("共享内存接收线程启动。node = {}, directory = {}", serviceNode.getName(), directory);
+    }
+
+    /**
+     * 停止接收线程，环形缓冲中还没有读取的消息留在文件中
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 累计接收的消息数量
+     */
+    public long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    private void run() {
+        final BackoffIdleStrategy idleStrategy = new BackoffIdleStrategy(TransportConsts.SHM_IDLE_SPINS,
+                TransportConsts.SHM_IDLE_YIELDS, TransportConsts.SHM_IDLE_MIN_PARK_NANOS, TransportConsts.SHM_IDLE_MAX_PARK_NANOS);
+        long nextScanMillis = 0L;
+        while (running) {
+            final long now = System.currentTimeMillis();
+            if (now >= nextScanMillis) {
+                scan(now);
+                nextScanMillis = now + TransportConsts.SHM_SCAN_INTERVAL_MILLIS;
+            }
+            int workCount = runTasks();
+            for (int i = 0; i < rings.size(); i++) {
+                workCount += rings.get(i).poll();
+            }
+            idleStrategy.idle(workCount);
+        }
+        logger.info("共享内存接收线程停止。node = {}", serviceNode.getName());
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        final Thread current = thread;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private int runTasks() {
+        int count = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("共享内存接收线程执行任务出错。node = {}", serviceNode.getName(), e);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 打开新的环形缓冲文件，更新心跳
+     */
+    private void scan(long now) {
+        for (ShmNodeClient nodeClient : outboundClients) {
+            if (nodeClient.isClosed()) {
+                outboundClients.remove(nodeClient);
+            } else {
+                nodeClient.heartbeat(now);
+            }
+        }
+        final String suffix = RING_FILE_SEPARATOR + serviceNode.getName() + RING_FILE_SUFFIX;
+        final File[] files = directory.listFiles((dir, fileName) -> fileName.endsWith(suffix));
+        if (files != null) {
+            for (File file : files) {
+                final String from = file.getName().substring(0, file.getName().length() - suffix.length());
+                if (from.isEmpty() || !scannedNodes.add(from)) {
+                    continue;
+                }
+                final ShmRing ring;
+                try {
+                    ring = ShmRing.openConsumer(file, TransportConsts.SHM_RING_CAPACITY);
+                } catch (IOException | RuntimeException e) {
+                    // 对方可能正在创建文件，下次扫描时重试
+                    scannedNodes.remove(from);
+                    if (failedNodes.add(from)) {
+                        logger.error("打开环形缓冲失败，下次扫描时重试。node = {}, file = {}", serviceNode.getName(), file, e);
+                    }
+                    continue;
+                }
+                failedNodes.remove(from);
+                rings.add(new InboundRing(from, ring));
+                logger.info("打开共享内存接收文件。node = {}, from = {}, ring = {}", serviceNode.getName(), from, ring);
+            }
+        }
+        for (int i = 0; i < rings.size(); i++) {
+            final InboundRing inboundRing = rings.get(i);
+            inboundRing.ring.heartbeat(now);
+            final boolean live = now - inboundRing.ring.getProducerHeartbeat() < TransportConsts.SHM_HEARTBEAT_TIMEOUT_MILLIS;
+            if (live && !inboundRing.accepted) {
+                try {
+                    serviceNode.acceptShmNode(inboundRing.from);
+                    inboundRing.accepted = true;
+                    logger.info("接收共享内存连接。node = {}, from = {}", serviceNode.getName(), inboundRing.from);
+                } catch (RuntimeException e) {
+                    logger.error("建立到对方node的共享内存连接失败，下次扫描时重试。node = {}, from = {}", serviceNode.getName(), inboundRing.from, e);
+                }
+            } else if (!live) {
+                // 对方重新上线时再建立连接
+                inboundRing.accepted = false;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("node", serviceNode.getName())
+                .append("directory", directory)
+                .append("running", running)
+                .toString();
+    }
+
+    /**
+     * 一个对方node发来的环形缓冲
+     */
+    private final class InboundRing {
+
+        private final String from;
+        private final ShmRing ring;
+        private final ShmRing.RecordHandler handler = this::onRecord;
+        /** 一轮读取的消息，读取完后按顺序批量派发 */
+        private final List<Object> messages = new ArrayList<>();
+        private final BackpressureDispatcher dispatcher;
+        /** 对方在线，已经建立反方向的连接 */
+        private boolean accepted;
+        /** 正在拼接的分片消息，见 {@link ShmRing#FLAG_MORE} */
+        private ByteBuf fragments;
+
+        InboundRing(String from, ShmRing ring) {
+            this.from = from;
+            this.ring = ring;
+            this.dispatcher = new BackpressureDispatcher(serviceNode, executor, from);
+        }
+
+        int poll() {
+            final int count = ring.poll(handler, POLL_LIMIT);
+            if (!messages.isEmpty()) {
+                // 连续发往同一个port的消息一次入队
+                try {
+                    dispatcher.dispatchBatch(messages);
+                } finally {
+                    messages.clear();
+                }
+            }
+            return count;
+        }
+
+        private boolean onRecord(ByteBuf record, int flags) {
+            if ((flags & ShmRing.FLAG_CONTINUED) != 0) {
+                if (fragments == null) {
+                    // 前面的分片已经丢弃
+                    return true;
+                }
+                if (fragments.readableBytes() + record.readableBytes() > TransportConsts.FRAGMENT_MAX_MESSAGE_LENGTH) {
+                    logger.error("分片消息过长，丢弃消息。node = {}, from = {}, length = {}", serviceNode.getName(), from,
+                            fragments.readableBytes() + record.readableBytes());
+                    fragments = null;
+                    return true;
+                }
+                fragments.writeBytes(record);
+            } else {
+                if (fragments != null) {
+                    // 对方写入分片时超时，剩余的分片不会再写入
+                    logger.warn("分片消息不完整，丢弃消息。node = {}, from = {}, length = {}", serviceNode.getName(), from, fragments.readableBytes());
+                    fragments = null;
+                }
+                if ((flags & ShmRing.FLAG_MORE) == 0) {
+                    decode(record);
+                    return true;
+                }
+                fragments = Unpooled.buffer(record.readableBytes() * 2);
+                fragments.writeBytes(record);
+            }
+            if ((flags & ShmRing.FLAG_MORE) == 0) {
+                final ByteBuf message = fragments;
+                fragments = null;
+                decode(message);
+            }
+            return true;
+        }
+
+        private void decode(ByteBuf record) {
+            final Object msg;
+            try {
+                msg = Hessian2Utils.decode(record);
+            } catch (IOException | RuntimeException e) {
+                logger.error("解码失败，丢弃消息。node = {}, from = {}, length = {}", serviceNode.getName(), from, record.readableBytes(), e);
+                return;
+            }
+            receivedMessages++;
+            if (msg instanceof Request || msg instanceof Response) {
+                messages.add(msg);
+            } else {
+                logger.error("未知的消息类型，忽略。node = {}, from = {}, msg = {}", serviceNode.getName(), from, msg);
+            }
+        }
+    }
+}
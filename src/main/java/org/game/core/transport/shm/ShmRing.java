@@ -0,0 +1,363 @@
+package org.game.core.transport.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.game.core.transport.TransportConsts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * 内存映射文件上的单生产者、单消费者环形缓冲
+ * <p>同一台机器上的两个进程映射同一个文件，一个进程写入，另一个进程读取。写入和读取的位置都是只增不减的 {@code long}，
+ * 对容量取模得到在数据区中的位置，容量是2的幂。</p>
+ * <h3>文件结构</h3>
+ * <ul>
+ *     <li>0 : magic 4 bytes, capacity 4 bytes</li>
+ *     <li>64 : head 8 bytes（读取位置，只有消费者写），consumer heartbeat 8 bytes</li>
+ *     <li>128 : tail 8 bytes（写入位置，只有生产者写），producer heartbeat 8 bytes</li>
+ *     <li>256 : 数据区 capacity bytes</li>
+ * </ul>
+ * <p>head和tail在不同的cache line上，双方不会互相干扰。每条记录是4字节记录头加数据，按8字节对齐；
+ * 数据区末尾剩余的空间放不下一条记录时，写入长度为 {@link #PADDING} 的填充记录，从数据区开头继续写，记录不会跨过末尾。
+ * 记录头的低29位是数据长度，高位是 {@link #FLAG_MORE}、{@link #FLAG_CONTINUED} 标记，用于把超过
+ * {@link #maxMessageLength()} 的消息拆分为连续的多条记录。</p>
+ * <p>生产者先写入记录，再用 {@link OrderedMemory#putOrderedLong(long, long)} 发布tail；消费者用
+ * {@link OrderedMemory#getLongVolatile(long)} 读取tail之后才读取记录，处理完再发布head。</p>
+ * <p>双方各自定时更新心跳。{@link #openProducer(File, int)} 和 {@link #openConsumer(File, int)} 在文件锁内检查对方的心跳，
+ * 对方超过 {@link TransportConsts#SHM_HEARTBEAT_TIMEOUT_MILLIS} 没有心跳时，之前的进程留下的数据不再读取。</p>
+ */
+public final class ShmRing {
+
+    private static final int MAGIC = 0x52494E47;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int HEAD_OFFSET = 64;
+    private static final int HEARTBEAT_OFFSET = 72;
+    private static final int TAIL_OFFSET = 128;
+    private static final int PRODUCER_HEARTBEAT_OFFSET = 136;
+    /** 文件头长度，数据区的起始位置 */
+    private static final int HEADER_LENGTH = 256;
+
+    /** 记录头：数据长度 */
+    private static final int RECORD_HEADER_LENGTH = 4;
+    /** 记录对齐 */
+    private static final int ALIGNMENT = 8;
+    /** 填充记录的长度，读取时跳到数据区开头 */
+    private static final int PADDING = -1;
+    /** 最小容量 */
+    public static final int MIN_CAPACITY = 1024;
+    /** 记录头标记：后面还有同一条消息的分片 */
+    public static final int FLAG_MORE = 1 << 30;
+    /** 记录头标记：接在上一条记录后面的分片 */
+    public static final int FLAG_CONTINUED = 1 << 29;
+    /** 记录头中数据长度的位 */
+    private static final int LENGTH_MASK = FLAG_CONTINUED - 1;
+
+    private final File file;
+    private final int capacity;
+    private final int mask;
+    /** 映射的文件，解除映射由GC完成，避免其他线程还在访问时释放 */
+    private final MappedByteBuffer mapped;
+    /** 映射内存的地址 */
+    private final long address;
+    /** 整个数据区，读取时切片解码 */
+    private final ByteBuf data;
+
+    /** 生产者最近读到的head，空间不够时才重新读取 */
+    private long headCache;
+
+    private ShmRing(File file, int capacity, MappedByteBuffer mapped) {
+        this.file = file;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.mapped = mapped;
+        this.address = PlatformDependent.directBufferAddress(mapped);
+        this.data = Unpooled.wrappedBuffer(mapped).slice(HEADER_LENGTH, capacity);
+        this.headCache = head();
+    }
+
+    /**
+     * 打开环形缓冲文件，不存在时创建。生产者和消费者谁先打开都可以，已经存在的文件使用文件中的容量
+     * @param file 文件
+     * @param capacity 数据区容量，2的幂
+     * @return 环形缓冲
+     * @throws IOException 文件读写失败
+     */
+    public static ShmRing open(File file, int capacity) throws IOException {
+        return open(file, capacity, Role.NONE);
+    }
+
+    /**
+     * 生产者打开环形缓冲，消费者不在线时丢弃之前写入、还没有读取的数据，更新生产者心跳
+     * @see #open(File, int)
+     */
+    public static ShmRing openProducer(File file, int capacity) throws IOException {
+        return open(file, capacity, Role.PRODUCER);
+    }
+
+    /**
+     * 消费者打开环形缓冲，生产者不在线时跳过还没有读取的数据，更新消费者心跳
+     * @see #open(File, int)
+     */
+    public static ShmRing openConsumer(File file, int capacity) throws IOException {
+        return open(file, capacity, Role.CONSUMER);
+    }
+
+    private static ShmRing open(File file, int capacity, Role role) throws IOException {
+        if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalStateException("环形缓冲容量需要是2的幂。file = " + file + ", capacity = " + capacity);
+        }
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("创建环形缓冲目录失败。directory = " + parent);
+        }
+        // 文件锁在进程之间互斥，同一个进程内重复加锁会抛出异常，需要先在进程内互斥
+        synchronized (ShmRing.class) {
+            return open0(file, capacity, role);
+        }
+    }
+
+    private static ShmRing open0(File file, int capacity, Role role) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            final FileLock lock = channel.lock();
+            try {
+                return map(file, capacity, role, raf, channel);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * 检查或者初始化文件头，映射整个文件，持有文件锁时调用
+     */
+    private static ShmRing map(File file, int capacity, Role role, RandomAccessFile raf, FileChannel channel) throws IOException {
+        final int ringCapacity;
+        if (raf.length() < HEADER_LENGTH) {
+            ringCapacity = capacity;
+            raf.setLength(HEADER_LENGTH + ringCapacity);
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+            header.putInt(CAPACITY_OFFSET, ringCapacity);
+            header.putInt(MAGIC_OFFSET, MAGIC);
+            header.force();
+        } else {
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            ringCapacity = header.getInt(CAPACITY_OFFSET);
+            if (header.getInt(MAGIC_OFFSET) != MAGIC || ringCapacity < MIN_CAPACITY || Integer.bitCount(ringCapacity) != 1
+                    || raf.length() < HEADER_LENGTH + (long) ringCapacity) {
+                throw new IOException("不是环形缓冲文件。file = " + file);
+            }
+        }
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + ringCapacity);
+        final ShmRing ring = new ShmRing(file, ringCapacity, mapped);
+        ring.attach(role, System.currentTimeMillis());
+        return ring;
+    }
+
+    /**
+     * 在文件锁内检查对方是否在线，对方不在线时之前留下的数据属于已经退出的进程，不再读取
+     */
+    private void attach(Role role, long now) {
+        if (role == Role.PRODUCER) {
+            if (now - getHeartbeat() >= TransportConsts.SHM_HEARTBEAT_TIMEOUT_MILLIS) {
+                // 没有消费者读取，生产者可以移动tail
+                OrderedMemory.putOrderedLong(address + TAIL_OFFSET, head());
+            }
+            producerHeartbeat(now);
+        } else if (role == Role.CONSUMER) {
+            if (now - getProducerHeartbeat() >= TransportConsts.SHM_HEARTBEAT_TIMEOUT_MILLIS) {
+                OrderedMemory.putOrderedLong(address + HEAD_OFFSET, tail());
+            }
+            heartbeat(now);
+        }
+        headCache = head();
+    }
+
+    /**
+     * 一条数据最大的长度：容量的1/4，保证缓冲不满时总能写入
+     */
+    public int maxMessageLength() {
+        return capacity / 4 - RECORD_HEADER_LENGTH;
+    }
+
+    /**
+     * 写入一条记录，只能在一个线程调用
+     * @param src 数据
+     * @param offset 数据在数组中的起始位置
+     * @param length 数据长度
+     * @return 剩余空间不足返回 {@code false}
+     */
+    public boolean offer(byte[] src, int offset, int length) {
+        return offer(src, offset, length, 0);
+    }
+
+    /**
+     * 写入一条带标记的记录，只能在一个线程调用
+     * @param src 数据
+     * @param offset 数据在数组中的起始位置
+     * @param length 数据长度
+     * @param flags {@link #FLAG_MORE}、{@link #FLAG_CONTINUED} 的组合
+     * @return 剩余空间不足返回 {@code false}
+     */
+    public boolean offer(byte[] src, int offset, int length, int flags) {
+        if (length < 0 || length > maxMessageLength()) {
+            throw new IllegalArgumentException("数据长度超出范围。file = " + file + ", length = " + length + ", max = " + maxMessageLength());
+        }
+        if ((flags & ~(FLAG_MORE | FLAG_CONTINUED)) != 0) {
+            throw new IllegalArgumentException("未知的记录标记。file = " + file + ", flags = " + flags);
+        }
+        final int recordLength = align(RECORD_HEADER_LENGTH + length);
+        long tail = tail();
+        int index = (int) (tail & mask);
+        final int toEnd = capacity - index;
+        final int padding = recordLength > toEnd ? toEnd : 0;
+        final int required = recordLength + padding;
+        if (required > capacity - (tail - headCache)) {
+            headCache = head();
+            if (required > capacity - (tail - headCache)) {
+                return false;
+            }
+        }
+        if (padding != 0) {
+            OrderedMemory.putInt(address + HEADER_LENGTH + index, PADDING);
+            tail += padding;
+            index = 0;
+        }
+        final long recordAddress = address + HEADER_LENGTH + index;
+        OrderedMemory.putInt(recordAddress, length | flags);
+        OrderedMemory.copyMemory(src, offset, recordAddress + RECORD_HEADER_LENGTH, length);
+        OrderedMemory.putOrderedLong(address + TAIL_OFFSET, tail + recordLength);
+        return true;
+    }
+
+    /**
+     * 读取记录，只能在一个线程调用。处理完所有读取的记录后才释放空间
+     * @param handler 处理一条记录，参数是记录数据的切片，只在回调中有效
+     * @param limit 最多读取的记录数量
+     * @return 读取的记录数量
+     */
+    public int poll(RecordHandler handler, int limit) {
+        final long head = head();
+        final long tail = tail();
+        long position = head;
+        int count = 0;
+        try {
+            while (position < tail && count < limit) {
+                final int index = (int) (position & mask);
+                final int header = OrderedMemory.getInt(address + HEADER_LENGTH + index);
+                if (header == PADDING) {
+                    position += capacity - index;
+                    continue;
+                }
+                final int length = header & LENGTH_MASK;
+                position += align(RECORD_HEADER_LENGTH + length);
+                count++;
+                if (!handler.onRecord(data.slice(index + RECORD_HEADER_LENGTH, length), header & ~LENGTH_MASK)) {
+                    break;
+                }
+            }
+        } finally {
+            if (position != head) {
+                OrderedMemory.putOrderedLong(address + HEAD_OFFSET, position);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 消费者更新心跳时间
+     */
+    public void heartbeat(long now) {
+        OrderedMemory.putOrderedLong(address + HEARTBEAT_OFFSET, now);
+    }
+
+    /**
+     * 消费者最后一次心跳的时间，从来没有消费者时为0
+     */
+    public long getHeartbeat() {
+        return OrderedMemory.getLongVolatile(address + HEARTBEAT_OFFSET);
+    }
+
+    /**
+     * 生产者更新心跳时间
+     */
+    public void producerHeartbeat(long now) {
+        OrderedMemory.putOrderedLong(address + PRODUCER_HEARTBEAT_OFFSET, now);
+    }
+
+    /**
+     * 生产者最后一次心跳的时间，从来没有生产者时为0
+     */
+    public long getProducerHeartbeat() {
+        return OrderedMemory.getLongVolatile(address + PRODUCER_HEARTBEAT_OFFSET);
+    }
+
+    /**
+     * 已经写入还没有读取的字节数，包括记录头和对齐
+     */
+    public long size() {
+        // 先读head，tail只会更大，结果不会是负数
+        final long head = head();
+        return Math.min(capacity, tail() - head);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private long head() {
+        return OrderedMemory.getLongVolatile(address + HEAD_OFFSET);
+    }
+
+    private long tail() {
+        return OrderedMemory.getLongVolatile(address + TAIL_OFFSET);
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("file", file)
+                .append("capacity", capacity)
+                .append("size", size())
+                .toString();
+    }
+
+    /**
+     * 打开文件的一方
+     */
+    private enum Role {
+        /** 不检查对方的心跳 */
+        NONE,
+        PRODUCER,
+        CONSUMER
+    }
+
+    /**
+     * 处理读取的一条记录
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+
+        /**
+         * @param record 记录数据，只在回调中有效
+         * @param flags 记录头标记，{@link #FLAG_MORE}、{@link #FLAG_CONTINUED} 的组合
+         * @return 返回 {@code false} 停止读取后面的记录
+         */
+        boolean onRecord(ByteBuf record, int flags);
+    }
+}
@@ -2,6 +2,8 @@ package org.game.global;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.game.core.LocalRouting;
+import org.game.core.OverloadPolicy;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -36,8 +38,31 @@ public class ServiceConsts {
     public static final String PORT1 = "port1";
     public static final String PORT2 = "port2";
 
-    /** rpc总是使用网络传输方式 */
-    public static final boolean RPC_ALWAYS_USE_TRANSPORT = true;
+    /** 调用同一个node上的服务的默认传递方式，运行时可以通过 {@link org.game.core.ServiceNode#setLocalRouting(LocalRouting)} 修改 */
+    public static final LocalRouting RPC_LOCAL_ROUTING = LocalRouting.TRANSPORT;
+
+    /** rpc使用紧凑格式：用服务id和方法id代替服务名称和方法名称 */
+    public static final boolean RPC_COMPACT_INVOCATION = false;
+
+    /** ServicePort默认使用信箱模式，有消息时唤醒线程，否则等待到下一帧 */
+    public static final boolean PORT_MAILBOX_MODE = true;
+
+    /** ServicePort单次批量处理的最大消息数量 */
+    public static final int PORT_DRAIN_BATCH_SIZE = 1024;
+    /** ServicePort单次批量处理的时间预算（毫秒） */
+    public static final long PORT_DRAIN_BUDGET_MILLIS = 5L;
+
+    /** ServicePort默认合并写出：心跳中发送的消息在心跳结束时一起写出 */
+    public static final boolean PORT_WRITE_COALESCING = true;
+
+    /** ServicePort的Request队列默认容量 */
+    public static final int PORT_REQUEST_CAPACITY = 16384;
+    /** 运行时不支持虚拟线程时，{@link org.game.core.ExecutionMode#FIBER} 协程线程池的最大线程数量，用完时请求在port线程执行 */
+    public static final int PORT_FIBER_MAX_THREADS = 1024;
+    /** ServicePort信箱队列每个块的槽位数量，队列按块增长 */
+    public static final int PORT_MAILBOX_CHUNK_SIZE = 1024;
+    /** ServicePort超过队列容量的默认处理策略 */
+    public static final OverloadPolicy PORT_OVERLOAD_POLICY = OverloadPolicy.REJECT;
 
     private ServiceConsts() {
         throw new AssertionError();
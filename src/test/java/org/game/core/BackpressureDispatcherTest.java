@@ -0,0 +1,72 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.game.core.transport.BackpressureDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link BackpressureDispatcher}：port队列已满时只暂停发往这个port的请求，应答继续投递
+ */
+class BackpressureDispatcherTest {
+
+    private static final String SERVICE_NAME = "pingService";
+
+    @Test
+    void responsesFlowWhileRequestsPaused() throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("backpressureNode", null);
+        final ServicePort servicePort = new ServicePort("backpressurePort", serviceNode);
+        servicePort.setRequestCapacity(4);
+        servicePort.setOverloadPolicy(OverloadPolicy.BACKPRESSURE);
+        final ServicePortTest.PingService pingService = new ServicePortTest.PingService();
+        servicePort.addService(SERVICE_NAME, pingService);
+        serviceNode.addServicePort(servicePort);
+        final BackpressureDispatcher dispatcher = new BackpressureDispatcher(serviceNode, Runnable::run, "test");
+        final Method ping = ServicePortTest.PingService.class.getMethod("ping", Long.class);
+
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatchRequest(newRequest(servicePort, ping));
+        }
+        assertTrue(servicePort.isBackpressured());
+        assertEquals(1, dispatcher.getPausedPorts());
+
+        // 之后的请求暂存，顺序不变
+        dispatcher.dispatchRequest(newRequest(servicePort, ping));
+        dispatcher.dispatchBatch(Arrays.asList(newRequest(servicePort, ping), newRequest(servicePort, ping),
+                new Response(servicePort.allocCallId(), Response.STATUS_OK), newRequest(servicePort, ping)));
+        assertEquals(4, servicePort.getRequestDepth());
+
+        // 应答照常投递
+        dispatcher.dispatchResponse(new Response(servicePort.allocCallId(), Response.STATUS_OK));
+        assertEquals(2, servicePort.getResponseDepth());
+
+        // 暂存超过队列容量时拒绝
+        dispatcher.dispatchRequest(newRequest(servicePort, ping));
+        assertEquals(1, servicePort.getDroppedOneWayRequests());
+
+        // port处理完一半后投递暂存的请求
+        ServicePort.bindCurrentThread(servicePort);
+        try {
+            while (servicePort.pulseOne()) {
+                // 处理完所有消息
+            }
+        } finally {
+            ServicePort.bindCurrentThread(null);
+        }
+        assertEquals(0, dispatcher.getPausedPorts());
+        assertEquals(8, pingService.executed.size());
+        assertEquals(0, servicePort.getRequestDepth());
+    }
+
+    private static Request newRequest(ServicePort servicePort, Method method) {
+        final Request request = new Request(servicePort.allocCallId());
+        final CallPoint callPoint = new CallPoint(servicePort.getServiceNode().getName(), servicePort.getName(), SERVICE_NAME);
+        request.setRpcInvocation(new RpcInvocation(servicePort.getFromPoint(), callPoint, method, new Object[]{0L}));
+        return request;
+    }
+}
@@ -0,0 +1,157 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeServer;
+import org.game.core.transport.node.NodeTransport;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 到同一个node的多条连接：同一个port的消息保持顺序，不丢消息
+ */
+class ChannelAffinityTest {
+
+    private static final String SERVICE_NAME = "sequenceService";
+    private static final int SENDERS = 4;
+    private static final int RECEIVERS = 4;
+    private static final int MESSAGES_PER_TICK = 200;
+
+    @Test
+    void keepPortOrder() throws Exception {
+        for (int channelCount : new int[]{1, 2, 4}) {
+            assertEquals(0, run(channelCount, 20_000), "messages out of order. channels = " + channelCount);
+        }
+    }
+
+    /**
+     * @return 顺序错误的消息数量
+     */
+    private static int run(int channelCount, int total) throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final int port = freePort();
+        final ServiceNode serverNode = new ServiceNode("affinityServer", null);
+        final List<Thread> receiverThreads = new ArrayList<>();
+        final List<CallPoint> callPoints = new ArrayList<>();
+        for (int i = 0; i < RECEIVERS; i++) {
+            final ServicePort receiver = new ServicePort("receiver" + i, serverNode);
+            receiver.setRequestCapacity(total);
+            receiver.addService(SERVICE_NAME, new SequenceService(received, outOfOrder));
+            serverNode.addServicePort(receiver);
+            receiverThreads.add(new Thread(receiver, "receiver" + i));
+            callPoints.add(new CallPoint(serverNode.getName(), receiver.getName(), SERVICE_NAME));
+        }
+        receiverThreads.forEach(Thread::start);
+        final NodeServer nodeServer = new NodeServer(serverNode);
+        nodeServer.start(port).sync();
+        final NodeClient nodeClient = new NodeClient(serverNode.getName(), null, NodeTransport.defaultTransport(), channelCount);
+        try {
+            nodeClient.connect("127.0.0.1", port);
+            final long t0 = System.currentTimeMillis();
+            while (!nodeClient.isActive() && System.currentTimeMillis() - t0 < 3000L) {
+                Thread.sleep(10L);
+            }
+            assertTrue(nodeClient.isActive());
+            assertEquals(channelCount, nodeClient.getChannelCount());
+
+            final ServiceNode senderNode = new ServiceNode("affinityClient", null);
+            final Method sequence = SequenceService.class.getMethod("sequence", String.class, Integer.class);
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Thread> senderThreads = new ArrayList<>();
+            for (int s = 0; s < SENDERS; s++) {
+                final ServicePort sender = new ServicePort("sender" + s, senderNode);
+                senderThreads.add(new Thread(() -> {
+                    ServicePort.bindCurrentThread(sender);
+                    try {
+                        start.await();
+                        final int count = total / SENDERS;
+                        for (int sent = 0; sent < count; sent += MESSAGES_PER_TICK) {
+                            for (int i = sent; i < Math.min(count, sent + MESSAGES_PER_TICK); i++) {
+                                final Request request = new Request(sender.allocCallId());
+                                request.setRpcInvocation(new RpcInvocation(sender.getFromPoint(), callPoints.get(i % RECEIVERS),
+                                        sequence, new Object[]{sender.getName(), i}));
+                                nodeClient.send(request);
+                            }
+                            sender.pulseOne();
+                            // 连接不可写时暂停发送，等待写缓冲降到低水位以下
+                            while (!nodeClient.isWritable()) {
+                                Thread.sleep(1L);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        ServicePort.bindCurrentThread(null);
+                    }
+                }, "sender" + s));
+            }
+            senderThreads.forEach(Thread::start);
+            start.countDown();
+            for (Thread senderThread : senderThreads) {
+                senderThread.join();
+            }
+            final long deadline = System.currentTimeMillis() + 30_000L;
+            while (received.get() < total && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1L);
+            }
+            assertEquals(total, received.get(), "messages lost. channels = " + channelCount);
+            return outOfOrder.get();
+        } finally {
+            nodeClient.shutdown();
+            nodeServer.shutdown();
+            for (Thread receiverThread : receiverThreads) {
+                receiverThread.interrupt();
+                receiverThread.join(1000L);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * 检查每个发送port的序号递增，只在接收port线程访问
+     */
+    public static class SequenceService implements Service {
+
+        private final AtomicInteger received;
+        private final AtomicInteger outOfOrder;
+        private final Map<String, Integer> lastSequences = new HashMap<>();
+
+        SequenceService(AtomicInteger received, AtomicInteger outOfOrder) {
+            this.received = received;
+            this.outOfOrder = outOfOrder;
+        }
+
+        public void sequence(String sender, Integer seq) {
+            final Integer last = lastSequences.put(sender, seq);
+            if (last != null && last >= seq) {
+                outOfOrder.incrementAndGet();
+            }
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 双工连接：名称小的node发起连接，请求和应答通过同一条连接；双方同时发起连接时只保留一条
+ */
+class DuplexConnectionTest {
+
+    private static final String SERVICE_NAME = "pingService";
+
+    @Test
+    void requestAndResponseOverOneConnection() throws Exception {
+        final Peer a = new Peer("duplexA");
+        final Peer b = new Peer("duplexB");
+        try {
+            a.node.connectNode(b.node.getName(), "127.0.0.1", b.port);
+            waitUntil(() -> b.node.getNode(a.node.getName()).isActive());
+            final NodeClient aToB = (NodeClient) a.node.getNode(b.node.getName());
+            final NodeClient bToA = (NodeClient) b.node.getNode(a.node.getName());
+            assertFalse(aToB.isAccepted());
+            assertTrue(bToA.isAccepted());
+
+            // 两个方向的调用，应答都通过同一条连接返回
+            assertEquals(1L, a.call(b, 1L));
+            assertEquals(2L, b.call(a, 2L));
+        } finally {
+            a.shutdown();
+            b.shutdown();
+        }
+    }
+
+    @Test
+    void simultaneousDial() throws Exception {
+        final Peer a = new Peer("duplexA");
+        final Peer b = new Peer("duplexB");
+        try {
+            a.node.connectNode(b.node.getName(), "127.0.0.1", b.port);
+            b.node.connectNode(a.node.getName(), "127.0.0.1", a.port);
+
+            // 保留名称小的node发起的连接
+            waitUntil(() -> ((NodeClient) b.node.getNode(a.node.getName())).isAccepted() && b.node.getNode(a.node.getName()).isActive()
+                    && a.node.getNode(b.node.getName()).isActive());
+            assertFalse(((NodeClient) a.node.getNode(b.node.getName())).isAccepted());
+            assertEquals(1L, a.call(b, 1L));
+            assertEquals(2L, b.call(a, 2L));
+        } finally {
+            a.shutdown();
+            b.shutdown();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        final long t1 = System.currentTimeMillis();
+        while (!condition.getAsBoolean() && System.currentTimeMillis() - t1 < 3000L) {
+            Thread.sleep(10L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * 一个node：服务端、接收请求的port、发起调用的port
+     */
+    private static final class Peer {
+        final ServiceNode node;
+        final int port;
+        final NodeServer nodeServer;
+        final ServicePort receiver;
+        final ServicePort caller;
+        final Thread receiverThread;
+
+        Peer(String name) throws Exception {
+            node = new ServiceNode(name, null);
+            node.setDuplexConnection(true);
+            receiver = new ServicePort("receiver", node);
+            receiver.addService(SERVICE_NAME, new ServicePortTest.PingService());
+            node.addServicePort(receiver);
+            caller = new ServicePort("caller", node);
+            node.addServicePort(caller);
+            receiverThread = new Thread(receiver, name + "-receiver");
+            receiverThread.start();
+            port = freePort();
+            nodeServer = new NodeServer(node);
+            nodeServer.start(port).sync();
+        }
+
+        /**
+         * 在当前线程以caller的身份调用对方的pong
+         */
+        Object call(Peer peer, Long value) throws Exception {
+            final Method pong = ServicePortTest.PingService.class.getMethod("pong", Long.class);
+            ServicePort.bindCurrentThread(caller);
+            try {
+                final DefaultFuture future = DefaultFuture.newFuture(caller.allocCallId(), 3000L);
+                final Request request = new Request(future.getId());
+                request.setRpcInvocation(new RpcInvocation(caller.getFromPoint(),
+                        new CallPoint(peer.node.getName(), peer.receiver.getName(), SERVICE_NAME), pong, new Object[]{value}));
+                node.getNode(peer.node.getName()).send(request);
+                final long t1 = System.currentTimeMillis();
+                while (!future.isDone() && System.currentTimeMillis() - t1 < 3000L) {
+                    caller.pulseOne();
+                    Thread.sleep(1L);
+                }
+                return future.get();
+            } finally {
+                ServicePort.bindCurrentThread(null);
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            node.shutdown();
+            nodeServer.shutdown();
+            receiverThread.interrupt();
+            receiverThread.join(1000L);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.game.core;
+
+import org.game.core.refer.ReferenceFactory;
+import org.game.core.transport.node.NodeServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 调用同一个node上的服务：{@link LocalRouting} 三种传递方式的隔离和延迟
+ */
+class LocalRoutingTest {
+
+    private static final String NODE_NAME = "routingNode";
+    private static final String PORT_NAME = "inventoryPort";
+
+    private ServiceNode node;
+    private NodeServer nodeServer;
+    private ServicePort caller;
+    private Thread receiverThread;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        node = new ServiceNode(NODE_NAME, null);
+        final ServicePort receiver = new ServicePort(PORT_NAME, node);
+        receiver.addService(InventoryService.class.getName(), new InventoryServiceImpl());
+        node.addServicePort(receiver);
+        caller = new ServicePort("caller", node);
+        node.addServicePort(caller);
+        receiverThread = new Thread(receiver, PORT_NAME);
+        receiverThread.start();
+
+        // TRANSPORT方式通过本机连接调用自己
+        final int port = freePort();
+        nodeServer = new NodeServer(node);
+        nodeServer.start(port).sync();
+        node.connectNode(NODE_NAME, "127.0.0.1", port);
+        final long t1 = System.currentTimeMillis();
+        while (!node.getNode(NODE_NAME).isActive() && System.currentTimeMillis() - t1 < 3000L) {
+            Thread.sleep(10L);
+        }
+        assertTrue(node.getNode(NODE_NAME).isActive());
+        ServicePort.bindCurrentThread(caller);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        ServicePort.bindCurrentThread(null);
+        node.shutdown();
+        nodeServer.shutdown();
+        receiverThread.interrupt();
+        receiverThread.join(1000L);
+    }
+
+    @Test
+    void isolation() throws Exception {
+        final InventoryService inventoryService = ReferenceFactory.getProxy(InventoryService.class);
+        final Template template = new Template("potion", 99);
+
+        // 传递引用：服务修改的就是调用方的对象
+        node.setLocalRouting(LocalRouting.REFERENCE);
+        Bag bag = newBag(template, 3);
+        Bag result = call(inventoryService.put(bag));
+        assertSame(bag, result);
+        assertEquals(4, bag.items.size());
+
+        // 复制：服务修改的是复制的对象，返回值也复制，不可变类型共享
+        node.setLocalRouting(LocalRouting.COPY);
+        bag = newBag(template, 3);
+        result = call(inventoryService.put(bag));
+        assertNotSame(bag, result);
+        assertEquals(3, bag.items.size());
+        assertEquals(4, result.items.size());
+        assertSame(template, result.template);
+
+        // 网络传输
+        node.setLocalRouting(LocalRouting.TRANSPORT);
+        bag = newBag(template, 3);
+        result = call(inventoryService.put(bag));
+        assertEquals(3, bag.items.size());
+        assertEquals(4, result.items.size());
+        assertNotSame(template, result.template);
+
+        // 服务接口单独指定的方式优先
+        assertEquals(LocalRouting.REFERENCE, node.getLocalRouting(NODE_NAME, PinnedService.class));
+        assertEquals(LocalRouting.TRANSPORT, node.getLocalRouting("otherNode", PinnedService.class));
+
+        // 连接不可写时，不经过网络的服务仍然可写
+        node.getNode(NODE_NAME).shutdown();
+        assertFalse(caller.isNodeWritable(NODE_NAME));
+        assertFalse(caller.isNodeWritable(NODE_NAME, InventoryService.class));
+        assertTrue(caller.isNodeWritable(NODE_NAME, PinnedService.class));
+    }
+
+    /**
+     * 不经过网络的调用延迟低于本机网络传输，传递引用不需要复制
+     * <p>结果受机器负载影响，默认不运行，见build.gradle。</p>
+     */
+    @Tag("benchmark")
+    @Test
+    void localLatency() throws Exception {
+        final InventoryService inventoryService = ReferenceFactory.getProxy(InventoryService.class);
+        final Template template = new Template("potion", 99);
+        final List<LocalRouting> routings = Arrays.asList(LocalRouting.TRANSPORT, LocalRouting.REFERENCE, LocalRouting.COPY);
+        final int count = 5_000;
+        final Map<LocalRouting, Long> p50 = new EnumMap<>(LocalRouting.class);
+        for (int round = 0; round < 2; round++) {
+            for (LocalRouting routing : routings) {
+                node.setLocalRouting(routing);
+                final long[] latencies = new long[count];
+                for (int i = 0; i < count; i++) {
+                    final long start = System.nanoTime();
+                    assertEquals(21, call(inventoryService.put(newBag(template, 20))).items.size());
+                    latencies[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(latencies);
+                p50.put(routing, latencies[count / 2]);
+            }
+        }
+        final long transport = p50.get(LocalRouting.TRANSPORT);
+        assertTrue(p50.get(LocalRouting.REFERENCE) * 2 < transport, "same node call p50 (ns): " + p50);
+        assertTrue(p50.get(LocalRouting.COPY) < transport, "same node call p50 (ns): " + p50);
+    }
+
+    /**
+     * 在caller线程等待应答
+     */
+    private <T> T call(CompletableFuture<T> future) throws Exception {
+        final long t1 = System.currentTimeMillis();
+        while (!future.isDone() && System.currentTimeMillis() - t1 < 3000L) {
+            caller.pulseOne();
+            Thread.yield();
+        }
+        return future.get(0L, TimeUnit.MILLISECONDS);
+    }
+
+    private static Bag newBag(Template template, int itemCount) {
+        final Bag bag = new Bag();
+        bag.owner = 10_000L;
+        bag.template = template;
+        for (int i = 0; i < itemCount; i++) {
+            bag.items.add(new Item(1000 + i, i + 1));
+        }
+        return bag;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    @ServiceConfig(node = NODE_NAME, port = PORT_NAME, serviceImplType = InventoryServiceImpl.class)
+    public interface InventoryService {
+        CompletableFuture<Bag> put(Bag bag);
+    }
+
+    @LocalRoutingConfig(LocalRouting.REFERENCE)
+    @ServiceConfig(node = NODE_NAME, port = PORT_NAME, serviceImplType = InventoryServiceImpl.class)
+    public interface PinnedService {
+    }
+
+    public static class InventoryServiceImpl implements InventoryService, Service {
+
+        /**
+         * 修改参数后返回
+         */
+        @Override
+        public CompletableFuture<Bag> put(Bag bag) {
+            bag.items.add(new Item(1, 1));
+            return CompletableFuture.completedFuture(bag);
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+        }
+    }
+
+    public static class Bag implements Serializable {
+        private long owner;
+        private Template template;
+        private List<Item> items = new ArrayList<>();
+    }
+
+    public static class Item implements Serializable {
+        private int itemId;
+        private int count;
+
+        public Item() {
+        }
+
+        Item(int itemId, int count) {
+            this.itemId = itemId;
+            this.count = count;
+        }
+    }
+
+    @Immutable
+    public static final class Template implements Serializable {
+        private final String name;
+        private final int maxStack;
+
+        private Template() {
+            this(null, 0);
+        }
+
+        Template(String name, int maxStack) {
+            this.name = name;
+            this.maxStack = maxStack;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.game.core;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * {@link MpscChunkedQueue} 的测试和简单基准
+ */
+class MpscChunkedQueueTest {
+
+    @Test
+    void offerAndPoll() {
+        final MpscChunkedQueue<Integer> queue = new MpscChunkedQueue<>(3);
+        assertEquals(4, queue.chunkSize());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i, 4));
+        }
+        assertFalse(queue.offer(4, 4));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.poll());
+        assertFalse(queue.offer(5, 3));
+        assertTrue(queue.offer(5, 4));
+
+        final List<Integer> drained = new ArrayList<>();
+        assertEquals(2, queue.drain(drained::add, 2));
+        assertEquals(2, queue.drain(drained::add, 10));
+        assertEquals(0, queue.drain(drained::add, 10));
+        assertEquals(Arrays.asList(1, 2, 3, 5), drained);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void offerAll() {
+        final MpscChunkedQueue<Integer> queue = new MpscChunkedQueue<>(4);
+        assertTrue(queue.offerAll(Arrays.asList(0, 1, 2), 8));
+        // 空间不够时全部不入队
+        assertFalse(queue.offerAll(Arrays.asList(3, 4, 5), 5));
+        assertEquals(3, queue.size());
+        // 跨越块的边界
+        assertTrue(queue.offerAll(Arrays.asList(3, 4, 5, 6, 7), 8));
+        assertFalse(queue.offerAll(Arrays.asList(8), 8));
+        assertThrows(NullPointerException.class, () -> queue.offerAll(Arrays.asList(8, null), 8));
+
+        final List<Integer> drained = new ArrayList<>();
+        assertEquals(8, queue.drain(drained::add, 10));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), drained);
+    }
+
+    /**
+     * 队列按块增长，不受块大小限制，读完的块可以回收
+     */
+    @Test
+    void growAcrossChunks() {
+        final MpscChunkedQueue<Integer> queue = new MpscChunkedQueue<>(4);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 37; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertEquals(37, queue.size());
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i, queue.poll());
+            }
+            final List<Integer> drained = new ArrayList<>();
+            assertEquals(7, queue.drain(drained::add, 100));
+            assertEquals(Arrays.asList(30, 31, 32, 33, 34, 35, 36), drained);
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    /**
+     * 多个生产者并发写入，不丢失并且每个生产者内部保持顺序
+     */
+    @Test
+    void multiProducerOrder() throws Exception {
+        final int producers = 4;
+        final int perProducer = 200_000;
+        final MpscChunkedQueue<long[]> queue = new MpscChunkedQueue<>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                await(start);
+                for (int i = 0; i < perProducer; i++) {
+                    final long[] e = {producer, i};
+                    while (!queue.offer(e, 1024)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        start.countDown();
+
+        final long[] next = new long[producers];
+        final AtomicLong received = new AtomicLong();
+        while (received.get() < (long) producers * perProducer) {
+            queue.drain(e -> {
+                assertEquals(next[(int) e[0]]++, e[1]);
+                received.incrementAndGet();
+            }, 256);
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * 入队时每 {@code chunkSize} 个元素追加一个块，读完的块丢弃，不按元素分配
+     */
+    @Test
+    void chunkGrowth() {
+        final MpscChunkedQueue<Integer> queue = new MpscChunkedQueue<>(16);
+        assertEquals(1, queue.chunkCount());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(7, queue.chunkCount());
+        assertEquals(100, queue.drain(e -> { }, Integer.MAX_VALUE));
+        assertEquals(1, queue.chunkCount());
+
+        // 批量入队一样按块追加：序号100~139在3个块中
+        final List<Integer> batch = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            batch.add(i);
+        }
+        assertTrue(queue.offerAll(batch, Integer.MAX_VALUE));
+        assertEquals(3, queue.chunkCount());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(1, queue.chunkCount());
+
+        // 边入队边读取时最多同时持有两个块
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(queue.offer(i));
+            assertTrue(queue.offer(i));
+            assertEquals(2, queue.drain(e -> { }, 2));
+            assertTrue(queue.chunkCount() <= 2);
+        }
+    }
+
+    /**
+     * 对比 {@link ConcurrentLinkedQueue}：1、4、16个生产者时每条消息分配的内存
+     * <p>{@link ConcurrentLinkedQueue} 每次入队分配一个节点，{@link MpscChunkedQueue} 每个块分配一次。
+     * 结果受JVM和机器负载影响，默认不运行，见build.gradle。</p>
+     */
+    @Tag("benchmark")
+    @Test
+    void allocationPerMessage() throws Exception {
+        assumeTrue(allocatedBytes() > 0L, "thread allocation counter not supported");
+        final int total = 2_000_000;
+        for (int round = 0; round < 2; round++) {
+            for (int producers : new int[]{1, 4, 16}) {
+                final Result clq = run(producers, total, ConcurrentLinkedQueueAdapter::new);
+                final Result mpsc = run(producers, total, MpscChunkedQueueAdapter::new);
+                if (round == 1) {
+                    assertTrue(mpsc.bytesPerOp * 2 < clq.bytesPerOp, "producers = " + producers
+                            + ". ConcurrentLinkedQueue: " + clq + ". MpscChunkedQueue: " + mpsc);
+                }
+            }
+        }
+    }
+
+    private static Result run(int producers, int total, Function<Integer, Mailbox> factory) throws Exception {
+        final Mailbox mailbox = factory.apply(16384);
+        final int perProducer = total / producers;
+        final Object message = new Object();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong allocated = new AtomicLong();
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                await(start);
+                final long allocated0 = allocatedBytes();
+                for (int i = 0; i < perProducer; i++) {
+                    while (!mailbox.offer(message)) {
+                        Thread.yield();
+                    }
+                }
+                allocated.addAndGet(allocatedBytes() - allocated0);
+            });
+            threads[p].start();
+        }
+        final long allocated0 = allocatedBytes();
+        final long t1 = System.nanoTime();
+        start.countDown();
+        long received = 0;
+        final long expected = (long) perProducer * producers;
+        while (received < expected) {
+            final int count = mailbox.drain(256);
+            if (count == 0) {
+                Thread.yield();
+            }
+            received += count;
+        }
+        final long nanos = System.nanoTime() - t1;
+        allocated.addAndGet(allocatedBytes() - allocated0);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Result(expected * 1_000_000_000L / Math.max(1L, nanos), (double) allocated.get() / expected);
+    }
+
+    /**
+     * 当前线程累计分配的内存
+     */
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return 0L;
+        }
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Result {
+        final long opsPerSecond;
+        final double bytesPerOp;
+
+        Result(long opsPerSecond, double bytesPerOp) {
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d ops/s, %.1f B/op", opsPerSecond, bytesPerOp);
+        }
+    }
+
+    private interface Mailbox {
+        boolean offer(Object e);
+
+        int drain(int limit);
+    }
+
+    private static final class ConcurrentLinkedQueueAdapter implements Mailbox {
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+
+        ConcurrentLinkedQueueAdapter(int capacity) {
+        }
+
+        @Override
+        public boolean offer(Object e) {
+            return queue.offer(e);
+        }
+
+        @Override
+        public int drain(int limit) {
+            int count = 0;
+            while (count < limit && queue.poll() != null) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static final class MpscChunkedQueueAdapter implements Mailbox {
+        private final MpscChunkedQueue<Object> queue = new MpscChunkedQueue<>(1024);
+        private final int capacity;
+
+        MpscChunkedQueueAdapter(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean offer(Object e) {
+            return queue.offer(e, capacity);
+        }
+
+        @Override
+        public int drain(int limit) {
+            return queue.drain(e -> { }, limit);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.transport.TransportConsts;
+import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeServer;
+import org.game.core.transport.node.NodeTransport;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link NodeTransport} 的本机测试：一个发送port通过共享线程组的客户端连接多个node，NIO和epoll（可用时）都不丢消息
+ */
+class NodeTransportTest {
+
+    private static final String SERVICE_NAME = "countService";
+    private static final int PEERS = 4;
+    private static final int MESSAGES_PER_TICK = 500;
+
+    @Test
+    void loopbackPeers() throws Exception {
+        final List<NodeTransport> transports = new ArrayList<>();
+        transports.add(NodeTransport.NIO);
+        if (NodeTransport.EPOLL.isAvailable()) {
+            transports.add(NodeTransport.EPOLL);
+        }
+        for (NodeTransport transport : transports) {
+            run(transport, 100_000);
+        }
+    }
+
+    private static void run(NodeTransport transport, int total) throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final List<ServiceNode> serverNodes = new ArrayList<>();
+        final List<NodeServer> nodeServers = new ArrayList<>();
+        final List<Thread> receiverThreads = new ArrayList<>();
+        final List<NodeClient> nodeClients = new ArrayList<>();
+        final List<CallPoint> callPoints = new ArrayList<>();
+        try {
+            for (int i = 0; i < PEERS; i++) {
+                final int port = freePort();
+                final ServiceNode serverNode = new ServiceNode("peer" + i, null);
+                final ServicePort receiver = new ServicePort("receiver", serverNode);
+                receiver.setRequestCapacity(total);
+                receiver.addService(SERVICE_NAME, new CountService(received));
+                serverNode.addServicePort(receiver);
+                final Thread receiverThread = new Thread(receiver, "receiver" + i);
+                receiverThread.start();
+                final NodeServer nodeServer = new NodeServer(serverNode, transport);
+                nodeServer.start(port).sync();
+                final NodeClient nodeClient = new NodeClient(serverNode.getName(), transport);
+                nodeClient.connect("127.0.0.1", port);
+                serverNodes.add(serverNode);
+                nodeServers.add(nodeServer);
+                receiverThreads.add(receiverThread);
+                nodeClients.add(nodeClient);
+                callPoints.add(new CallPoint(serverNode.getName(), receiver.getName(), SERVICE_NAME));
+            }
+            for (NodeClient nodeClient : nodeClients) {
+                final long t1 = System.currentTimeMillis();
+                while (!nodeClient.isActive() && System.currentTimeMillis() - t1 < 3000L) {
+                    Thread.sleep(10L);
+                }
+                assertTrue(nodeClient.isActive());
+            }
+            // 所有客户端共享一个线程组
+            assertEquals(PEERS, transport.getClientCount());
+            final int clientThreads = transport.getClientGroupThreads();
+            assertTrue(clientThreads > 0 && clientThreads <= TransportConsts.CLIENT_EVENT_LOOP_MAX_DEFAULT_THREADS);
+
+            final ServicePort sender = new ServicePort("sender", new ServiceNode("senderNode", null));
+            final Method count = CountService.class.getMethod("count");
+            ServicePort.bindCurrentThread(sender);
+            try {
+                for (int sent = 0; sent < total; sent += MESSAGES_PER_TICK) {
+                    for (int i = 0; i < MESSAGES_PER_TICK; i++) {
+                        final int peer = (sent + i) % PEERS;
+                        final Request request = new Request(sender.allocCallId());
+                        request.setRpcInvocation(new RpcInvocation(sender.getFromPoint(), callPoints.get(peer), count, new Object[0]));
+                        nodeClients.get(peer).send(request);
+                    }
+                    sender.pulseOne();
+                }
+            } finally {
+                ServicePort.bindCurrentThread(null);
+            }
+            final long deadline = System.currentTimeMillis() + 30_000L;
+            while (received.get() < total && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1L);
+            }
+            assertEquals(total, received.get(), transport.getName() + " messages lost");
+        } finally {
+            for (NodeClient nodeClient : nodeClients) {
+                nodeClient.shutdown();
+            }
+            assertEquals(0, transport.getClientCount());
+            for (NodeServer nodeServer : nodeServers) {
+                nodeServer.shutdown();
+            }
+            for (Thread receiverThread : receiverThreads) {
+                receiverThread.interrupt();
+                receiverThread.join(1000L);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    public static class CountService implements Service {
+
+        private final AtomicInteger received;
+
+        CountService(AtomicInteger received) {
+            this.received = received;
+        }
+
+        public void count() {
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.game.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ObjectCopier} 的测试
+ */
+class ObjectCopierTest {
+
+    @Test
+    void copyGraph() {
+        final Node a = new Node("a");
+        final Node b = new Node("b");
+        a.next = b;
+        b.next = a;
+        a.values = new int[]{1, 2, 3};
+        a.children.add(b);
+        a.attributes.put("self", a);
+        a.cache = "cached";
+
+        final Node copy = (Node) ObjectCopier.copy(a);
+        assertNotSame(a, copy);
+        assertEquals("a", copy.name);
+        assertNotSame(b, copy.next);
+        // 循环引用和共享的对象复制后仍然是同一个对象
+        assertSame(copy, copy.next.next);
+        assertSame(copy.next, copy.children.get(0));
+        assertSame(copy, copy.attributes.get("self"));
+        assertArrayEquals(a.values, copy.values);
+        assertNotSame(a.values, copy.values);
+        // 和hessian一样不复制transient字段
+        assertNull(copy.cache);
+    }
+
+    @Test
+    void shareImmutable() {
+        final Template template = new Template("sword", 1);
+        assertSame(template, ObjectCopier.copy(template));
+        assertSame(TimeUnit.SECONDS, ObjectCopier.copy(TimeUnit.SECONDS));
+
+        final Object[] args = {1L, "str", template};
+        assertSame(args, ObjectCopier.copyArgs(args));
+        final Node node = new Node("n");
+        final Object[] copies = ObjectCopier.copyArgs(new Object[]{template, node, node});
+        assertSame(template, copies[0]);
+        assertNotSame(node, copies[1]);
+        assertSame(copies[1], copies[2]);
+    }
+
+    @Test
+    void copyCollections() {
+        final TreeSet<String> sorted = new TreeSet<>(Comparator.reverseOrder());
+        sorted.addAll(Arrays.asList("a", "c", "b"));
+        final TreeSet<?> sortedCopy = (TreeSet<?>) ObjectCopier.copy(sorted);
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(sortedCopy));
+
+        final Map<String, List<Node>> map = new HashMap<>();
+        map.put("nodes", new ArrayList<>(Collections.singletonList(new Node("x"))));
+        @SuppressWarnings("unchecked")
+        final Map<String, List<Node>> mapCopy = (Map<String, List<Node>>) ObjectCopier.copy(map);
+        assertNotSame(map.get("nodes"), mapCopy.get("nodes"));
+        assertEquals("x", mapCopy.get("nodes").get(0).name);
+
+        // 其他JDK集合逐个元素复制到可以修改的集合
+        final List<Node> unmodifiable = Collections.unmodifiableList(Collections.singletonList(new Node("y")));
+        @SuppressWarnings("unchecked")
+        final List<Node> listCopy = (List<Node>) ObjectCopier.copy(unmodifiable);
+        assertEquals(ArrayList.class, listCopy.getClass());
+        assertEquals("y", listCopy.get(0).name);
+        assertNotSame(unmodifiable.get(0), listCopy.get(0));
+        listCopy.add(new Node("z"));
+
+        final List<Node> asList = Arrays.asList(new Node("p"), new Node("q"));
+        final List<?> asListCopy = (List<?>) ObjectCopier.copy(asList);
+        assertEquals(ArrayList.class, asListCopy.getClass());
+        assertEquals("q", ((Node) asListCopy.get(1)).name);
+        assertEquals(Collections.emptyList(), ObjectCopier.copy(Collections.emptyList()));
+
+        final Set<String> unmodifiableSorted = Collections.unmodifiableSortedSet(sorted);
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>((Set<?>) ObjectCopier.copy(unmodifiableSorted)));
+        assertEquals(EnumSet.of(TimeUnit.SECONDS), ObjectCopier.copy(Collections.unmodifiableSet(EnumSet.of(TimeUnit.SECONDS))));
+
+        final Node shared = new Node("s");
+        final Map<String, Node> singletonMap = Collections.singletonMap("k", shared);
+        @SuppressWarnings("unchecked")
+        final Map<String, Node> singletonMapCopy = (Map<String, Node>) ObjectCopier.copy(Collections.unmodifiableMap(singletonMap));
+        assertEquals(LinkedHashMap.class, singletonMapCopy.getClass());
+        assertEquals("s", singletonMapCopy.get("k").name);
+        assertNotSame(shared, singletonMapCopy.get("k"));
+    }
+
+    public static class Node implements Serializable {
+        private String name;
+        private Node next;
+        private int[] values;
+        private final List<Node> children = new ArrayList<>();
+        private final Map<String, Object> attributes = new HashMap<>();
+        private transient String cache;
+
+        public Node() {
+        }
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    @Immutable
+    public static final class Template implements Serializable {
+        private final String name;
+        private final int maxStack;
+
+        Template(String name, int maxStack) {
+            this.name = name;
+            this.maxStack = maxStack;
+        }
+    }
+}
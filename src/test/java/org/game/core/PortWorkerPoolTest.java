@@ -0,0 +1,189 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortWorkerPoolTest {
+
+    private static final String SERVICE_NAME = "roomService";
+
+    /**
+     * 1000个port运行在4个worker上，同一个port不会同时在两个线程执行
+     */
+    @Test
+    void manyPortsOnFixedPool() throws Exception {
+        final int portCount = 1000;
+        final int requestsPerPort = 20;
+        final int producers = 4;
+        final PortWorkerPool workerPool = new PortWorkerPool("test", 4);
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final CountDownLatch latch = new CountDownLatch(portCount * requestsPerPort);
+        final AtomicInteger violations = new AtomicInteger();
+
+        final List<ServicePort> ports = new ArrayList<>(portCount);
+        final List<RoomService> services = new ArrayList<>(portCount);
+        for (int i = 0; i < portCount; i++) {
+            final ServicePort servicePort = new ServicePort("room" + i, serviceNode);
+            final RoomService roomService = new RoomService(latch, violations);
+            servicePort.addService(SERVICE_NAME, roomService);
+            ports.add(servicePort);
+            services.add(roomService);
+            workerPool.start(servicePort);
+        }
+
+        final Method enter = RoomService.class.getMethod("enter", Long.class);
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final Thread thread = new Thread(() -> {
+                for (int r = 0; r < requestsPerPort / producers; r++) {
+                    for (ServicePort servicePort : ports) {
+                        servicePort.addRequest(newRequest(servicePort, enter, (long) r));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS), "requests not executed");
+        // 等待几帧，所有port都应该执行过帧逻辑
+        Thread.sleep(ServicePort.ONE_FRAME_MILLIS * 5);
+
+        assertEquals(0, violations.get(), "a port ran on two threads at once");
+        for (RoomService roomService : services) {
+            assertTrue(roomService.inited);
+            assertTrue(roomService.frames > 0, "frame logic not scheduled");
+        }
+        final List<PortWorkerPool.WorkerStats> workerStats = workerPool.getWorkerStats();
+        assertEquals(4, workerStats.size());
+        long slices = 0L;
+        for (PortWorkerPool.WorkerStats stats : workerStats) {
+            slices += stats.getSlices();
+        }
+        assertTrue(slices >= portCount, "slices = " + slices + ", workers = " + workerStats);
+        workerPool.shutdown();
+    }
+
+    /**
+     * 帧定时器在port执行期间到期时唤醒被忽略，port执行结束后需要补上，空闲的port帧逻辑不能停，过时的帧定时器取消
+     */
+    @Test
+    void idlePortsKeepPulsing() throws Exception {
+        final int portCount = 200;
+        final PortWorkerPool workerPool = new PortWorkerPool("idle", 2);
+        final ServiceNode serviceNode = new ServiceNode("idleNode", null);
+        final AtomicInteger violations = new AtomicInteger();
+        final List<ServicePort> ports = new ArrayList<>(portCount);
+        final List<RoomService> services = new ArrayList<>(portCount);
+        for (int i = 0; i < portCount; i++) {
+            final ServicePort servicePort = new ServicePort("idle" + i, serviceNode);
+            final RoomService roomService = new RoomService(new CountDownLatch(0), violations);
+            servicePort.addService(SERVICE_NAME, roomService);
+            ports.add(servicePort);
+            services.add(roomService);
+            workerPool.start(servicePort);
+        }
+        try {
+            // 不定时投递执行约1毫秒的请求，让port执行和帧定时器到期经常重叠
+            final Method work = RoomService.class.getMethod("work", Long.class);
+            final long deadline = System.currentTimeMillis() + 1000L;
+            final Random random = new Random(7);
+            while (System.currentTimeMillis() < deadline) {
+                final ServicePort servicePort = ports.get(random.nextInt(portCount));
+                servicePort.addRequest(newRequest(servicePort, work, 200_000L + random.nextInt(800_000)));
+                LockSupport.parkNanos(1_000_000L + random.nextInt(2_000_000));
+                // 重新安排帧定时器时取消之前的定时器
+                assertTrue(workerPool.getPendingFrames() <= portCount, "stale frame timers. pending = " + workerPool.getPendingFrames());
+            }
+
+            // 停止投递后所有port都空闲，帧逻辑仍然按帧执行
+            Thread.sleep(ServicePort.ONE_FRAME_MILLIS * 5);
+            final int[] before = new int[portCount];
+            for (int i = 0; i < portCount; i++) {
+                before[i] = services.get(i).frames;
+            }
+            Thread.sleep(ServicePort.ONE_FRAME_MILLIS * 10);
+            for (int i = 0; i < portCount; i++) {
+                assertTrue(services.get(i).frames - before[i] >= 3, "idle port stopped pulsing. port = " + ports.get(i).getName());
+            }
+            assertEquals(0, violations.get(), "a port ran on two threads at once");
+        } finally {
+            workerPool.shutdown();
+        }
+    }
+
+    private static Request newRequest(ServicePort servicePort, Method method, Object... args) {
+        final Request request = new Request(servicePort.allocCallId());
+        final CallPoint callPoint = new CallPoint(servicePort.getServiceNode().getName(), servicePort.getName(), SERVICE_NAME);
+        request.setRpcInvocation(new RpcInvocation(servicePort.getFromPoint(), callPoint, method, args));
+        return request;
+    }
+
+    public static class RoomService implements Service {
+
+        private final CountDownLatch latch;
+        private final AtomicInteger violations;
+        private final AtomicBoolean running = new AtomicBoolean();
+        volatile boolean inited;
+        volatile int frames;
+
+        RoomService(CountDownLatch latch, AtomicInteger violations) {
+            this.latch = latch;
+            this.violations = violations;
+        }
+
+        /**
+         * 忙等指定的纳秒数
+         */
+        public void work(Long nanos) {
+            enterPort();
+            final long t1 = System.nanoTime();
+            while (System.nanoTime() - t1 < nanos) {
+                Thread.yield();
+            }
+            exitPort();
+        }
+
+        public void enter(Long id) {
+            enterPort();
+            latch.countDown();
+            exitPort();
+        }
+
+        private void enterPort() {
+            if (!running.compareAndSet(false, true)) {
+                violations.incrementAndGet();
+            }
+        }
+
+        private void exitPort() {
+            running.set(false);
+        }
+
+        @Override
+        public void init() {
+            inited = true;
+        }
+
+        @Override
+        public void pulse(long now) {
+            enterPort();
+            frames++;
+            exitPort();
+        }
+    }
+}
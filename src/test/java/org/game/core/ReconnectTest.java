@@ -0,0 +1,136 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.transport.TransportConsts;
+import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeServer;
+import org.game.core.transport.node.NodeTransport;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 连接断开期间缓存消息，重连后按顺序补发；缓存满后丢弃并计数
+ */
+class ReconnectTest {
+
+    private static final String SERVICE_NAME = "sequenceService";
+
+    @Test
+    void replayAfterReconnect() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final int port = freePort();
+        final ServiceNode serverNode = new ServiceNode("reconnectServer", null);
+        final ServicePort receiver = new ServicePort("receiver", serverNode);
+        receiver.addService(SERVICE_NAME, new ChannelAffinityTest.SequenceService(received, outOfOrder));
+        serverNode.addServicePort(receiver);
+        final Thread receiverThread = new Thread(receiver, "receiver");
+        receiverThread.start();
+        final Sender sender = new Sender(new CallPoint(serverNode.getName(), receiver.getName(), SERVICE_NAME));
+
+        // 服务端还没有启动，连接失败后按退避间隔重试
+        final NodeClient nodeClient = new NodeClient(serverNode.getName(), null, NodeTransport.defaultTransport(), 2);
+        NodeServer nodeServer = null;
+        try {
+            nodeClient.connect("127.0.0.1", port);
+            sender.send(nodeClient, 100);
+            assertEquals(100, nodeClient.getPendingMessages());
+            assertEquals(100L, nodeClient.getBufferedMessages());
+
+            nodeServer = new NodeServer(serverNode);
+            nodeServer.start(port).sync();
+            waitUntil(() -> received.get() == 100);
+            assertEquals(0, nodeClient.getPendingMessages());
+            assertEquals(100L, nodeClient.getReplayedMessages());
+
+            // 服务端重启，断开期间的消息在重连后补发
+            nodeServer.shutdown();
+            waitUntil(() -> !nodeClient.isOpen());
+            sender.send(nodeClient, 100);
+            assertEquals(100, nodeClient.getPendingMessages());
+            nodeServer = new NodeServer(serverNode);
+            nodeServer.start(port).sync();
+            waitUntil(() -> received.get() == 200);
+            assertTrue(nodeClient.isActive());
+
+            // 连接正常时直接发送
+            sender.send(nodeClient, 100);
+            waitUntil(() -> received.get() == 300);
+            assertEquals(200L, nodeClient.getBufferedMessages());
+            assertEquals(200L, nodeClient.getReplayedMessages());
+            assertEquals(0L, nodeClient.getDroppedMessages());
+            assertEquals(0, outOfOrder.get(), "messages out of order");
+        } finally {
+            nodeClient.shutdown();
+            if (nodeServer != null) {
+                nodeServer.shutdown();
+            }
+            receiverThread.interrupt();
+            receiverThread.join(1000L);
+        }
+    }
+
+    @Test
+    void dropWhenFull() throws Exception {
+        final Sender sender = new Sender(new CallPoint("unreachable", "receiver", SERVICE_NAME));
+        final NodeClient nodeClient = new NodeClient("unreachable", null, NodeTransport.defaultTransport(), 1);
+        try {
+            nodeClient.connect("127.0.0.1", freePort());
+            sender.send(nodeClient, TransportConsts.NODE_PENDING_MAX_MESSAGES + 50);
+            assertEquals(TransportConsts.NODE_PENDING_MAX_MESSAGES, nodeClient.getPendingMessages());
+            assertEquals(50L, nodeClient.getDroppedMessages());
+        } finally {
+            nodeClient.shutdown();
+        }
+        // 关闭时丢弃还没有补发的消息
+        assertEquals(0, nodeClient.getPendingMessages());
+        assertEquals(TransportConsts.NODE_PENDING_MAX_MESSAGES + 50L, nodeClient.getDroppedMessages());
+        sender.send(nodeClient, 1);
+        assertEquals(TransportConsts.NODE_PENDING_MAX_MESSAGES + 51L, nodeClient.getDroppedMessages());
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        final long t1 = System.currentTimeMillis();
+        while (!condition.getAsBoolean() && System.currentTimeMillis() - t1 < 20_000L) {
+            Thread.sleep(10L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * 发送带序号的请求
+     */
+    private static final class Sender {
+        final ServicePort port = new ServicePort("sender", new ServiceNode("reconnectClient", null));
+        final CallPoint callPoint;
+        final Method sequence;
+        int seq;
+
+        Sender(CallPoint callPoint) throws NoSuchMethodException {
+            this.callPoint = callPoint;
+            this.sequence = ChannelAffinityTest.SequenceService.class.getMethod("sequence", String.class, Integer.class);
+        }
+
+        void send(NodeClient nodeClient, int count) {
+            for (int i = 0; i < count; i++) {
+                final Request request = new Request(port.allocCallId());
+                request.setRpcInvocation(new RpcInvocation(port.getFromPoint(), callPoint, sequence,
+                        new Object[]{port.getName(), seq++}));
+                nodeClient.send(request);
+            }
+        }
+    }
+}
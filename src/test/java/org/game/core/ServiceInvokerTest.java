@@ -0,0 +1,204 @@
+package org.game.core;
+
+import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.game.core.exchange.Request;
+import org.game.core.transport.Hessian2Utils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServiceInvokerTest {
+
+    @Test
+    void invoke() throws Throwable {
+        final ServiceInvoker invoker = ServiceInvoker.create("echoService", new EchoService());
+        assertEquals("hello", invoker.invoke("echo", new Object[]{"hello"}));
+        // null参数
+        assertNull(invoker.invoke("echo", new Object[]{null}));
+        // 基本类型参数
+        assertEquals(3, invoker.invoke("add", new Object[]{1, 2}));
+        // 重载方法
+        assertEquals("long:1", invoker.invoke("name", new Object[]{1L}));
+        assertEquals("string:a", invoker.invoke("name", new Object[]{"a"}));
+        // 无参数方法，动态代理传入的args为null
+        assertEquals(0, invoker.invoke("count", null));
+        assertThrows(NoSuchMethodException.class, () -> invoker.invoke("missing", null));
+    }
+
+    @Test
+    void invokeByMethodId() throws Throwable {
+        final ServiceDescriptor descriptor = ServiceDescriptor.of(CalcService.class);
+        final ServiceInvoker invoker = ServiceInvoker.create(CalcService.class.getName(), new CalcServiceImpl());
+        assertEquals(descriptor.getServiceId(), invoker.getDescriptor().getServiceId());
+        assertEquals(descriptor.getVersion(), invoker.getDescriptor().getVersion());
+
+        final Method nameLong = CalcService.class.getMethod("name", Long.class);
+        final Method nameString = CalcService.class.getMethod("name", String.class);
+        // 重载方法有不同的方法id
+        assertNotEquals(descriptor.getMethodId(nameLong), descriptor.getMethodId(nameString));
+        assertEquals("long:1", invoker.invoke(descriptor.getMethodId(nameLong), new Object[]{1L}));
+        assertEquals("string:a", invoker.invoke(descriptor.getMethodId(nameString), new Object[]{"a"}));
+        assertTrue(invoker.isOneWay(descriptor.getMethodId(CalcService.class.getMethod("fire"))));
+        assertThrows(NoSuchMethodException.class, () -> invoker.invoke(descriptor.getMethodCount(), null));
+
+        // 接口方法变化后版本不同
+        final ServiceDescriptor changed = ServiceDescriptor.create(CalcService.class.getName(),
+                Arrays.asList(nameLong, nameString));
+        assertEquals(descriptor.getServiceId(), changed.getServiceId());
+        assertNotEquals(descriptor.getVersion(), changed.getVersion());
+    }
+
+    /**
+     * 紧凑格式和方法名格式的 {@link Request} 编码后的长度
+     */
+    @Test
+    void compactFrameSize() throws Exception {
+        final Method method = CalcService.class.getMethod("name", String.class);
+        final FromPoint fromPoint = new FromPoint("node0", "port0");
+        final Object[] args = {"a"};
+
+        final Request request = new Request(1L);
+        request.setRpcInvocation(new RpcInvocation(fromPoint,
+                new CallPoint("node0", "port1", CalcService.class.getName()), method, args));
+        final Request compact = new Request(1L);
+        compact.setRpcInvocation(RpcInvocation.compact(fromPoint, new CallPoint("node0", "port1", null),
+                ServiceDescriptor.of(CalcService.class), method, args));
+
+        // 连接内类定义只发送一次，比较之后每条消息的长度
+        assertTrue(steadySize(compact) < steadySize(request));
+        final String encoded = new String(Hessian2Utils.encode(request), StandardCharsets.ISO_8859_1);
+        final String compactEncoded = new String(Hessian2Utils.encode(compact), StandardCharsets.ISO_8859_1);
+        // 方法名格式不包含紧凑格式的字段，紧凑格式不包含服务名称
+        assertFalse(encoded.contains("serviceId"));
+        assertFalse(compactEncoded.contains(CalcService.class.getName()));
+
+        final Request decoded = Hessian2Utils.decode(Hessian2Utils.encode(compact));
+        assertTrue(decoded.getRpcInvocation().isCompact());
+        assertNull(decoded.getRpcInvocation().getCallPoint().getService());
+        assertEquals(compact.getRpcInvocation().getServiceId(), decoded.getRpcInvocation().getServiceId());
+        assertEquals(compact.getRpcInvocation().getMethodId(), decoded.getRpcInvocation().getMethodId());
+        assertEquals(compact.getRpcInvocation().getServiceVersion(), decoded.getRpcInvocation().getServiceVersion());
+        final Request decodedRequest = Hessian2Utils.decode(Hessian2Utils.encode(request));
+        assertFalse(decodedRequest.getRpcInvocation().isCompact());
+        assertEquals("name", decodedRequest.getRpcInvocation().getMethodName());
+    }
+
+    /**
+     * 同一个 {@link Hessian2Output} 第二次写入的长度，不包含类定义
+     */
+    private static int steadySize(Object obj) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final Hessian2Output output = new Hessian2Output(bos);
+        output.writeObject(obj);
+        output.flushBuffer();
+        final int first = bos.size();
+        output.resetReferences();
+        output.writeObject(obj);
+        output.flushBuffer();
+        return bos.size() - first;
+    }
+
+    /**
+     * 预先生成的MethodHandle调用表比每次通过 {@link MethodUtils#invokeExactMethod(Object, String, Object...)} 反射查找快
+     * <p>结果受机器负载影响，默认不运行，见build.gradle。</p>
+     */
+    @Tag("benchmark")
+    @Test
+    void dispatchFasterThanReflection() throws Throwable {
+        final EchoService service = new EchoService();
+        final ServiceInvoker invoker = ServiceInvoker.create("echoService", service);
+        final Object[] args = {"hello"};
+        final int count = 1_000_000;
+        long reflection = 0L;
+        long table = 0L;
+        for (int round = 0; round < 3; round++) {
+            long t1 = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                MethodUtils.invokeExactMethod(service, "echo", args);
+            }
+            reflection = System.nanoTime() - t1;
+
+            t1 = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                invoker.invoke("echo", args);
+            }
+            table = System.nanoTime() - t1;
+        }
+        // 预热之后比较，反射查找每次都要按名称和参数类型匹配方法
+        assertTrue(table * 2 < reflection, "dispatch. MethodUtils = " + reflection / count
+                + "ns/op, ServiceInvoker = " + table / count + "ns/op");
+    }
+
+    @ServiceConfig(node = "testNode", port = "testPort", serviceImplType = CalcServiceImpl.class)
+    public interface CalcService {
+        String name(Long id);
+
+        String name(String name);
+
+        void fire();
+    }
+
+    public static class CalcServiceImpl implements CalcService, Service {
+
+        @Override
+        public String name(Long id) {
+            return "long:" + id;
+        }
+
+        @Override
+        public String name(String name) {
+            return "string:" + name;
+        }
+
+        @Override
+        public void fire() {
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+        }
+    }
+
+    public static class EchoService implements Service {
+
+        public String echo(String str) {
+            return str;
+        }
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public String name(Long id) {
+            return "long:" + id;
+        }
+
+        public String name(String name) {
+            return "string:" + name;
+        }
+
+        public Integer count() {
+            return 0;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+        }
+    }
+}
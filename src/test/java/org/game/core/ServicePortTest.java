@@ -0,0 +1,533 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.game.global.ServiceConsts;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ServicePort} 的测试和简单基准
+ */
+class ServicePortTest {
+
+    private static final String SERVICE_NAME = "pingService";
+
+    /**
+     * 信箱模式空闲时park，请求入队时唤醒port线程执行
+     */
+    @Test
+    void idleMailboxWakesUp() throws Exception {
+        // 每个请求都要在1秒内执行，否则失败
+        idleToBusyLatencyMicros(true, 20);
+    }
+
+    /**
+     * 空闲到有消息的唤醒延迟：信箱模式 vs 1毫秒sleep轮询
+     * <p>结果受机器负载影响，默认不运行，见build.gradle。</p>
+     */
+    @Tag("benchmark")
+    @Test
+    void idleToBusyLatency() throws Exception {
+        final long polling = idleToBusyLatencyMicros(false, 200);
+        final long mailbox = idleToBusyLatencyMicros(true, 200);
+        // 轮询平均要等半个sleep周期，信箱模式在入队时直接唤醒
+        assertTrue(mailbox * 2 < polling, "mailbox p50 = " + mailbox + "us, sleep polling p50 = " + polling + "us");
+    }
+
+    /**
+     * 积压大量消息时批量处理，并且帧逻辑仍然按时执行
+     */
+    @Test
+    void burstDrainKeepsFrames() throws Exception {
+        final int count = 20000;
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        servicePort.setDrainBatchSize(256);
+        servicePort.setDrainBudget(2L, TimeUnit.MILLISECONDS);
+        servicePort.setRequestCapacity(count);
+        final PingService pingService = new PingService();
+        servicePort.addService(SERVICE_NAME, pingService);
+
+        final Method ping = PingService.class.getMethod("ping", Long.class);
+        for (int i = 0; i < count; i++) {
+            servicePort.addRequest(newRequest(servicePort, ping, System.nanoTime()));
+        }
+
+        final Thread thread = new Thread(servicePort, "testPort");
+        final long t1 = System.currentTimeMillis();
+        thread.start();
+        for (int i = 0; i < count; i++) {
+            assertNotNull(pingService.executed.poll(10, TimeUnit.SECONDS), "request not executed");
+        }
+        final long interval = System.currentTimeMillis() - t1;
+        thread.interrupt();
+        thread.join(1000L);
+
+        assertEquals(count, servicePort.getTotalDrainCount());
+        assertTrue(servicePort.getLastDrainCount() <= 256);
+        assertTrue(pingService.frames >= interval / ServicePort.ONE_FRAME_MILLIS / 4,
+                "frames should keep running while draining. interval = " + interval + "ms, frames = " + pingService.frames);
+    }
+
+    /**
+     * 大量并发阻塞RPC调用：循环pulseOne等待 vs 协程让出执行权
+     * <p>请求每1毫秒到达一个，模拟的RPC返回延迟在10~100毫秒之间随机。循环等待时先开始的调用要等后开始的调用返回，
+     * 协程模式每个调用在自己的RPC返回后就继续执行，平均调用延迟更低。结果受机器负载影响，默认不运行，见build.gradle。</p>
+     */
+    @Tag("benchmark")
+    @Test
+    void concurrentBlockingCalls() throws Exception {
+        long direct = 0L;
+        long fiber = 0L;
+        for (int round = 0; round < 2; round++) {
+            direct = blockingCalls(ExecutionMode.DIRECT, 200);
+            fiber = blockingCalls(ExecutionMode.FIBER, 200);
+        }
+        assertTrue(fiber < direct, "avg call latency. fiber = " + fiber + "ms, direct = " + direct + "ms");
+    }
+
+    /**
+     * 协程等待RPC返回时port线程继续执行帧逻辑和其他请求
+     */
+    @Test
+    void blockedFiberKeepsPortRunning() throws Exception {
+        final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        servicePort.setExecutionMode(ExecutionMode.FIBER);
+        final BlockingService blockingService = new BlockingService(responder);
+        servicePort.addService(SERVICE_NAME, blockingService);
+        final Method block = BlockingService.class.getMethod("block", Long.class);
+        final Method ping = BlockingService.class.getMethod("ping", Long.class);
+
+        final Thread thread = new Thread(servicePort, "testPort");
+        thread.start();
+        try {
+            servicePort.addRequest(newRequest(servicePort, block, 60 * 1000L));
+            awaitActiveFibers(servicePort, 1);
+            final int frames = blockingService.frames;
+            for (int i = 0; i < 10; i++) {
+                servicePort.addRequest(newRequest(servicePort, ping, (long) i));
+                assertEquals(Long.valueOf(i), blockingService.pinged.poll(1, TimeUnit.SECONDS), "request not executed");
+            }
+            final long deadline = System.currentTimeMillis() + 10 * 1000L;
+            while (blockingService.frames < frames + 5) {
+                assertTrue(System.currentTimeMillis() < deadline, "frames should keep running while a fiber is blocked");
+                Thread.sleep(1L);
+            }
+            assertEquals(1, servicePort.getActiveFibers());
+            assertTrue(blockingService.completed.isEmpty());
+        } finally {
+            thread.interrupt();
+            thread.join(1000L);
+            responder.shutdownNow();
+        }
+    }
+
+    /**
+     * @return 平均调用延迟（毫秒）
+     */
+    private long blockingCalls(ExecutionMode executionMode, int count) throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        servicePort.setExecutionMode(executionMode);
+        final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+        final BlockingService blockingService = new BlockingService(responder);
+        servicePort.addService(SERVICE_NAME, blockingService);
+
+        final Method block = BlockingService.class.getMethod("block", Long.class);
+        final Thread thread = new Thread(servicePort, "testPort");
+        thread.start();
+        try {
+            for (int i = 0; i < count; i++) {
+                servicePort.addRequest(newRequest(servicePort, block, 10L + ThreadLocalRandom.current().nextInt(90)));
+                Thread.sleep(1L);
+            }
+            long totalLatency = 0L;
+            for (int i = 0; i < count; i++) {
+                final Long latency = blockingService.completed.poll(20, TimeUnit.SECONDS);
+                assertNotNull(latency, "blocking call not completed");
+                totalLatency += latency;
+            }
+            awaitActiveFibers(servicePort, 0);
+            return TimeUnit.NANOSECONDS.toMillis(totalLatency / count);
+        } finally {
+            thread.interrupt();
+            thread.join(1000L);
+            responder.shutdownNow();
+        }
+    }
+
+    /**
+     * port停止时结束等待中的协程，协程线程不会一直挂起
+     */
+    @Test
+    void fibersReleasedOnShutdown() throws Exception {
+        final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+        final Method block = BlockingService.class.getMethod("block", Long.class);
+        try {
+            // 独立线程，中断后停止
+            final ServicePort threadPort = newFiberPort("threadPort", responder);
+            for (int i = 0; i < 3; i++) {
+                threadPort.addRequest(newRequest(threadPort, block, 60 * 1000L));
+            }
+            final Thread thread = new Thread(threadPort, "threadPort");
+            thread.start();
+            awaitActiveFibers(threadPort, 3);
+            thread.interrupt();
+            thread.join(1000L);
+            assertFalse(thread.isAlive());
+            assertEquals(0, threadPort.getActiveFibers());
+
+            // worker线程池停止
+            final PortWorkerPool pool = new PortWorkerPool("fiberPool", 2);
+            final ServicePort poolPort = newFiberPort("poolPort", responder);
+            pool.start(poolPort);
+            for (int i = 0; i < 3; i++) {
+                poolPort.addRequest(newRequest(poolPort, block, 60 * 1000L));
+            }
+            awaitActiveFibers(poolPort, 3);
+            pool.shutdown();
+            assertEquals(0, poolPort.getActiveFibers());
+        } finally {
+            responder.shutdownNow();
+        }
+    }
+
+    private static ServicePort newFiberPort(String name, ScheduledExecutorService responder) {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort(name, serviceNode);
+        servicePort.setExecutionMode(ExecutionMode.FIBER);
+        servicePort.addService(SERVICE_NAME, new BlockingService(responder));
+        return servicePort;
+    }
+
+    private static void awaitActiveFibers(ServicePort servicePort, int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10 * 1000L;
+        while (servicePort.getActiveFibers() != expected) {
+            assertTrue(System.currentTimeMillis() < deadline, "fibers not suspended");
+            Thread.sleep(1L);
+        }
+    }
+
+    /**
+     * 定时任务在port线程执行，可以取消
+     */
+    @Test
+    void scheduler() throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        final ScheduleService scheduleService = new ScheduleService();
+        servicePort.addService(SERVICE_NAME, scheduleService);
+        assertThrows(IllegalStateException.class, () -> servicePort.getScheduler().schedule(() -> { }, 1, TimeUnit.SECONDS));
+
+        final Thread thread = new Thread(servicePort, "testPort");
+        thread.start();
+        try {
+            assertEquals(Boolean.TRUE, scheduleService.once.poll(1, TimeUnit.SECONDS));
+            for (int i = 0; i < 5; i++) {
+                assertEquals(thread, scheduleService.rate.poll(1, TimeUnit.SECONDS));
+            }
+            // 第5次执行时取消
+            assertNull(scheduleService.rate.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            thread.interrupt();
+            thread.join(1000L);
+        }
+    }
+
+    private long idleToBusyLatencyMicros(boolean mailboxMode, int count) throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        servicePort.setMailboxMode(mailboxMode);
+        final PingService pingService = new PingService();
+        servicePort.addService(SERVICE_NAME, pingService);
+
+        final Thread thread = new Thread(servicePort, "testPort");
+        thread.start();
+        try {
+            final Method ping = PingService.class.getMethod("ping", Long.class);
+            final long[] latencies = new long[count];
+            for (int i = 0; i < count; i++) {
+                // 让port进入空闲状态，随机的空闲时间让请求落在轮询sleep周期的任意位置
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(2000L + ThreadLocalRandom.current().nextInt(1000)));
+                final long t0 = System.nanoTime();
+                servicePort.addRequest(newRequest(servicePort, ping, t0));
+                final Long t1 = pingService.executed.poll(1, TimeUnit.SECONDS);
+                assertNotNull(t1, "request not executed");
+                latencies[i] = t1 - t0;
+            }
+            Arrays.sort(latencies);
+            return TimeUnit.NANOSECONDS.toMicros(latencies[count / 2]);
+        } finally {
+            thread.interrupt();
+            thread.join(1000L);
+            assertFalse(thread.isAlive(), "port thread should stop on interrupt");
+        }
+    }
+
+    /**
+     * 超过队列容量时的处理策略
+     */
+    @Test
+    void overloadPolicy() throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        servicePort.addService(SERVICE_NAME, new PingService());
+        final Method ping = PingService.class.getMethod("ping", Long.class);
+        final Method pong = PingService.class.getMethod("pong", Long.class);
+        servicePort.setRequestCapacity(4);
+
+        // 拒绝：单向请求丢弃，需要返回值的请求返回错误应答
+        for (int i = 0; i < 4; i++) {
+            assertTrue(servicePort.addRequest(newRequest(servicePort, ping, 0L)));
+        }
+        assertFalse(servicePort.addRequest(newRequest(servicePort, ping, 0L)));
+        assertFalse(servicePort.addRequest(newRequest(servicePort, pong, 0L)));
+        assertEquals(4, servicePort.getRequestDepth());
+        assertEquals(1, servicePort.getDroppedOneWayRequests());
+        assertEquals(1, servicePort.getRejectedRequests());
+
+        // 应答总是入队，不受请求过载影响
+        for (long id = 1; id <= 8; id++) {
+            servicePort.addResponse(new Response(id, Response.STATUS_OK));
+        }
+        servicePort.addResponses(Arrays.asList(new Response(9L, Response.STATUS_OK), new Response(10L, Response.STATUS_OK)));
+        assertEquals(10, servicePort.getResponseDepth());
+
+        // 优先丢弃单向请求：需要返回值的请求可以用到2倍容量
+        servicePort.setOverloadPolicy(OverloadPolicy.DROP_ONEWAY);
+        assertFalse(servicePort.addRequest(newRequest(servicePort, ping, 0L)));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(servicePort.addRequest(newRequest(servicePort, pong, 0L)));
+        }
+        assertFalse(servicePort.addRequest(newRequest(servicePort, pong, 0L)));
+        assertEquals(8, servicePort.getRequestDepth());
+        assertEquals(2, servicePort.getDroppedOneWayRequests());
+        assertEquals(2, servicePort.getRejectedRequests());
+
+        // 背压：超过容量时通知暂停读取，最多接收到2倍容量，处理完之后回调
+        servicePort.setOverloadPolicy(OverloadPolicy.BACKPRESSURE);
+        assertTrue(servicePort.isBackpressured());
+        assertFalse(servicePort.addRequest(newRequest(servicePort, ping, 0L)));
+        assertEquals(3, servicePort.getDroppedOneWayRequests());
+        final boolean[] resumed = new boolean[1];
+        servicePort.onDrained(() -> resumed[0] = true);
+        assertFalse(resumed[0]);
+
+        ServicePort.bindCurrentThread(servicePort);
+        try {
+            while (servicePort.pulseOne()) {
+                // 处理完所有消息
+            }
+        } finally {
+            ServicePort.bindCurrentThread(null);
+        }
+        assertEquals(0, servicePort.getRequestDepth());
+        assertEquals(0, servicePort.getResponseDepth());
+        assertFalse(servicePort.isBackpressured());
+        assertTrue(resumed[0]);
+    }
+
+    /**
+     * 等待应答的调用登记在port中，收到应答或者超时后移除
+     */
+    @Test
+    void pendingCalls() throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort servicePort = new ServicePort("testPort", serviceNode);
+        ServicePort.bindCurrentThread(servicePort);
+        try {
+            final DefaultFuture replied = DefaultFuture.newFuture(servicePort.allocCallId(), 30 * 1000L);
+            final DefaultFuture timeout = DefaultFuture.newFuture(servicePort.allocCallId(), 50L);
+            assertEquals(2, servicePort.getPendingCallCount());
+
+            final Response response = new Response(replied.getId(), Response.STATUS_OK);
+            response.setResult("ok");
+            servicePort.addResponse(response);
+            servicePort.addResponse(new Response(servicePort.allocCallId(), Response.STATUS_OK));
+            servicePort.pulseOne();
+            assertEquals("ok", replied.get());
+            assertEquals(1, servicePort.getPendingCallCount());
+
+            final long t1 = System.currentTimeMillis();
+            while (!timeout.isDone() && System.currentTimeMillis() - t1 < 1000L) {
+                servicePort.pulseOne();
+                Thread.sleep(1L);
+            }
+            assertTrue(timeout.isCancelled());
+            assertEquals(0, servicePort.getPendingCallCount());
+        } finally {
+            ServicePort.bindCurrentThread(null);
+        }
+    }
+
+    /**
+     * 应答按照调用id中的port序号派发
+     */
+    @Test
+    void dispatchResponseByCallId() {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort port0 = new ServicePort("port0", serviceNode);
+        final ServicePort port1 = new ServicePort("port1", serviceNode);
+        serviceNode.addServicePort(port0);
+        serviceNode.addServicePort(port1);
+
+        // 没有配置的node使用保留的序号，不和配置的node冲突
+        assertEquals(CallId.UNCONFIGURED_NODE_INDEX, serviceNode.getIndex());
+        assertEquals(0, ServiceNode.nodeIndex(ServiceConsts.NODE0));
+        final long callId = port1.allocCallId();
+        assertEquals(serviceNode.getIndex(), CallId.nodeIndex(callId));
+        assertEquals(port1.getIndex(), CallId.portIndex(callId));
+        assertEquals(callId + 1, port1.allocCallId());
+        assertSame(port1, serviceNode.dispatchResponse(new Response(callId, Response.STATUS_OK)));
+        assertEquals(0, port0.getResponseDepth());
+        assertEquals(1, port1.getResponseDepth());
+
+        // 其他node或者不存在的port
+        assertNull(serviceNode.dispatchResponse(new Response(CallId.of(0, port1.getIndex(), 1L), Response.STATUS_OK)));
+        assertNull(serviceNode.dispatchResponse(new Response(CallId.of(serviceNode.getIndex(), CallId.MAX_PORTS - 1, 1L), Response.STATUS_OK)));
+
+        final long last = CallId.of(CallId.MAX_NODES - 1, CallId.MAX_PORTS - 1, -1L);
+        assertEquals(CallId.MAX_NODES - 1, CallId.nodeIndex(last));
+        assertEquals(CallId.MAX_PORTS - 1, CallId.portIndex(last));
+        assertEquals((1L << CallId.SEQUENCE_BITS) - 1, CallId.sequence(last));
+    }
+
+    /**
+     * 批量派发：同一个port的连续消息一次入队，顺序不变
+     */
+    @Test
+    void dispatchBatch() throws Exception {
+        final ServiceNode serviceNode = new ServiceNode("testNode", null);
+        final ServicePort port0 = new ServicePort("port0", serviceNode);
+        final ServicePort port1 = new ServicePort("port1", serviceNode);
+        serviceNode.addServicePort(port0);
+        serviceNode.addServicePort(port1);
+        final Method ping = PingService.class.getMethod("ping", Long.class);
+
+        final List<Object> messages = Arrays.asList(
+                newRequest(port0, ping, 1L), newRequest(port0, ping, 2L),
+                new Response(port1.allocCallId(), Response.STATUS_OK),
+                newRequest(port1, ping, 3L),
+                new Response(CallId.of(serviceNode.getIndex(), CallId.MAX_PORTS - 1, 1L), Response.STATUS_OK),
+                "ignored",
+                newRequest(port0, ping, 4L));
+        assertEquals(Arrays.asList(port0, port1), serviceNode.dispatchBatch(messages));
+        assertEquals(3, port0.getRequestDepth());
+        assertEquals(1, port1.getRequestDepth());
+        assertEquals(1, port1.getResponseDepth());
+
+        // 超过容量时逐条按照过载策略处理
+        final ServicePort port2 = new ServicePort("port2", serviceNode);
+        port2.addService(SERVICE_NAME, new PingService());
+        port2.setRequestCapacity(2);
+        assertEquals(2, port2.addRequests(Arrays.asList(
+                newRequest(port2, ping, 5L), newRequest(port2, ping, 6L), newRequest(port2, ping, 7L))));
+        assertEquals(2, port2.getRequestDepth());
+        assertEquals(1, port2.getDroppedOneWayRequests());
+    }
+
+    private static Request newRequest(ServicePort servicePort, Method method, Object... args) {
+        final Request request = new Request(servicePort.allocCallId());
+        final CallPoint callPoint = new CallPoint(servicePort.getServiceNode().getName(), servicePort.getName(), SERVICE_NAME);
+        request.setRpcInvocation(new RpcInvocation(servicePort.getFromPoint(), callPoint, method, args));
+        return request;
+    }
+
+    public static class ScheduleService extends ServiceBase {
+
+        final BlockingQueue<Boolean> once = new LinkedBlockingQueue<>();
+        final BlockingQueue<Thread> rate = new LinkedBlockingQueue<>();
+
+        @Override
+        public void init() {
+            getScheduler().schedule(() -> once.add(Boolean.TRUE), 50, TimeUnit.MILLISECONDS);
+            final ScheduledTask[] task = new ScheduledTask[1];
+            task[0] = getScheduler().scheduleAtFixedRate(() -> {
+                rate.add(Thread.currentThread());
+                if (task[0].getExecutions() == 5) {
+                    assertTrue(task[0].cancel());
+                }
+            }, 0, ServicePort.ONE_FRAME_MILLIS * 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 阻塞等待模拟的RPC返回
+     */
+    public static class BlockingService implements Service {
+
+        /** 完成的调用耗时 */
+        final BlockingQueue<Long> completed = new LinkedBlockingQueue<>();
+        /** 执行的ping */
+        final BlockingQueue<Long> pinged = new LinkedBlockingQueue<>();
+        volatile int frames;
+        private final ScheduledExecutorService responder;
+
+        BlockingService(ScheduledExecutorService responder) {
+            this.responder = responder;
+        }
+
+        public void block(Long delayMillis) {
+            final long t1 = System.nanoTime();
+            final ServicePort servicePort = ServicePort.getServicePort();
+            final Request request = new Request(servicePort.allocCallId());
+            final DefaultFuture future = DefaultFuture.newFuture(request.getId(), 30 * 1000L);
+            responder.schedule(() -> servicePort.addResponse(new Response(request.getId(), Response.STATUS_OK)),
+                    delayMillis, TimeUnit.MILLISECONDS);
+            assertTrue(servicePort.waitFuture(future, 10 * 1000L));
+            completed.add(System.nanoTime() - t1);
+        }
+
+        public void ping(Long value) {
+            pinged.add(value);
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+            frames++;
+        }
+    }
+
+    public static class PingService implements Service {
+
+        final BlockingQueue<Long> executed = new LinkedBlockingQueue<>();
+        volatile int frames;
+
+        public void ping(Long t0) {
+            executed.add(System.nanoTime());
+        }
+
+        public Long pong(Long t0) {
+            return t0;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+            frames++;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link org.game.core.transport.node.WriteCoalescer} 合并写出：本机连接发送小的单向消息，一次心跳的消息合并成少数几次写出
+ */
+class WriteCoalescingTest {
+
+    private static final String SERVICE_NAME = "sinkService";
+    private static final int MESSAGES_PER_TICK = 500;
+
+    @Test
+    void writeCoalescing() throws Exception {
+        final int total = 100_000;
+        final int port = freePort();
+        final ServiceNode serverNode = new ServiceNode("serverNode", null);
+        final ServicePort receiver = new ServicePort("receiver", serverNode);
+        receiver.setRequestCapacity(total);
+        final SinkService sinkService = new SinkService();
+        receiver.addService(SERVICE_NAME, sinkService);
+        serverNode.addServicePort(receiver);
+        final Thread receiverThread = new Thread(receiver, "receiver");
+        receiverThread.start();
+        final NodeServer nodeServer = new NodeServer(serverNode);
+        nodeServer.start(port).sync();
+        final NodeClient nodeClient = new NodeClient(serverNode.getName());
+        try {
+            nodeClient.connect("127.0.0.1", port);
+            final long t1 = System.currentTimeMillis();
+            while (!nodeClient.isActive() && System.currentTimeMillis() - t1 < 3000L) {
+                Thread.sleep(10L);
+            }
+            assertTrue(nodeClient.isActive());
+
+            final ServicePort sender = new ServicePort("sender", new ServiceNode("senderNode", null));
+            ServicePort.bindCurrentThread(sender);
+            try {
+                // 连续发送，以及按帧间隔发送
+                for (long tickMillis : new long[]{0L, ServicePort.ONE_FRAME_MILLIS}) {
+                    final int count = tickMillis == 0L ? total : total / 5;
+                    assertEquals(0L, run(sender, nodeClient, sinkService, receiver, count, false, tickMillis));
+                    final long flushes = run(sender, nodeClient, sinkService, receiver, count, true, tickMillis);
+                    // 每次心跳达到上限时写出一次，心跳结束时再写出一次
+                    assertTrue(flushes > 0 && flushes * 100 <= count,
+                            "oneway x " + count + ", tick interval = " + tickMillis + "ms, flushes = " + flushes);
+                }
+            } finally {
+                ServicePort.bindCurrentThread(null);
+            }
+        } finally {
+            nodeClient.shutdown();
+            nodeServer.shutdown();
+            receiverThread.interrupt();
+            receiverThread.join(1000L);
+        }
+    }
+
+    /**
+     * @return 合并写出的次数
+     */
+    private static long run(ServicePort sender, NodeClient nodeClient, SinkService sinkService, ServicePort receiver,
+                              int total, boolean coalescing, long tickMillis) throws Exception {
+        sender.setWriteCoalescing(coalescing);
+        final Method sink = SinkService.class.getMethod("sink", Long.class);
+        final CallPoint callPoint = new CallPoint(receiver.getServiceNode().getName(), receiver.getName(), SERVICE_NAME);
+        final int start = sinkService.received.get();
+        final long flushCount = sender.getWriteCoalescer().getFlushCount();
+        for (int sent = 0; sent < total; sent += MESSAGES_PER_TICK) {
+            for (int i = 0; i < MESSAGES_PER_TICK; i++) {
+                final Request request = new Request(sender.allocCallId());
+                request.setRpcInvocation(new RpcInvocation(sender.getFromPoint(), callPoint, sink, new Object[]{System.nanoTime()}));
+                nodeClient.send(request);
+            }
+            // 一次心跳结束
+            sender.pulseOne();
+            // 连接不可写时暂停发送，等待写缓冲降到低水位以下
+            while (!nodeClient.isWritable()) {
+                Thread.sleep(1L);
+            }
+            if (tickMillis > 0L) {
+                Thread.sleep(tickMillis);
+            }
+        }
+        final long deadline = System.currentTimeMillis() + 30_000L;
+        while (sinkService.received.get() - start < total && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1L);
+        }
+        assertEquals(total, sinkService.received.get() - start, "messages lost");
+        return sender.getWriteCoalescer().getFlushCount() - flushCount;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    public static class SinkService implements Service {
+
+        final AtomicInteger received = new AtomicInteger();
+
+        public void sink(Long t0) {
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void pulse(long now) {
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.game.core;
+
+import org.game.core.exchange.Request;
+import org.game.core.transport.TransportConsts;
+import org.game.core.transport.node.NodeClient;
+import org.game.core.transport.node.NodeTransport;
+import org.game.core.transport.node.WritePolicy;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 对方停止读取时写缓冲有上限：超过高水位后连接不可写，消息按照 {@link WritePolicy} 缓存或者丢弃，恢复读取后补发
+ */
+class WriteFlowControlTest {
+
+    private static final int MESSAGES = 30_000;
+    private static final int PAYLOAD_SIZE = 1024;
+
+    @Test
+    void boundedWhenReceiverStalls() throws Exception {
+        try (StalledPeer peer = new StalledPeer()) {
+            final NodeClient nodeClient = peer.connect(WritePolicy.BUFFER);
+            try {
+                final Method blob = WriteFlowControlTest.class.getDeclaredMethod("blob", byte[].class);
+                peer.send(nodeClient, blob, MESSAGES);
+                final long pendingWriteBytes = waitStable(nodeClient);
+                assertFalse(nodeClient.isWritable());
+                assertTrue(pendingWriteBytes <= 2L * TransportConsts.WRITE_BUFFER_HIGH_WATER_MARK,
+                        "write buffer not bounded: " + pendingWriteBytes);
+                assertTrue(nodeClient.getPendingMessages() > 0);
+                assertTrue(nodeClient.getPendingMessages() <= TransportConsts.NODE_PENDING_MAX_MESSAGES);
+
+                // 恢复读取后写出缓存的消息
+                final int pending = nodeClient.getPendingMessages();
+                peer.resume();
+                waitUntil(() -> nodeClient.getPendingMessages() == 0 && nodeClient.isWritable());
+                assertEquals(pending, nodeClient.getReplayedMessages());
+            } finally {
+                nodeClient.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void dropOneWayWhenUnwritable() throws Exception {
+        try (StalledPeer peer = new StalledPeer()) {
+            final NodeClient nodeClient = peer.connect(WritePolicy.DROP_ONEWAY);
+            try {
+                final Method push = WriteFlowControlTest.class.getDeclaredMethod("push", byte[].class);
+                // 单向请求丢弃后写缓冲会降到低水位以下，一直发送到对方和本地的socket缓冲都已经写满
+                for (int i = 0; i < 20 && nodeClient.isWritable(); i++) {
+                    peer.send(nodeClient, push, MESSAGES);
+                    waitStable(nodeClient);
+                }
+                assertFalse(nodeClient.isWritable());
+                assertTrue(nodeClient.getDroppedMessages() > 0);
+                final long dropped = nodeClient.getDroppedMessages();
+                peer.send(nodeClient, push, 100);
+                assertEquals(dropped + 100, nodeClient.getDroppedMessages());
+                assertEquals(0, nodeClient.getPendingMessages());
+
+                // 需要返回值的请求仍然缓存
+                final Method blob = WriteFlowControlTest.class.getDeclaredMethod("blob", byte[].class);
+                peer.send(nodeClient, blob, 10);
+                assertEquals(10, nodeClient.getPendingMessages());
+            } finally {
+                nodeClient.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 等待已经提交的写出任务执行完，写缓冲不再变化
+     */
+    private static long waitStable(NodeClient nodeClient) throws InterruptedException {
+        long last = -1L;
+        long current = nodeClient.getPendingWriteBytes();
+        while (current != last) {
+            Thread.sleep(200L);
+            last = current;
+            current = nodeClient.getPendingWriteBytes();
+        }
+        return current;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        final long t1 = System.currentTimeMillis();
+        while (!condition.getAsBoolean() && System.currentTimeMillis() - t1 < 20_000L) {
+            Thread.sleep(10L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @SuppressWarnings("unused")
+    private static Long blob(byte[] data) {
+        return 0L;
+    }
+
+    @SuppressWarnings("unused")
+    private static void push(byte[] data) {
+    }
+
+    /**
+     * 接受连接但是不读取数据的对方node
+     */
+    private static final class StalledPeer implements AutoCloseable {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final ServicePort port = new ServicePort("sender", new ServiceNode("flowControlClient", null));
+        final AtomicLong receivedBytes = new AtomicLong();
+        volatile Socket socket;
+
+        StalledPeer() throws IOException {
+            serverSocket.setReceiveBufferSize(64 * 1024);
+        }
+
+        NodeClient connect(WritePolicy writePolicy) throws Exception {
+            final NodeClient nodeClient = new NodeClient("stalled", null, NodeTransport.defaultTransport(), 1);
+            nodeClient.setWritePolicy(writePolicy);
+            nodeClient.connect("127.0.0.1", serverSocket.getLocalPort());
+            socket = serverSocket.accept();
+            waitUntil(nodeClient::isWritable);
+            return nodeClient;
+        }
+
+        void send(NodeClient nodeClient, Method method, int count) {
+            final CallPoint callPoint = new CallPoint("stalled", "receiver", "blobService");
+            for (int i = 0; i < count; i++) {
+                final Request request = new Request(port.allocCallId());
+                request.setRpcInvocation(new RpcInvocation(port.getFromPoint(), callPoint, method,
+                        new Object[]{new byte[PAYLOAD_SIZE]}));
+                nodeClient.send(request);
+            }
+        }
+
+        /**
+         * 开始读取并丢弃收到的数据
+         */
+        void resume() {
+            final Thread reader = new Thread(() -> {
+                final byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = socket.getInputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        receivedBytes.addAndGet(n);
+                    }
+                } catch (IOException e) {
+                    // 连接关闭
+                }
+            }, "stalled-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+            }
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.game.core.timer;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CronExpressionTest {
+
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    @Test
+    void nextTime() {
+        // 2021-04-26 是周一
+        final long monday = millis(LocalDateTime.of(2021, 4, 26, 10, 15, 30));
+
+        assertEquals(millis(LocalDateTime.of(2021, 4, 27, 4, 0, 0)),
+                CronExpression.parse("0 0 4 * * ?").nextTime(monday, UTC));
+        assertEquals(millis(LocalDateTime.of(2021, 4, 26, 10, 20, 0)),
+                CronExpression.parse("0 */5 * * * ?").nextTime(monday, UTC));
+        assertEquals(millis(LocalDateTime.of(2021, 4, 26, 10, 15, 40)),
+                CronExpression.parse("10-40/10 * * * * ?").nextTime(monday, UTC));
+        // 5个字段，秒为0
+        assertEquals(millis(LocalDateTime.of(2021, 4, 26, 10, 16, 0)),
+                CronExpression.parse("* * * * *").nextTime(monday, UTC));
+        // 周和月份名称
+        assertEquals(millis(LocalDateTime.of(2021, 5, 1, 20, 30, 0)),
+                CronExpression.parse("0 30 20 ? * SAT").nextTime(monday, UTC));
+        assertEquals(millis(LocalDateTime.of(2022, 1, 1, 0, 0, 0)),
+                CronExpression.parse("0 0 0 1 JAN ?").nextTime(monday, UTC));
+        // 周日可以是0或者7
+        assertEquals(CronExpression.parse("0 0 0 ? * 0").nextTime(monday, UTC),
+                CronExpression.parse("0 0 0 ? * 7").nextTime(monday, UTC));
+        // 不存在的日期
+        assertEquals(-1L, CronExpression.parse("0 0 0 31 2 ?").nextTime(monday, UTC));
+    }
+
+    @Test
+    void invalid() {
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("0 0 4 * *  * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("0 60 * * * ?"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("0 0 4 * FOO ?"));
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,157 @@
+package org.game.core.timer;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    private static final long TICK = 20L;
+
+    @Test
+    void expireOnDeadline() {
+        final TimingWheel wheel = new TimingWheel(TICK, 8, 0L);
+        final List<Integer> fired = new ArrayList<>();
+        wheel.newTimeout(() -> fired.add(1), 30L);
+        // 超过一圈的任务
+        wheel.newTimeout(() -> fired.add(2), 8 * TICK + 30L);
+
+        assertEquals(0, wheel.advance(39L));
+        assertEquals(1, wheel.advance(40L));
+        assertEquals(1, fired.size());
+
+        assertEquals(0, wheel.advance(8 * TICK + 39L));
+        assertEquals(1, wheel.advance(8 * TICK + 40L));
+        assertEquals(2, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancel() {
+        final TimingWheel wheel = new TimingWheel(TICK, 8, 0L);
+        final AtomicInteger fired = new AtomicInteger();
+        final Timeout[] t2 = new Timeout[1];
+        // 同一槽位中，前一个任务取消后一个任务
+        wheel.newTimeout(() -> t2[0].cancel(), 25L);
+        final Timeout t1 = wheel.newTimeout(fired::incrementAndGet, 30L);
+        t2[0] = wheel.newTimeout(fired::incrementAndGet, 30L);
+
+        assertTrue(t1.cancel());
+        assertFalse(t1.cancel());
+        assertEquals(1, wheel.advance(100L));
+        assertEquals(0, fired.get());
+        assertTrue(t2[0].isCancelled());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void advanceAfterLongPause() {
+        final TimingWheel wheel = new TimingWheel(TICK, 8, 0L);
+        final AtomicInteger fired = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            wheel.newTimeout(fired::incrementAndGet, i * 7L);
+        }
+        assertEquals(100, wheel.advance(10_000L));
+        assertEquals(100, fired.get());
+    }
+
+    /**
+     * 10万个等待中的RPC超时：时间轮每帧只检查到期槽位中的任务，没有到期的任务不会被遍历
+     */
+    @Test
+    void pendingFuturesVisitedPerTick() {
+        final int count = 100_000;
+        final long start = 0L;
+        final TimingWheel wheel = new TimingWheel(TICK, 2048, start);
+        final AtomicInteger fired = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            wheel.newTimeout(fired::incrementAndGet, start + 30_000L + i % 5000);
+        }
+        // 10秒内没有到期的任务，每帧 removeIf 要扫描整个Map
+        for (int f = 1; f <= 500; f++) {
+            assertEquals(0, wheel.advance(start + f * TICK));
+        }
+        assertEquals(0L, wheel.getVisitedTimeouts());
+
+        // 到期时每个任务只检查一次
+        for (long now = start + 500 * TICK; now <= start + 35_000L + TICK; now += TICK) {
+            wheel.advance(now);
+        }
+        assertEquals(count, fired.get());
+        assertEquals(count, wheel.getVisitedTimeouts());
+        assertEquals(0, wheel.size());
+
+        // 两圈之后到期的任务，每经过一圈检查一次
+        final long now = start + 35_000L + TICK;
+        wheel.newTimeout(fired::incrementAndGet, now + 2048 * TICK * 2);
+        for (int f = 1; f <= 2048 * 2; f++) {
+            wheel.advance(now + f * TICK);
+        }
+        assertEquals(count + 1, fired.get());
+        assertEquals(count + 2, wheel.getVisitedTimeouts());
+    }
+
+    /**
+     * 10万个等待中的RPC超时：时间轮每帧只处理到期的槽位，每帧 removeIf 要扫描整个Map
+     * <p>结果受机器负载影响，默认不运行，见build.gradle。</p>
+     */
+    @Tag("benchmark")
+    @Test
+    void pendingFuturesTickCost() {
+        final int count = 100_000;
+        final long timeoutMillis = 30_000L;
+        final int frames = 500;
+        final long start = System.currentTimeMillis();
+        final long[] deadlines = new long[count];
+        for (int i = 0; i < count; i++) {
+            deadlines[i] = start + timeoutMillis + ThreadLocalRandom.current().nextInt(5000);
+        }
+
+        long wheelTick = 0L;
+        long mapTick = 0L;
+        for (int round = 0; round < 3; round++) {
+            // 时间轮
+            final TimingWheel wheel = new TimingWheel(TICK, 2048, start);
+            final Timeout[] timeouts = new Timeout[count];
+            for (int i = 0; i < count; i++) {
+                timeouts[i] = wheel.newTimeout(() -> { }, deadlines[i]);
+            }
+            long t1 = System.nanoTime();
+            for (int f = 1; f <= frames; f++) {
+                wheel.advance(start + f * TICK);
+            }
+            wheelTick = System.nanoTime() - t1;
+            for (int i = 0; i < count; i++) {
+                timeouts[i].cancel();
+            }
+            assertEquals(0, wheel.size());
+
+            // 原来的方式：ConcurrentHashMap + 每帧removeIf
+            final Map<Long, Long> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < count; i++) {
+                map.put((long) i, deadlines[i]);
+            }
+            t1 = System.nanoTime();
+            for (int f = 1; f <= frames; f++) {
+                final long now = start + f * TICK;
+                map.entrySet().removeIf(entry -> now > entry.getValue());
+            }
+            mapTick = System.nanoTime() - t1;
+            for (int i = 0; i < count; i++) {
+                map.remove((long) i);
+            }
+            assertTrue(map.isEmpty());
+        }
+        // 预热之后比较每帧的耗时
+        assertTrue(wheelTick * 10 < mapTick, "tick cost per frame. wheel = " + wheelTick / frames
+                + "ns, map = " + mapTick / frames + "ns");
+    }
+}
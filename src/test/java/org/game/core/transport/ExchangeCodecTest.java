@@ -0,0 +1,472 @@
+package org.game.core.transport;
+
+import com.alibaba.com.caucho.hessian.io.Hessian2Input;
+import com.alibaba.com.caucho.hessian.io.Hessian2Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.TooLongFrameException;
+import org.game.core.CallPoint;
+import org.game.core.FromPoint;
+import org.game.core.RpcInvocation;
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ExchangeCodec} 的测试和内存分配对比
+ */
+class ExchangeCodecTest {
+
+    @Test
+    void roundTrip() throws Exception {
+        final EmbeddedChannel channel = newChannel();
+        final Request request = newRequest(1L);
+        final Response response = new Response(2L, Response.STATUS_OK);
+        response.setResult(Arrays.asList("a", "b"));
+
+        assertTrue(channel.writeOutbound(request, response, "hello"));
+        // 长度字段和消息体是两个buffer
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            channel.writeInbound(buf);
+        }
+
+        final Request decodedRequest = channel.readInbound();
+        assertEquals(request.getId(), decodedRequest.getId());
+        assertEquals("echo", decodedRequest.getRpcInvocation().getMethodName());
+        assertArrayEquals(request.getRpcInvocation().getMethodArgs(), decodedRequest.getRpcInvocation().getMethodArgs());
+        final Response decodedResponse = channel.readInbound();
+        assertEquals(response.getId(), decodedResponse.getId());
+        assertEquals(response.getResult(), decodedResponse.getResult());
+        assertEquals("hello", channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    /**
+     * 握手之后使用连接内会话：类定义和名称只发送一次，后面的消息包明显变小
+     */
+    @Test
+    void sessionFrameSize() throws Exception {
+        final EmbeddedChannel client = newChannel();
+        final EmbeddedChannel server = newChannel();
+
+        // 握手之前独立编码
+        final ByteBuf handshakeLength = client.readOutbound();
+        final ByteBuf handshake = client.readOutbound();
+        final int statelessSize = send(client, server, newRequest(1L));
+        server.writeInbound(handshakeLength, handshake);
+        exchange(client, server);
+
+        final int firstSize = send(client, server, newRequest(2L));
+        int sessionSize = 0;
+        for (long id = 3L; id < 100L; id++) {
+            sessionSize = send(client, server, newRequest(id));
+        }
+        // 应答方向同样使用会话
+        final Response response = new Response(100L, Response.STATUS_OK);
+        response.setResult("ok");
+        send(server, client, response);
+        assertEquals("ok", resultOf(client.readInbound()));
+        assertTrue(sessionSize * 2 < statelessSize, "request frame size. stateless = " + statelessSize
+                + "B, session first = " + firstSize + "B, session = " + sessionSize + "B");
+
+        // 重连：新连接重新握手，会话从头开始
+        final EmbeddedChannel reconnectClient = newChannel();
+        final EmbeddedChannel reconnectServer = newChannel();
+        exchange(reconnectClient, reconnectServer);
+        assertEquals(firstSize, send(reconnectClient, reconnectServer, newRequest(2L)));
+        assertEquals(sessionSize, send(reconnectClient, reconnectServer, newRequest(99L)));
+
+        for (EmbeddedChannel channel : Arrays.asList(client, server, reconnectClient, reconnectServer)) {
+            assertFalse(channel.finish());
+        }
+    }
+
+    /**
+     * 握手之后应答的调用id和状态在消息头，解码时不解码应答数据；握手之前按整个对象编码
+     */
+    @Test
+    void responseHead() throws Exception {
+        final EmbeddedChannel client = newChannel();
+        final EmbeddedChannel server = newChannel();
+
+        final ByteBuf handshakeLength = client.readOutbound();
+        final ByteBuf handshake = client.readOutbound();
+        final Response before = new Response(1L, Response.STATUS_OK);
+        before.setResult("before");
+        send(client, server, before);
+        final Response decodedBefore = server.readInbound();
+        assertEquals("before", decodedBefore.getResult());
+        assertNull(decodedBefore.getEncodedResult());
+        server.writeInbound(handshakeLength, handshake);
+        exchange(client, server);
+
+        final Response response = new Response(Long.MAX_VALUE, Response.STATUS_OVERLOADED);
+        response.setResult(Arrays.asList("a", "b"));
+        send(client, server, response);
+        final Response decoded = server.readInbound();
+        assertEquals(response.getId(), decoded.getId());
+        assertEquals(response.getStatus(), decoded.getStatus());
+        assertNull(decoded.getResult());
+        assertEquals(response.getResult(), Hessian2Utils.decode(decoded.getEncodedResult()));
+
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+
+    /**
+     * 批量消息包：握手之后一批消息编码为一个消息包，对方按顺序解码；超过长度拆分；握手之前逐条编码
+     */
+    @Test
+    void batchFrame() throws Exception {
+        final EmbeddedChannel client = newChannel();
+        final EmbeddedChannel server = newChannel();
+
+        // 握手之前逐条编码
+        final ByteBuf handshakeLength = client.readOutbound();
+        final ByteBuf handshake = client.readOutbound();
+        assertTrue(client.writeOutbound(new MessageBatch(Arrays.asList(newRequest(1L), newRequest(2L)))));
+        assertEquals(2, transfer(client, server));
+        assertEquals(1L, ((Request) server.readInbound()).getId());
+        assertEquals(2L, ((Request) server.readInbound()).getId());
+        server.writeInbound(handshakeLength, handshake);
+        exchange(client, server);
+
+        final Response response = new Response(3L, Response.STATUS_OK);
+        response.setResult("ok");
+        final List<Object> messages = Arrays.asList(newRequest(1L), response, "hello", newRequest(2L));
+        assertTrue(client.writeOutbound(new MessageBatch(messages)));
+        assertEquals(1, transfer(client, server));
+        final MessageBatch batch = server.readInbound();
+        assertEquals(messages.size(), batch.size());
+        assertEquals(1L, ((Request) batch.getMessages().get(0)).getId());
+        assertEquals("ok", resultOf((Response) batch.getMessages().get(1)));
+        assertEquals("hello", batch.getMessages().get(2));
+        assertEquals(2L, ((Request) batch.getMessages().get(3)).getId());
+
+        // 超过长度拆分为多个消息包，顺序不变
+        final List<Object> many = new ArrayList<>();
+        for (long id = 0; id < 2000; id++) {
+            many.add(newRequest(id));
+        }
+        assertTrue(client.writeOutbound(new MessageBatch(many)));
+        final int frames = transfer(client, server);
+        assertTrue(frames > 1);
+        long next = 0;
+        MessageBatch received;
+        while ((received = server.readInbound()) != null) {
+            for (Object msg : received.getMessages()) {
+                assertEquals(next++, ((Request) msg).getId());
+            }
+        }
+        assertEquals(many.size(), next);
+
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+
+    /**
+     * 大消息拆分为分片：小消息可以插在分片之间先到达；改变会话状态的大消息按顺序写出；超过上限关闭连接
+     */
+    @Test
+    void fragmentedMessage() throws Exception {
+        // EmbeddedChannel写出到head时会执行排队的任务，在head之前截获，和真实的event loop一样在flush时才执行写出分片的任务
+        final OutboundCapture capture = new OutboundCapture();
+        final EmbeddedChannel client = new EmbeddedChannel(capture,
+                new LengthFieldPrepender(TransportConsts.HEAD_LENGTH_FIELD_LENGTH),
+                new LengthFieldBasedFrameDecoder(TransportConsts.MAX_FRAME_LENGTH,
+                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH,
+                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH),
+                new ExchangeCodec());
+        final EmbeddedChannel server = newChannel();
+        capture.transfer(server);
+        ByteBuf buf;
+        while ((buf = server.readOutbound()) != null) {
+            client.writeInbound(buf);
+        }
+
+        // 改变会话状态（第一次发送Request的类定义），所有分片立即写出
+        final String large = String.join("", Collections.nCopies(200_000, "x"));
+        client.writeOutbound(newRequest(1L, large));
+        final int orderedFrames = capture.transfer(server);
+        assertTrue(orderedFrames > 1);
+        assertEquals(large, ((Request) server.readInbound()).getRpcInvocation().getMethodArgs()[0]);
+
+        // 没有改变会话状态（Response的类定义已经发送），之后的小消息插在分片之间
+        final Response smallResponse = new Response(2L, Response.STATUS_OK);
+        smallResponse.setResult("ok");
+        client.writeOutbound(smallResponse);
+        capture.transfer(server);
+        assertEquals("ok", resultOf(server.readInbound()));
+        final Response largeResponse = new Response(2L, Response.STATUS_OK);
+        largeResponse.setResult(large);
+        // 写出分片的任务排在后面写入的消息之后
+        client.writeOneOutbound(largeResponse);
+        client.writeOneOutbound(newRequest(3L));
+        client.flushOutbound();
+        final int frames = capture.transferPending(client, server);
+        assertEquals(3L, ((Request) server.readInbound()).getId());
+        assertEquals(large, resultOf(server.readInbound()));
+        assertTrue(frames > 1, "interleaved frames = " + frames);
+
+        // 批量消息中的大消息同样拆分，前面的消息先写出
+        client.writeOutbound(new MessageBatch(Arrays.asList(newRequest(4L), largeResponse, newRequest(5L))));
+        capture.transferPending(client, server);
+        assertEquals(4L, ((Request) ((MessageBatch) server.readInbound()).getMessages().get(0)).getId());
+        final List<Object> rest = new ArrayList<>();
+        Object msg;
+        while ((msg = server.readInbound()) != null) {
+            rest.add(msg instanceof MessageBatch ? ((MessageBatch) msg).getMessages().get(0) : msg);
+        }
+        assertEquals(2, rest.size());
+        assertEquals(large, resultOf((Response) rest.stream().filter(m -> m instanceof Response).findFirst().get()));
+        assertEquals(5L, ((Request) rest.stream().filter(m -> m instanceof Request).findFirst().get()).getId());
+
+        // 接收方限制分片消息的长度
+        final ByteBuf fragment = Unpooled.buffer();
+        fragment.writeInt(TransportConsts.FRAGMENT_SIZE + 10);
+        fragment.writeByte(ExchangeCodec.FLAG_FRAGMENT);
+        fragment.writeInt(100);
+        fragment.writeInt(TransportConsts.FRAGMENT_MAX_MESSAGE_LENGTH + 1);
+        fragment.writeByte(ExchangeCodec.FLAG_RESPONSE);
+        fragment.writeZero(TransportConsts.FRAGMENT_SIZE);
+        assertThrows(TooLongFrameException.class, () -> server.writeInbound(fragment));
+        assertFalse(server.isOpen());
+
+        assertFalse(client.finish());
+        server.finishAndReleaseAll();
+    }
+
+    /**
+     * 在head之前截获写出的buffer
+     */
+    private static final class OutboundCapture extends ChannelOutboundHandlerAdapter {
+
+        private final Queue<ByteBuf> buffers = new ArrayDeque<>();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            buffers.add((ByteBuf) msg);
+            promise.trySuccess();
+        }
+
+        /**
+         * @return 消息包数量
+         */
+        int transfer(EmbeddedChannel to) {
+            int frames = 0;
+            ByteBuf buf;
+            while ((buf = buffers.poll()) != null) {
+                if (buf.readableBytes() == TransportConsts.HEAD_LENGTH_FIELD_LENGTH) {
+                    frames++;
+                    assertTrue(buf.getInt(buf.readerIndex()) <= TransportConsts.MAX_FRAME_LENGTH - TransportConsts.HEAD_LENGTH_FIELD_LENGTH);
+                }
+                to.writeInbound(buf);
+            }
+            return frames;
+        }
+
+        /**
+         * 执行写出分片的任务并传输，直到没有新的消息包
+         * @return 消息包数量
+         */
+        int transferPending(EmbeddedChannel from, EmbeddedChannel to) {
+            int frames = 0;
+            int n;
+            do {
+                from.runPendingTasks();
+                n = transfer(to);
+                frames += n;
+            } while (n > 0);
+            return frames;
+        }
+    }
+
+    /**
+     * 传输已经写出的消息包
+     * @return 消息包数量
+     */
+    private static int transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        int frames = 0;
+        ByteBuf buf;
+        while ((buf = from.readOutbound()) != null) {
+            // 长度字段和消息体是两个buffer
+            if (buf.readableBytes() == TransportConsts.HEAD_LENGTH_FIELD_LENGTH) {
+                frames++;
+                assertTrue(buf.getInt(buf.readerIndex()) <= TransportConsts.MAX_FRAME_LENGTH - TransportConsts.HEAD_LENGTH_FIELD_LENGTH);
+            }
+            to.writeInbound(buf);
+        }
+        return frames;
+    }
+
+    /**
+     * 发送一条消息，返回消息包长度，并检查对方解码结果
+     */
+    private static int send(EmbeddedChannel from, EmbeddedChannel to, Object msg) {
+        assertTrue(from.writeOutbound(msg));
+        int size = 0;
+        ByteBuf buf;
+        while ((buf = from.readOutbound()) != null) {
+            size += buf.readableBytes();
+            to.writeInbound(buf);
+        }
+        if (msg instanceof Request) {
+            final Request request = to.readInbound();
+            assertEquals(((Request) msg).getId(), request.getId());
+            assertEquals(((Request) msg).getRpcInvocation().getCallPoint(), request.getRpcInvocation().getCallPoint());
+            assertEquals(((Request) msg).getRpcInvocation().getFromPoint(), request.getRpcInvocation().getFromPoint());
+        }
+        return size;
+    }
+
+    /**
+     * 应答数据，按消息头派发的应答在这里解码，和port线程一样
+     */
+    static Object resultOf(Response response) throws IOException {
+        return response.getEncodedResult() != null ? Hessian2Utils.decode(response.getEncodedResult()) : response.getResult();
+    }
+
+    /**
+     * 交换双方已经写出的数据，用于握手
+     */
+    private static void exchange(EmbeddedChannel a, EmbeddedChannel b) {
+        ByteBuf buf;
+        while ((buf = a.readOutbound()) != null) {
+            b.writeInbound(buf);
+        }
+        while ((buf = b.readOutbound()) != null) {
+            a.writeInbound(buf);
+        }
+    }
+
+    /**
+     * 同一个线程连续编解码不同类型的对象，类定义不会串到下一条消息
+     */
+    @Test
+    void messagesAreIndependent() throws Exception {
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            Hessian2Utils.encode(newRequest(1L), buf);
+            final ByteBuf first = buf.readRetainedSlice(buf.readableBytes());
+            Hessian2Utils.encode(new Response(2L, Response.STATUS_ERROR), buf);
+            final ByteBuf second = buf.readRetainedSlice(buf.readableBytes());
+            Hessian2Utils.encode(newRequest(3L), buf);
+
+            // 乱序解码
+            assertEquals(3L, ((Request) Hessian2Utils.decode(buf)).getId());
+            assertEquals(2L, ((Response) Hessian2Utils.decode(second)).getId());
+            assertEquals(1L, ((Request) Hessian2Utils.decode(first)).getId());
+            first.release();
+            second.release();
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 每条消息的内存分配：之前经过 {@code byte[]} 的编解码 vs 直接读写 {@link ByteBuf}
+     */
+    @Test
+    void allocationPerMessage() throws Exception {
+        final Request request = newRequest(1L);
+        final int count = 50_000;
+        for (int round = 0; round < 2; round++) {
+            final double legacy = bytesPerMessage(count, () -> legacyRoundTrip(request));
+            final double direct = bytesPerMessage(count, () -> directRoundTrip(request));
+            if (round == 1) {
+                assertTrue(direct < legacy, String.format("codec allocation per request. byte[] = %.0f B, ByteBuf = %.0f B",
+                        legacy, direct));
+            }
+        }
+    }
+
+    private static void legacyRoundTrip(Request request) throws IOException {
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            final Hessian2Output hessian2Output = new Hessian2Output(bout);
+            hessian2Output.writeObject(request);
+            hessian2Output.flush();
+            buf.writeBytes(bout.toByteArray());
+
+            final byte[] buffer = new byte[buf.readableBytes()];
+            buf.readBytes(buffer);
+            final Hessian2Input hessian2Input = new Hessian2Input(new ByteArrayInputStream(buffer));
+            hessian2Input.readObject();
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void directRoundTrip(Request request) throws IOException {
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            Hessian2Utils.encode(request, buf);
+            Hessian2Utils.decode(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static double bytesPerMessage(int count, IORunnable runnable) throws IOException {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long allocated0 = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < count; i++) {
+            runnable.run();
+        }
+        return (double) (threadMXBean.getThreadAllocatedBytes(threadId) - allocated0) / count;
+    }
+
+    private static EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(
+                new LengthFieldPrepender(TransportConsts.HEAD_LENGTH_FIELD_LENGTH),
+                new LengthFieldBasedFrameDecoder(TransportConsts.MAX_FRAME_LENGTH,
+                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH,
+                        0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH),
+                new ExchangeCodec());
+    }
+
+    private static Request newRequest(long id) throws NoSuchMethodException {
+        return newRequest(id, "hello");
+    }
+
+    private static Request newRequest(long id, String str) throws NoSuchMethodException {
+        final Request request = new Request(id);
+        request.setRpcInvocation(new RpcInvocation(new FromPoint("node0", "port0"),
+                new CallPoint("node1", "port1", "echoService"),
+                ExchangeCodecTest.class.getDeclaredMethod("echo", String.class, Integer.class),
+                new Object[]{str, 100}));
+        return request;
+    }
+
+    @SuppressWarnings("unused")
+    private static String echo(String str, Integer times) {
+        return str;
+    }
+
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+}
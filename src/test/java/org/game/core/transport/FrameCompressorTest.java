@@ -0,0 +1,280 @@
+package org.game.core.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import org.game.core.CallPoint;
+import org.game.core.FromPoint;
+import org.game.core.RpcInvocation;
+import org.game.core.exchange.Request;
+import org.game.core.exchange.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link FrameCompressor} 的测试，以及几种典型消息的压缩率和CPU开销
+ */
+class FrameCompressorTest {
+
+    @Test
+    void compressAfterHandshake() throws Exception {
+        final EmbeddedChannel client = newChannel(true);
+        final EmbeddedChannel server = newChannel(true);
+        final FrameCompressor clientCompressor = client.pipeline().get(FrameCompressor.class);
+        assertFalse(clientCompressor.isCompressEnabled());
+        transfer(client, server);
+        transfer(server, client);
+        assertTrue(clientCompressor.isCompressEnabled());
+        assertTrue(server.pipeline().get(FrameCompressor.class).isCompressEnabled());
+
+        // 超过阈值的消息包压缩
+        final Response inventory = newResponse(1L, inventory(200));
+        client.writeOutbound(inventory);
+        final int compressedSize = transfer(client, server);
+        assertEquals(inventory.getResult(), ExchangeCodecTest.resultOf(server.readInbound()));
+        assertEquals(1L, clientCompressor.getCompressedFrames());
+        assertTrue(clientCompressor.getCompressedBytes() < clientCompressor.getUncompressedBytes());
+        assertTrue(compressedSize < clientCompressor.getUncompressedBytes());
+
+        // 小消息包、不能压缩的数据发送原始数据
+        client.writeOutbound(newResponse(2L, "ok"));
+        transfer(client, server);
+        assertEquals("ok", ExchangeCodecTest.resultOf(server.readInbound()));
+        final byte[] random = randomBytes(8 * 1024);
+        client.writeOutbound(newResponse(3L, random));
+        transfer(client, server);
+        assertArrayEquals(random, (byte[]) ExchangeCodecTest.resultOf(server.readInbound()));
+        assertEquals(1L, clientCompressor.getCompressedFrames());
+
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+
+    /**
+     * 对方没有 {@link FrameCompressor} 时不压缩
+     */
+    @Test
+    void peerWithoutCompressor() throws Exception {
+        final EmbeddedChannel client = newChannel(true);
+        final EmbeddedChannel server = newChannel(false);
+        transfer(client, server);
+        transfer(server, client);
+        assertFalse(client.pipeline().get(FrameCompressor.class).isCompressEnabled());
+
+        final Response inventory = newResponse(1L, inventory(200));
+        client.writeOutbound(inventory);
+        transfer(client, server);
+        assertEquals(inventory.getResult(), ExchangeCodecTest.resultOf(server.readInbound()));
+
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+
+    /**
+     * 压缩前后的长度：重复数据多的消息包变小，无法压缩的消息包原样发送
+     */
+    @Test
+    void compressionRatio() throws Exception {
+        final List<Payload> payloads = Arrays.asList(
+                new Payload("inventory dump (300 items)", () -> newResponse(1L, inventory(300))),
+                new Payload("leaderboard page (100 entries)", () -> newResponse(1L, leaderboard(100))),
+                new Payload("state sync batch (100 requests)", FrameCompressorTest::stateSyncBatch));
+        for (Payload payload : payloads) {
+            final long raw = run(payload, false, 10);
+            final long compressed = run(payload, true, 10);
+            assertTrue(compressed < raw, payload.name + ". raw = " + raw + "B, compressed = " + compressed + "B");
+        }
+        final Payload random = new Payload("random bytes (8KB)", () -> newResponse(1L, randomBytes(8 * 1024)));
+        assertEquals(run(random, false, 10), run(random, true, 10), random.name);
+    }
+
+    /**
+     * @return 每个消息包传输的字节数
+     */
+    private static long run(Payload payload, boolean compress, int count) throws Exception {
+        final EmbeddedChannel client = newChannel(compress);
+        final EmbeddedChannel server = newChannel(compress);
+        transfer(client, server);
+        transfer(server, client);
+        final Object msg = payload.supplier.get();
+        // 第一条消息包含会话的类定义
+        client.writeOutbound(msg);
+        transfer(client, server);
+        drainInbound(server);
+
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            client.writeOutbound(msg);
+            bytes += transfer(client, server);
+            drainInbound(server);
+        }
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+        return bytes / count;
+    }
+
+    private static void drainInbound(EmbeddedChannel channel) {
+        Object obj;
+        do {
+            obj = channel.readInbound();
+        } while (obj != null);
+    }
+
+    /**
+     * 传输已经写出的数据
+     * @return 传输的字节数
+     */
+    private static int transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        int bytes = 0;
+        int n;
+        do {
+            // 执行写出分片的任务
+            from.runPendingTasks();
+            n = 0;
+            ByteBuf buf;
+            while ((buf = from.readOutbound()) != null) {
+                n += buf.readableBytes();
+                to.writeInbound(buf);
+            }
+            bytes += n;
+        } while (n > 0);
+        return bytes;
+    }
+
+    private static EmbeddedChannel newChannel(boolean compress) {
+        final List<ChannelHandler> handlers = new ArrayList<>();
+        handlers.add(new LengthFieldPrepender(TransportConsts.HEAD_LENGTH_FIELD_LENGTH));
+        handlers.add(new LengthFieldBasedFrameDecoder(TransportConsts.MAX_FRAME_LENGTH,
+                0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH,
+                0, TransportConsts.HEAD_LENGTH_FIELD_LENGTH));
+        if (compress) {
+            handlers.add(new FrameCompressor());
+        }
+        handlers.add(new ExchangeCodec());
+        return new EmbeddedChannel(handlers.toArray(new ChannelHandler[0]));
+    }
+
+    private static Response newResponse(long id, Object result) {
+        final Response response = new Response(id, Response.STATUS_OK);
+        response.setResult(result);
+        return response;
+    }
+
+    private static List<Item> inventory(int size) {
+        final Random random = new Random(1);
+        final List<Item> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            items.add(new Item(100_000L + i, 1000 + random.nextInt(50), 1 + random.nextInt(99), random.nextInt(5)));
+        }
+        return items;
+    }
+
+    private static List<RankEntry> leaderboard(int size) {
+        final Random random = new Random(1);
+        final List<RankEntry> entries = new ArrayList<>();
+        long score = 1_000_000L;
+        for (int i = 0; i < size; i++) {
+            score -= random.nextInt(1000);
+            entries.add(new RankEntry(i + 1, 10_000_000L + random.nextInt(1_000_000), "player" + random.nextInt(100_000),
+                    "guild" + random.nextInt(20), score));
+        }
+        return entries;
+    }
+
+    private static MessageBatch stateSyncBatch() {
+        final List<Object> messages = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                final Request request = new Request(i);
+                request.setRpcInvocation(new RpcInvocation(new FromPoint("scene1", "port" + (i % 4)),
+                        new CallPoint("world", "port0", "syncService"),
+                        FrameCompressorTest.class.getDeclaredMethod("sync", Long.class, Integer.class, Integer.class),
+                        new Object[]{20_000_000L + i, i * 7, i * 13}));
+                messages.add(request);
+            }
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        return new MessageBatch(messages);
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+
+    @SuppressWarnings("unused")
+    private static void sync(Long playerId, Integer x, Integer y) {
+    }
+
+    private static final class Payload {
+        final String name;
+        final Supplier<Object> supplier;
+
+        Payload(String name, Supplier<Object> supplier) {
+            this.name = name;
+            this.supplier = supplier;
+        }
+    }
+
+    public static class Item implements Serializable {
+        private long uid;
+        private int itemId;
+        private int count;
+        private int quality;
+
+        public Item() {
+        }
+
+        Item(long uid, int itemId, int count, int quality) {
+            this.uid = uid;
+            this.itemId = itemId;
+            this.count = count;
+            this.quality = quality;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) {
+                return false;
+            }
+            final Item item = (Item) o;
+            return uid == item.uid && itemId == item.itemId && count == item.count && quality == item.quality;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(uid);
+        }
+    }
+
+    public static class RankEntry implements Serializable {
+        private int rank;
+        private long playerId;
+        private String name;
+        private String guild;
+        private long score;
+
+        public RankEntry() {
+        }
+
+        RankEntry(int rank, long playerId, String name, String guild, long score) {
+            this.rank = rank;
+            this.playerId = playerId;
+            this.name = name;
+            this.guild = guild;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.game.core.transport.shm;
+
+import io.netty.buffer.ByteBuf;
+import org.game.core.transport.TransportConsts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 环形缓冲：写满、回绕、生产者和消费者分别打开同一个文件
+ */
+class ShmRingTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fullAndWrap() throws Exception {
+        final File file = new File(directory.toFile(), "a@b.ring");
+        final ShmRing producer = ShmRing.open(file, ShmRing.MIN_CAPACITY);
+        final ShmRing consumer = ShmRing.open(file, 64 * 1024);
+        assertEquals(ShmRing.MIN_CAPACITY, consumer.getCapacity());
+
+        // 每条记录 4 + 100 对齐到 104 字节
+        final byte[] data = new byte[100];
+        int written = 0;
+        while (producer.offer(data, 0, data.length)) {
+            written++;
+        }
+        assertEquals(ShmRing.MIN_CAPACITY / 104, written);
+        assertThrows(IllegalArgumentException.class, () -> producer.offer(new byte[producer.maxMessageLength() + 1], 0, producer.maxMessageLength() + 1));
+
+        // 读取一条后，末尾剩余的空间放不下一条记录，填充后从开头写入
+        assertEquals(1, consumer.poll((record, flags) -> true, 1));
+        assertTrue(producer.offer(data, 0, data.length));
+        assertFalse(producer.offer(data, 0, data.length));
+        assertEquals(written, consumer.poll((record, flags) -> true, Integer.MAX_VALUE));
+        assertEquals(0, consumer.size());
+
+        // 跨过末尾的记录从开头写入
+        for (int i = 0; i < 100; i++) {
+            data[0] = (byte) i;
+            assertTrue(producer.offer(data, 0, 1 + i % data.length));
+            final int expected = i;
+            assertEquals(1, consumer.poll((record, flags) -> {
+                assertEquals(1 + expected % data.length, record.readableBytes());
+                assertEquals((byte) expected, record.getByte(0));
+                return true;
+            }, Integer.MAX_VALUE));
+        }
+
+        // 记录头标记和长度分开读取
+        assertTrue(producer.offer(data, 0, data.length, ShmRing.FLAG_MORE));
+        assertTrue(producer.offer(data, 0, 1, ShmRing.FLAG_CONTINUED));
+        final List<Integer> flagsRead = new ArrayList<>();
+        assertEquals(2, consumer.poll((record, flags) -> {
+            assertEquals(flagsRead.isEmpty() ? data.length : 1, record.readableBytes());
+            flagsRead.add(flags);
+            return true;
+        }, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList(ShmRing.FLAG_MORE, ShmRing.FLAG_CONTINUED), flagsRead);
+        assertThrows(IllegalArgumentException.class, () -> producer.offer(data, 0, 1, 1));
+    }
+
+    @Test
+    void ignoreDataOfOfflinePeer() throws Exception {
+        final File file = new File(directory.toFile(), "e@f.ring");
+        final ShmRing raw = ShmRing.open(file, ShmRing.MIN_CAPACITY);
+        final byte[] data = new byte[16];
+        assertTrue(raw.offer(data, 0, data.length));
+
+        // 生产者没有心跳，消费者打开时跳过
+        final ShmRing consumer = ShmRing.openConsumer(file, ShmRing.MIN_CAPACITY);
+        assertEquals(0, consumer.size());
+        assertEquals(0, consumer.poll((record, flags) -> true, Integer.MAX_VALUE));
+
+        // 生产者在线，消费者重新打开时继续读取
+        raw.producerHeartbeat(System.currentTimeMillis());
+        assertTrue(raw.offer(data, 0, data.length));
+        assertTrue(raw.offer(data, 0, data.length));
+        assertEquals(2, ShmRing.openConsumer(file, ShmRing.MIN_CAPACITY).poll((record, flags) -> true, Integer.MAX_VALUE));
+
+        // 消费者不在线，生产者打开时丢弃之前写入的数据
+        assertTrue(raw.offer(data, 0, data.length));
+        consumer.heartbeat(System.currentTimeMillis() - TransportConsts.SHM_HEARTBEAT_TIMEOUT_MILLIS);
+        final ShmRing producer = ShmRing.openProducer(file, ShmRing.MIN_CAPACITY);
+        assertEquals(0, producer.size());
+        assertTrue(producer.getProducerHeartbeat() > 0L);
+        assertTrue(producer.offer(data, 0, data.length));
+        assertEquals(1, consumer.poll((record, flags) -> true, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void concurrentProducerAndConsumer() throws Exception {
+        final File file = new File(directory.toFile(), "c@d.ring");
+        final ShmRing producer = ShmRing.open(file, 4096);
+        final ShmRing consumer = ShmRing.open(file, 4096);
+        final int count = 200_000;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<String> error = new AtomicReference<>();
+        final Thread consumerThread = new Thread(() -> {
+            while (next.get() < count && error.get() == null) {
+                consumer.poll((record, flags) -> check(record, next.getAndIncrement(), error), 64);
+            }
+        }, "ring-consumer");
+        consumerThread.start();
+        final byte[] data = new byte[300];
+        for (int i = 0; i < count; i++) {
+            final int length = 4 + i % 200;
+            for (int j = 0; j < 4; j++) {
+                data[j] = (byte) (i >>> (j * 8));
+            }
+            while (!producer.offer(data, 0, length)) {
+                Thread.yield();
+            }
+        }
+        consumerThread.join(30_000L);
+        assertNull(error.get());
+        assertEquals(count, next.get());
+    }
+
+    private static boolean check(ByteBuf record, int expected, AtomicReference<String> error) {
+        final int value = record.getIntLE(0);
+        if (value != expected || record.readableBytes() != 4 + expected % 200) {
+            error.compareAndSet(null, "expected = " + expected + ", value = " + value + ", length = " + record.readableBytes());
+            return false;
+        }
+        return true;
+    }
+}